@@ -100,8 +100,9 @@ func GetAgentStatus() (*httputil.DevopsResult, error) {
 	return httputil.NewHttpClient().Get(url).SetHeaders(config.GAgentConfig.GetAuthHeaderMap()).Execute().IntoDevopsResult()
 }
 
-func GetBuild() (*httputil.AgentResult, error) {
-	url := buildUrl("/ms/dispatch/api/buildAgent/agent/thirdPartyAgent/startup")
+// waitSeconds: 没有排队的构建时服务端最长挂起的秒数，0表示立即返回
+func GetBuild(waitSeconds int) (*httputil.AgentResult, error) {
+	url := buildUrl("/ms/dispatch/api/buildAgent/agent/thirdPartyAgent/startup?waitSeconds=" + strconv.Itoa(waitSeconds))
 	return httputil.NewHttpClient().Get(url).SetHeaders(config.GAgentConfig.GetAuthHeaderMap()).Execute().IntoAgentResult()
 }
 
@@ -46,6 +46,7 @@ import (
 )
 
 const buildIntervalInSeconds = 5
+const buildWaitInSeconds = 20
 
 func AgentStartup() (agentStatus string, err error) {
 	result, err := api.AgentStartup()
@@ -76,37 +77,52 @@ func parseAgentStatusResult(result *httputil.DevopsResult, resultErr error) (age
 }
 
 func DoPollAndBuild() {
+	// 只在启动和拉取构建出错后查询agent状态，正常的长轮询不再每轮查询
+	needCheckStatus := true
 	for {
-		time.Sleep(buildIntervalInSeconds * time.Second)
-		agentStatus, err := getAgentStatus()
-		if err != nil {
-			logs.Warning("get agent status err: ", err.Error())
-			continue
-		}
-		if agentStatus != config.AgentStatusImportOk {
-			logs.Error("agent is not ready for build, agent status: " + agentStatus)
-			continue
+		if needCheckStatus {
+			agentStatus, err := getAgentStatus()
+			if err != nil {
+				logs.Warning("get agent status err: ", err.Error())
+				time.Sleep(buildIntervalInSeconds * time.Second)
+				continue
+			}
+			if agentStatus != config.AgentStatusImportOk {
+				logs.Error("agent is not ready for build, agent status: " + agentStatus)
+				time.Sleep(buildIntervalInSeconds * time.Second)
+				continue
+			}
+			needCheckStatus = false
 		}
 
 		if config.GAgentConfig.ParallelTaskCount != 0 && GBuildManager.GetInstanceCount() >= config.GAgentConfig.ParallelTaskCount {
 			logs.Info(fmt.Sprintf("parallel task count exceed , wait job done, ParallelTaskCount config: %d, instance count: %d",
 				config.GAgentConfig.ParallelTaskCount, GBuildManager.GetInstanceCount()))
+			time.Sleep(buildIntervalInSeconds * time.Second)
 			continue
 		}
 
 		if config.GIsAgentUpgrading {
 			logs.Info("agent is upgrading, skip")
+			time.Sleep(buildIntervalInSeconds * time.Second)
 			continue
 		}
 
+		startTime := time.Now()
 		buildInfo, err := getBuild()
 		if err != nil {
 			logs.Error("get build failed, retry")
+			needCheckStatus = true
+			time.Sleep(buildIntervalInSeconds * time.Second)
 			continue
 		}
 
 		if buildInfo == nil {
 			logs.Info("no build to run, skip")
+			// 服务端不支持长轮询时会立即返回，补足轮询间隔
+			if elapsed := time.Since(startTime); elapsed < buildIntervalInSeconds*time.Second {
+				time.Sleep(buildIntervalInSeconds*time.Second - elapsed)
+			}
 			continue
 		}
 
@@ -120,11 +136,16 @@ func DoPollAndBuild() {
 
 func getBuild() (*api.ThirdPartyBuildInfo, error) {
 	logs.Info("get build")
-	result, err := api.GetBuild()
+	result, err := api.GetBuild(buildWaitInSeconds)
 	if err != nil {
 		return nil, err
 	}
 
+	if result.IsAgentDelete() {
+		logs.Error("agent is deleted")
+		return nil, errors.New("agent is deleted")
+	}
+
 	if result.IsNotOk() {
 		logs.Error("get build info failed, message", result.Message)
 		return nil, errors.New("get build info failed")
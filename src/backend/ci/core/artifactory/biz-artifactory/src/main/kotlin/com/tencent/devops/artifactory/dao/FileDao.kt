@@ -34,6 +34,7 @@ import org.jooq.Condition
 import org.jooq.DSLContext
 import org.jooq.Field
 import org.jooq.Record
+import org.jooq.Record2
 import org.jooq.Result
 import org.springframework.stereotype.Repository
 
@@ -81,6 +82,21 @@ class FileDao {
         }
     }
 
+    /**
+     * 按内容sha1查找已归档的文件，最近的优先
+     */
+    fun listFilePathBySha(dslContext: DSLContext, shaContent: String, limit: Int): Result<Record2<String, Long>> {
+        val a = TFileInfo.T_FILE_INFO.`as`("a")
+        val b = TFilePropsInfo.T_FILE_PROPS_INFO.`as`("b")
+        return dslContext.select(a.FILE_PATH, a.FILE_SIZE)
+            .from(a)
+            .join(b).on(a.ID.eq(b.FILE_ID))
+            .where(b.PROPS_KEY.eq("shaContent").and(b.PROPS_VALUE.eq(shaContent)))
+            .orderBy(a.CREATE_TIME.desc())
+            .limit(limit)
+            .fetch()
+    }
+
     fun getFileMeta(dslContext: DSLContext, fileId: String): Map<String, String> {
         val meta = mutableMapOf<String, String>()
         with(TFilePropsInfo.T_FILE_PROPS_INFO) {
@@ -53,6 +53,7 @@ import com.tencent.devops.common.auth.api.AuthResourceType
 import com.tencent.devops.common.auth.code.PipelineAuthServiceCode
 import com.tencent.devops.common.service.config.CommonConfig
 import com.tencent.devops.common.service.utils.MessageCodeUtil
+import org.bouncycastle.util.encoders.Hex
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition
 import org.jooq.DSLContext
 import org.jooq.impl.DSL
@@ -66,6 +67,8 @@ import java.io.OutputStream
 import java.net.URLDecoder
 import java.nio.charset.Charset
 import java.nio.file.Files
+import java.security.DigestOutputStream
+import java.security.MessageDigest
 import java.time.LocalDateTime
 import javax.servlet.http.HttpServletResponse
 
@@ -145,28 +148,48 @@ abstract class ArchiveFileServiceImpl : ArchiveFileService {
     ): Result<String?> {
         logger.info("the upload file info is:$disposition")
         val fileName = String(disposition.fileName.toByteArray(Charset.forName("ISO8859-1")), Charset.forName("UTF-8"))
-        val index = fileName.lastIndexOf(".")
-        val fileSuffix = fileName.substring(index + 1)
-        val file = Files.createTempFile(UUIDUtil.generate(), ".$fileSuffix").toFile()
-        file.outputStream().use {
-            inputStream.copyTo(it)
-        }
-        val result: Result<String?>
+        logger.info("uploadFile projectId is:$projectId,filePath:$filePath,fileName:$fileName,fileType:$fileType,props:$props")
+        val destPath = generateUploadDestPath(filePath, fileName)
+        logger.info("$fileName destPath is:$destPath")
+        // 请求流只写一次，sha1和大小在写入时同步计算
+        val (shaContent, fileSize) = uploadStreamToRepo(destPath, inputStream)
+        return saveFileInfo(
+            userId = userId,
+            projectId = projectId,
+            destPath = destPath,
+            fileName = fileName,
+            fileType = fileType,
+            props = props,
+            shaContent = shaContent,
+            fileSize = fileSize,
+            fileChannelType = fileChannelType
+        )
+    }
+
+    /**
+     * 把流写入仓库的destPath，返回内容的sha1和大小
+     * 默认先落到临时文件再走uploadFileToRepo，能直接写目标位置的实现应覆盖该方法
+     */
+    protected open fun uploadStreamToRepo(destPath: String, inputStream: InputStream): Pair<String, Long> {
+        val file = Files.createTempFile(UUIDUtil.generate(), ".tmp").toFile()
         try {
-            result = uploadFile(
-                userId = userId,
-                projectId = projectId,
-                file = file,
-                filePath = filePath,
-                fileName = fileName,
-                fileType = fileType,
-                props = props,
-                fileChannelType = fileChannelType
-            )
+            val content = writeWithDigest(inputStream, file)
+            uploadFileToRepo(destPath, file)
+            return content
         } finally {
             file.delete()
         }
-        return result
+    }
+
+    /**
+     * 把流写入文件，同时计算sha1和大小
+     */
+    protected fun writeWithDigest(inputStream: InputStream, file: File): Pair<String, Long> {
+        val messageDigest = MessageDigest.getInstance("SHA-1")
+        val size = DigestOutputStream(file.outputStream().buffered(BUFFER_SIZE), messageDigest).use {
+            inputStream.copyTo(it, BUFFER_SIZE)
+        }
+        return Pair(Hex.toHexString(messageDigest.digest()), size)
     }
 
     abstract fun getInputStreamByFilePath(filePath: String): InputStream
@@ -198,20 +221,47 @@ abstract class ArchiveFileServiceImpl : ArchiveFileService {
         logger.info("uploadFile userId is:$userId,fileInfo:${file.name}")
         logger.info("uploadFile projectId is:$projectId,filePath:$filePath,fileName:$fileName,fileType:$fileType,props:$props")
         val uploadFileName = fileName ?: file.name
-        val index = uploadFileName.lastIndexOf(".")
-        val fileSuffix = uploadFileName.substring(index + 1)
-        val fileTypeStr = fileType?.fileType ?: "file"
-        val destPath = if (null == filePath) {
+        val destPath = generateUploadDestPath(filePath, uploadFileName)
+        logger.info("$uploadFileName destPath is:$destPath")
+        uploadFileToRepo(destPath, file)
+        val shaContent = file.inputStream().use { ShaUtils.sha1InputStream(it) }
+        return saveFileInfo(
+            userId = userId,
+            projectId = projectId,
+            destPath = destPath,
+            fileName = uploadFileName,
+            fileType = fileType,
+            props = props,
+            shaContent = shaContent,
+            fileSize = file.length(),
+            fileChannelType = fileChannelType
+        )
+    }
+
+    private fun generateUploadDestPath(filePath: String?, fileName: String): String {
+        return if (null == filePath) {
+            val fileSuffix = fileName.substring(fileName.lastIndexOf(".") + 1)
             val saveFilename = "${UUIDUtil.generate()}.$fileSuffix" // 避免文件被他人覆盖，文件名用唯一数替换
             "${getBasePath()}$fileSeparator${getCommonFileFolderName()}$fileSeparator$fileSuffix$fileSeparator$saveFilename"
         } else {
-            if (filePath.startsWith(getBasePath())) "$filePath" else "${getBasePath()}$fileSeparator$filePath"
+            if (filePath.startsWith(getBasePath())) filePath else "${getBasePath()}$fileSeparator$filePath"
         }
-        logger.info("$uploadFileName destPath is:$destPath")
-        uploadFileToRepo(destPath, file)
-        val shaContent = file.inputStream().use { ShaUtils.sha1InputStream(it) }
-        var fileProps: Map<String, String?> = props ?: mapOf()
-        fileProps = fileProps.plus("shaContent" to shaContent)
+    }
+
+    private fun saveFileInfo(
+        userId: String,
+        projectId: String?,
+        destPath: String,
+        fileName: String,
+        fileType: FileTypeEnum?,
+        props: Map<String, String?>?,
+        shaContent: String,
+        fileSize: Long,
+        fileChannelType: FileChannelTypeEnum
+    ): Result<String?> {
+        val fileTypeStr = fileType?.fileType ?: "file"
+        // shaContent总是记录，用于按内容查找已有文件
+        val fileProps = (props ?: mapOf()).plus("shaContent" to shaContent)
         val path = destPath.substring(getBasePath().length)
         val fileId = UUIDUtil.generate()
         dslContext.transaction { t ->
@@ -223,12 +273,10 @@ abstract class ArchiveFileServiceImpl : ArchiveFileService {
                 projectId = projectId,
                 fileType = fileTypeStr,
                 filePath = path,
-                fileName = uploadFileName,
-                fileSize = file.length()
+                fileName = fileName,
+                fileSize = fileSize
             )
-            if (null != props) {
-                fileDao.batchAddFileProps(context, userId, fileId, fileProps)
-            }
+            fileDao.batchAddFileProps(context, userId, fileId, fileProps)
         }
         return Result(generateFileDownloadPath(fileChannelType, commonConfig, fileTypeStr, path))
     }
@@ -542,5 +590,6 @@ abstract class ArchiveFileServiceImpl : ArchiveFileService {
 
     companion object {
         private val logger = LoggerFactory.getLogger(ArchiveFileServiceImpl::class.java)
+        private const val BUFFER_SIZE = 64 * 1024
     }
 }
@@ -35,6 +35,7 @@ import com.tencent.devops.artifactory.service.ArchiveFileService
 import com.tencent.devops.common.api.constant.CommonMessageCode
 import com.tencent.devops.common.api.pojo.Result
 import com.tencent.devops.common.api.util.JsonUtil
+import com.tencent.devops.common.api.util.UUIDUtil
 import com.tencent.devops.common.archive.util.MimeUtil
 import com.tencent.devops.common.service.config.CommonConfig
 import com.tencent.devops.common.service.utils.HomeHostUtil
@@ -50,6 +51,8 @@ import java.io.InputStream
 import java.io.UnsupportedEncodingException
 import java.net.URLDecoder
 import java.net.URLEncoder
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
 import javax.servlet.http.HttpServletResponse
 import javax.ws.rs.core.Response
 
@@ -67,9 +70,72 @@ class DiskArchiveFileServiceImpl : ArchiveFileService, ArchiveFileServiceImpl()
         if (!parentFile.exists()) {
             parentFile.mkdirs()
         }
-        FileCopyUtils.copy(file, targetFile)
+        // 目标文件可能是与其他构建共享内容的硬链接，不能原地覆盖写，先写临时文件再替换
+        val tmpFile = uploadingFile(targetFile)
+        try {
+            FileCopyUtils.copy(file, tmpFile)
+            Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    override fun uploadStreamToRepo(destPath: String, inputStream: InputStream): Pair<String, Long> {
+        val targetFile = File(destPath)
+        val parentFile = targetFile.parentFile
+        if (!parentFile.exists()) {
+            parentFile.mkdirs()
+        }
+        // 直接写到目标目录下的临时文件，同一文件系统内改名即可完成，不再二次拷贝
+        val tmpFile = uploadingFile(targetFile)
+        try {
+            val content = writeWithDigest(inputStream, tmpFile)
+            val (shaContent, fileSize) = content
+            val sameFile = findSameContentFile(shaContent, fileSize, targetFile)
+            if (sameFile == null || !linkTo(sameFile, targetFile)) {
+                Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            }
+            return content
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * 按sha1查找已归档的相同内容文件，大小不一致或文件已被清理的跳过
+     */
+    private fun findSameContentFile(shaContent: String, fileSize: Long, targetFile: File): File? {
+        val candidates = fileDao.listFilePathBySha(dslContext, shaContent, SAME_CONTENT_CANDIDATES)
+        for (candidate in candidates) {
+            val file = File(getRealPath(candidate.value1()))
+            if (candidate.value2() == fileSize && file.isFile && file.length() == fileSize && file != targetFile) {
+                return file
+            }
+        }
+        return null
     }
 
+    /**
+     * 把targetFile替换为sourceFile的硬链接，相同内容只占一份磁盘；跨文件系统等无法建立硬链接时返回false
+     */
+    private fun linkTo(sourceFile: File, targetFile: File): Boolean {
+        val linkFile = uploadingFile(targetFile)
+        return try {
+            Files.createLink(linkFile.toPath(), sourceFile.toPath())
+            Files.move(linkFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            logger.info("link ${targetFile.absolutePath} to same content file ${sourceFile.absolutePath}")
+            true
+        } catch (e: Exception) {
+            logger.warn("fail to link ${targetFile.absolutePath} to ${sourceFile.absolutePath}: ${e.message}")
+            false
+        } finally {
+            linkFile.delete()
+        }
+    }
+
+    private fun uploadingFile(targetFile: File) =
+        File(targetFile.parentFile, ".${targetFile.name}.${UUIDUtil.generate()}.uploading")
+
     override fun getCommonFileFolderName(): String {
         return "file"
     }
@@ -302,5 +368,6 @@ class DiskArchiveFileServiceImpl : ArchiveFileService, ArchiveFileServiceImpl()
 
     companion object {
         private val logger = LoggerFactory.getLogger(DiskArchiveFileServiceImpl::class.java)
+        private const val SAME_CONTENT_CANDIDATES = 5
     }
 }
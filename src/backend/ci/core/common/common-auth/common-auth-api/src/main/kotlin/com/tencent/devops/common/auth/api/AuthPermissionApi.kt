@@ -65,6 +65,43 @@ interface AuthPermissionApi {
         permission: AuthPermission
     ): Boolean
 
+    /**
+     * 批量校验用户是否有多个资源的指定权限
+     * @param user 用户ID
+     * @param serviceCode 服务模块代码
+     * @param resourceType 资源类型
+     * @param projectCode projectCode英文id
+     * @param resourceCodes 资源code列表
+     * @param permission 权限类型
+     * @return 资源code -> 有权限则true
+     */
+    fun validateUserResourcesPermission(
+        user: String,
+        serviceCode: AuthServiceCode,
+        resourceType: AuthResourceType,
+        projectCode: String,
+        resourceCodes: Collection<String>,
+        permission: AuthPermission
+    ): Map<String, Boolean> {
+        return resourceCodes.map { resourceCode ->
+            resourceCode to validateUserResourcePermission(
+                user = user,
+                serviceCode = serviceCode,
+                resourceType = resourceType,
+                projectCode = projectCode,
+                resourceCode = resourceCode,
+                permission = permission
+            )
+        }.toMap()
+    }
+
+    /**
+     * 授权、回收权限后清除鉴权缓存，没有缓存的实现不需要处理
+     * @param projectCode projectCode英文id
+     * @param user 用户ID，为空时清除整个项目的缓存
+     */
+    fun invalidatePermissionCache(projectCode: String, user: String? = null) = Unit
+
     /**
      * 获取用户所拥有指定权限下的指定类型资源的资源code列表
      * @param user 用户ID
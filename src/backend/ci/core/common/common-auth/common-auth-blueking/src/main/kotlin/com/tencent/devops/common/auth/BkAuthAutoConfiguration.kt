@@ -27,6 +27,7 @@
 package com.tencent.devops.common.auth
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.tencent.devops.common.auth.api.BkAuthPermissionCache
 import com.tencent.devops.common.auth.api.BkAuthPermissionApi
 import com.tencent.devops.common.auth.api.BkAuthProjectApi
 import com.tencent.devops.common.auth.api.BkAuthProperties
@@ -50,6 +51,8 @@ import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import org.springframework.context.annotation.Primary
 import org.springframework.core.Ordered
+import org.springframework.data.redis.listener.ChannelTopic
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
 
 @Suppress("UNUSED")
 @Configuration
@@ -79,15 +82,32 @@ class BkAuthAutoConfiguration {
     fun bkAuthTokenApi(bkAuthProperties: BkAuthProperties, objectMapper: ObjectMapper, redisOperation: RedisOperation) =
         BkAuthTokenApi(bkAuthProperties, objectMapper, redisOperation)
 
+    /**
+     * 鉴权缓存失效的广播订阅注册到服务共用的订阅容器，任一实例上的授权变化都清掉本实例的缓存
+     */
+    @Bean
+    fun bkAuthPermissionCache(
+        redisOperation: RedisOperation,
+        redisMessageListenerContainer: RedisMessageListenerContainer
+    ): BkAuthPermissionCache {
+        val bkAuthPermissionCache = BkAuthPermissionCache(redisOperation)
+        redisMessageListenerContainer.addMessageListener(
+            bkAuthPermissionCache,
+            ChannelTopic(BkAuthPermissionCache.INVALIDATE_CHANNEL)
+        )
+        return bkAuthPermissionCache
+    }
+
     @Bean
     @Primary
     fun bkAuthPermissionApi(
         bkAuthProperties: BkAuthProperties,
         objectMapper: ObjectMapper,
         bkAuthTokenApi: BkAuthTokenApi,
-        authUtils: AuthUtils
+        authUtils: AuthUtils,
+        bkAuthPermissionCache: BkAuthPermissionCache
     ) =
-        BkAuthPermissionApi(bkAuthProperties, objectMapper, authUtils)
+        BkAuthPermissionApi(bkAuthProperties, objectMapper, authUtils, bkAuthPermissionCache)
 
     @Bean
     @Primary
@@ -42,7 +42,8 @@ import org.slf4j.LoggerFactory
 class BkAuthPermissionApi constructor(
     private val bkAuthProperties: BkAuthProperties,
     private val objectMapper: ObjectMapper,
-    private val authUtils: AuthUtils
+    private val authUtils: AuthUtils,
+    private val bkAuthPermissionCache: BkAuthPermissionCache
 ) : AuthPermissionApi {
     override fun addResourcePermissionForUsers(
         userId: String,
@@ -82,41 +83,61 @@ class BkAuthPermissionApi constructor(
         resourceCode: String,
         permission: AuthPermission
     ): Boolean {
-        return validateUserResourcePermission(
-            principalType = bkAuthProperties.principalType!!,
-            principalId = user,
-            scopeType = "project",
-            scopeId = projectCode,
+        return validateUserResourcesPermission(
+            user = user,
+            serviceCode = serviceCode,
             resourceType = resourceType,
-            resourceId = resourceCode,
-            actionId = permission,
-            systemId = serviceCode,
-            appCode = bkAuthProperties.appCode!!,
-            appSecret = bkAuthProperties.appSecret!!
-        )
+            projectCode = projectCode,
+            resourceCodes = listOf(resourceCode),
+            permission = permission
+        )[resourceCode] ?: false
     }
 
-    // 批量校验权限,查询用户是否有某个资源某个权限(新版权限中心）
-    private fun validateUserResourcePermission(
-        principalType: String, // "user"
-        principalId: String, // 用户id
-        scopeType: String, // "project"
-        scopeId: String, // projectCode
+    override fun validateUserResourcesPermission(
+        user: String,
+        serviceCode: AuthServiceCode,
         resourceType: AuthResourceType,
-        resourceId: String,
+        projectCode: String,
+        resourceCodes: Collection<String>,
+        permission: AuthPermission
+    ): Map<String, Boolean> {
+        return bkAuthPermissionCache.getDecisions(
+            systemId = serviceCode.id(),
+            user = user,
+            projectCode = projectCode,
+            resourceType = resourceType.value,
+            resourceCodes = resourceCodes,
+            permission = permission
+        ) { missResourceCodes ->
+            batchValidateUserResourcePermission(
+                principalId = user,
+                scopeId = projectCode,
+                resourceType = resourceType,
+                resourceIds = missResourceCodes,
+                actionId = permission,
+                systemId = serviceCode
+            )
+        }
+    }
+
+    override fun invalidatePermissionCache(projectCode: String, user: String?) {
+        bkAuthPermissionCache.invalidate(projectCode, user)
+    }
+
+    // 一次请求校验多个资源的同一个权限
+    private fun batchValidateUserResourcePermission(
+        principalId: String,
+        scopeId: String,
+        resourceType: AuthResourceType,
+        resourceIds: List<String>,
         actionId: AuthPermission,
-        systemId: AuthServiceCode, // 旧版本的serviceCode
-        appCode: String,
-        appSecret: String
-    ): Boolean {
-//        val epoch = System.currentTimeMillis()
+        systemId: AuthServiceCode
+    ): Map<String, Boolean> {
         val uri = "/bkiam/api/v1/perm/systems/${systemId.id()}/resources-perms/batch-verify"
 
-//        logger.info("开始调用权限中心校验权限，uri:$uri , systemId= ${systemId.id()}")
-
         val requestBean = BkUserAuthVerifyRequest(
-            principalId = principalId, principalType = principalType,
-            resourcesActions = listOf(
+            principalId = principalId, principalType = bkAuthProperties.principalType!!,
+            resourcesActions = resourceIds.map { resourceId ->
                 BkUserAuthVerifyRequest.ResourcesAction(
                     actionId = actionId.value,
                     resourceId = listOf(
@@ -127,8 +148,8 @@ class BkAuthPermissionApi constructor(
                     ),
                     resourceType = resourceType.value
                 )
-            ),
-            scopeId = scopeId, scopeType = scopeType
+            },
+            scopeId = scopeId, scopeType = PROJECT_SCOPE_TYPE
         )
 
         val requestBeanString = objectMapper.writeValueAsString(requestBean)
@@ -136,17 +157,24 @@ class BkAuthPermissionApi constructor(
         val responseBody = authUtils.doAuthPostRequest(
             uri = uri,
             jsonbody = JSONObject(requestBeanString),
-            bkAppCode = appCode,
-            bkAppSecret = appSecret
+            bkAppCode = bkAuthProperties.appCode!!,
+            bkAppSecret = bkAuthProperties.appSecret!!
         )
         val responseBean = objectMapper.readValue<BkUserAuthVerifyResponse>(responseBody.toString())
 
-        return try {
-            responseBean.data!![0]!!.pass
+        val resultMap = mutableMapOf<String, Boolean>()
+        try {
+            responseBean.data!!.forEachIndexed { index, data ->
+                // 按返回的资源ID对应，没有返回资源ID的按请求顺序对应
+                val resourceId = data?.resourceId?.firstOrNull()?.resourceId ?: resourceIds.getOrNull(index)
+                if (data != null && resourceId != null) {
+                    resultMap[resourceId] = data.pass
+                }
+            }
         } catch (ignored: Exception) {
             logger.error("bkiam, An exception occurs in the parse response bean, msg: $ignored", ignored)
-            false
         }
+        return resultMap
     }
 
     override fun getUserResourceByPermission(
@@ -196,6 +224,33 @@ class BkAuthPermissionApi constructor(
         systemId: AuthServiceCode,
         supplier: (() -> List<String>)?
     ): Map<AuthPermission, List<String>> {
+        return bkAuthPermissionCache.getResources(
+            systemId = systemId.id(),
+            user = userId,
+            scopeType = scopeType,
+            scopeId = scopeId,
+            resourceType = resourceType.value,
+            permissions = permissions
+        ) {
+            searchUserResourcesByPermissions(
+                userId = userId,
+                scopeType = scopeType,
+                scopeId = scopeId,
+                resourceType = resourceType,
+                permissions = permissions,
+                systemId = systemId
+            )
+        }
+    }
+
+    private fun searchUserResourcesByPermissions(
+        userId: String,
+        scopeType: String,
+        scopeId: String,
+        resourceType: AuthResourceType,
+        permissions: Set<AuthPermission>,
+        systemId: AuthServiceCode
+    ): Map<AuthPermission, List<String>> {
 
         val uri = "/bkiam/api/v1/perm/systems/${systemId.id()}/authorized-resources/search"
         val resultMap = LinkedHashMap<AuthPermission, List<String>>()
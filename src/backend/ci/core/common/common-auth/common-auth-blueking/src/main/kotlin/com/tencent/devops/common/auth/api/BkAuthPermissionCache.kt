@@ -0,0 +1,284 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.auth.api
+
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.ExecutionError
+import com.google.common.util.concurrent.UncheckedExecutionException
+import com.tencent.devops.common.auth.code.PROJECT_SCOPE_TYPE
+import com.tencent.devops.common.redis.RedisOperation
+import org.slf4j.LoggerFactory
+import org.springframework.data.redis.connection.Message
+import org.springframework.data.redis.connection.MessageListener
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * 权限中心的鉴权结果缓存
+ *
+ * 1. 资源的鉴权结果：有权限缓存PASS_TTL_SECONDS秒，无权限只缓存DENY_TTL_SECONDS秒，授权后能尽快生效；
+ *    只缓存权限中心明确返回的结果，没返回的（包括解析失败）按无权限处理但不缓存；
+ *    同一个资源并发的鉴权请求只有一个真正去权限中心查询，其余的等它的结果
+ * 2. 有权限的资源列表缓存RESOURCES_TTL_SECONDS秒，并按权限逐个建索引，鉴权时任一列表里有该资源（或*）直接通过，
+ *    列表页先拉一次列表，后续逐个鉴权不再请求权限中心；同一个key并发的列表请求只有一个真正去权限中心查询
+ * 3. 创建、删除资源等会改变权限的操作调用invalidate清掉项目（或项目下某个用户）的缓存，
+ *    并通过Redis频道广播给其他实例
+ */
+class BkAuthPermissionCache(private val redisOperation: RedisOperation? = null) : MessageListener {
+
+    private val decisionCache = CacheBuilder.newBuilder().maximumSize(MAX_DECISION_SIZE)
+        .expireAfterWrite(PASS_TTL_SECONDS, TimeUnit.SECONDS)
+        .build<DecisionKey, Decision>()
+
+    private val resourcesCache = CacheBuilder.newBuilder().maximumSize(MAX_RESOURCES_SIZE)
+        .expireAfterWrite(RESOURCES_TTL_SECONDS, TimeUnit.SECONDS)
+        .build<ResourcesKey, Map<AuthPermission, List<String>>>()
+
+    /**
+     * 按单个权限索引的资源列表，一次拉取多个权限的列表时，每个权限都能用于鉴权
+     */
+    private val permissionResourcesCache = CacheBuilder.newBuilder().maximumSize(MAX_RESOURCES_SIZE)
+        .expireAfterWrite(RESOURCES_TTL_SECONDS, TimeUnit.SECONDS)
+        .build<PermissionResourcesKey, List<String>>()
+
+    /**
+     * 正在向权限中心查询的资源，完成时的值为null表示权限中心没给出结果
+     */
+    private val loadingDecisions = ConcurrentHashMap<DecisionKey, CompletableFuture<Boolean?>>()
+
+    /**
+     * 多个资源的鉴权结果，未命中的资源一次交给batchLoader查询，batchLoader只返回权限中心明确给出结果的资源
+     */
+    fun getDecisions(
+        systemId: String,
+        user: String,
+        projectCode: String,
+        resourceType: String,
+        resourceCodes: Collection<String>,
+        permission: AuthPermission,
+        batchLoader: (List<String>) -> Map<String, Boolean>
+    ): Map<String, Boolean> {
+        val result = LinkedHashMap<String, Boolean>()
+        val missResourceCodes = mutableListOf<String>()
+        resourceCodes.toSet().forEach { resourceCode ->
+            val key = DecisionKey(systemId, user, projectCode, resourceType, resourceCode, permission)
+            val cached = decisionCache.getIfPresent(key)
+            when {
+                inResources(key) -> result[resourceCode] = true
+                cached != null && !cached.isExpired() -> result[resourceCode] = cached.pass
+                else -> missResourceCodes.add(resourceCode)
+            }
+        }
+        if (missResourceCodes.isEmpty()) {
+            return result
+        }
+        // 别的线程正在查询的资源等它的结果，其余的由本线程查询
+        val ownLoads = LinkedHashMap<String, CompletableFuture<Boolean?>>()
+        val otherLoads = LinkedHashMap<String, CompletableFuture<Boolean?>>()
+        missResourceCodes.forEach { resourceCode ->
+            val key = DecisionKey(systemId, user, projectCode, resourceType, resourceCode, permission)
+            val future = CompletableFuture<Boolean?>()
+            val loading = loadingDecisions.putIfAbsent(key, future)
+            val cached = decisionCache.getIfPresent(key)
+            when {
+                loading != null -> otherLoads[resourceCode] = loading
+                // 检查缓存之后别的线程刚好查完，直接用它的结果
+                cached != null && !cached.isExpired() -> {
+                    loadingDecisions.remove(key)
+                    future.complete(cached.pass)
+                    result[resourceCode] = cached.pass
+                }
+                else -> ownLoads[resourceCode] = future
+            }
+        }
+        if (ownLoads.isNotEmpty()) {
+            load(systemId, user, projectCode, resourceType, permission, ownLoads, batchLoader)
+                .forEach { (resourceCode, pass) -> result[resourceCode] = pass ?: false }
+        }
+        otherLoads.forEach { (resourceCode, future) -> result[resourceCode] = unwrap { future.get() } ?: false }
+        return result
+    }
+
+    private fun load(
+        systemId: String,
+        user: String,
+        projectCode: String,
+        resourceType: String,
+        permission: AuthPermission,
+        futures: Map<String, CompletableFuture<Boolean?>>,
+        batchLoader: (List<String>) -> Map<String, Boolean>
+    ): Map<String, Boolean?> {
+        val loadTime = System.currentTimeMillis()
+        val loaded = try {
+            batchLoader(futures.keys.toList())
+        } catch (e: Throwable) {
+            futures.forEach { (resourceCode, future) ->
+                val key = DecisionKey(systemId, user, projectCode, resourceType, resourceCode, permission)
+                loadingDecisions.remove(key)
+                future.completeExceptionally(e)
+            }
+            throw e
+        }
+        futures.forEach { (resourceCode, future) ->
+            val key = DecisionKey(systemId, user, projectCode, resourceType, resourceCode, permission)
+            val pass = loaded[resourceCode]
+            if (pass != null) {
+                decisionCache.put(key, Decision(pass, loadTime))
+            }
+            // 先写缓存再移除，移除后进来的请求能直接命中缓存
+            loadingDecisions.remove(key)
+            future.complete(pass)
+        }
+        return futures.keys.associate { it to loaded[it] }
+    }
+
+    /**
+     * 有权限的资源列表，未命中时调用loader
+     */
+    fun getResources(
+        systemId: String,
+        user: String,
+        scopeType: String,
+        scopeId: String,
+        resourceType: String,
+        permissions: Set<AuthPermission>,
+        loader: () -> Map<AuthPermission, List<String>>
+    ): Map<AuthPermission, List<String>> {
+        val key = ResourcesKey(systemId, user, scopeType, scopeId, resourceType, permissions)
+        return unwrap {
+            resourcesCache.get(key) {
+                val resources = loader()
+                resources.forEach { (permission, resourceCodes) ->
+                    permissionResourcesCache.put(
+                        PermissionResourcesKey(systemId, user, scopeType, scopeId, resourceType, permission),
+                        resourceCodes
+                    )
+                }
+                resources
+            }
+        }
+    }
+
+    /**
+     * 清掉项目下（指定user时只清该用户）的缓存，并通知其他实例
+     */
+    fun invalidate(projectCode: String, user: String? = null) {
+        invalidateLocal(projectCode, user)
+        try {
+            redisOperation?.publish(INVALIDATE_CHANNEL, "$projectCode$INVALIDATE_SEPARATOR${user ?: ""}")
+        } catch (ignored: Exception) {
+            logger.warn("Fail to broadcast the permission cache invalidation of project($projectCode)", ignored)
+        }
+    }
+
+    override fun onMessage(message: Message, pattern: ByteArray?) {
+        val body = String(message.body, Charsets.UTF_8)
+        val projectCode = body.substringBefore(INVALIDATE_SEPARATOR)
+        val user = body.substringAfter(INVALIDATE_SEPARATOR, "")
+        invalidateLocal(projectCode, if (user.isEmpty()) null else user)
+    }
+
+    private fun invalidateLocal(projectCode: String, user: String?) {
+        decisionCache.asMap().keys.removeIf { it.projectCode == projectCode && (user == null || it.user == user) }
+        resourcesCache.asMap().keys.removeIf { it.scopeId == projectCode && (user == null || it.user == user) }
+        permissionResourcesCache.asMap().keys.removeIf {
+            it.scopeId == projectCode && (user == null || it.user == user)
+        }
+    }
+
+    private fun inResources(key: DecisionKey): Boolean {
+        val resources = permissionResourcesCache.getIfPresent(
+            PermissionResourcesKey(
+                key.systemId, key.user, PROJECT_SCOPE_TYPE, key.projectCode, key.resourceType, key.permission
+            )
+        ) ?: return false
+        return resources.contains(key.resourceCode) || resources.contains("*")
+    }
+
+    /**
+     * Guava把loader的异常包了一层，还原成原来的异常
+     */
+    private fun <T> unwrap(action: () -> T): T {
+        try {
+            return action()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } catch (e: UncheckedExecutionException) {
+            throw e.cause ?: e
+        } catch (e: ExecutionError) {
+            throw e.cause ?: e
+        }
+    }
+
+    private data class DecisionKey(
+        val systemId: String,
+        val user: String,
+        val projectCode: String,
+        val resourceType: String,
+        val resourceCode: String,
+        val permission: AuthPermission
+    )
+
+    private data class ResourcesKey(
+        val systemId: String,
+        val user: String,
+        val scopeType: String,
+        val scopeId: String,
+        val resourceType: String,
+        val permissions: Set<AuthPermission>
+    )
+
+    private data class PermissionResourcesKey(
+        val systemId: String,
+        val user: String,
+        val scopeType: String,
+        val scopeId: String,
+        val resourceType: String,
+        val permission: AuthPermission
+    )
+
+    private class Decision(val pass: Boolean, private val loadTime: Long) {
+        /**
+         * 有权限的由缓存自身的过期时间控制，无权限的过期时间更短
+         */
+        fun isExpired() = !pass && System.currentTimeMillis() - loadTime > TimeUnit.SECONDS.toMillis(DENY_TTL_SECONDS)
+    }
+
+    companion object {
+        const val INVALIDATE_CHANNEL = "auth:permission:cache:invalidate"
+        private const val INVALIDATE_SEPARATOR = "|"
+        private val logger = LoggerFactory.getLogger(BkAuthPermissionCache::class.java)
+        private const val PASS_TTL_SECONDS = 30L
+        private const val DENY_TTL_SECONDS = 5L
+        private const val RESOURCES_TTL_SECONDS = 30L
+        private const val MAX_DECISION_SIZE = 100000L
+        private const val MAX_RESOURCES_SIZE = 10000L
+    }
+}
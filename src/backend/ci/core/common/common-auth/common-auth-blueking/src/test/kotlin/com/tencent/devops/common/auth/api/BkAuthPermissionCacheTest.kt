@@ -0,0 +1,173 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.auth.api
+
+import org.junit.Assert
+import org.junit.Test
+import org.springframework.data.redis.connection.DefaultMessage
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BkAuthPermissionCacheTest {
+
+    private val cache = BkAuthPermissionCache()
+
+    private fun decision(resourceCode: String, loadCount: AtomicInteger, pass: Boolean = true) =
+        cache.getDecisions("pipeline", "user1", "project1", "pipeline", listOf(resourceCode), AuthPermission.VIEW) {
+            loadCount.incrementAndGet()
+            mapOf(resourceCode to pass)
+        }[resourceCode]!!
+
+    private fun message(body: String) =
+        DefaultMessage(BkAuthPermissionCache.INVALIDATE_CHANNEL.toByteArray(), body.toByteArray())
+
+    @Test
+    fun decisionCached() {
+        val loadCount = AtomicInteger(0)
+        Assert.assertTrue(decision("p-1", loadCount))
+        Assert.assertTrue(decision("p-1", loadCount))
+        Assert.assertFalse(decision("p-2", loadCount, pass = false))
+        Assert.assertFalse(decision("p-2", loadCount, pass = false))
+        Assert.assertEquals(2, loadCount.get())
+    }
+
+    @Test
+    fun batchLoadOnlyMiss() {
+        val loadCount = AtomicInteger(0)
+        decision("p-1", loadCount)
+        var requested = listOf<String>()
+        val result = cache.getDecisions(
+            "pipeline", "user1", "project1", "pipeline", listOf("p-1", "p-2", "p-3"), AuthPermission.VIEW
+        ) { missResourceCodes ->
+            requested = missResourceCodes
+            mapOf("p-2" to true)
+        }
+        Assert.assertEquals(listOf("p-2", "p-3"), requested)
+        Assert.assertEquals(mapOf("p-1" to true, "p-2" to true, "p-3" to false), result)
+        // 权限中心没返回结果的不缓存，下次重新查询
+        Assert.assertTrue(decision("p-2", loadCount))
+        Assert.assertTrue(decision("p-3", loadCount))
+        Assert.assertEquals(2, loadCount.get())
+    }
+
+    @Test
+    fun decisionFromResources() {
+        cache.getResources("pipeline", "user1", "project", "project1", "pipeline", setOf(AuthPermission.VIEW)) {
+            mapOf(AuthPermission.VIEW to listOf("p-1"))
+        }
+        val loadCount = AtomicInteger(0)
+        Assert.assertTrue(decision("p-1", loadCount))
+        Assert.assertFalse(decision("p-2", loadCount, pass = false))
+        Assert.assertEquals(1, loadCount.get())
+    }
+
+    @Test
+    fun invalidate() {
+        val loadCount = AtomicInteger(0)
+        decision("p-1", loadCount, pass = false)
+        cache.invalidate("project2")
+        decision("p-1", loadCount, pass = false)
+        Assert.assertEquals(1, loadCount.get())
+
+        cache.invalidate("project1", "user1")
+        Assert.assertTrue(decision("p-1", loadCount))
+        Assert.assertEquals(2, loadCount.get())
+    }
+
+    @Test
+    fun invalidateByMessage() {
+        val loadCount = AtomicInteger(0)
+        decision("p-1", loadCount)
+        cache.onMessage(message("project1|user2"), null)
+        decision("p-1", loadCount)
+        Assert.assertEquals(1, loadCount.get())
+
+        cache.onMessage(message("project1|"), null)
+        decision("p-1", loadCount)
+        Assert.assertEquals(2, loadCount.get())
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun loaderExceptionNotWrapped() {
+        cache.getDecisions("pipeline", "user1", "project1", "pipeline", listOf("p-1"), AuthPermission.VIEW) {
+            throw IllegalStateException("auth center down")
+        }
+    }
+
+    @Test
+    fun resourcesLoadOnce() {
+        val loadCount = AtomicInteger(0)
+        repeat(2) {
+            cache.getResources("pipeline", "user1", "project", "project1", "pipeline", setOf(AuthPermission.VIEW)) {
+                loadCount.incrementAndGet()
+                mapOf(AuthPermission.VIEW to listOf("p-1"))
+            }
+        }
+        Assert.assertEquals(1, loadCount.get())
+    }
+
+    @Test
+    fun decisionFromMultiPermissionResources() {
+        cache.getResources(
+            "pipeline", "user1", "project", "project1", "pipeline", setOf(AuthPermission.VIEW, AuthPermission.EDIT)
+        ) {
+            mapOf(AuthPermission.VIEW to listOf("p-1"), AuthPermission.EDIT to listOf("p-2"))
+        }
+        val loadCount = AtomicInteger(0)
+        Assert.assertTrue(decision("p-1", loadCount))
+        Assert.assertEquals(0, loadCount.get())
+    }
+
+    @Test
+    fun concurrentDecisionsLoadOnce() {
+        val loadCount = AtomicInteger(0)
+        val loading = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val first = executor.submit<Boolean> {
+                cache.getDecisions("pipeline", "user1", "project1", "pipeline", listOf("p-1"), AuthPermission.VIEW) {
+                    loadCount.incrementAndGet()
+                    loading.countDown()
+                    release.await()
+                    mapOf("p-1" to true)
+                }["p-1"]
+            }
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS))
+            val others = (1..7).map { executor.submit<Boolean> { decision("p-1", loadCount) } }
+            release.countDown()
+            Assert.assertTrue(first.get(5, TimeUnit.SECONDS))
+            others.forEach { Assert.assertTrue(it.get(5, TimeUnit.SECONDS)) }
+            Assert.assertEquals(1, loadCount.get())
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
@@ -33,7 +33,14 @@ import com.google.common.cache.LoadingCache
 import com.tencent.devops.common.api.annotation.ServiceInterface
 import com.tencent.devops.common.api.exception.ClientException
 import com.tencent.devops.common.api.exception.RemoteServiceException
+import com.tencent.devops.common.client.ms.EwmaLatencyBalancer
+import com.tencent.devops.common.client.ms.FailedInstanceRetryer
+import com.tencent.devops.common.client.ms.InstanceStatsClient
+import com.tencent.devops.common.client.ms.InstanceStatsRegistry
+import com.tencent.devops.common.client.ms.LeastInFlightBalancer
 import com.tencent.devops.common.client.ms.MicroServiceTarget
+import com.tencent.devops.common.client.ms.ServiceDiscoveryCache
+import com.tencent.devops.common.client.ms.ServiceInstanceBalancer
 import com.tencent.devops.common.client.pojo.enums.GatewayType
 import com.tencent.devops.common.service.config.CommonConfig
 import com.tencent.devops.common.service.utils.SpringContextUtil
@@ -49,7 +56,9 @@ import feign.okhttp.OkHttpClient
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.beans.factory.annotation.Value
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent
 import org.springframework.cloud.consul.discovery.ConsulDiscoveryClient
+import org.springframework.context.ApplicationListener
 import org.springframework.context.annotation.DependsOn
 import org.springframework.core.annotation.AnnotationUtils
 import org.springframework.stereotype.Component
@@ -72,8 +81,9 @@ class Client @Autowired constructor(
     private val consulClient: ConsulDiscoveryClient?,
     private val clientErrorDecoder: ClientErrorDecoder,
     private val commonConfig: CommonConfig,
-    objectMapper: ObjectMapper
-) {
+    objectMapper: ObjectMapper,
+    private val instanceStatsRegistry: InstanceStatsRegistry
+) : ApplicationListener<HeartbeatEvent> {
 
     companion object {
         private val logger = LoggerFactory.getLogger(Client::class.java)
@@ -123,17 +133,20 @@ class Client @Autowired constructor(
         .hostnameVerifier { _, _ -> true }
         .build()
 
-    private val longRunClient = OkHttpClient(
-        okhttp3.OkHttpClient.Builder()
-            .connectTimeout(10L, TimeUnit.SECONDS)
-            .readTimeout(30L, TimeUnit.MINUTES)
-            .writeTimeout(30L, TimeUnit.MINUTES)
-            .sslSocketFactory(sslSocketFactory(), trustAllCerts[0] as X509TrustManager)
-            .hostnameVerifier { _, _ -> true }
-            .build()
+    private val longRunClient = InstanceStatsClient(
+        OkHttpClient(
+            okhttp3.OkHttpClient.Builder()
+                .connectTimeout(10L, TimeUnit.SECONDS)
+                .readTimeout(30L, TimeUnit.MINUTES)
+                .writeTimeout(30L, TimeUnit.MINUTES)
+                .sslSocketFactory(sslSocketFactory(), trustAllCerts[0] as X509TrustManager)
+                .hostnameVerifier { _, _ -> true }
+                .build()
+        ),
+        instanceStatsRegistry
     )
 
-    private val feignClient = OkHttpClient(okHttpClient)
+    private val feignClient = InstanceStatsClient(OkHttpClient(okHttpClient), instanceStatsRegistry)
     private val jaxRsContract = JAXRSContract()
     private val jacksonDecoder = JacksonDecoder(objectMapper)
     private val jacksonEncoder = JacksonEncoder(objectMapper)
@@ -147,6 +160,37 @@ class Client @Autowired constructor(
     @Value("\${service-suffix:#{null}}")
     private val serviceSuffix: String? = null
 
+    // 服务实例的选择策略：ewma（延迟加权）或 least-in-flight（最少在途请求）
+    @Value("\${devops.client.balancer:ewma}")
+    private val balancerType: String? = null
+
+    private val serviceDiscovery by lazy { ServiceDiscoveryCache(consulClient!!, instanceStatsRegistry) }
+
+    private val balancer: ServiceInstanceBalancer by lazy {
+        if (balancerType == "least-in-flight") {
+            LeastInFlightBalancer(instanceStatsRegistry)
+        } else {
+            EwmaLatencyBalancer(instanceStatsRegistry)
+        }
+    }
+
+    private val noRetryer = object : Retryer {
+        override fun clone(): Retryer {
+            return this
+        }
+
+        override fun continueOrPropagate(e: RetryableException) {
+            throw e
+        }
+    }
+
+    override fun onApplicationEvent(event: HeartbeatEvent) {
+        // Consul目录变化时刷新本地的服务实例缓存
+        if (consulClient != null) {
+            serviceDiscovery.onCatalogChanged(event.value)
+        }
+    }
+
     fun <T : Any> get(clz: KClass<T>): T {
         return get(clz, "")
     }
@@ -170,16 +214,8 @@ class Client @Autowired constructor(
             .contract(jaxRsContract)
             .requestInterceptor(requestInterceptor)
             .options(Request.Options(10 * 1000, 30 * 60 * 1000))
-            .retryer(object : Retryer {
-                override fun clone(): Retryer {
-                    return this
-                }
-
-                override fun continueOrPropagate(e: RetryableException) {
-                    throw e
-                }
-            })
-            .target(MicroServiceTarget(findServiceName(clz), clz.java, consulClient!!, tag))
+            .retryer(FailedInstanceRetryer(noRetryer, instanceStatsRegistry))
+            .target(MicroServiceTarget(findServiceName(clz), clz.java, serviceDiscovery, balancer, tag))
     }
 
     fun <T : Any> getExternalServiceWithoutRetry(serviceName: String, clz: KClass<T>): T {
@@ -192,16 +228,8 @@ class Client @Autowired constructor(
             .contract(jaxRsContract)
             .requestInterceptor(requestInterceptor)
             .options(Request.Options(10 * 1000, 30 * 60 * 1000))
-            .retryer(object : Retryer {
-                override fun clone(): Retryer {
-                    return this
-                }
-
-                override fun continueOrPropagate(e: RetryableException) {
-                    throw e
-                }
-            })
-            .target(MicroServiceTarget(serviceName, clz.java, consulClient!!, tag))
+            .retryer(FailedInstanceRetryer(noRetryer, instanceStatsRegistry))
+            .target(MicroServiceTarget(serviceName, clz.java, serviceDiscovery, balancer, tag))
     }
 
     /**
@@ -241,11 +269,12 @@ class Client @Autowired constructor(
             .decoder(jacksonDecoder)
             .contract(jaxRsContract)
             .requestInterceptor(requestInterceptor)
-            .target(MicroServiceTarget(findServiceName(clz), clz.java, consulClient!!, tag))
+            .retryer(FailedInstanceRetryer(Retryer.Default(), instanceStatsRegistry))
+            .target(MicroServiceTarget(findServiceName(clz), clz.java, serviceDiscovery, balancer, tag))
     }
 
     fun getServiceUrl(clz: KClass<*>): String {
-        return MicroServiceTarget(findServiceName(clz), clz.java, consulClient!!, tag).url()
+        return MicroServiceTarget(findServiceName(clz), clz.java, serviceDiscovery, balancer, tag).url()
     }
 
     private fun findServiceName(clz: KClass<*>): String {
@@ -27,6 +27,7 @@
 package com.tencent.devops.common.client
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.tencent.devops.common.client.ms.InstanceStatsRegistry
 import com.tencent.devops.common.service.ServiceAutoConfiguration
 import com.tencent.devops.common.service.config.CommonConfig
 import org.springframework.beans.factory.annotation.Autowired
@@ -56,12 +57,16 @@ class ClientAutoConfiguration {
     @Bean
     fun clientErrorDecoder(objectMapper: ObjectMapper) = ClientErrorDecoder(objectMapper)
 
+    @Bean
+    fun instanceStatsRegistry() = InstanceStatsRegistry()
+
     @Bean
     @ConditionalOnMissingBean(Client::class)
     fun client(
         clientErrorDecoder: ClientErrorDecoder,
         commonConfig: CommonConfig,
         objectMapper: ObjectMapper,
+        instanceStatsRegistry: InstanceStatsRegistry,
         @Autowired(required = false) consulDiscoveryClient: ConsulDiscoveryClient?
-    ) = Client(consulDiscoveryClient, clientErrorDecoder, commonConfig, objectMapper)
+    ) = Client(consulDiscoveryClient, clientErrorDecoder, commonConfig, objectMapper, instanceStatsRegistry)
 }
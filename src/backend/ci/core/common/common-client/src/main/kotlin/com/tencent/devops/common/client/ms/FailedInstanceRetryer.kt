@@ -0,0 +1,50 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.client.ms
+
+import feign.RetryableException
+import feign.Retryer
+
+/**
+ * Feign每次调用开始时会clone一次retryer，在这里清掉本线程上一次调用留下的失败实例，
+ * 否则上一次调用最终失败（或被errorDecoder直接抛出）后，这些实例在同一线程的后续调用里一直被避开
+ */
+class FailedInstanceRetryer(
+    private val delegate: Retryer,
+    private val statsRegistry: InstanceStatsRegistry
+) : Retryer {
+
+    override fun clone(): Retryer {
+        statsRegistry.clearFailed()
+        return FailedInstanceRetryer(delegate.clone(), statsRegistry)
+    }
+
+    override fun continueOrPropagate(e: RetryableException) {
+        delegate.continueOrPropagate(e)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.client.ms
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 单个服务实例的调用统计，供负载均衡选择实例以及被动摘除故障实例
+ */
+class InstanceStats(
+    val serviceName: String,
+    val host: String,
+    val port: Int,
+    initialLatencyMills: Double = 0.0
+) {
+
+    companion object {
+        // 延迟EWMA的衰减时间常数，越久之前的调用权重越低
+        private const val EWMA_DECAY_MILLS = 10000.0
+        // 失败的调用按至少这么长的延迟计入，避免快速失败的实例看起来更快
+        private const val FAILURE_PENALTY_MILLS = 1000L
+        // 连续失败这么多次后摘除
+        private const val EJECT_CONSECUTIVE_FAILURES = 5
+        private const val EJECT_BASE_MILLS = 30000L
+        private const val MAX_EJECT_TIMES = 10
+    }
+
+    val inFlight = AtomicInteger(0)
+    val requests = AtomicLong(0)
+    val failures = AtomicLong(0)
+    private var consecutiveFailures = 0
+    private var ejectTimes = 0
+
+    @Volatile
+    private var lastCompleteTime = 0L
+
+    /**
+     * 还没有调用完成过的实例按初始值参与选择，第一次调用完成后完全由实际延迟决定
+     */
+    @Volatile
+    var ewmaLatencyMills = initialLatencyMills
+        private set
+
+    @Volatile
+    var ejectedUntil = 0L
+        private set
+
+    fun isEjected(now: Long) = now < ejectedUntil
+
+    /**
+     * 是否已有实际调用完成，只有这样的实例的延迟才能作为新实例的参考
+     */
+    fun isSampled() = lastCompleteTime > 0L
+
+    fun onStart() {
+        inFlight.incrementAndGet()
+        requests.incrementAndGet()
+    }
+
+    @Synchronized
+    fun onComplete(latencyMills: Long, success: Boolean) {
+        inFlight.decrementAndGet()
+        val now = System.currentTimeMillis()
+        val latency = if (success) latencyMills else maxOf(latencyMills, FAILURE_PENALTY_MILLS)
+        val decay = if (lastCompleteTime == 0L) 0.0 else Math.exp(-(now - lastCompleteTime) / EWMA_DECAY_MILLS)
+        ewmaLatencyMills = ewmaLatencyMills * decay + latency * (1 - decay)
+        lastCompleteTime = now
+        if (success) {
+            consecutiveFailures = 0
+            ejectTimes = 0
+            return
+        }
+        failures.incrementAndGet()
+        consecutiveFailures++
+        if (consecutiveFailures >= EJECT_CONSECUTIVE_FAILURES) {
+            // 反复被摘除的实例摘除时间逐次变长
+            ejectTimes = minOf(ejectTimes + 1, MAX_EJECT_TIMES)
+            ejectedUntil = now + EJECT_BASE_MILLS * ejectTimes
+            consecutiveFailures = 0
+        }
+    }
+
+    override fun toString(): String {
+        return "inFlight=${inFlight.get()},requests=${requests.get()},failures=${failures.get()}," +
+            "ewmaMs=${"%.1f".format(ewmaLatencyMills)},ejected=${isEjected(System.currentTimeMillis())}"
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.client.ms
+
+import feign.Client
+import feign.Request
+import feign.Response
+import java.io.IOException
+import java.net.URI
+
+/**
+ * 记录发往服务实例的每次调用，只有连接/读取失败和网关类的502、503、504计为实例故障，
+ * 其余状态码是业务本身的结果，不影响实例的摘除；不是经负载均衡选出的地址（如网关）直接透传
+ */
+class InstanceStatsClient(
+    private val delegate: Client,
+    private val statsRegistry: InstanceStatsRegistry
+) : Client {
+
+    companion object {
+        private val INSTANCE_FAILURE_STATUS = setOf(502, 503, 504)
+    }
+
+    override fun execute(request: Request, options: Request.Options): Response {
+        val uri = URI.create(request.url())
+        val stats = statsRegistry.find(uri.host ?: "", uri.port) ?: return delegate.execute(request, options)
+        stats.onStart()
+        val startTime = System.currentTimeMillis()
+        var success = true
+        try {
+            val response = delegate.execute(request, options)
+            success = !INSTANCE_FAILURE_STATUS.contains(response.status())
+            return response
+        } catch (e: IOException) {
+            success = false
+            throw e
+        } finally {
+            stats.onComplete(System.currentTimeMillis() - startTime, success)
+            if (success) {
+                statsRegistry.clearFailed()
+            } else {
+                statsRegistry.markFailed(stats.host, stats.port)
+            }
+        }
+    }
+}
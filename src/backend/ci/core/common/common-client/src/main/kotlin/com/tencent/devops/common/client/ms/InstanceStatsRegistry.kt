@@ -0,0 +1,97 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.client.ms
+
+import org.springframework.cloud.client.ServiceInstance
+import org.springframework.jmx.export.annotation.ManagedAttribute
+import org.springframework.jmx.export.annotation.ManagedResource
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 所有服务实例的调用统计，按 host:port 索引
+ */
+@ManagedResource(objectName = "com.tencent.devops.client:type=targets", description = "micro service target stats")
+class InstanceStatsRegistry {
+
+    private val stats = ConcurrentHashMap<String, InstanceStats>()
+
+    /**
+     * 当前线程上刚失败过的实例，Feign在同一线程内重试，重试时据此避开这些实例，
+     * 调用成功或新的一次调用开始时（见[FailedInstanceRetryer]）清空
+     */
+    private val failedInstances = ThreadLocal.withInitial { mutableSetOf<String>() }
+
+    /**
+     * 新上线的实例用同服务其他实例延迟EWMA的中位数作初始值，避免延迟为0的新实例在第一次调用完成前被集中选中
+     */
+    fun get(serviceName: String, instance: ServiceInstance): InstanceStats {
+        val key = key(instance.host, instance.port)
+        return stats[key] ?: stats.computeIfAbsent(key) {
+            InstanceStats(serviceName, instance.host, instance.port, medianLatency(serviceName))
+        }
+    }
+
+    fun find(host: String, port: Int): InstanceStats? = stats[key(host, port)]
+
+    fun markFailed(host: String, port: Int) {
+        failedInstances.get().add(key(host, port))
+    }
+
+    fun clearFailed() {
+        failedInstances.get().clear()
+    }
+
+    fun isFailed(instance: ServiceInstance) = failedInstances.get().contains(key(instance.host, instance.port))
+
+    /**
+     * 服务发现刷新后清理已经下线的实例，没有在途请求的才清理
+     */
+    fun retain(serviceName: String, instances: List<ServiceInstance>) {
+        val alive = instances.map { key(it.host, it.port) }.toSet()
+        stats.entries.removeIf { (key, instanceStats) ->
+            instanceStats.serviceName == serviceName && !alive.contains(key) && instanceStats.inFlight.get() == 0
+        }
+    }
+
+    @ManagedAttribute
+    fun getTargetStats(): Map<String, String> {
+        return stats.values.associate { "${it.serviceName}|${it.host}:${it.port}" to it.toString() }
+    }
+
+    private fun medianLatency(serviceName: String): Double {
+        val latencies = stats.values.filter { it.serviceName == serviceName && it.isSampled() }
+            .map { it.ewmaLatencyMills }
+            .sorted()
+        if (latencies.isEmpty()) {
+            return 0.0
+        }
+        val middle = latencies.size / 2
+        return if (latencies.size % 2 == 1) latencies[middle] else (latencies[middle - 1] + latencies[middle]) / 2
+    }
+
+    private fun key(host: String, port: Int) = "$host:$port"
+}
@@ -0,0 +1,64 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.client.ms
+
+import org.springframework.cloud.client.ServiceInstance
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * 随机取两个实例，选负载分数较低的一个（power of two choices），跳过刚失败和被摘除的实例
+ */
+abstract class P2CBalancer(
+    private val statsRegistry: InstanceStatsRegistry
+) : ServiceInstanceBalancer {
+
+    /**
+     * 实例的负载分数，越低越优先
+     */
+    abstract fun score(stats: InstanceStats): Double
+
+    override fun choose(serviceName: String, instances: List<ServiceInstance>): ServiceInstance {
+        val now = System.currentTimeMillis()
+        // 重试时避开本线程刚失败过的实例，其次跳过被摘除的实例；都排除光了仍在所有实例中选择
+        val notFailed = instances.filter { !statsRegistry.isFailed(it) }
+        val available = notFailed.filter { !statsRegistry.get(serviceName, it).isEjected(now) }
+        val candidates = when {
+            available.isNotEmpty() -> available
+            notFailed.isNotEmpty() -> notFailed
+            else -> instances
+        }
+        if (candidates.size == 1) {
+            return candidates[0]
+        }
+        val random = ThreadLocalRandom.current()
+        val first = random.nextInt(candidates.size)
+        val second = (first + 1 + random.nextInt(candidates.size - 1)) % candidates.size
+        val firstScore = score(statsRegistry.get(serviceName, candidates[first]))
+        val secondScore = score(statsRegistry.get(serviceName, candidates[second]))
+        return if (firstScore <= secondScore) candidates[first] else candidates[second]
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.client.ms
+
+import org.slf4j.LoggerFactory
+import org.springframework.cloud.client.ServiceInstance
+import org.springframework.cloud.consul.discovery.ConsulDiscoveryClient
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * 服务实例列表的本地缓存
+ *
+ * 调用时只读缓存，首次访问某个服务才同步查询Consul。后台定时刷新所有访问过的服务，
+ * Consul目录变化（ConsulCatalogWatch发出的HeartbeatEvent）时立即刷新；查询失败时继续使用旧的列表
+ */
+class ServiceDiscoveryCache(
+    private val consulClient: ConsulDiscoveryClient,
+    private val statsRegistry: InstanceStatsRegistry
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(ServiceDiscoveryCache::class.java)
+        private const val REFRESH_INTERVAL_SECONDS = 10L
+    }
+
+    private val services = ConcurrentHashMap<String, CachedService>()
+
+    @Volatile
+    private var catalogIndex: Any? = null
+
+    private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "service-discovery-refresh")
+        thread.isDaemon = true
+        thread
+    }
+
+    init {
+        scheduler.scheduleWithFixedDelay(
+            { refreshAll() },
+            REFRESH_INTERVAL_SECONDS,
+            REFRESH_INTERVAL_SECONDS,
+            TimeUnit.SECONDS
+        )
+    }
+
+    /**
+     * 取服务下带有指定tag的实例
+     */
+    fun getInstances(serviceName: String, tag: String?): List<ServiceInstance> {
+        val cachedService = services[serviceName] ?: refresh(serviceName)
+        return cachedService.tagged(tag)
+    }
+
+    fun onCatalogChanged(index: Any?) {
+        if (index != null && index == catalogIndex) {
+            return
+        }
+        catalogIndex = index
+        scheduler.execute { refreshAll() }
+    }
+
+    private fun refresh(serviceName: String): CachedService {
+        val cachedService = CachedService(consulClient.getInstances(serviceName) ?: emptyList())
+        services[serviceName] = cachedService
+        statsRegistry.retain(serviceName, cachedService.instances)
+        return cachedService
+    }
+
+    private fun refreshAll() {
+        services.keys.forEach { serviceName ->
+            try {
+                refresh(serviceName)
+            } catch (ignored: Throwable) {
+                logger.warn("[$serviceName]|Fail to refresh the service instances", ignored)
+            }
+        }
+    }
+
+    private class CachedService(val instances: List<ServiceInstance>) {
+
+        private val taggedInstances = ConcurrentHashMap<String, List<ServiceInstance>>()
+
+        fun tagged(tag: String?): List<ServiceInstance> {
+            return taggedInstances.getOrPut(tag ?: "") {
+                instances.filter { it.metadata.isNotEmpty() && it.metadata.values.contains(tag) }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.client.ms
+
+import org.junit.Assert
+import org.junit.Test
+import org.springframework.cloud.client.DefaultServiceInstance
+
+class InstanceStatsTest {
+
+    @Test
+    fun ewmaLatency() {
+        val stats = InstanceStats("process", "127.0.0.1", 8080)
+        stats.onStart()
+        stats.onComplete(100, true)
+        // 第一次完成的调用完全决定初始延迟
+        Assert.assertEquals(100.0, stats.ewmaLatencyMills, 0.001)
+        stats.onStart()
+        stats.onComplete(200, true)
+        // 间隔很短时新样本的权重很小
+        Assert.assertTrue(stats.ewmaLatencyMills >= 100.0 && stats.ewmaLatencyMills < 105.0)
+        Assert.assertEquals(0, stats.inFlight.get())
+    }
+
+    @Test
+    fun failurePenalty() {
+        val stats = InstanceStats("process", "127.0.0.1", 8080)
+        stats.onStart()
+        stats.onComplete(10, false)
+        Assert.assertEquals(1000.0, stats.ewmaLatencyMills, 0.001)
+        Assert.assertEquals(1, stats.failures.get())
+    }
+
+    @Test
+    fun ejectAfterConsecutiveFailures() {
+        val stats = InstanceStats("process", "127.0.0.1", 8080)
+        repeat(4) {
+            stats.onStart()
+            stats.onComplete(10, false)
+        }
+        Assert.assertFalse(stats.isEjected(System.currentTimeMillis()))
+        stats.onStart()
+        stats.onComplete(10, false)
+        val now = System.currentTimeMillis()
+        Assert.assertTrue(stats.isEjected(now))
+        Assert.assertFalse(stats.isEjected(now + 30001))
+    }
+
+    @Test
+    fun successResetsConsecutiveFailures() {
+        val stats = InstanceStats("process", "127.0.0.1", 8080)
+        repeat(4) {
+            stats.onStart()
+            stats.onComplete(10, false)
+        }
+        stats.onStart()
+        stats.onComplete(10, true)
+        repeat(4) {
+            stats.onStart()
+            stats.onComplete(10, false)
+        }
+        Assert.assertFalse(stats.isEjected(System.currentTimeMillis()))
+    }
+
+    @Test
+    fun seedNewInstanceWithMedian() {
+        val registry = InstanceStatsRegistry()
+        listOf(10L, 30L, 500L).forEachIndexed { index, latency ->
+            val stats = registry.get("process", DefaultServiceInstance("process", "10.0.0.$index", 80, false))
+            stats.onStart()
+            stats.onComplete(latency, true)
+        }
+        // 没有完成过调用的实例不参与中位数
+        registry.get("process", DefaultServiceInstance("process", "10.0.0.9", 80, false))
+        val newStats = registry.get("process", DefaultServiceInstance("process", "10.0.0.10", 80, false))
+        Assert.assertEquals(30.0, newStats.ewmaLatencyMills, 0.001)
+        Assert.assertFalse(newStats.isSampled())
+
+        val otherService = registry.get("store", DefaultServiceInstance("store", "10.0.1.1", 80, false))
+        Assert.assertEquals(0.0, otherService.ewmaLatencyMills, 0.001)
+    }
+}
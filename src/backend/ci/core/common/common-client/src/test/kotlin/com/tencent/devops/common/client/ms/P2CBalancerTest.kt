@@ -0,0 +1,127 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.client.ms
+
+import feign.RetryableException
+import feign.Retryer
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import org.springframework.cloud.client.DefaultServiceInstance
+
+class P2CBalancerTest {
+
+    private val registry = InstanceStatsRegistry()
+    private val balancer = EwmaLatencyBalancer(registry)
+    private val fast = DefaultServiceInstance("process", "10.0.0.1", 80, false)
+    private val slow = DefaultServiceInstance("process", "10.0.0.2", 80, false)
+    private val third = DefaultServiceInstance("process", "10.0.0.3", 80, false)
+
+    @After
+    fun tearDown() {
+        registry.clearFailed()
+    }
+
+    private fun complete(instance: DefaultServiceInstance, latency: Long, success: Boolean = true) {
+        val stats = registry.get("process", instance)
+        stats.onStart()
+        stats.onComplete(latency, success)
+    }
+
+    @Test
+    fun chooseLowerScore() {
+        complete(fast, 10)
+        complete(slow, 500)
+        // 只有两个实例时两个都会被抽中，总是选分数低的
+        repeat(100) {
+            Assert.assertSame(fast, balancer.choose("process", listOf(fast, slow)))
+        }
+    }
+
+    @Test
+    fun chooseFewerInFlight() {
+        complete(fast, 10)
+        complete(slow, 10)
+        repeat(5) { registry.get("process", fast).onStart() }
+        repeat(100) {
+            Assert.assertSame(slow, balancer.choose("process", listOf(fast, slow)))
+        }
+    }
+
+    @Test
+    fun neverChooseWorstOfThree() {
+        complete(fast, 10)
+        complete(slow, 500)
+        complete(third, 20)
+        // 随机抽两个比较，分数最高的实例永远不会胜出
+        repeat(200) {
+            Assert.assertNotSame(slow, balancer.choose("process", listOf(fast, slow, third)))
+        }
+    }
+
+    @Test
+    fun skipEjected() {
+        complete(fast, 10)
+        repeat(5) { complete(slow, 1, success = false) }
+        complete(fast, 10)
+        repeat(100) {
+            Assert.assertSame(fast, balancer.choose("process", listOf(fast, slow)))
+        }
+        // 全部被摘除时仍在所有实例中选择
+        repeat(5) { complete(fast, 1, success = false) }
+        Assert.assertNotNull(balancer.choose("process", listOf(fast, slow)))
+    }
+
+    @Test
+    fun skipFailedInCurrentRequest() {
+        complete(fast, 10)
+        complete(slow, 500)
+        registry.markFailed(fast.host, fast.port)
+        repeat(100) {
+            Assert.assertSame(slow, balancer.choose("process", listOf(fast, slow)))
+        }
+    }
+
+    @Test
+    fun clearFailedOnNewRequest() {
+        complete(fast, 10)
+        complete(slow, 500)
+        registry.markFailed(fast.host, fast.port)
+        val retryer = FailedInstanceRetryer(object : Retryer {
+            override fun clone(): Retryer = this
+
+            override fun continueOrPropagate(e: RetryableException) {
+                throw e
+            }
+        }, registry)
+        // Feign在每次调用开始时clone retryer
+        retryer.clone()
+        Assert.assertFalse(registry.isFailed(fast))
+        Assert.assertSame(fast, balancer.choose("process", listOf(fast, slow)))
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.event.dispatcher.pipeline.mq
+
+/**
+ * 构建事件的亲和路由：buildId 固定映射到分区，分区再通过最高随机权重(rendezvous)哈希分配给存活的实例，
+ * 实例增减时只有归属变化的分区会迁移
+ */
+object BuildAffinity {
+
+    fun partition(buildId: String, partitions: Int = MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS): Int {
+        return ((hash(buildId) ushr 1) % partitions).toInt()
+    }
+
+    fun routeKey(partition: Int) = MQ.ROUTE_PIPELINE_BUILD_AFFINITY_PREFIX + partition
+
+    fun queueName(partition: Int) = MQ.QUEUE_PIPELINE_BUILD_AFFINITY_PREFIX + partition
+
+    /**
+     * 计算分区归属的实例，没有存活实例时返回null
+     */
+    fun owner(partition: Int, members: Collection<String>): String? {
+        return members.maxBy { member -> hash("$member#$partition") }
+    }
+
+    /**
+     * FNV-1a 64位哈希再做一次混淆，保证相近的字符串也能均匀分布
+     */
+    private fun hash(value: String): Long {
+        var h = -0x340d631b7bdddcdbL
+        value.forEach { c ->
+            h = h xor c.toLong()
+            h *= 0x100000001b3L
+        }
+        h = h xor (h ushr 33)
+        h *= -0xae502812aa7333L
+        h = h xor (h ushr 33)
+        return h
+    }
+}
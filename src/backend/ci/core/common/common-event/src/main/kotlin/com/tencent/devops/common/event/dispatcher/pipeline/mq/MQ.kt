@@ -64,6 +64,11 @@ object MQ {
     const val ROUTE_PIPELINE_BUILD_CONTAINER = "r.engine.pipeline.build.container"
     const val QUEUE_PIPELINE_BUILD_CONTAINER = "q.engine.pipeline.build.container"
 
+    // 按buildId亲和路由的构建事件分区队列：同一构建的启动/Stage/Job/结束/取消事件落到同一个分区，由持有该分区的实例串行消费
+    const val ROUTE_PIPELINE_BUILD_AFFINITY_PREFIX = "r.engine.pipeline.build.affinity."
+    const val QUEUE_PIPELINE_BUILD_AFFINITY_PREFIX = "q.engine.pipeline.build.affinity."
+    const val PIPELINE_BUILD_AFFINITY_PARTITIONS = 32
+
     const val ROUTE_PIPELINE_BUILD_CANCEL = "r.engine.pipeline.build.cancel"
     const val QUEUE_PIPELINE_BUILD_CANCEL = "q.engine.pipeline.build.cancel"
     const val ROUTE_PIPELINE_BUILD_FINISH = "r.engine.pipeline.build.finish"
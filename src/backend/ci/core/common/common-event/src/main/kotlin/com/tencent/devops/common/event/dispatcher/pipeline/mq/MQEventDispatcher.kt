@@ -28,6 +28,7 @@ package com.tencent.devops.common.event.dispatcher.pipeline.mq
 
 import com.tencent.devops.common.event.annotation.Event
 import com.tencent.devops.common.event.dispatcher.pipeline.PipelineEventDispatcher
+import com.tencent.devops.common.event.pojo.pipeline.IBuildAffinityEvent
 import com.tencent.devops.common.event.pojo.pipeline.IPipelineEvent
 import com.tencent.devops.common.event.pojo.pipeline.IPipelineRoutableEvent
 import org.slf4j.LoggerFactory
@@ -36,10 +37,12 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate
 /**
  * 基于MQ实现的流水线事件下发器
  *
+ * @param buildAffinity 是否把[IBuildAffinityEvent]按buildId路由到亲和分区队列
  * @version 1.0
  */
 class MQEventDispatcher constructor(
-    private val rabbitTemplate: RabbitTemplate
+    private val rabbitTemplate: RabbitTemplate,
+    private val buildAffinity: Boolean = false
 ) : PipelineEventDispatcher {
 
     override fun dispatch(vararg events: IPipelineEvent) {
@@ -49,6 +52,8 @@ class MQEventDispatcher constructor(
                 val routeKey = // 根据 routeKey+后缀 实现动态变换路由Key
                     if (event is IPipelineRoutableEvent && !event.routeKeySuffix.isNullOrBlank()) {
                         eventType.routeKey + event.routeKeySuffix
+                    } else if (buildAffinity && event is IBuildAffinityEvent) {
+                        BuildAffinity.routeKey(BuildAffinity.partition(event.buildId))
                     } else {
                         eventType.routeKey
                     }
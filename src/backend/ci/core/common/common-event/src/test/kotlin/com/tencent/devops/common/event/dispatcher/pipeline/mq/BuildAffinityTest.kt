@@ -0,0 +1,65 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.event.dispatcher.pipeline.mq
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BuildAffinityTest {
+
+    private val buildIds = (1..20000).map { "b-${Integer.toHexString(it * 7919)}0123456789abcdef" }
+
+    @Test
+    fun partition() {
+        val counts = IntArray(MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS)
+        buildIds.forEach {
+            val partition = BuildAffinity.partition(it)
+            assertEquals(partition, BuildAffinity.partition(it))
+            counts[partition]++
+        }
+        val expect = buildIds.size / MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS
+        counts.forEach { assertTrue("partition size $it", it > expect / 2 && it < expect * 2) }
+    }
+
+    @Test
+    fun owner() {
+        assertNull(BuildAffinity.owner(0, emptyList()))
+
+        val members = (1..4).map { "10.0.0.$it" }
+        val owners = (0 until MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS).map { BuildAffinity.owner(it, members)!! }
+        assertEquals(members.size, owners.toSet().size)
+
+        // 新增实例只会从现有实例手里拿走分区，其余分区的归属不变
+        val moreMembers = members + "10.0.0.5"
+        (0 until MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS).forEach {
+            val owner = BuildAffinity.owner(it, moreMembers)
+            assertTrue(owner == owners[it] || owner == "10.0.0.5")
+        }
+    }
+}
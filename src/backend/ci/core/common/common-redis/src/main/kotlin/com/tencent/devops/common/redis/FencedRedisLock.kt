@@ -0,0 +1,261 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.redis
+
+import org.slf4j.LoggerFactory
+import org.springframework.data.redis.core.RedisCallback
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.JedisCluster
+import java.util.UUID
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * 带防护令牌(fencing token)的分布式锁
+ *
+ * 与 [RedisLock] 的区别：
+ * 1. 等锁的线程通过 [RedisLockNotifier] 订阅该锁的释放频道，锁释放时立即被唤醒，而不是每100ms轮询一次
+ * 2. 支持 [tryLock] 限定等待时间
+ * 3. 未指定租期时由看门狗定时续期，持锁时间超过租期也不会被别人抢走，进程挂掉后租期到了自动释放
+ * 4. 每次加锁成功得到一个单调递增的 [fencingToken]，写库前可以用 [isLatestToken] 判断自己是否已被后来的持锁者取代
+ */
+open class FencedRedisLock(
+    private val redisOperation: RedisOperation,
+    val lockKey: String,
+    private val leaseTimeInSeconds: Long = DEFAULT_LEASE_SECONDS
+) : AutoCloseable {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(FencedRedisLock::class.java)
+
+        /**
+         * 看门狗模式下的默认租期
+         */
+        const val DEFAULT_LEASE_SECONDS = 30L
+
+        /**
+         * 防护令牌计数器在最后一次加锁后保留的时间，过期后令牌会从1重新开始
+         */
+        private val FENCE_EXPIRE_MILLIS = TimeUnit.DAYS.toMillis(30)
+
+        /**
+         * 没有释放通知时的轮询间隔，以及有通知时单次等待的上限（防止发布订阅消息丢失导致一直等到租期结束）
+         */
+        private const val POLL_INTERVAL_MILLIS = 50L
+        private const val MAX_PARK_MILLIS = 1000L
+
+        /**
+         * 加锁成功返回新的防护令牌（正数），失败返回 -(锁剩余毫秒数 + 1)
+         */
+        private const val LOCK_LUA =
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+                "local token = redis.call('incr', KEYS[2]) " +
+                "redis.call('pexpire', KEYS[2], ARGV[3]) " +
+                "return token " +
+            "end " +
+            "local ttl = redis.call('pttl', KEYS[1]) " +
+            "if ttl < 0 then ttl = 0 end " +
+            "return -ttl - 1"
+
+        private const val RENEW_LUA =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end"
+
+        private const val UNLOCK_LUA =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                "redis.call('del', KEYS[1]) " +
+                "redis.call('publish', ARGV[2], KEYS[1]) " +
+                "return 1 " +
+            "end " +
+            "return 0"
+
+        private val watchdog = Executors.newSingleThreadScheduledExecutor { runnable ->
+            val thread = Thread(runnable, "redis-lock-watchdog")
+            thread.isDaemon = true
+            thread
+        }
+
+        /**
+         * 防护令牌计数器的key，用hash tag保证集群模式下与锁的key落在同一个slot
+         */
+        private fun fenceKey(lockKey: String) = "{$lockKey}:fence"
+
+        /**
+         * 判断令牌是否仍是该锁最新发放的令牌，持锁者写库前调用，返回false说明租期已过且锁已被别人拿到，不能再写
+         */
+        fun isLatestToken(redisOperation: RedisOperation, lockKey: String, token: Long): Boolean {
+            return token > 0 && redisOperation.get(fenceKey(lockKey)) == token.toString()
+        }
+    }
+
+    private val lockValue = UUID.randomUUID().toString()
+
+    @Volatile
+    private var renewTask: ScheduledFuture<*>? = null
+
+    /**
+     * 本次持锁的防护令牌，未持锁时为0
+     */
+    @Volatile
+    var fencingToken: Long = 0
+        private set
+
+    /**
+     * 一直等待到获取锁，由看门狗续期
+     */
+    fun lock() {
+        tryLock(waitTime = Long.MAX_VALUE, unit = TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * 在等待时间内尝试获取锁
+     *
+     * @param waitTime 最长等待时间，0表示只尝试一次
+     * @param leaseTime 租期，小于等于0表示使用 [leaseTimeInSeconds] 并由看门狗续期，直到 [unlock]
+     * @param unit 时间单位
+     * @return 是否获得锁
+     */
+    fun tryLock(waitTime: Long = 0, leaseTime: Long = -1, unit: TimeUnit = TimeUnit.SECONDS): Boolean {
+        val watchdogMode = leaseTime <= 0
+        val leaseMillis = if (watchdogMode) TimeUnit.SECONDS.toMillis(leaseTimeInSeconds) else unit.toMillis(leaseTime)
+        val waitMillis = unit.toMillis(waitTime)
+        val deadline = if (waitMillis >= Long.MAX_VALUE / 2) Long.MAX_VALUE else System.currentTimeMillis() + waitMillis
+        val notifier = redisOperation.lockNotifier
+
+        // 第一次尝试不订阅，没有争用时不产生订阅开销
+        val result = acquire(leaseMillis)
+        if (result > 0) {
+            onLocked(result, watchdogMode, leaseMillis)
+            return true
+        }
+        if (deadline - System.currentTimeMillis() <= 0) {
+            return false
+        }
+
+        notifier?.subscribe(lockKey)
+        try {
+            while (true) {
+                val latch = notifier?.register(lockKey)
+                try {
+                    val retryResult = acquire(leaseMillis)
+                    if (retryResult > 0) {
+                        onLocked(retryResult, watchdogMode, leaseMillis)
+                        return true
+                    }
+                    val remaining = deadline - System.currentTimeMillis()
+                    if (remaining <= 0) {
+                        return false
+                    }
+                    // 锁剩余的租期过后即使没有收到通知也要重试，订阅生效前的释放消息也靠这个兜底
+                    val lockTtl = -retryResult - 1
+                    val parkMillis = minOf(remaining, maxOf(lockTtl, 1L), if (latch != null) MAX_PARK_MILLIS else POLL_INTERVAL_MILLIS)
+                    if (latch != null) {
+                        latch.await(parkMillis, TimeUnit.MILLISECONDS)
+                    } else {
+                        Thread.sleep(parkMillis)
+                    }
+                } finally {
+                    if (latch != null) {
+                        notifier?.unregister(lockKey, latch)
+                    }
+                }
+            }
+        } finally {
+            notifier?.unsubscribe(lockKey)
+        }
+    }
+
+    private fun onLocked(token: Long, watchdogMode: Boolean, leaseMillis: Long) {
+        fencingToken = token
+        if (watchdogMode) {
+            startWatchdog(leaseMillis)
+        }
+    }
+
+    /**
+     * 当前是否仍持有锁且没有被后来的持锁者取代
+     */
+    fun isHeld(): Boolean {
+        return fencingToken > 0 && isLatestToken(redisOperation, lockKey, fencingToken)
+    }
+
+    /**
+     * 解锁，只有自己持有的锁才会被删除，删除后通知等锁的线程
+     */
+    fun unlock(): Boolean {
+        renewTask?.cancel(false)
+        renewTask = null
+        if (fencingToken <= 0) {
+            logger.info("It's already unlock")
+            return true
+        }
+        fencingToken = 0
+        return eval(UNLOCK_LUA, listOf(lockKey), listOf(lockValue, RedisLockNotifier.channel(lockKey))) == 1L
+    }
+
+    override fun close() {
+        unlock()
+    }
+
+    private fun acquire(leaseMillis: Long): Long {
+        val result = eval(
+            script = LOCK_LUA,
+            keys = listOf(lockKey, fenceKey(lockKey)),
+            args = listOf(lockValue, leaseMillis.toString(), FENCE_EXPIRE_MILLIS.toString())
+        )
+        return result as? Long ?: -1L
+    }
+
+    private fun startWatchdog(leaseMillis: Long) {
+        val period = maxOf(leaseMillis / 3, 1L)
+        renewTask = watchdog.scheduleAtFixedRate({
+            try {
+                if (eval(RENEW_LUA, listOf(lockKey), listOf(lockValue, leaseMillis.toString())) != 1L) {
+                    logger.warn("Lock($lockKey) is lost, stop renewing")
+                    renewTask?.cancel(false)
+                }
+            } catch (ignored: Exception) {
+                logger.warn("Fail to renew lock($lockKey)", ignored)
+            }
+        }, period, period, TimeUnit.MILLISECONDS)
+    }
+
+    private fun eval(script: String, keys: List<String>, args: List<String>): Any? {
+        return redisOperation.execute(RedisCallback { connection ->
+            val nativeConnection = connection.nativeConnection
+            when (nativeConnection) {
+                is JedisCluster -> nativeConnection.eval(script, keys, args)
+                is Jedis -> nativeConnection.eval(script, keys, args)
+                else -> {
+                    logger.warn("Unknown redis connection($nativeConnection)")
+                    null
+                }
+            }
+        })
+    }
+}
@@ -27,6 +27,7 @@
 package com.tencent.devops.common.redis
 
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.boot.autoconfigure.AutoConfigureBefore
 import org.springframework.boot.autoconfigure.AutoConfigureOrder
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration
@@ -35,7 +36,10 @@ import org.springframework.context.annotation.Configuration
 import org.springframework.core.Ordered
 import org.springframework.data.redis.connection.RedisConnectionFactory
 import org.springframework.data.redis.core.RedisTemplate
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
 import org.springframework.data.redis.serializer.StringRedisSerializer
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import java.util.concurrent.ThreadPoolExecutor
 
 @Configuration
 @AutoConfigureOrder(Ordered.HIGHEST_PRECEDENCE)
@@ -43,12 +47,56 @@ import org.springframework.data.redis.serializer.StringRedisSerializer
 class RedisAutoConfiguration {
 
     @Bean
-    fun redisOperation(@Autowired factory: RedisConnectionFactory): RedisOperation {
+    fun redisOperation(
+        @Autowired factory: RedisConnectionFactory,
+        @Autowired redisLockNotifier: RedisLockNotifier
+    ): RedisOperation {
         val template = RedisTemplate<String, String>()
         template.connectionFactory = factory
         template.keySerializer = StringRedisSerializer()
         template.valueSerializer = StringRedisSerializer()
         template.afterPropertiesSet()
-        return RedisOperation(template)
+        return RedisOperation(template, redisLockNotifier)
+    }
+
+    @Bean
+    fun redisLockNotifier(
+        @Autowired redisMessageListenerContainer: RedisMessageListenerContainer
+    ) = RedisLockNotifier(redisMessageListenerContainer)
+
+    /**
+     * 分发订阅消息的线程池，各个订阅者的处理都很轻，有界的线程和队列防止消息突增时无限创建线程
+     */
+    @Bean
+    fun redisMessageListenerExecutor(): ThreadPoolTaskExecutor {
+        val executor = ThreadPoolTaskExecutor()
+        executor.corePoolSize = LISTENER_CORE_THREADS
+        executor.maxPoolSize = LISTENER_MAX_THREADS
+        executor.setQueueCapacity(LISTENER_QUEUE_CAPACITY)
+        executor.threadNamePrefix = "redis-listener-"
+        // 队列满时由订阅线程自己处理，相当于对订阅的消息做背压
+        executor.setRejectedExecutionHandler(ThreadPoolExecutor.CallerRunsPolicy())
+        return executor
+    }
+
+    /**
+     * 服务内共用的订阅容器：锁释放通知按需订阅对应锁的频道，其他模块的广播订阅也注册到这里，
+     * 整个服务只占一个订阅连接和一个有界的分发线程池
+     */
+    @Bean
+    fun redisMessageListenerContainer(
+        @Autowired factory: RedisConnectionFactory,
+        @Autowired @Qualifier("redisMessageListenerExecutor") redisMessageListenerExecutor: ThreadPoolTaskExecutor
+    ): RedisMessageListenerContainer {
+        val container = RedisMessageListenerContainer()
+        container.connectionFactory = factory
+        container.setTaskExecutor(redisMessageListenerExecutor)
+        return container
+    }
+
+    companion object {
+        private const val LISTENER_CORE_THREADS = 2
+        private const val LISTENER_MAX_THREADS = 8
+        private const val LISTENER_QUEUE_CAPACITY = 1000
     }
 }
\ No newline at end of file
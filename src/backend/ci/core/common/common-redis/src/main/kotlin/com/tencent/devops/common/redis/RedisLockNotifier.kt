@@ -0,0 +1,102 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.redis
+
+import org.springframework.data.redis.connection.Message
+import org.springframework.data.redis.connection.MessageListener
+import org.springframework.data.redis.listener.ChannelTopic
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
+/**
+ * 分布式锁释放通知
+ *
+ * FencedRedisLock 释放锁时在该锁自己的频道 [channel] 上发布消息，本实例内等待该锁的线程被立即唤醒去抢锁，
+ * 不需要再按固定间隔轮询Redis。只有本实例有线程在等某个锁时才订阅它的频道，
+ * 其他锁的释放消息不会发到本实例
+ */
+class RedisLockNotifier(private val container: RedisMessageListenerContainer) : MessageListener {
+
+    companion object {
+        private const val UNLOCK_CHANNEL_PREFIX = "devops:redis:lock:unlock:"
+
+        fun channel(lockKey: String) = UNLOCK_CHANNEL_PREFIX + lockKey
+    }
+
+    private val waiters = ConcurrentHashMap<String, MutableSet<CountDownLatch>>()
+
+    /**
+     * 每个锁在本实例内的订阅计数，第一个等待者订阅频道，最后一个等待者退订
+     */
+    private val subscriptions = ConcurrentHashMap<String, Int>()
+
+    /**
+     * 开始等待某个锁，在第一次抢锁失败后、进入等待之前调用，与 [unsubscribe] 成对出现
+     */
+    fun subscribe(lockKey: String) {
+        subscriptions.compute(lockKey) { _, count ->
+            if (count == null) {
+                container.addMessageListener(this, ChannelTopic(channel(lockKey)))
+            }
+            (count ?: 0) + 1
+        }
+    }
+
+    fun unsubscribe(lockKey: String) {
+        subscriptions.computeIfPresent(lockKey) { _, count ->
+            if (count <= 1) {
+                container.removeMessageListener(this, ChannelTopic(channel(lockKey)))
+                null
+            } else {
+                count - 1
+            }
+        }
+    }
+
+    /**
+     * 登记一次等待，需要在尝试加锁之前登记，避免尝试失败到开始等待之间的释放通知丢失
+     */
+    fun register(lockKey: String): CountDownLatch {
+        val latch = CountDownLatch(1)
+        waiters.computeIfAbsent(lockKey) { ConcurrentHashMap.newKeySet() }.add(latch)
+        return latch
+    }
+
+    fun unregister(lockKey: String, latch: CountDownLatch) {
+        waiters.computeIfPresent(lockKey) { _, latches ->
+            latches.remove(latch)
+            if (latches.isEmpty()) null else latches
+        }
+    }
+
+    override fun onMessage(message: Message, pattern: ByteArray?) {
+        val lockKey = String(message.body, Charsets.UTF_8)
+        waiters.remove(lockKey)?.forEach { it.countDown() }
+    }
+}
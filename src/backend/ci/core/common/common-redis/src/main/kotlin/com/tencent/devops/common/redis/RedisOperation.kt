@@ -33,7 +33,13 @@ import org.springframework.data.redis.core.ScanOptions
 import java.util.Date
 import java.util.concurrent.TimeUnit
 
-class RedisOperation(private val redisTemplate: RedisTemplate<String, String>) {
+class RedisOperation(
+    private val redisTemplate: RedisTemplate<String, String>,
+    /**
+     * 锁释放通知，为空时FencedRedisLock退化为轮询等待
+     */
+    val lockNotifier: RedisLockNotifier? = null
+) {
 
     // max expire time is 30 days
     private val maxExpireTime = TimeUnit.DAYS.toSeconds(30)
@@ -103,6 +109,14 @@ class RedisOperation(private val redisTemplate: RedisTemplate<String, String>) {
         return redisTemplate.opsForHash<String, String>().get(key, hashKey)
     }
 
+    fun hmget(key: String, hashKeys: Collection<String>): List<String?> {
+        return redisTemplate.opsForHash<String, String>().multiGet(key, hashKeys)
+    }
+
+    fun hmset(key: String, values: Map<String, String>) {
+        redisTemplate.opsForHash<String, String>().putAll(key, values)
+    }
+
     fun hdelete(key: String, hashKey: String) {
         redisTemplate.opsForHash<String, String>().delete(key, hashKey)
     }
@@ -160,6 +174,10 @@ class RedisOperation(private val redisTemplate: RedisTemplate<String, String>) {
         return redisTemplate.expireAt(key, date)
     }
 
+    fun publish(channel: String, message: String) {
+        redisTemplate.convertAndSend(channel, message)
+    }
+
     fun <T> execute(action: RedisCallback<T>): T {
         return redisTemplate.execute(action)
     }
@@ -0,0 +1,200 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.common.redis
+
+import org.junit.After
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.slf4j.LoggerFactory
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory
+import org.springframework.data.redis.core.RedisTemplate
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
+import org.springframework.data.redis.serializer.StringRedisSerializer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 与 RedisLock 的争用对比，需要一个可用的Redis：-Dredis.host=127.0.0.1 -Dredis.port=6379
+ */
+class FencedRedisLockTest {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(FencedRedisLockTest::class.java)
+    }
+
+    private val host = System.getProperty("redis.host")
+    private val port = System.getProperty("redis.port", "6379").toInt()
+
+    private lateinit var factory: JedisConnectionFactory
+    private lateinit var container: RedisMessageListenerContainer
+    private lateinit var redisOperation: RedisOperation
+
+    @Before
+    fun setUp() {
+        Assume.assumeTrue(!host.isNullOrBlank())
+        factory = JedisConnectionFactory()
+        factory.hostName = host
+        factory.port = port
+        factory.poolConfig.maxTotal = 64
+        factory.afterPropertiesSet()
+
+        val template = RedisTemplate<String, String>()
+        template.connectionFactory = factory
+        template.keySerializer = StringRedisSerializer()
+        template.valueSerializer = StringRedisSerializer()
+        template.afterPropertiesSet()
+
+        container = RedisMessageListenerContainer()
+        container.connectionFactory = factory
+        container.afterPropertiesSet()
+        container.start()
+        val notifier = RedisLockNotifier(container)
+        redisOperation = RedisOperation(template, notifier)
+    }
+
+    @After
+    fun tearDown() {
+        if (!host.isNullOrBlank()) {
+            container.stop()
+            container.destroy()
+            factory.destroy()
+        }
+    }
+
+    @Test
+    fun tryLock() {
+        val lockKey = "test:fenced:lock:${System.nanoTime()}"
+        val first = FencedRedisLock(redisOperation, lockKey)
+        val second = FencedRedisLock(redisOperation, lockKey)
+        Assert.assertTrue(first.tryLock())
+        Assert.assertFalse(second.tryLock(waitTime = 200, unit = TimeUnit.MILLISECONDS))
+        val firstToken = first.fencingToken
+        Assert.assertTrue(first.isHeld())
+        first.unlock()
+
+        Assert.assertTrue(second.tryLock(waitTime = 1, unit = TimeUnit.SECONDS))
+        Assert.assertTrue(second.fencingToken > firstToken)
+        Assert.assertFalse(FencedRedisLock.isLatestToken(redisOperation, lockKey, firstToken))
+        second.unlock()
+    }
+
+    @Test
+    fun leaseExpiredWithoutWatchdog() {
+        val lockKey = "test:fenced:lease:${System.nanoTime()}"
+        val first = FencedRedisLock(redisOperation, lockKey)
+        Assert.assertTrue(first.tryLock(waitTime = 0, leaseTime = 300, unit = TimeUnit.MILLISECONDS))
+        val second = FencedRedisLock(redisOperation, lockKey)
+        Assert.assertTrue(second.tryLock(waitTime = 2, unit = TimeUnit.SECONDS))
+        // 第一个持锁者租期已过，令牌被取代，不能再写库
+        Assert.assertFalse(first.isHeld())
+        Assert.assertFalse(first.unlock())
+        second.unlock()
+    }
+
+    @Test
+    fun watchdogRenew() {
+        val lockKey = "test:fenced:watchdog:${System.nanoTime()}"
+        val first = FencedRedisLock(redisOperation, lockKey, leaseTimeInSeconds = 1)
+        first.lock()
+        Thread.sleep(2500)
+        Assert.assertFalse(FencedRedisLock(redisOperation, lockKey).tryLock())
+        first.unlock()
+    }
+
+    /**
+     * 争用耗时对比，耗时只输出到日志，除Redis外还需要-Dbenchmark=true才执行；互斥由contend校验
+     */
+    @Test
+    fun contentionBenchmark() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("benchmark"))
+        val threads = 16
+        val rounds = 50
+        val legacyCost = contend(threads, rounds) { key -> legacyLock(key) }
+        val fencedCost = contend(threads, rounds) { key -> fencedLock(key) }
+        logger.info("threads: $threads, rounds: $rounds, RedisLock: $legacyCost ms, FencedRedisLock: $fencedCost ms")
+    }
+
+    private fun legacyLock(key: String): AutoCloseable {
+        val lock = RedisLock(redisOperation, key, 30)
+        lock.lock()
+        return lock
+    }
+
+    private fun fencedLock(key: String): AutoCloseable {
+        val lock = FencedRedisLock(redisOperation, key)
+        lock.lock()
+        return lock
+    }
+
+    /**
+     * 多个线程争抢同一把锁，每次持锁1ms，返回总耗时，并校验互斥
+     */
+    private fun contend(threads: Int, rounds: Int, acquire: (String) -> AutoCloseable): Long {
+        val lockKey = "test:lock:contention:${System.nanoTime()}"
+        val executor = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        val done = CountDownLatch(threads)
+        val holders = AtomicLong()
+        val violations = AtomicLong()
+        var counter = 0
+        repeat(threads) {
+            executor.execute {
+                try {
+                    start.await()
+                    repeat(rounds) {
+                        val lock = acquire(lockKey)
+                        try {
+                            if (holders.incrementAndGet() != 1L) {
+                                violations.incrementAndGet()
+                            }
+                            counter++
+                            Thread.sleep(1)
+                            holders.decrementAndGet()
+                        } finally {
+                            lock.close()
+                        }
+                    }
+                } finally {
+                    done.countDown()
+                }
+            }
+        }
+        val beginTime = System.currentTimeMillis()
+        start.countDown()
+        Assert.assertTrue(done.await(10, TimeUnit.MINUTES))
+        val cost = System.currentTimeMillis() - beginTime
+        executor.shutdown()
+        Assert.assertEquals(0L, violations.get())
+        Assert.assertEquals(threads * rounds, counter)
+        return cost
+    }
+}
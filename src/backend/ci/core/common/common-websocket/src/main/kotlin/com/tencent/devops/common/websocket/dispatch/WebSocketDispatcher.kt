@@ -49,13 +49,17 @@ class WebSocketDispatcher(
                 val mqMessage = event.buildMqMessage()
                 if (mqMessage?.sessionList != null && mqMessage.sessionList!!.isNotEmpty()) {
                     event.buildNotifyMessage(mqMessage)
-                    logger.info("[WebsocketDispatcher]:mqMessageType:${mqMessage.javaClass},page:${mqMessage.page}, sessionList:${mqMessage.sessionList}")
-                    rabbitTemplate.convertAndSend(eventType.exchange, routeKey, mqMessage) { message ->
-                        if (eventType.delayMills > 0) { // 事件类型固化默认值
-                            message.messageProperties.setHeader("x-delay", eventType.delayMills)
+                    event.buildSendMessages(mqMessage).forEach { sendMessage ->
+                        logger.info("[WebsocketDispatcher]:mqMessageType:${sendMessage.javaClass},page:${sendMessage.page}, sessionList:${sendMessage.sessionList}")
+                        rabbitTemplate.convertAndSend(eventType.exchange, routeKey, sendMessage) { message ->
+                            if (eventType.delayMills > 0) { // 事件类型固化默认值
+                                message.messageProperties.setHeader("x-delay", eventType.delayMills)
+                            }
+                            message
                         }
-                        message
                     }
+                } else if (mqMessage == null) {
+                    logger.debug("page:${event.page}, no message to push")
                 } else {
                     val sessionList =
                         RedisUtlis.getSessionListFormPageSessionByPage(event.redisOperation, event.page ?: "")
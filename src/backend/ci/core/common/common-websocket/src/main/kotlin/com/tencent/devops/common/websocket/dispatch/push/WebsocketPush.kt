@@ -28,9 +28,11 @@ package com.tencent.devops.common.websocket.dispatch.push
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.common.service.utils.SpringContextUtil
 import com.tencent.devops.common.websocket.dispatch.message.SendMessage
 import com.tencent.devops.common.websocket.pojo.NotifyPost
 import com.tencent.devops.common.websocket.pojo.WebSocketType
+import com.tencent.devops.common.websocket.session.PageSessionIndex
 import com.tencent.devops.common.websocket.utils.RedisUtlis
 import org.slf4j.LoggerFactory
 
@@ -45,14 +47,36 @@ abstract class WebsocketPush(
 ) {
     companion object {
         val logger = LoggerFactory.getLogger(this:: class.java)
+
+        private val pageSessionIndex: PageSessionIndex? by lazy {
+            try {
+                SpringContextUtil.getBean(PageSessionIndex::class.java)
+            } catch (e: Exception) {
+                logger.warn("PageSessionIndex not found, read the page session from redis", e)
+                null
+            }
+        }
     }
 
     open fun findSession(page: String): List<String>?
     {
-        return RedisUtlis.getSessionListFormPageSessionByPage(redisOperation, page)
+        return findPageSession(page)
+    }
+
+    /**
+     * 优先从本地的page-session索引获取，索引不可用时直接读Redis
+     */
+    protected fun findPageSession(page: String): List<String>? {
+        val index = pageSessionIndex ?: return RedisUtlis.getSessionListFormPageSessionByPage(redisOperation, page)
+        return index.getSessionList(page)
     }
 
     abstract fun buildMqMessage(): SendMessage?
 
     abstract fun buildNotifyMessage(message: SendMessage)
+
+    /**
+     * 同一次推送需要给不同的session发送不同报文时，在这里拆成多条消息，默认原样发送
+     */
+    open fun buildSendMessages(message: SendMessage): List<SendMessage> = listOf(message)
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.websocket.session
+
+import com.google.common.cache.CacheBuilder
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.common.websocket.utils.RedisUtlis
+import org.springframework.data.redis.connection.Message
+import org.springframework.data.redis.connection.MessageListener
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 本实例内的page-session索引
+ *
+ * 推送时直接从本地取页面上的session，不再每次读Redis。page-session集合变更时RedisUtlis会在
+ * [RedisUtlis.PAGE_SESSION_CHANGE_CHANNEL]上发布page，收到后失效对应的本地缓存；
+ * Redis的发布订阅可能丢消息，所以缓存另外设置了较短的过期时间兜底
+ *
+ * 没有session的页面（大多数构建没人在看）也缓存几秒，避免每次推送都读Redis，
+ * session进入页面时[RedisUtlis.refreshPageSession]的发布会清掉
+ */
+class PageSessionIndex(
+    private val redisOperation: RedisOperation
+) : MessageListener {
+
+    private val pageSessionCache = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .build<String/*page*/, List<String>/*sessionList*/>()
+
+    private val emptyPageCache = CacheBuilder.newBuilder()
+        .maximumSize(100000)
+        .expireAfterWrite(EMPTY_PAGE_EXPIRE_SECONDS, TimeUnit.SECONDS)
+        .build<String/*page*/, Boolean>()
+
+    /**
+     * 每次失效都递增，读Redis期间有失效发生时不回填缓存，避免旧数据覆盖
+     */
+    private val generation = AtomicLong(0)
+
+    fun getSessionList(page: String): List<String>? {
+        val cached = pageSessionCache.getIfPresent(page)
+        if (cached != null) {
+            return cached
+        }
+        if (emptyPageCache.getIfPresent(page) != null) {
+            return null
+        }
+        val currentGeneration = generation.get()
+        val sessionList = RedisUtlis.getSessionListFormPageSessionByPage(redisOperation, page)
+        if (generation.get() == currentGeneration) {
+            // 空结果只缓存几秒：旧版本实例写入session时不会发布变更，新进入的session最多晚几秒收到推送
+            if (sessionList == null || sessionList.isEmpty()) {
+                emptyPageCache.put(page, true)
+            } else {
+                pageSessionCache.put(page, sessionList)
+            }
+        }
+        return sessionList
+    }
+
+    override fun onMessage(message: Message, pattern: ByteArray?) {
+        val page = String(message.body, Charsets.UTF_8)
+        generation.incrementAndGet()
+        pageSessionCache.invalidate(page)
+        emptyPageCache.invalidate(page)
+    }
+
+    companion object {
+        private const val EMPTY_PAGE_EXPIRE_SECONDS = 5L
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.common.websocket.session
+
+import com.tencent.devops.common.redis.RedisAutoConfiguration
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.common.websocket.utils.RedisUtlis
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.autoconfigure.AutoConfigureAfter
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+import org.springframework.data.redis.listener.ChannelTopic
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
+
+@Configuration
+@AutoConfigureAfter(RedisAutoConfiguration::class)
+class WebsocketSessionAutoConfiguration {
+
+    /**
+     * page-session变更的广播订阅注册到服务共用的订阅容器
+     */
+    @Bean
+    fun pageSessionIndex(
+        @Autowired redisOperation: RedisOperation,
+        @Autowired redisMessageListenerContainer: RedisMessageListenerContainer,
+        @Value("\${websocket.session.legacyEnabled:true}") legacyEnabled: Boolean
+    ): PageSessionIndex {
+        RedisUtlis.legacySessionEnabled = legacyEnabled
+        val pageSessionIndex = PageSessionIndex(redisOperation)
+        redisMessageListenerContainer.addMessageListener(
+            pageSessionIndex,
+            ChannelTopic(RedisUtlis.PAGE_SESSION_CHANGE_CHANNEL)
+        )
+        return pageSessionIndex
+    }
+}
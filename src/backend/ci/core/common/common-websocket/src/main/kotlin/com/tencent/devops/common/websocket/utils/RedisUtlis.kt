@@ -26,36 +26,48 @@
 
 package com.tencent.devops.common.websocket.utils
 import com.tencent.devops.common.redis.RedisOperation
+import java.util.Date
+import java.util.concurrent.TimeUnit
 
 object RedisUtlis {
 
-    // 记录user-session映射。 user: session = 1:N 。同一个user，可以在不同端登录，可能产生多个session
-    val USER_SESSION_REDIS_KEY = "BK:webSocket:userId:sessionId:key:"
+    // 记录user-session映射。 user: session = 1:N 。同一个user，可以在不同端登录，可能产生多个session。以Redis set存储
+    val USER_SESSION_REDIS_KEY = "BK:webSocket:userId:sessionIdSet:key:"
     // 记录session-page映射。 session: page = 1:1。 同一个session一次只能停留在一个页面。
     val SESSION_PAGE_REDIS_KEY = "BK:webSocket:sessionId:page:key:"
-    // 记录page-session映射。  page : session = 1:N。 同一个页面，可能有多个session停留
-    val PAGE_SESSION_REDIS_KEY = "BK:webSocket:page:sessionIdList:key:"
+    // 记录page-session映射。  page : session = 1:N。 同一个页面，可能有多个session停留。以Redis set存储
+    val PAGE_SESSION_REDIS_KEY = "BK:webSocket:page:sessionIdSet:key:"
+    // page-session映射变更时发布page，各服务实例据此失效本地的page-session索引
+    val PAGE_SESSION_CHANGE_CHANNEL = "BK:webSocket:page:session:change"
+    // user-session、page-session集合的过期时间，每次写入时顺延，超过session超时时间即可
+    private const val SESSION_SET_EXPIRE_DAYS = 7L
+    // 旧版本以“,”拼接字符串存储的user-session、page-session映射。滚动升级期间旧实例仍在读写，
+    // 读取时与新的set合并，清理时一并清理，全部实例升级且旧数据过期后可以删除
+    // 是否兼容旧格式由websocket.session.legacyEnabled控制，全部实例升级后关闭，读取时不再多一次GET
+    @Volatile
+    var legacySessionEnabled = true
+    private const val LEGACY_USER_SESSION_REDIS_KEY = "BK:webSocket:userId:sessionId:key:"
+    private const val LEGACY_PAGE_SESSION_REDIS_KEY = "BK:webSocket:page:sessionIdList:key:"
     // 记录session-timeout映射。  session : timeout = 1:1。 同一个session，超时于登录后5天。
     val USER_TIMEOUT_REDIS_KEY = "BK:webSocket:sessionId:timeOut:key:"
 
     // 写入user,session映射。并记录session超时时间。可能出现user:session 一对多的关系
     fun writeSessionIdByRedis(redisOperation: RedisOperation, userId: String, sessionId: String) {
-        // 此处可能一个userId多端登录后有对应多个sessionId，但需要通过userId,找到对应的sessionId,故以userId为key
-        val oldSession = redisOperation.get(USER_SESSION_REDIS_KEY + userId)
-
-        if (oldSession == null) {
-            redisOperation.set(USER_SESSION_REDIS_KEY + userId, sessionId, null, true)
-        } else {
-            if (!oldSession.contains(sessionId)) {
-                val newSessionList = "$oldSession,$sessionId"
-                redisOperation.set(USER_SESSION_REDIS_KEY + userId, newSessionList, null, true)
-            }
-        }
+        redisOperation.sadd(USER_SESSION_REDIS_KEY + userId, sessionId)
+        redisOperation.expireAt(USER_SESSION_REDIS_KEY + userId, expireDate())
     }
 
     // 获取userId对应的session集合。多个session以“,”隔开，用于做切割
     fun getSessionIdByUserId(redisOperation: RedisOperation, userId: String): String? {
-        return redisOperation.get(USER_SESSION_REDIS_KEY + userId)
+        val sessionSet = readSessionSet(
+            redisOperation = redisOperation,
+            setKey = USER_SESSION_REDIS_KEY + userId,
+            legacyKey = LEGACY_USER_SESSION_REDIS_KEY + userId
+        )
+        if (sessionSet.isEmpty()) {
+            return null
+        }
+        return sessionSet.joinToString(",")
     }
 
     // 根据sessionId刷新session-page，用于切换页面
@@ -66,15 +78,9 @@ object RedisUtlis {
 
     // 刷新page-sessionIdList 数据。用于用户切换页面。
     fun refreshPageSession(redisOperation: RedisOperation, sessionId: String, newPage: String) {
-        val sessionListStr = redisOperation.get(PAGE_SESSION_REDIS_KEY + newPage)
-        if (sessionListStr != null) {
-            if (!sessionListStr.contains(sessionId)) {
-                val newList = "$sessionListStr,$sessionId"
-                redisOperation.set(PAGE_SESSION_REDIS_KEY + newPage, newList, null, true)
-            }
-        } else {
-            redisOperation.set(PAGE_SESSION_REDIS_KEY + newPage, sessionId, null, true)
-        }
+        redisOperation.sadd(PAGE_SESSION_REDIS_KEY + newPage, sessionId)
+        redisOperation.expireAt(PAGE_SESSION_REDIS_KEY + newPage, expireDate())
+        redisOperation.publish(PAGE_SESSION_CHANGE_CHANNEL, newPage)
     }
 
     // 根据sessionId清理sessionId-page对应的记录,sessionId：page = 1:1
@@ -96,99 +102,47 @@ object RedisUtlis {
         return false
     }
 
-    // 根据page获取session集合。可能有多个session
+    // 根据page获取session集合。可能有多个session。推送时优先走本地的PageSessionIndex，不必每次读Redis
     fun getSessionListFormPageSessionByPage(redisOperation: RedisOperation, page: String): List<String>? {
-        val sessionListStr = redisOperation.get(PAGE_SESSION_REDIS_KEY + page)
-        if (sessionListStr != null) {
-            return sessionListStr.split(",")
+        val sessionSet = readSessionSet(
+            redisOperation = redisOperation,
+            setKey = PAGE_SESSION_REDIS_KEY + page,
+            legacyKey = LEGACY_PAGE_SESSION_REDIS_KEY + page
+        )
+        if (sessionSet.isEmpty()) {
+            return null
         }
-        return null
+        return sessionSet.toList()
     }
 
     // 清理page-sessionIdList记录。page：sessionId是一对多的关系。 切换页面或者用户登出需调用此方法
     fun cleanPageSessionBySessionId(redisOperation: RedisOperation, page: String, sessionId: String): Boolean {
-        val sessionIdListStr = redisOperation.get(PAGE_SESSION_REDIS_KEY + page)
-        if (sessionIdListStr != null) {
-            var newSessionList: String? = null
-            val sessionIdList = sessionIdListStr.split(",")
-            if (sessionIdList.size == 1) {
-                redisOperation.delete(PAGE_SESSION_REDIS_KEY + page)
-            } else {
-                sessionIdList.forEach {
-                    if (it != sessionId) {
-                        newSessionList = if (newSessionList == null) {
-                            it
-                        } else {
-                            "$newSessionList,$it"
-                        }
-                    }
-                }
-                if (!newSessionList.isNullOrEmpty()) {
-                    redisOperation.set(PAGE_SESSION_REDIS_KEY + page, newSessionList!!)
-                }
-            }
-        }
+        redisOperation.sremove(PAGE_SESSION_REDIS_KEY + page, sessionId)
+        removeLegacySession(redisOperation, LEGACY_PAGE_SESSION_REDIS_KEY + page, sessionId)
+        redisOperation.publish(PAGE_SESSION_CHANGE_CHANNEL, page)
         return true
     }
 
     // 根据page删除redis数据。build结束，需删除改次构建的所有session记录
     fun cleanPageSessionByPage(redisOperation: RedisOperation, page: String) {
-        redisOperation.delete(PAGE_SESSION_REDIS_KEY + page)
+        redisOperation.delete(listOf(PAGE_SESSION_REDIS_KEY + page, LEGACY_PAGE_SESSION_REDIS_KEY + page))
+        redisOperation.publish(PAGE_SESSION_CHANGE_CHANNEL, page)
     }
 
     // 清理user-sessionId映射内对应的sessionId, 登出需用。
     fun cleanUserSessionBySessionId(redisOperation: RedisOperation, userId: String, sessionId: String): Boolean {
-        val sessionIdListStr = redisOperation.get(USER_SESSION_REDIS_KEY + userId)
-        if (sessionIdListStr != null) {
-            // 存在","说明同一个用户有多个端登录，只需删除对应的SessionId,若没有"，",只有一处登录。直接删除redis数据即可
-            if (sessionIdListStr.contains(",")) {
-                var newSessionList: String? = null
-                val sessionIdlist = sessionIdListStr.split(",")
-                sessionIdlist.forEach {
-                    if (!it.equals(sessionId)) {
-                        if (newSessionList == null) {
-                            newSessionList = it
-                        } else {
-                            newSessionList = "$newSessionList,$it"
-                        }
-                    }
-                }
-                if (newSessionList != null) {
-                    redisOperation.set(USER_SESSION_REDIS_KEY + userId, newSessionList!!, null, true)
-                }
-            } else {
-                redisOperation.delete(USER_SESSION_REDIS_KEY + userId)
-            }
-            return true
-        }
+        redisOperation.sremove(USER_SESSION_REDIS_KEY + userId, sessionId)
+        removeLegacySession(redisOperation, LEGACY_USER_SESSION_REDIS_KEY + userId, sessionId)
         return true
     }
 
     fun deleteAllUserSessionByUser(redisOperation: RedisOperation, userId: String) {
-        redisOperation.delete(USER_SESSION_REDIS_KEY + userId)
+        redisOperation.delete(listOf(USER_SESSION_REDIS_KEY + userId, LEGACY_USER_SESSION_REDIS_KEY + userId))
     }
 
     fun deleteSigelSessionByUser(redisOperation: RedisOperation, userId: String, sessionId: String) {
-        val sessionList = redisOperation.get(USER_SESSION_REDIS_KEY + userId)
-        if (!sessionList.isNullOrBlank()) {
-            if (sessionList!!.contains(",")) {
-                var newSession: String? = null
-                sessionList.split(",").forEach {
-                    if (!it.equals(sessionId)) {
-                        if (newSession == null) {
-                            newSession = it
-                        } else {
-                            newSession = "$newSession,$it"
-                        }
-                    }
-                }
-                if (!newSession.isNullOrBlank()) {
-                    redisOperation.set(USER_SESSION_REDIS_KEY + userId, newSession!!, null, true)
-                }
-            } else {
-                redisOperation.delete(USER_SESSION_REDIS_KEY + userId)
-            }
-        }
+        redisOperation.sremove(USER_SESSION_REDIS_KEY + userId, sessionId)
+        removeLegacySession(redisOperation, LEGACY_USER_SESSION_REDIS_KEY + userId, sessionId)
     }
 
     fun deleteSessionPageBySession(redisOperation: RedisOperation, sessionId: String) {
@@ -196,7 +150,7 @@ object RedisUtlis {
     }
 
     fun deletePageSessionByPage(redisOperation: RedisOperation, page: String) {
-        redisOperation.delete(PAGE_SESSION_REDIS_KEY + page)
+        cleanPageSessionByPage(redisOperation, page)
     }
 
 //    // 存储session对应的超时时间。所有session统一放到一个大的map内。默认超时时间是5天。此处可以做成可配置。
@@ -249,4 +203,33 @@ object RedisUtlis {
         }
         RedisUtlis.cleanPageSessionByPage(redisOperation, page)
     }
-}
\ No newline at end of file
+
+    private fun readSessionSet(redisOperation: RedisOperation, setKey: String, legacyKey: String): Set<String> {
+        val sessionSet = mutableSetOf<String>()
+        redisOperation.getSetMembers(setKey)?.let { sessionSet.addAll(it) }
+        if (!legacySessionEnabled) {
+            return sessionSet
+        }
+        val legacySessions = redisOperation.get(legacyKey)
+        if (!legacySessions.isNullOrBlank()) {
+            legacySessions!!.split(",").filterTo(sessionSet) { it.isNotBlank() }
+        }
+        return sessionSet
+    }
+
+    // 旧格式只在存在时才改写，新实例不再写入旧格式
+    private fun removeLegacySession(redisOperation: RedisOperation, legacyKey: String, sessionId: String) {
+        if (!legacySessionEnabled) {
+            return
+        }
+        val legacySessions = redisOperation.get(legacyKey) ?: return
+        val remain = legacySessions.split(",").filter { it.isNotBlank() && it != sessionId }
+        if (remain.isEmpty()) {
+            redisOperation.delete(legacyKey)
+        } else if (remain.size != legacySessions.split(",").size) {
+            redisOperation.set(legacyKey, remain.joinToString(","), null, true)
+        }
+    }
+
+    private fun expireDate() = Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(SESSION_SET_EXPIRE_DAYS))
+}
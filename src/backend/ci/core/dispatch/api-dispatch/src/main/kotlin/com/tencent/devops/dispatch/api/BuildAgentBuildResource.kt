@@ -44,6 +44,8 @@ import javax.ws.rs.POST
 import javax.ws.rs.Path
 import javax.ws.rs.Produces
 import javax.ws.rs.QueryParam
+import javax.ws.rs.container.AsyncResponse
+import javax.ws.rs.container.Suspended
 import javax.ws.rs.core.MediaType
 
 @Api(tags = ["BUILD_AGENT_BUILD"], description = "第三方接入agent资源")
@@ -64,8 +66,13 @@ interface BuildAgentBuildResource {
         agentId: String,
         @ApiParam("秘钥", required = true)
         @HeaderParam(AUTH_HEADER_DEVOPS_AGENT_SECRET_KEY)
-        secretKey: String
-    ): AgentResult<ThirdPartyBuildInfo?>
+        secretKey: String,
+        @ApiParam("没有排队构建时最长等待秒数，不传则立即返回", required = false)
+        @QueryParam("waitSeconds")
+        waitSeconds: Int?,
+        @Suspended
+        asyncResponse: AsyncResponse
+    )
 
     @ApiOperation("是否更新")
     @GET
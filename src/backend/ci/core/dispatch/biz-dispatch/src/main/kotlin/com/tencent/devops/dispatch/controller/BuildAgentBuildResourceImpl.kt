@@ -35,14 +35,28 @@ import com.tencent.devops.dispatch.pojo.thirdPartyAgent.ThirdPartyBuildInfo
 import com.tencent.devops.dispatch.pojo.thirdPartyAgent.ThirdPartyBuildWithStatus
 import com.tencent.devops.dispatch.service.ThirdPartyAgentService
 import org.springframework.beans.factory.annotation.Autowired
+import javax.ws.rs.container.AsyncResponse
 
 @RestResource
 class BuildAgentBuildResourceImpl @Autowired constructor(private val thirdPartyAgentBuildService: ThirdPartyAgentService) :
     BuildAgentBuildResource {
 
-    override fun startBuild(projectId: String, agentId: String, secretKey: String): AgentResult<ThirdPartyBuildInfo?> {
+    override fun startBuild(
+        projectId: String,
+        agentId: String,
+        secretKey: String,
+        waitSeconds: Int?,
+        asyncResponse: AsyncResponse
+    ) {
         checkParam(projectId, agentId, secretKey)
-        return thirdPartyAgentBuildService.startBuild(projectId, agentId, secretKey)
+        thirdPartyAgentBuildService.startBuild(
+            projectId = projectId,
+            agentId = agentId,
+            secretKey = secretKey,
+            waitSeconds = waitSeconds,
+            onResult = { asyncResponse.resume(it) },
+            onError = { asyncResponse.resume(it) }
+        )
     }
 
     override fun upgrade(
@@ -0,0 +1,225 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.dispatch.service
+
+import com.tencent.devops.common.redis.RedisOperation
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.data.redis.connection.Message
+import org.springframework.data.redis.connection.MessageListener
+import org.springframework.data.redis.listener.ChannelTopic
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
+import org.springframework.stereotype.Component
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+
+/**
+ * 第三方构建机的待领取信号
+ *
+ * 排队的构建仍以DB为准，这里只记录"哪些agent有排队中的构建"：
+ * 1. 入队时在redis的hash里标记agent，并在 [CHANNEL] 上广播，唤醒任一实例上正在长轮询的该agent
+ * 2. agent拉取时没有标记直接返回，空闲轮询不再查DB、不再抢锁
+ * 3. 长轮询的请求以异步方式挂起（不占undertow的worker线程），到有标记或超时再应答
+ * 4. 标记或广播丢失（如redis故障）时，每个agent最多每隔RECOVERY_INTERVAL_MILLS回DB查一次兜底
+ */
+@Component
+class ThirdPartyAgentBuildQueue @Autowired constructor(
+    private val redisOperation: RedisOperation,
+    private val redisMessageListenerContainer: RedisMessageListenerContainer
+) : MessageListener {
+
+    /**
+     * agentId -> 最近一次回DB领取的时间
+     */
+    private val lastCheckTimes = ConcurrentHashMap<String, Long>()
+
+    /**
+     * agentId -> 本实例挂起的长轮询请求
+     */
+    private val waiters = ConcurrentHashMap<String, MutableSet<Waiter>>()
+
+    private val waitingCount = AtomicInteger(0)
+
+    private val timeoutScheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactory { runnable ->
+        val thread = Thread(runnable, "agent-build-wait-timeout")
+        thread.isDaemon = true
+        thread
+    })
+
+    private val wakeupThreadIndex = AtomicInteger(0)
+
+    /**
+     * 唤醒后领取构建要抢锁查DB，不能放在Redis订阅线程或超时线程里做
+     */
+    private val wakeupExecutor = ThreadPoolExecutor(
+        WAKEUP_THREADS,
+        WAKEUP_THREADS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        LinkedBlockingQueue<Runnable>(),
+        ThreadFactory { runnable -> Thread(runnable, "agent-build-wakeup-${wakeupThreadIndex.incrementAndGet()}") }
+    )
+
+    @PostConstruct
+    fun init() {
+        redisMessageListenerContainer.addMessageListener(this, ChannelTopic(CHANNEL))
+    }
+
+    /**
+     * 有新的构建排队
+     */
+    fun markReady(agentId: String) {
+        redisOperation.hset(READY_AGENT_KEY, agentId, System.currentTimeMillis().toString())
+        wakeUp(agentId)
+        try {
+            redisOperation.publish(CHANNEL, agentId)
+        } catch (ignored: Throwable) {
+            // 广播失败时其他实例上的长轮询超时后按标记领取
+            logger.warn("Fail to publish the ready third party agent($agentId)", ignored)
+        }
+    }
+
+    /**
+     * 领取前清除标记，必须在查询DB之前调用，这样查询之后入队的构建会重新打上标记
+     */
+    fun clearReady(agentId: String) {
+        redisOperation.hdelete(READY_AGENT_KEY, agentId)
+        lastCheckTimes[agentId] = System.currentTimeMillis()
+    }
+
+    /**
+     * 是否需要去DB领取构建
+     */
+    fun isReady(agentId: String): Boolean {
+        if (System.currentTimeMillis() - (lastCheckTimes[agentId] ?: 0L) >= RECOVERY_INTERVAL_MILLS) {
+            return true
+        }
+        return redisOperation.hhaskey(READY_AGENT_KEY, agentId)
+    }
+
+    /**
+     * 挂起等待有构建排队，有排队时回调true，超时回调false，回调在唤醒线程池里执行。
+     * 返回false表示没有挂起（不需要等待或挂起数超上限），不会回调，调用方直接应答
+     */
+    fun awaitReady(agentId: String, waitMills: Long, onReady: (Boolean) -> Unit): Boolean {
+        if (waitMills <= 0) {
+            return false
+        }
+        if (waitingCount.incrementAndGet() > MAX_WAITING_AGENTS) {
+            waitingCount.decrementAndGet()
+            return false
+        }
+        val waiter = Waiter(agentId, onReady)
+        waiters.computeIfAbsent(agentId) { ConcurrentHashMap.newKeySet() }.add(waiter)
+        waiter.timeout = timeoutScheduler.schedule(
+            Runnable { waiter.complete(false) },
+            Math.min(waitMills, TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS.toLong())),
+            TimeUnit.MILLISECONDS
+        )
+        // 检查标记到登记之间的入队收不到广播，登记之后再查一次标记
+        try {
+            if (redisOperation.hhaskey(READY_AGENT_KEY, agentId)) {
+                waiter.complete(true)
+            }
+        } catch (ignored: Throwable) {
+            logger.warn("Fail to check the ready third party agent($agentId)", ignored)
+        }
+        return true
+    }
+
+    override fun onMessage(message: Message, pattern: ByteArray?) {
+        wakeUp(String(message.body, Charsets.UTF_8))
+    }
+
+    @PreDestroy
+    fun destroy() {
+        // 停机前把挂起的请求都按无构建应答掉
+        waiters.values.forEach { agentWaiters -> agentWaiters.forEach { it.complete(false) } }
+        timeoutScheduler.shutdownNow()
+        wakeupExecutor.shutdown()
+        wakeupExecutor.awaitTermination(MAX_WAIT_SECONDS.toLong(), TimeUnit.SECONDS)
+    }
+
+    private fun wakeUp(agentId: String) {
+        waiters[agentId]?.forEach { it.complete(true) }
+    }
+
+    private inner class Waiter(val agentId: String, private val onReady: (Boolean) -> Unit) {
+        private val done = AtomicBoolean(false)
+
+        @Volatile
+        var timeout: ScheduledFuture<*>? = null
+
+        /**
+         * 唤醒、超时、停机可能同时发生，只有第一次生效
+         */
+        fun complete(ready: Boolean) {
+            if (!done.compareAndSet(false, true)) {
+                return
+            }
+            timeout?.cancel(false)
+            waiters.computeIfPresent(agentId) { _, agentWaiters ->
+                agentWaiters.remove(this)
+                if (agentWaiters.isEmpty()) null else agentWaiters
+            }
+            waitingCount.decrementAndGet()
+            try {
+                wakeupExecutor.execute { onReady(ready) }
+            } catch (ignored: RejectedExecutionException) {
+                // 停机中线程池已关闭，直接在当前线程应答
+                onReady(ready)
+            }
+        }
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(ThirdPartyAgentBuildQueue::class.java)
+        private const val READY_AGENT_KEY = "DISPATCH_THIRD_PARTY_AGENT_READY"
+        private const val CHANNEL = "dispatch:third:party:agent:ready"
+        private const val RECOVERY_INTERVAL_MILLS = 60 * 1000L
+        private const val WAKEUP_THREADS = 4
+        const val MAX_WAIT_SECONDS = 30
+
+        /**
+         * 挂起的请求只占一个AsyncResponse和连接，按每个约4KB、最多用堆的1%估算，限制在1000到10000之间
+         */
+        private const val WAITING_AGENT_BYTES = 4096L
+        private val MAX_WAITING_AGENTS =
+            (Runtime.getRuntime().maxMemory() / 100 / WAITING_AGENT_BYTES).coerceIn(1000L, 10000L).toInt()
+    }
+}
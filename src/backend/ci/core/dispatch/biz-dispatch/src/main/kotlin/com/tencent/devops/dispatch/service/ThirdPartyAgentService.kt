@@ -26,6 +26,7 @@
 
 package com.tencent.devops.dispatch.service
 
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.enums.AgentStatus
 import com.tencent.devops.common.api.exception.OperationException
 import com.tencent.devops.common.api.exception.RemoteServiceException
@@ -44,13 +45,16 @@ import com.tencent.devops.dispatch.pojo.thirdPartyAgent.ThirdPartyBuildInfo
 import com.tencent.devops.dispatch.pojo.thirdPartyAgent.ThirdPartyBuildWithStatus
 import com.tencent.devops.dispatch.utils.ThirdPartyAgentLock
 import com.tencent.devops.dispatch.utils.redis.RedisUtils
+import com.tencent.devops.environment.THIRD_PARTY_AGENT_CHANGED_KEY_PREFIX
 import com.tencent.devops.environment.api.thirdPartyAgent.ServiceThirdPartyAgentResource
+import com.tencent.devops.environment.pojo.thirdPartyAgent.ThirdPartyAgent
 import com.tencent.devops.model.dispatch.tables.records.TDispatchThirdpartyAgentBuildRecord
 import com.tencent.devops.process.api.service.ServiceBuildResource
 import org.jooq.DSLContext
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
+import java.util.concurrent.TimeUnit
 import javax.ws.rs.NotFoundException
 
 @Service
@@ -59,9 +63,18 @@ class ThirdPartyAgentService @Autowired constructor(
     private val redisUtils: RedisUtils,
     private val client: Client,
     private val redisOperation: RedisOperation,
-    private val thirdPartyAgentBuildDao: ThirdPartyAgentBuildDao
+    private val thirdPartyAgentBuildDao: ThirdPartyAgentBuildDao,
+    private val thirdPartyAgentBuildQueue: ThirdPartyAgentBuildQueue
 ) {
 
+    /**
+     * projectId|agentId -> agent信息，agent拉取构建很频繁，短时间内复用鉴权结果
+     * 只缓存IMPORT_OK的agent，agent删除后环境服务会写入变更标记，标记变化时重新拉取
+     */
+    private val agentCache = CacheBuilder.newBuilder().maximumSize(20000)
+        .expireAfterWrite(30, TimeUnit.SECONDS)
+        .build<String, CachedAgent>()
+
     fun queueBuild(
         projectId: String,
         agentId: String,
@@ -89,6 +102,7 @@ class ThirdPartyAgentService @Autowired constructor(
             logger.warn("Fail to add the third party agent build of ($buildId|$vmSeqId|$agentId|$count)")
             throw OperationException("Fail to add the third party agent build")
         }
+        thirdPartyAgentBuildQueue.markReady(agentId)
     }
 
     fun getPreBuildAgents(projectId: String, pipelineId: String, vmSeqId: String): List<ThirdPartyAgentPreBuildAgents> {
@@ -111,75 +125,161 @@ class ThirdPartyAgentService @Autowired constructor(
         return thirdPartyAgentBuildDao.getRunningAndQueueBuilds(dslContext, agentId).size
     }
 
+    /**
+     * 领取排队中的构建，没有排队的构建时按waitSeconds挂起等待，结果通过回调应答
+     *
+     * @param onResult 领取结果，挂起后在唤醒线程里回调
+     * @param onError 领取失败
+     */
     fun startBuild(
         projectId: String,
         agentId: String,
-        secretKey: String
-    ): AgentResult<ThirdPartyBuildInfo?> {
+        secretKey: String,
+        waitSeconds: Int?,
+        onResult: (AgentResult<ThirdPartyBuildInfo?>) -> Unit,
+        onError: (Throwable) -> Unit
+    ) {
         // Get the queue status build by buildId and agentId
         logger.debug("Start the third party agent($agentId) of project($projectId)")
         try {
-            val agentResult = try {
-                client.get(ServiceThirdPartyAgentResource::class).getAgentById(projectId, agentId)
-            } catch (e: RemoteServiceException) {
-                logger.warn("Fail to get the agent($agentId) of project($projectId) because of ${e.message}")
-                return AgentResult(1, e.message ?: "Fail to get the agent")
+            val checkResult = checkAgent(projectId, agentId, secretKey)
+            if (checkResult != null) {
+                onResult(checkResult)
+                return
             }
+        } catch (ignored: Throwable) {
+            logger.warn("Fail to start build for agent($agentId)", ignored)
+            onError(ignored)
+            return
+        }
 
-            if (agentResult.agentStatus == AgentStatus.DELETE) {
-                return AgentResult(AgentStatus.DELETE, null)
-            }
+        logger.debug("Third party agent($agentId) start up")
+        val waitMills = TimeUnit.SECONDS.toMillis(
+            Math.min(waitSeconds ?: 0, ThirdPartyAgentBuildQueue.MAX_WAIT_SECONDS).toLong()
+        )
+        claimOrWait(projectId, agentId, System.currentTimeMillis() + waitMills, onResult, onError)
+    }
 
-            if (agentResult.isNotOk()) {
-                logger.warn("Fail to get the third party agent($agentId) because of ${agentResult.message}")
-                throw NotFoundException("Fail to get the agent")
-            }
+    /**
+     * 校验agent，不能领取构建时返回应答的结果，可以领取时返回null
+     */
+    private fun checkAgent(projectId: String, agentId: String, secretKey: String): AgentResult<ThirdPartyBuildInfo?>? {
+        val agentResult = try {
+            getAgent(projectId, agentId)
+        } catch (e: RemoteServiceException) {
+            logger.warn("Fail to get the agent($agentId) of project($projectId) because of ${e.message}")
+            return AgentResult(1, e.message ?: "Fail to get the agent")
+        }
 
-            if (agentResult.data == null) {
-                logger.warn("Get the null third party agent($agentId)")
-                throw NotFoundException("Fail to get the agent")
-            }
+        if (agentResult.agentStatus == AgentStatus.DELETE) {
+            return AgentResult(AgentStatus.DELETE, null)
+        }
 
-            if (agentResult.data!!.secretKey != secretKey) {
-                logger.warn(
-                    "The secretKey($secretKey) is not match the expect one(${agentResult.data!!.secretKey} " +
-                        "of project($projectId) and agent($agentId)"
-                )
-                throw NotFoundException("Fail to get the agent")
-            }
+        if (agentResult.isNotOk()) {
+            logger.warn("Fail to get the third party agent($agentId) because of ${agentResult.message}")
+            throw NotFoundException("Fail to get the agent")
+        }
 
-            if (agentResult.data!!.status != AgentStatus.IMPORT_OK) {
-                logger.warn("The agent($agentId) is not import(${agentResult.data!!.status})")
-                throw NotFoundException("Fail to get the agent")
-            }
+        if (agentResult.data == null) {
+            logger.warn("Get the null third party agent($agentId)")
+            throw NotFoundException("Fail to get the agent")
+        }
+
+        if (agentResult.data!!.secretKey != secretKey) {
+            logger.warn(
+                "The secretKey($secretKey) is not match the expect one(${agentResult.data!!.secretKey} " +
+                    "of project($projectId) and agent($agentId)"
+            )
+            throw NotFoundException("Fail to get the agent")
+        }
 
-            logger.debug("Third party agent($agentId) start up")
+        if (agentResult.data!!.status != AgentStatus.IMPORT_OK) {
+            logger.warn("The agent($agentId) is not import(${agentResult.data!!.status})")
+            throw NotFoundException("Fail to get the agent")
+        }
+        return null
+    }
 
-            val redisLock = ThirdPartyAgentLock(redisOperation, projectId, agentId)
-            try {
-                redisLock.lock()
-                val buildRecords =
-                    thirdPartyAgentBuildDao.getQueueBuilds(dslContext, agentId)
-                if (buildRecords.isEmpty()) {
-                    logger.debug("There is not build by agent($agentId) in queue")
-                    return AgentResult(AgentStatus.IMPORT_OK, null)
+    private fun claimOrWait(
+        projectId: String,
+        agentId: String,
+        deadline: Long,
+        onResult: (AgentResult<ThirdPartyBuildInfo?>) -> Unit,
+        onError: (Throwable) -> Unit
+    ) {
+        try {
+            // 没有排队中的构建时不查DB，长轮询的agent挂起等待入队
+            if (thirdPartyAgentBuildQueue.isReady(agentId)) {
+                val buildInfo = claimBuild(projectId, agentId)
+                if (buildInfo != null || System.currentTimeMillis() >= deadline) {
+                    onResult(AgentResult(AgentStatus.IMPORT_OK, buildInfo))
+                    return
                 }
-                val build = buildRecords[0]
-                logger.info("Start the build(${build.buildId}) of agent($agentId) and seq(${build.vmSeqId})")
-                thirdPartyAgentBuildDao.updateStatus(dslContext, build.id, PipelineTaskStatus.RUNNING)
-                return AgentResult(
-                    AgentStatus.IMPORT_OK,
-                    ThirdPartyBuildInfo(projectId, build.buildId, build.vmSeqId, build.workspace)
-                )
-            } finally {
-                redisLock.unlock()
+            }
+            val waiting = thirdPartyAgentBuildQueue.awaitReady(
+                agentId = agentId,
+                waitMills = deadline - System.currentTimeMillis()
+            ) { ready ->
+                if (ready) {
+                    claimOrWait(projectId, agentId, deadline, onResult, onError)
+                } else {
+                    onResult(AgentResult(AgentStatus.IMPORT_OK, null))
+                }
+            }
+            if (!waiting) {
+                logger.debug("There is not build by agent($agentId) in queue")
+                onResult(AgentResult(AgentStatus.IMPORT_OK, null))
             }
         } catch (ignored: Throwable) {
             logger.warn("Fail to start build for agent($agentId)", ignored)
-            throw ignored
+            onError(ignored)
+        }
+    }
+
+    private fun claimBuild(projectId: String, agentId: String): ThirdPartyBuildInfo? {
+        val redisLock = ThirdPartyAgentLock(redisOperation, projectId, agentId)
+        try {
+            redisLock.lock()
+            thirdPartyAgentBuildQueue.clearReady(agentId)
+            val buildRecords =
+                thirdPartyAgentBuildDao.getQueueBuilds(dslContext, agentId)
+            if (buildRecords.isEmpty()) {
+                logger.debug("There is not build by agent($agentId) in queue")
+                return null
+            }
+            val build = buildRecords[0]
+            logger.info("Start the build(${build.buildId}) of agent($agentId) and seq(${build.vmSeqId})")
+            thirdPartyAgentBuildDao.updateStatus(dslContext, build.id, PipelineTaskStatus.RUNNING)
+            if (buildRecords.size > 1) {
+                thirdPartyAgentBuildQueue.markReady(agentId)
+            }
+            return ThirdPartyBuildInfo(projectId, build.buildId, build.vmSeqId, build.workspace)
+        } finally {
+            redisLock.unlock()
         }
     }
 
+    private fun getAgent(projectId: String, agentId: String): AgentResult<ThirdPartyAgent?> {
+        val cacheKey = "$projectId|$agentId"
+        val changedMark = redisOperation.get(THIRD_PARTY_AGENT_CHANGED_KEY_PREFIX + agentId)
+        val cached = agentCache.getIfPresent(cacheKey)
+        if (cached != null && cached.changedMark == changedMark) {
+            return cached.agentResult
+        }
+        val agentResult = client.get(ServiceThirdPartyAgentResource::class).getAgentById(projectId, agentId)
+        if (!agentResult.isNotOk() && agentResult.data?.status == AgentStatus.IMPORT_OK) {
+            agentCache.put(cacheKey, CachedAgent(agentResult, changedMark))
+        } else {
+            agentCache.invalidate(cacheKey)
+        }
+        return agentResult
+    }
+
+    private data class CachedAgent(
+        val agentResult: AgentResult<ThirdPartyAgent?>,
+        val changedMark: String?
+    )
+
     fun checkIfCanUpgradeByVersion(
         projectId: String,
         agentId: String,
@@ -27,4 +27,9 @@
 package com.tencent.devops.environment
 
 const val THIRD_PARTY_AGENT_HEARTBEAT_INTERVAL = 5L
-const val DEFAULT_SYTEM_USER = "devops"
\ No newline at end of file
+const val DEFAULT_SYTEM_USER = "devops"
+/**
+ * 第三方构建机变更标记，agent删除等影响鉴权结果的操作后写入，dispatch据此失效本地agent缓存
+ */
+const val THIRD_PARTY_AGENT_CHANGED_KEY_PREFIX = "environment:thirdparty:agent:changed:"
+const val THIRD_PARTY_AGENT_CHANGED_EXPIRE_SECONDS = 120L
@@ -111,6 +111,7 @@ abstract class AbstractEnvironmentPermissionService constructor(
             resourceCode = HashUtil.encodeLongId(envId),
             resourceName = envName
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     override fun updateEnv(userId: String, projectId: String, envId: Long, envName: String) {
@@ -130,6 +131,7 @@ abstract class AbstractEnvironmentPermissionService constructor(
             projectCode = projectId,
             resourceCode = HashUtil.encodeLongId(envId)
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 
     override fun listNodeByPermission(userId: String, projectId: String, permission: AuthPermission): Set<Long> {
@@ -194,6 +196,7 @@ abstract class AbstractEnvironmentPermissionService constructor(
             resourceCode = HashUtil.encodeLongId(nodeId),
             resourceName = nodeName
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     override fun updateNode(userId: String, projectId: String, nodeId: Long, nodeName: String) {
@@ -213,5 +216,6 @@ abstract class AbstractEnvironmentPermissionService constructor(
             projectCode = projectId,
             resourceCode = HashUtil.encodeLongId(nodeId)
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 }
\ No newline at end of file
@@ -44,9 +44,12 @@ import com.tencent.devops.common.api.util.timestamp
 import com.tencent.devops.common.auth.api.AuthPermission
 import com.tencent.devops.common.client.Client
 import com.tencent.devops.common.environment.agent.ThirdPartyAgentHeartbeatUtils
+import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.common.service.gray.Gray
 import com.tencent.devops.common.service.utils.ByteUtils
 import com.tencent.devops.dispatch.api.ServiceAgentResource
+import com.tencent.devops.environment.THIRD_PARTY_AGENT_CHANGED_EXPIRE_SECONDS
+import com.tencent.devops.environment.THIRD_PARTY_AGENT_CHANGED_KEY_PREFIX
 import com.tencent.devops.environment.client.InfluxdbClient
 import com.tencent.devops.environment.constant.EnvironmentMessageCode
 import com.tencent.devops.environment.dao.EnvDao
@@ -103,7 +106,8 @@ class ThirdPartyAgentMgrService @Autowired(required = false) constructor(
     private val agentUrlService: AgentUrlService,
     private val environmentPermissionService: EnvironmentPermissionService,
     private val upgradeService: UpgradeService,
-    private val gray: Gray
+    private val gray: Gray,
+    private val redisOperation: RedisOperation
 ) {
     fun getAgentDetail(userId: String, projectId: String, nodeHashId: String): ThirdPartyAgentDetail? {
         val nodeId = HashUtil.decodeIdToLong(nodeHashId)
@@ -703,7 +707,7 @@ class ThirdPartyAgentMgrService @Autowired(required = false) constructor(
     ) {
         logger.info("Delete the node($nodeId) of project($projectId) by user($userId)")
         val id = HashUtil.decodeIdToLong(nodeId)
-        dslContext.transaction { configuration ->
+        val agentId = dslContext.transactionResult { configuration ->
             val context = DSL.using(configuration)
             val record = thirdPartyAgentDao.getAgentByNodeId(dslContext = context, nodeId = id, projectId = projectId)
             if (record == null) {
@@ -725,7 +729,10 @@ class ThirdPartyAgentMgrService @Autowired(required = false) constructor(
             if (record.nodeId != null) {
                 environmentPermissionService.deleteNode(projectId = projectId, nodeId = record.nodeId)
             }
+            record.id
         }
+        // 事务提交后再打标记，避免dispatch在提交前重新拉到旧状态
+        markAgentChanged(agentId)
     }
 
     fun getAgentStatusWithInfo(
@@ -1210,6 +1217,14 @@ class ThirdPartyAgentMgrService @Autowired(required = false) constructor(
 
     fun generateSecretKey() = ApiUtil.randomSecretKey()
 
+    private fun markAgentChanged(id: Long) {
+        redisOperation.set(
+            key = THIRD_PARTY_AGENT_CHANGED_KEY_PREFIX + HashUtil.encodeLongId(id),
+            value = System.currentTimeMillis().toString(),
+            expiredInSecond = THIRD_PARTY_AGENT_CHANGED_EXPIRE_SECONDS
+        )
+    }
+
     companion object {
         private val logger = LoggerFactory.getLogger(ThirdPartyAgentMgrService::class.java)
         private const val MAX_PARALLEL_TASK_COUNT = "10"
@@ -32,6 +32,7 @@ import com.tencent.devops.log.model.message.LogMessage
 import io.swagger.annotations.Api
 import io.swagger.annotations.ApiOperation
 import io.swagger.annotations.ApiParam
+import java.io.InputStream
 import javax.ws.rs.Consumes
 import javax.ws.rs.HeaderParam
 import javax.ws.rs.POST
@@ -95,6 +96,18 @@ interface BuildLogResource {
         logMessages: List<LogMessage>
     ): Result<Boolean>
 
+    @ApiOperation("写入多条日志，请求体为gzip压缩后的日志列表JSON")
+    @POST
+    @Path("/multi/gzip")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    fun addCompressedLogMultiLine(
+        @ApiParam("构建ID", required = true)
+        @HeaderParam(AUTH_HEADER_DEVOPS_BUILD_ID)
+        buildId: String,
+        @ApiParam("gzip压缩后的多条日志列表", required = true)
+        inputStream: InputStream
+    ): Result<Boolean>
+
     @ApiOperation("写入日志状态")
     @POST
     @Path("/status")
@@ -140,6 +140,8 @@ class LogMQConfiguration @Autowired constructor() {
         container.setQueueNames(logBatchEventQueue.name)
         container.setConcurrentConsumers(10)
         container.setMaxConcurrentConsumers(100)
+        // 写ES的聚合层满了会阻塞消费线程，每个消费者只预取一条，积压留在MQ中
+        container.setPrefetchCount(1)
         container.setRabbitAdmin(rabbitAdmin)
         container.setMismatchedQueuesFatal(true)
         val messageListenerAdapter = MessageListenerAdapter(logListener, logListener::logBatchEvent.name)
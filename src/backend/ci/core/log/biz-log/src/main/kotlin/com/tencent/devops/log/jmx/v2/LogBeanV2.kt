@@ -49,6 +49,17 @@ class LogBeanV2 {
     private val queryCalculateCount = AtomicLong(0)
     private val queryFailureCount = AtomicLong(0)
 
+    private val bulkCount = AtomicLong(0)
+    private val bulkElapse = AtomicLong(0)
+    private val bulkCalculateCount = AtomicLong(0)
+    private val bulkLineCount = AtomicLong(0)
+    private val bulkBytes = AtomicLong(0)
+    private val bulkFailureCount = AtomicLong(0)
+    private val bulkRetryCount = AtomicLong(0)
+    private val bulkInFlight = AtomicLong(0)
+    private val pendingBytes = AtomicLong(0)
+    private val blockedElapse = AtomicLong(0)
+
     @Synchronized
     fun execute(elapse: Long, success: Boolean) {
         executeCount.incrementAndGet()
@@ -69,6 +80,32 @@ class LogBeanV2 {
         }
     }
 
+    @Synchronized
+    fun bulk(elapse: Long, lines: Int, bytes: Long, failures: Int) {
+        bulkCount.incrementAndGet()
+        bulkCalculateCount.incrementAndGet()
+        bulkElapse.addAndGet(elapse)
+        bulkLineCount.addAndGet(lines.toLong())
+        bulkBytes.addAndGet(bytes)
+        bulkFailureCount.addAndGet(failures.toLong())
+    }
+
+    fun retry() {
+        bulkRetryCount.incrementAndGet()
+    }
+
+    fun inFlight(delta: Int) {
+        bulkInFlight.addAndGet(delta.toLong())
+    }
+
+    fun pending(bytes: Long) {
+        pendingBytes.addAndGet(bytes)
+    }
+
+    fun blocked(elapse: Long) {
+        blockedElapse.addAndGet(elapse)
+    }
+
     @Synchronized
     @ManagedAttribute
     fun getLogPerformance(): Double {
@@ -104,4 +141,40 @@ class LogBeanV2 {
 
     @ManagedAttribute
     fun getQueryFailureCount() = queryFailureCount.get()
-}
\ No newline at end of file
+
+    @Synchronized
+    @ManagedAttribute
+    fun getBulkPerformance(): Double {
+        val elapse = bulkElapse.getAndSet(0)
+        val count = bulkCalculateCount.getAndSet(0)
+        return if (count == 0L) {
+            0.0
+        } else {
+            elapse.toDouble() / count
+        }
+    }
+
+    @ManagedAttribute
+    fun getBulkCount() = bulkCount.get()
+
+    @ManagedAttribute
+    fun getBulkLineCount() = bulkLineCount.get()
+
+    @ManagedAttribute
+    fun getBulkBytes() = bulkBytes.get()
+
+    @ManagedAttribute
+    fun getBulkFailureCount() = bulkFailureCount.get()
+
+    @ManagedAttribute
+    fun getBulkRetryCount() = bulkRetryCount.get()
+
+    @ManagedAttribute
+    fun getBulkInFlight() = bulkInFlight.get()
+
+    @ManagedAttribute
+    fun getPendingBytes() = pendingBytes.get()
+
+    @ManagedAttribute
+    fun getBlockedElapse() = blockedElapse.get()
+}
@@ -26,8 +26,10 @@
 
 package com.tencent.devops.log.resources
 
+import com.fasterxml.jackson.core.type.TypeReference
 import com.tencent.devops.common.api.exception.ParamBlankException
 import com.tencent.devops.common.api.pojo.Result
+import com.tencent.devops.common.api.util.JsonUtil
 import com.tencent.devops.common.web.RestResource
 import com.tencent.devops.log.api.BuildLogResource
 import com.tencent.devops.log.model.message.LogMessage
@@ -37,6 +39,8 @@ import com.tencent.devops.log.utils.LogUtils.addRedLine
 import com.tencent.devops.log.utils.LogUtils.addYellowLine
 import org.springframework.amqp.rabbit.core.RabbitTemplate
 import org.springframework.beans.factory.annotation.Autowired
+import java.io.InputStream
+import java.util.zip.GZIPInputStream
 
 /**
  *
@@ -93,6 +97,17 @@ class BuildLogResourceImpl @Autowired constructor(
         return Result(true)
     }
 
+    override fun addCompressedLogMultiLine(buildId: String, inputStream: InputStream): Result<Boolean> {
+        if (buildId.isBlank()) {
+            throw ParamBlankException("无效的构建ID")
+        }
+        val logMessages = GZIPInputStream(inputStream).use {
+            JsonUtil.getObjectMapper().readValue<List<LogMessage>>(it, object : TypeReference<List<LogMessage>>() {})
+        }
+        addLines(rabbitTemplate, buildId, logMessages)
+        return Result(true)
+    }
+
     override fun addLogStatus(buildId: String, tag: String?, jobId: String?, executeCount: Int?): Result<Boolean> {
         if (buildId.isBlank()) {
             throw ParamBlankException("无效的构建ID")
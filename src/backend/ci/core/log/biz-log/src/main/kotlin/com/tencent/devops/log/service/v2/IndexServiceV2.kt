@@ -28,6 +28,7 @@ package com.tencent.devops.log.service.v2
 
 import com.google.common.cache.CacheBuilder
 import com.google.common.cache.CacheLoader
+import com.google.common.cache.RemovalListener
 import com.tencent.devops.common.api.exception.OperationException
 import com.tencent.devops.common.redis.RedisLock
 import com.tencent.devops.common.redis.RedisOperation
@@ -40,7 +41,11 @@ import org.jooq.DSLContext
 import org.jooq.impl.DSL
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.data.redis.core.RedisCallback
+import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Service
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.JedisCluster
 import java.lang.Exception
 import java.util.concurrent.TimeUnit
 
@@ -56,6 +61,19 @@ class IndexServiceV2 @Autowired constructor(
         private val logger = LoggerFactory.getLogger(IndexServiceV2::class.java)
         private const val LOG_LINE_NUM = "log:build:line:num:"
         private const val LOG_LINE_NUM_LOCK = "log:build:line:num:distribute:lock:"
+        private const val LINE_NUM_LEASE_MIN_SIZE = 100L
+        private const val LINE_NUM_LEASE_MAX_SIZE = 10000L
+        private const val LINE_NUM_LEASE_IDLE_SECONDS = 30L
+        /**
+         * 号段的有效期，过期后重新领取，不同节点分配的行号先后最多错开这么久
+         */
+        private const val LINE_NUM_LEASE_MAX_AGE_MILLIS = 1000L
+        /**
+         * 号段的末尾仍是当前计数时才把未用完的部分退回去，否则说明别的节点已经在后面领过号段了
+         */
+        private const val RETURN_LINE_NUM_LUA =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                "redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3]) return 1 else return 0 end"
         fun getLineNumRedisKey(buildId: String) = LOG_LINE_NUM + buildId
     }
 
@@ -87,6 +105,17 @@ class IndexServiceV2 @Autowired constructor(
             }
         )
 
+    /**
+     * 本节点从Redis领取的行号段，行号在本地顺序分配，Redis只在号段用完或过期时才访问一次
+     */
+    private val lineNumLeaseCache = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .expireAfterAccess(LINE_NUM_LEASE_IDLE_SECONDS, TimeUnit.SECONDS)
+        .removalListener(RemovalListener<String, LineNumLease> { notification ->
+            returnLineNumLease(notification.key, notification.value)
+        })
+        .build<String/*BuildId*/, LineNumLease>()
+
     private fun saveIndex(buildId: String): String {
         val indexName = IndexNameUtils.getIndexName()
         dslContext.transaction { configuration ->
@@ -107,13 +136,50 @@ class IndexServiceV2 @Autowired constructor(
     }
 
     fun getAndAddLineNum(buildId: String, size: Int): Long? {
-        var lineNum = redisOperation.increment(getLineNumRedisKey(buildId), size.toLong())
-        // val startLineNum = indexDaoV2.updateLastLineNum(dslContext, buildId, size)
+        while (true) {
+            val lease = lineNumLeaseCache.get(buildId) { LineNumLease() }
+            synchronized(lease) {
+                // 号段被退回后会从缓存中移除，重新取一个新的
+                if (!lease.returned) {
+                    return takeLineNum(buildId, lease, size.toLong())
+                }
+            }
+        }
+    }
+
+    private fun takeLineNum(buildId: String, lease: LineNumLease, size: Long): Long? {
+        val now = System.currentTimeMillis()
+        val remain = lease.end - lease.next
+        val expired = now - lease.leaseTime > LINE_NUM_LEASE_MAX_AGE_MILLIS
+        if (expired || remain < size) {
+            val leaseSize = maxOf(size, lease.leaseSize)
+            val end = incrementLineNum(buildId, leaseSize) ?: return null
+            // 和上一个号段首尾相接说明期间没有别的节点领号，直接续上；
+            // 否则上一个号段剩下的行号作废，保证本节点分配的行号单调递增，也不会落后于别的节点超过一个有效期
+            if (end - leaseSize != lease.end) {
+                lease.next = end - leaseSize
+            }
+            lease.end = end
+            lease.leaseTime = now
+            // 有效期内用不完说明号段领多了，减半；用完了就加倍
+            lease.leaseSize = if (expired && remain >= size) {
+                maxOf(lease.leaseSize / 2, LINE_NUM_LEASE_MIN_SIZE)
+            } else {
+                minOf(lease.leaseSize * 2, LINE_NUM_LEASE_MAX_SIZE)
+            }
+        }
+        val startLineNum = lease.next
+        lease.next += size
+        return startLineNum
+    }
+
+    private fun incrementLineNum(buildId: String, size: Long): Long? {
+        var lineNum = redisOperation.increment(getLineNumRedisKey(buildId), size)
         if (lineNum == null) {
             val redisLock = RedisLock(redisOperation, LOG_LINE_NUM_LOCK + buildId, 10)
             try {
                 redisLock.lock()
-                lineNum = redisOperation.increment(getLineNumRedisKey(buildId), size.toLong())
+                lineNum = redisOperation.increment(getLineNumRedisKey(buildId), size)
                 if (lineNum == null) {
                     logger.warn("[$buildId|$size] Fail to get and add the line num, get from db")
                     val build = indexDaoV2.getBuild(dslContext, buildId)
@@ -121,17 +187,59 @@ class IndexServiceV2 @Autowired constructor(
                         logger.warn("[$buildId|$size] The build is not exist in db")
                         return null
                     }
-                    lineNum = build.lastLineNum + size.toLong()
+                    lineNum = build.lastLineNum + size
                     redisOperation.set(getLineNumRedisKey(buildId), lineNum.toString(), TimeUnit.DAYS.toSeconds(2))
                 }
             } finally {
                 redisLock.unlock()
             }
         }
-        return lineNum!! - size
+        return lineNum
+    }
+
+    private fun returnLineNumLease(buildId: String, lease: LineNumLease) {
+        synchronized(lease) {
+            if (lease.returned) {
+                return
+            }
+            lease.returned = true
+            if (lease.next >= lease.end) {
+                return
+            }
+            try {
+                val result = redisOperation.execute(RedisCallback { connection ->
+                    val keys = listOf(getLineNumRedisKey(buildId))
+                    val args = listOf(
+                        lease.end.toString(), lease.next.toString(), TimeUnit.DAYS.toSeconds(2).toString()
+                    )
+                    val nativeConnection = connection.nativeConnection
+                    when (nativeConnection) {
+                        is JedisCluster -> nativeConnection.eval(RETURN_LINE_NUM_LUA, keys, args)
+                        is Jedis -> nativeConnection.eval(RETURN_LINE_NUM_LUA, keys, args)
+                        else -> {
+                            logger.warn("Unknown redis connection($nativeConnection)")
+                            null
+                        }
+                    }
+                })
+                logger.info("[$buildId|${lease.next}|${lease.end}|$result] Return the unused line num lease")
+            } catch (ignored: Exception) {
+                logger.warn("[$buildId|${lease.next}|${lease.end}] Fail to return the line num lease", ignored)
+            }
+        }
+    }
+
+    /**
+     * 空闲的号段只会在访问缓存时顺带清理，这里定时触发一次，让空闲号段及时退回
+     */
+    @Scheduled(initialDelay = 30000, fixedDelay = 30000)
+    fun cleanLineNumLease() {
+        lineNumLeaseCache.cleanUp()
     }
 
     fun flushLineNum2DB(buildId: String) {
+        // 先把本节点没用完的号段退回去，再落库
+        lineNumLeaseCache.invalidate(buildId)
         val lineNum = redisOperation.get(getLineNumRedisKey(buildId))
         if (lineNum.isNullOrBlank()) {
             logger.warn("[$buildId] Fail to get lineNum from redis")
@@ -161,4 +269,12 @@ class IndexServiceV2 @Autowired constructor(
             logStatusList?.firstOrNull { it.jobId == jobId && it.tag.startsWith("stopVM-") }?.finished == true
         }
     }
-}
\ No newline at end of file
+
+    private class LineNumLease {
+        var next = 0L
+        var end = 0L
+        var leaseSize = LINE_NUM_LEASE_MIN_SIZE
+        var leaseTime = 0L
+        var returned = false
+    }
+}
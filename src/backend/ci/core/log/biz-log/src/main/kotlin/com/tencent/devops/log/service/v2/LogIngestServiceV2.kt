@@ -0,0 +1,378 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.log.service.v2
+
+import com.tencent.devops.log.client.LogClient
+import com.tencent.devops.log.jmx.v2.LogBeanV2
+import org.elasticsearch.action.index.IndexRequestBuilder
+import org.elasticsearch.common.unit.TimeValue
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.util.LinkedList
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PreDestroy
+
+/**
+ * 日志写入ES的聚合层
+ *
+ * 各个消费线程提交的日志行按ES集群聚合，攒够[BULK_MAX_BYTES]或等待超过[LINGER_MILLIS]就合成一个bulk请求发出，
+ * 同时最多[MAX_IN_FLIGHT_BULKS]个bulk在途，已提交未写完的日志总量超过[MAX_PENDING_KB]时提交方阻塞，
+ * 从而让MQ消费者停止拉取新消息。bulk中失败的行单独重试，重试用尽、被拒绝或等待超时后提交方收到异常，由MQ事件重试兜底
+ */
+@Service
+class LogIngestServiceV2 @Autowired constructor(
+    private val client: LogClient,
+    private val logBeanV2: LogBeanV2
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(LogIngestServiceV2::class.java)
+        private const val BULK_MAX_BYTES = 5 * 1024 * 1024
+        private const val BULK_MAX_ACTIONS = 10000
+        private const val LINGER_MILLIS = 50L
+        private const val MAX_PENDING_KB = 64 * 1024
+        private const val MAX_IN_FLIGHT_BULKS = 8
+        private const val MAX_RETRY_TIMES = 3
+        private const val RETRY_INTERVAL_MILLIS = 500L
+        private const val BULK_TIMEOUT_SECONDS = 60L
+
+        /**
+         * 提交方最长等待时间，覆盖一次bulk超时加上全部重试
+         */
+        private const val INGEST_TIMEOUT_SECONDS = BULK_TIMEOUT_SECONDS * (MAX_RETRY_TIMES + 2)
+    }
+
+    /**
+     * 已提交未完成的日志量（KB），用于反压
+     */
+    private val pendingPermits = Semaphore(MAX_PENDING_KB)
+
+    /**
+     * ES集群名 -> 正在攒的bulk
+     */
+    private val batches = ConcurrentHashMap<String, Batch>()
+
+    private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "log-bulk-linger")
+        thread.isDaemon = true
+        thread
+    }
+
+    private val bulkThreadIndex = AtomicInteger(0)
+
+    /**
+     * 在途bulk满了以后直接拒绝，由[execute]决定等待空位还是按失败处理，bulk只在这个线程池里执行
+     */
+    private val bulkExecutor = ThreadPoolExecutor(
+        MAX_IN_FLIGHT_BULKS,
+        MAX_IN_FLIGHT_BULKS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue<Runnable>(MAX_IN_FLIGHT_BULKS),
+        ThreadFactory { runnable -> Thread(runnable, "log-bulk-${bulkThreadIndex.incrementAndGet()}") },
+        ThreadPoolExecutor.AbortPolicy()
+    )
+
+    init {
+        scheduler.scheduleWithFixedDelay({
+            try {
+                flushExpired()
+            } catch (ignored: Throwable) {
+                logger.warn("Fail to flush the lingering log bulks", ignored)
+            }
+        }, LINGER_MILLIS, LINGER_MILLIS, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * 写入一批日志并等待全部写完
+     *
+     * @param onIndexMissing 索引或type不存在导致写入失败时的补救，重试前调用
+     */
+    fun ingest(buildId: String, requests: List<IndexRequestBuilder>, onIndexMissing: () -> Unit) {
+        if (requests.isEmpty()) {
+            return
+        }
+        val ticket = Ticket(buildId, requests.size, onIndexMissing)
+        val clusterName = client.hashClient(buildId).name
+        val startEpoch = System.currentTimeMillis()
+        requests.forEach { request ->
+            val item = Item(ticket, request, request.request().source()?.length() ?: 0)
+            pendingPermits.acquire(item.permits)
+            logBeanV2.pending(item.bytes.toLong())
+            add(clusterName, item)
+        }
+        logBeanV2.blocked(System.currentTimeMillis() - startEpoch)
+        ticket.await()
+    }
+
+    @PreDestroy
+    fun destroy() {
+        scheduler.shutdown()
+        batches.values.forEach { batch ->
+            while (true) {
+                execute(batch.drainIf { true } ?: break)
+            }
+        }
+        bulkExecutor.shutdown()
+        bulkExecutor.awaitTermination(BULK_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun add(clusterName: String, item: Item) {
+        val batch = batches.computeIfAbsent(clusterName) { Batch() }
+        batch.add(item)?.let { execute(it) }
+    }
+
+    /**
+     * 定时器线程上执行：发出超过等待时间的bulk。定时器线程同时负责重试，不能等待bulk线程池的空位，
+     * 没有空位时把取出的bulk放回去，下一轮再发
+     */
+    private fun flushExpired() {
+        val expired = System.currentTimeMillis() - LINGER_MILLIS
+        batches.values.forEach { batch ->
+            while (true) {
+                val items = batch.drainIf { it.firstEpoch <= expired } ?: break
+                if (!tryExecute(batch, items)) {
+                    return
+                }
+            }
+        }
+    }
+
+    /**
+     * 定时器线程上执行：重试的行加回bulk，攒满时同样不等待线程池空位
+     */
+    private fun addForRetry(clusterName: String, item: Item) {
+        val batch = batches.computeIfAbsent(clusterName) { Batch() }
+        batch.add(item)?.let { tryExecute(batch, it) }
+    }
+
+    /**
+     * 不等待地交给bulk线程池，在途bulk已满时放回[batch]等下一轮；线程池已关闭时这些行直接按失败完成
+     */
+    private fun tryExecute(batch: Batch, items: List<Item>): Boolean {
+        try {
+            bulkExecutor.execute { bulk(items) }
+            return true
+        } catch (ignored: RejectedExecutionException) {
+            // 在途bulk已满或线程池已关闭
+        }
+        if (bulkExecutor.isShutdown) {
+            logger.warn("Reject the bulk of ${items.size} log lines, shutdown=true")
+            items.forEach { done(it, "bulk rejected") }
+        } else {
+            batch.pushBack(items)
+        }
+        return false
+    }
+
+    /**
+     * 提交方线程上执行：交给bulk线程池执行，在途bulk满了以后提交方限时等待队列空位，而不是自己执行bulk；
+     * 等不到空位或线程池已关闭时这些行直接按失败完成
+     */
+    private fun execute(items: List<Item>) {
+        val task = Runnable { bulk(items) }
+        try {
+            bulkExecutor.execute(task)
+            return
+        } catch (ignored: RejectedExecutionException) {
+            // 在途bulk已满或线程池已关闭
+        }
+        val queued = try {
+            !bulkExecutor.isShutdown && bulkExecutor.queue.offer(task, BULK_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        } catch (ignored: InterruptedException) {
+            Thread.currentThread().interrupt()
+            false
+        }
+        if (!queued) {
+            logger.warn("Reject the bulk of ${items.size} log lines, shutdown=${bulkExecutor.isShutdown}")
+            items.forEach { done(it, "bulk rejected") }
+        }
+    }
+
+    private fun bulk(items: List<Item>) {
+        val startEpoch = System.currentTimeMillis()
+        val bytes = items.fold(0L) { sum, item -> sum + item.bytes }
+        val failures = mutableListOf<Pair<Item, String>>()
+        logBeanV2.inFlight(1)
+        try {
+            val bulkRequestBuilder = client.prepareBulk(items[0].ticket.buildId)
+            items.forEach { bulkRequestBuilder.add(it.request) }
+            val bulkResponse = bulkRequestBuilder.get(TimeValue.timeValueSeconds(BULK_TIMEOUT_SECONDS))
+            // 注意，在 bulk 下，TypeMissingException 不会抛出，需要逐条判断
+            bulkResponse.items.forEach { response ->
+                if (response.isFailed) {
+                    failures.add(Pair(items[response.itemId], response.failureMessage ?: ""))
+                }
+            }
+        } catch (ignored: Throwable) {
+            logger.warn("Fail to bulk ${items.size} log lines", ignored)
+            items.forEach { failures.add(Pair(it, ignored.toString())) }
+        } finally {
+            logBeanV2.inFlight(-1)
+            logBeanV2.bulk(System.currentTimeMillis() - startEpoch, items.size, bytes, failures.size)
+        }
+
+        val failedItems = failures.map { it.first }.toSet()
+        items.forEach { item ->
+            if (!failedItems.contains(item)) {
+                done(item, null)
+            }
+        }
+        failures.forEach { (item, message) -> retry(item, message) }
+    }
+
+    private fun retry(item: Item, message: String) {
+        if (item.retryTimes >= MAX_RETRY_TIMES) {
+            logger.error("[${item.ticket.buildId}] Add log line failed after $MAX_RETRY_TIMES retries: $message")
+            done(item, message)
+            return
+        }
+        item.retryTimes++
+        logBeanV2.retry()
+        if (message.contains("TypeMissingException") || message.contains("index_not_found") ||
+            message.contains("IndexNotFoundException")) {
+            item.ticket.recoverIndex()
+        }
+        try {
+            scheduler.schedule({
+                try {
+                    addForRetry(client.hashClient(item.ticket.buildId).name, item)
+                } catch (ignored: Throwable) {
+                    done(item, ignored.toString())
+                }
+            }, RETRY_INTERVAL_MILLIS * item.retryTimes, TimeUnit.MILLISECONDS)
+        } catch (ignored: RejectedExecutionException) {
+            // 服务关闭后不再重试
+            done(item, message)
+        }
+    }
+
+    private fun done(item: Item, failure: String?) {
+        pendingPermits.release(item.permits)
+        logBeanV2.pending(-item.bytes.toLong())
+        item.ticket.done(failure)
+    }
+
+    private class Item(val ticket: Ticket, val request: IndexRequestBuilder, val bytes: Int) {
+        val permits = minOf(maxOf(1, bytes / 1024), MAX_PENDING_KB)
+        var retryTimes = 0
+    }
+
+    /**
+     * 一次提交的完成状态，所有行都写完（或最终失败）后唤醒提交方
+     */
+    private class Ticket(val buildId: String, size: Int, private val onIndexMissing: () -> Unit) {
+        private val remaining = AtomicInteger(size)
+        private val latch = CountDownLatch(1)
+        private val indexRecovered = AtomicInteger(0)
+        @Volatile
+        private var failure: String? = null
+
+        fun done(failure: String?) {
+            if (failure != null) {
+                this.failure = failure
+            }
+            if (remaining.decrementAndGet() == 0) {
+                latch.countDown()
+            }
+        }
+
+        fun recoverIndex() {
+            // 同一次提交只需要补建一次索引
+            if (indexRecovered.compareAndSet(0, 1)) {
+                try {
+                    onIndexMissing()
+                } catch (ignored: Throwable) {
+                    logger.warn("[$buildId] Fail to recover the log index", ignored)
+                }
+            }
+        }
+
+        fun await() {
+            if (!latch.await(INGEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw IllegalStateException("[$buildId] Add bulk lines timeout, remaining ${remaining.get()}")
+            }
+            val message = failure
+            if (message != null) {
+                throw IllegalStateException("[$buildId] Add bulk lines failed: $message")
+            }
+        }
+    }
+
+    /**
+     * 某个ES集群正在攒的bulk，达到大小上限或被定时器判定超时后整体取走
+     *
+     * 定时器线程上没能发出的bulk放在[ready]里，优先于正在攒的行被取走，不再与之合并，保证单个bulk不超过上限
+     */
+    private class Batch {
+        private val ready = LinkedList<List<Item>>()
+        private var items = mutableListOf<Item>()
+        private var bytes = 0
+        var firstEpoch = 0L
+            private set
+
+        @Synchronized
+        fun add(item: Item): List<Item>? {
+            if (items.isEmpty()) {
+                firstEpoch = System.currentTimeMillis()
+            }
+            items.add(item)
+            bytes += item.bytes
+            return if (bytes >= BULK_MAX_BYTES || items.size >= BULK_MAX_ACTIONS) drain() else null
+        }
+
+        @Synchronized
+        fun drainIf(predicate: (Batch) -> Boolean): List<Item>? {
+            if (ready.isNotEmpty()) {
+                return ready.poll()
+            }
+            return if (items.isNotEmpty() && predicate(this)) drain() else null
+        }
+
+        @Synchronized
+        fun pushBack(drained: List<Item>) {
+            ready.addFirst(drained)
+        }
+
+        private fun drain(): List<Item> {
+            val drained = items
+            items = mutableListOf()
+            bytes = 0
+            return drained
+        }
+    }
+}
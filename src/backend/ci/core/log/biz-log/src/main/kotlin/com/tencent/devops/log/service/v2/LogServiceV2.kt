@@ -87,7 +87,8 @@ class LogServiceV2 @Autowired constructor(
     private val createIndexBeanV2: CreateIndexBeanV2,
     private val logBeanV2: LogBeanV2,
     private val redisOperation: RedisOperation,
-    private val rabbitTemplate: RabbitTemplate
+    private val rabbitTemplate: RabbitTemplate,
+    private val logIngestServiceV2: LogIngestServiceV2
 ) {
 
     companion object {
@@ -109,23 +110,20 @@ class LogServiceV2 @Autowired constructor(
     fun addLogEvent(event: LogEvent) {
         startLog(event.buildId)
         val logMessage = addLineNo(event.buildId, event.logs)
-        LogDispatcher.dispatch(rabbitTemplate, LogBatchEvent(event.buildId, logMessage))
+        // 直接走聚合层写入，不再多转一次MQ；行号已经分配，失败时转成批量事件重试，避免重试时重复分配行号
+        try {
+            addBatchLogEvent(LogBatchEvent(event.buildId, logMessage))
+        } catch (ignored: Throwable) {
+            logger.warn("[${event.buildId}] Fail to add the log event, retry with batch event", ignored)
+            LogDispatcher.dispatch(rabbitTemplate, LogBatchEvent(event.buildId, logMessage))
+        }
     }
 
     fun addBatchLogEvent(event: LogBatchEvent) {
         val currentEpoch = System.currentTimeMillis()
         var success = false
         try {
-            val logMessages = event.logs
-            val buf = mutableListOf<LogMessageWithLineNo>()
-            logMessages.forEach {
-                buf.add(it)
-                if (buf.size == 200) {
-                    doAddMultiLines(buf, event.buildId)
-                    buf.clear()
-                }
-            }
-            if (buf.isNotEmpty()) doAddMultiLines(buf, event.buildId)
+            doAddMultiLines(event.logs, event.buildId)
             success = true
         } finally {
             val elapse = System.currentTimeMillis() - currentEpoch
@@ -1661,52 +1659,17 @@ class LogServiceV2 @Autowired constructor(
         return Pair(beginIndex!!, endIndex!!)
     }
 
-    private fun doAddMultiLines(logMessages: List<LogMessageWithLineNo>, buildId: String): Int {
+    private fun doAddMultiLines(logMessages: List<LogMessageWithLineNo>, buildId: String) {
 
         val indexAndType = indexServiceV2.getIndexAndType(buildId)
 
-        var lines = 0
-        val bulkRequestBuilder = client.prepareBulk(buildId)
-        for (i in logMessages.indices) {
-            val logMessage = logMessages[i]
-
-            val indexRequestBuilder = indexRequestBuilder(
-                buildId, logMessage, indexAndType.index, indexAndType.type
-            )
-            if (indexRequestBuilder != null) {
-                bulkRequestBuilder.add(indexRequestBuilder)
-                lines++
-            }
+        val indexRequestBuilders = logMessages.mapNotNull { logMessage ->
+            indexRequestBuilder(buildId, logMessage, indexAndType.index, indexAndType.type)
         }
-        try {
-            // 注意，在 bulk 下，TypeMissingException 不会抛出，需要判断 bulkResponse.hasFailures() 抛出
-            val bulkResponse = bulkRequestBuilder.get()
-            return if (bulkResponse.hasFailures()) {
-                throw Exception(bulkResponse.buildFailureMessage())
-            } else {
-                lines
-            }
-        } catch (ex: Exception) {
-            val exString = ex.toString()
-            if (exString.contains("TypeMissingException")) {
-                logger.error(
-                    "[$buildId] Add bulk lines failed because of TypeMissingException, attempting to add index. [$logMessages]",
-                    ex
-                )
-
-                startLog(buildId, true)
-
-                val bulkResponse = bulkRequestBuilder.get(TimeValue.timeValueSeconds(60))
-                return if (bulkResponse.hasFailures()) {
-                    logger.error(bulkResponse.buildFailureMessage())
-                    0
-                } else {
-                    lines
-                }
-            } else {
-                logger.error("[$buildId] Add bulk lines failed because of unknown Exception. [$logMessages]", ex)
-                throw ex
-            }
+        // 注意，在 bulk 下，TypeMissingException 不会抛出，由聚合层逐条判断后回调补建索引
+        logIngestServiceV2.ingest(buildId, indexRequestBuilders) {
+            logger.warn("[$buildId] Add bulk lines failed because of missing index or type, attempting to add index.")
+            startLog(buildId, true)
         }
     }
 
@@ -27,6 +27,7 @@
 package com.tencent.devops.misc.utils
 
 import com.tencent.devops.common.api.util.HashUtil
+import com.tencent.devops.common.auth.api.AuthPermissionApi
 import com.tencent.devops.common.auth.api.AuthResourceApi
 import com.tencent.devops.common.auth.api.AuthResourceType
 import com.tencent.devops.common.auth.code.EnvironmentAuthServiceCode
@@ -36,6 +37,7 @@ import org.springframework.stereotype.Service
 @Service
 class NodeAuthUtils @Autowired constructor(
     private val authResourceApi: AuthResourceApi,
+    private val authPermissionApi: AuthPermissionApi,
     private val environmentAuthServiceCode: EnvironmentAuthServiceCode
 ) {
 
@@ -48,6 +50,7 @@ class NodeAuthUtils @Autowired constructor(
             resourceCode = HashUtil.encodeLongId(nodeId),
             resourceName = "$nodeStringId($nodeIp)"
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = user)
     }
 
     fun deleteResource(projectId: String, nodeId: Long) {
@@ -57,5 +60,6 @@ class NodeAuthUtils @Autowired constructor(
             projectCode = projectId,
             resourceCode = HashUtil.encodeLongId(nodeId)
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 }
\ No newline at end of file
@@ -32,7 +32,6 @@ import com.tencent.devops.common.api.auth.AUTH_HEADER_DEVOPS_VM_SEQ_ID
 import com.tencent.devops.common.api.pojo.Result
 import com.tencent.devops.common.pipeline.enums.ChannelCode
 import com.tencent.devops.process.pojo.BuildHistory
-import com.tencent.devops.process.pojo.BuildTask
 import com.tencent.devops.process.pojo.BuildTaskResult
 import com.tencent.devops.process.pojo.BuildVariables
 import com.tencent.devops.process.pojo.pipeline.ModelDetail
@@ -48,6 +47,8 @@ import javax.ws.rs.Path
 import javax.ws.rs.PathParam
 import javax.ws.rs.Produces
 import javax.ws.rs.QueryParam
+import javax.ws.rs.container.AsyncResponse
+import javax.ws.rs.container.Suspended
 import javax.ws.rs.core.MediaType
 
 @Api(tags = ["BUILD_BUILD"], description = "构建-构建资源")
@@ -82,8 +83,13 @@ interface BuildBuildResource {
         vmSeqId: String,
         @ApiParam(value = "构建机名称", required = true)
         @HeaderParam(AUTH_HEADER_DEVOPS_VM_NAME)
-        vmName: String
-    ): Result<BuildTask>
+        vmName: String,
+        @ApiParam("没有可执行的任务时最长等待秒数，不传则立即返回", required = false)
+        @QueryParam("waitSeconds")
+        waitSeconds: Int?,
+        @Suspended
+        asyncResponse: AsyncResponse
+    )
 
     @ApiOperation("构建机完成任务")
     @POST
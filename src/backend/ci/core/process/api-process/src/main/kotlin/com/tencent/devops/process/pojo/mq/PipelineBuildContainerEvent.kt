@@ -29,6 +29,7 @@ package com.tencent.devops.process.pojo.mq
 import com.tencent.devops.common.event.annotation.Event
 import com.tencent.devops.common.event.dispatcher.pipeline.mq.MQ
 import com.tencent.devops.common.event.enums.ActionType
+import com.tencent.devops.common.event.pojo.pipeline.IBuildAffinityEvent
 import com.tencent.devops.common.event.pojo.pipeline.IPipelineEvent
 
 /**
@@ -42,11 +43,11 @@ data class PipelineBuildContainerEvent(
     override val projectId: String,
     override val pipelineId: String,
     override val userId: String,
-    val buildId: String,
+    override val buildId: String,
     val stageId: String,
     val containerId: String,
     val containerType: String,
     override var actionType: ActionType,
     override var delayMills: Int = 0,
     val reason: String? = null
-) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills)
+) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills), IBuildAffinityEvent
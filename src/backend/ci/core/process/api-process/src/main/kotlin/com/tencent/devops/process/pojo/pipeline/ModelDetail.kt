@@ -61,5 +61,7 @@ data class ModelDetail(
     @ApiModelProperty("流水线当前最新版本号", required = true)
     val latestVersion: Int,
     @ApiModelProperty("最新一次的构建buildNo", required = true)
-    val latestBuildNum: Int
+    val latestBuildNum: Int,
+    @ApiModelProperty("详情推送版本号，页面据此判断websocket增量推送能否直接应用", required = false)
+    val detailVersion: Long? = null
 )
\ No newline at end of file
@@ -93,6 +93,30 @@ abstract class AbstractPipelinePermissionService constructor(
         )
     }
 
+    /**
+     * 一次校验多条流水线是否有指定权限
+     * @param userId userId
+     * @param projectId projectId
+     * @param pipelineIds 流水线ID列表
+     * @param permission 权限
+     * @return 流水线ID -> 有权限返回true
+     */
+    override fun checkPipelinesPermission(
+        userId: String,
+        projectId: String,
+        pipelineIds: Collection<String>,
+        permission: AuthPermission
+    ): Map<String, Boolean> {
+        return authPermissionApi.validateUserResourcesPermission(
+            user = userId,
+            serviceCode = pipelineAuthServiceCode,
+            resourceType = resourceType,
+            projectCode = projectId,
+            resourceCodes = pipelineIds,
+            permission = permission
+        )
+    }
+
     override fun validPipelinePermission(
         userId: String,
         projectId: String,
@@ -164,6 +188,8 @@ abstract class AbstractPipelinePermissionService constructor(
             resourceCode = pipelineId,
             resourceName = pipelineName
         )
+        // 创建人获得了新流水线的权限
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     /**
@@ -197,6 +223,7 @@ abstract class AbstractPipelinePermissionService constructor(
             )
         } catch (ignored: Throwable) {
         }
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 
     /**
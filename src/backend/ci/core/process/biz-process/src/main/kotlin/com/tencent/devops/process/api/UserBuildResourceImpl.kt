@@ -37,6 +37,7 @@ import com.tencent.devops.common.pipeline.pojo.BuildParameters
 import com.tencent.devops.common.web.RestResource
 import com.tencent.devops.process.api.user.UserBuildResource
 import com.tencent.devops.process.engine.service.PipelineBuildService
+import com.tencent.devops.process.engine.service.PipelineDetailPushService
 import com.tencent.devops.process.pojo.BuildHistory
 import com.tencent.devops.process.pojo.BuildHistoryRemark
 import com.tencent.devops.process.pojo.BuildId
@@ -47,8 +48,10 @@ import org.springframework.beans.factory.annotation.Autowired
 import javax.ws.rs.core.Response
 
 @RestResource
-class UserBuildResourceImpl @Autowired constructor(private val buildService: PipelineBuildService) :
-    UserBuildResource {
+class UserBuildResourceImpl @Autowired constructor(
+    private val buildService: PipelineBuildService,
+    private val pipelineDetailPushService: PipelineDetailPushService
+) : UserBuildResource {
 
     override fun manualStartupInfo(
         userId: String,
@@ -202,6 +205,8 @@ class UserBuildResourceImpl @Autowired constructor(private val buildService: Pip
         if (buildId.isBlank()) {
             throw ParamBlankException("Invalid buildId")
         }
+        // 先取版本号再取详情：详情只会比版本号新，页面收到的下一个增量重复应用也不会出错
+        val detailVersion = pipelineDetailPushService.currentVersion(buildId)
         return Result(
             buildService.getBuildDetail(
                 userId = userId,
@@ -209,7 +214,7 @@ class UserBuildResourceImpl @Autowired constructor(private val buildService: Pip
                 pipelineId = pipelineId,
                 buildId = buildId,
                 channelCode = ChannelCode.BS
-            )
+            ).copy(detailVersion = detailVersion)
         )
     }
 
@@ -33,12 +33,12 @@ import com.tencent.devops.common.web.RestResource
 import com.tencent.devops.process.engine.service.PipelineBuildService
 import com.tencent.devops.process.engine.service.PipelineVMBuildService
 import com.tencent.devops.process.pojo.BuildHistory
-import com.tencent.devops.process.pojo.BuildTask
 import com.tencent.devops.process.pojo.BuildTaskResult
 import com.tencent.devops.process.pojo.BuildVariables
 import com.tencent.devops.process.pojo.pipeline.ModelDetail
 import com.tencent.devops.process.service.SubPipelineStartUpService
 import org.springframework.beans.factory.annotation.Autowired
+import javax.ws.rs.container.AsyncResponse
 
 @RestResource
 class BuildBuildResourceImpl @Autowired constructor(
@@ -57,9 +57,22 @@ class BuildBuildResourceImpl @Autowired constructor(
 //        return Result(vmBuildService.pluginStart(buildId, vmSeqId, vmName))
 //    }
 
-    override fun claimTask(buildId: String, vmSeqId: String, vmName: String): Result<BuildTask> {
+    override fun claimTask(
+        buildId: String,
+        vmSeqId: String,
+        vmName: String,
+        waitSeconds: Int?,
+        asyncResponse: AsyncResponse
+    ) {
         checkParam(buildId, vmSeqId, vmName)
-        return Result(vmBuildService.buildClaimTask(buildId, vmSeqId, vmName))
+        vmBuildService.buildClaimTask(
+            buildId = buildId,
+            vmSeqId = vmSeqId,
+            vmName = vmName,
+            waitSeconds = waitSeconds,
+            onClaimed = { asyncResponse.resume(Result(it)) },
+            onError = { asyncResponse.resume(it) }
+        )
     }
 
     override fun completeTask(
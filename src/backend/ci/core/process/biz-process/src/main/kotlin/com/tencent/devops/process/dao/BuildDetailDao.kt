@@ -117,37 +117,44 @@ class BuildDetailDao {
         }
     }
 
+    /**
+     * 更新构建详情
+     *
+     * @param fencingToken 持有构建详情锁时的防护令牌，不为空时一并写入，
+     * 且库里已有更大的令牌（被后来的持锁者写过）时不更新，返回0
+     * @param checkFence 为false时不比较库里的令牌，直接覆盖，用于令牌计数器过期重置后的写入
+     */
     fun update(
         dslContext: DSLContext,
         buildId: String,
         model: String,
         buildStatus: BuildStatus,
-        cancelUser: String? = null
+        cancelUser: String? = null,
+        fencingToken: Long? = null,
+        checkFence: Boolean = true
     ): Int {
         logger.info("Update the build detail of build $buildId")
         val count = with(TPipelineBuildDetail.T_PIPELINE_BUILD_DETAIL) {
-            if (BuildStatus.isFinish(buildStatus)) {
-                val update = dslContext.update(this)
-                    .set(MODEL, model)
-                    .set(STATUS, buildStatus.name)
-                    .set(END_TIME, LocalDateTime.now())
-
-                if (cancelUser != null) {
-                    update.set(CANCEL_USER, cancelUser)
-                }
-                update.where(BUILD_ID.eq(buildId)).execute()
-            } else {
-                val update = dslContext.update(this)
-                    .set(MODEL, model)
-                    .set(STATUS, buildStatus.name)
+            val update = dslContext.update(this)
+                .set(MODEL, model)
+                .set(STATUS, buildStatus.name)
 
-                if (cancelUser != null) {
-                    update.set(CANCEL_USER, cancelUser)
+            if (BuildStatus.isFinish(buildStatus)) {
+                update.set(END_TIME, LocalDateTime.now())
+            }
+            if (cancelUser != null) {
+                update.set(CANCEL_USER, cancelUser)
+            }
+            var condition = BUILD_ID.eq(buildId)
+            if (fencingToken != null) {
+                update.set(FENCE_TOKEN, fencingToken)
+                if (checkFence) {
+                    condition = condition.and(FENCE_TOKEN.isNull.or(FENCE_TOKEN.le(fencingToken)))
                 }
-                update.where(BUILD_ID.eq(buildId)).execute()
             }
+            update.where(condition).execute()
         }
-        logger.info("Update the build $buildId with status $buildStatus and count $count")
+        logger.info("Update the build $buildId with status $buildStatus, token $fencingToken and count $count")
         return count
     }
 
@@ -43,6 +43,7 @@ import com.tencent.devops.process.engine.interceptor.TimerTriggerScmChangeInterc
 import com.tencent.devops.process.service.measure.MeasureEventDispatcher
 import org.springframework.amqp.rabbit.core.RabbitTemplate
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.autoconfigure.AutoConfigureOrder
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication
@@ -94,8 +95,12 @@ class PipelineEngineConfiguration {
         return PipelineInterceptorChain(list)
     }
 
+    @Value("\${engine.buildAffinity.enabled:false}")
+    private val buildAffinityEnabled: Boolean? = null
+
     @Bean
-    fun pipelineEventDispatcher(rabbitTemplate: RabbitTemplate) = MQEventDispatcher(rabbitTemplate)
+    fun pipelineEventDispatcher(rabbitTemplate: RabbitTemplate) =
+        MQEventDispatcher(rabbitTemplate = rabbitTemplate, buildAffinity = buildAffinityEnabled == true)
 
     @Bean
     fun measureEventDispatcher(rabbitTemplate: RabbitTemplate) = MeasureEventDispatcher(rabbitTemplate)
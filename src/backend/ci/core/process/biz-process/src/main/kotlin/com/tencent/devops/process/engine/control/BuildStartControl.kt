@@ -476,7 +476,7 @@ class BuildStartControl @Autowired constructor(
         if (event.actionType == ActionType.START) {
             val startParams = buildVariableService.getAllVariable(event.buildId)
             if (startParams.isNotEmpty()) {
-                supplementModel(event.projectId, event.pipelineId, sModel, startParams as MutableMap<String, String>)
+                supplementModel(event.projectId, event.pipelineId, sModel, startParams.toMutableMap())
             } else {
                 val variables = mutableMapOf<String, String>()
                 supplementModel(event.projectId, event.pipelineId, sModel, variables)
@@ -41,11 +41,13 @@ import com.tencent.devops.log.utils.LogUtils
 import com.tencent.devops.process.engine.common.BS_CONTAINER_END_SOURCE_PREIX
 import com.tencent.devops.process.engine.common.VMUtils
 import com.tencent.devops.process.engine.control.ControlUtils.continueWhenFailure
+import com.tencent.devops.process.engine.control.lock.BuildAffinityLock
 import com.tencent.devops.process.engine.control.lock.ContainerIdLock
 import com.tencent.devops.process.engine.pojo.PipelineBuildContainer
 import com.tencent.devops.process.engine.pojo.PipelineBuildTask
 import com.tencent.devops.process.engine.pojo.event.PipelineBuildAtomTaskEvent
 import com.tencent.devops.process.engine.pojo.event.PipelineBuildStageEvent
+import com.tencent.devops.process.engine.service.BuildAffinityService
 import com.tencent.devops.process.engine.service.PipelineBuildDetailService
 import com.tencent.devops.process.engine.service.PipelineRuntimeService
 import com.tencent.devops.process.pojo.mq.PipelineBuildContainerEvent
@@ -67,6 +69,7 @@ import java.time.LocalDateTime
 class ContainerControl @Autowired constructor(
     private val rabbitTemplate: RabbitTemplate,
     private val redisOperation: RedisOperation,
+    private val buildAffinityService: BuildAffinityService,
     private val pipelineEventDispatcher: PipelineEventDispatcher,
     private val pipelineRuntimeService: PipelineRuntimeService,
     private val pipelineBuildDetailService: PipelineBuildDetailService,
@@ -79,7 +82,11 @@ class ContainerControl @Autowired constructor(
 
     fun handle(event: PipelineBuildContainerEvent) {
         with(event) {
-            val containerIdLock = ContainerIdLock(redisOperation, buildId, containerId)
+            val containerIdLock = BuildAffinityLock(
+                buildAffinityService = buildAffinityService,
+                buildId = buildId,
+                redisLock = ContainerIdLock(redisOperation, buildId, containerId)
+            )
             try {
                 containerIdLock.lock()
                 execute()
@@ -35,12 +35,14 @@ import com.tencent.devops.common.pipeline.enums.StageRunCondition
 import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.process.engine.common.BS_CONTAINER_END_SOURCE_PREIX
 import com.tencent.devops.process.engine.common.BS_MANUAL_START_STAGE
+import com.tencent.devops.process.engine.control.lock.BuildAffinityLock
 import com.tencent.devops.process.engine.control.lock.StageIdLock
 import com.tencent.devops.process.engine.pojo.PipelineBuildContainer
 import com.tencent.devops.process.engine.pojo.PipelineBuildStage
 import com.tencent.devops.process.engine.pojo.event.PipelineBuildCancelEvent
 import com.tencent.devops.process.engine.pojo.event.PipelineBuildFinishEvent
 import com.tencent.devops.process.engine.pojo.event.PipelineBuildStageEvent
+import com.tencent.devops.process.engine.service.BuildAffinityService
 import com.tencent.devops.process.engine.service.PipelineBuildDetailService
 import com.tencent.devops.process.engine.service.PipelineRuntimeService
 import com.tencent.devops.process.engine.service.PipelineStageService
@@ -58,6 +60,7 @@ import java.time.LocalDateTime
 @Service
 class StageControl @Autowired constructor(
     private val redisOperation: RedisOperation,
+    private val buildAffinityService: BuildAffinityService,
     private val pipelineEventDispatcher: PipelineEventDispatcher,
     private val pipelineRuntimeService: PipelineRuntimeService,
     private val buildVariableService: BuildVariableService,
@@ -69,7 +72,11 @@ class StageControl @Autowired constructor(
 
     fun handle(event: PipelineBuildStageEvent) {
         with(event) {
-            val stageIdLock = StageIdLock(redisOperation, buildId, stageId)
+            val stageIdLock = BuildAffinityLock(
+                buildAffinityService = buildAffinityService,
+                buildId = buildId,
+                redisLock = StageIdLock(redisOperation, buildId, stageId)
+            )
             try {
                 stageIdLock.lock()
                 execute()
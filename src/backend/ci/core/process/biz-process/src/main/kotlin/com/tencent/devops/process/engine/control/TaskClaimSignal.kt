@@ -0,0 +1,221 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.process.engine.control
+
+import com.tencent.devops.common.redis.RedisOperation
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.data.redis.connection.Message
+import org.springframework.data.redis.connection.MessageListener
+import org.springframework.data.redis.listener.ChannelTopic
+import org.springframework.data.redis.listener.RedisMessageListenerContainer
+import org.springframework.stereotype.Component
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+
+/**
+ * 构建机领取任务的长轮询信号
+ *
+ * 每个构建容器在redis里有一个版本号，容器下任务状态每次变化都递增，并在 [CHANNEL] 上广播该容器。
+ * 领取任务返回WAIT后，请求以异步方式挂起（不占undertow的worker线程），到版本号变化再重新领取，超时就直接返回WAIT：
+ * 1. 任一实例上的状态变化都通过频道消息唤醒本实例挂起的请求，挂起期间不查DB也不轮询Redis
+ * 2. 挂起的请求数有上限，超过上限的直接返回WAIT，由构建机按原来的间隔短轮询
+ */
+@Component
+class TaskClaimSignal @Autowired constructor(
+    private val redisOperation: RedisOperation,
+    private val redisMessageListenerContainer: RedisMessageListenerContainer
+) : MessageListener {
+
+    /**
+     * buildId|vmSeqId -> 本实例挂起的领取请求
+     */
+    private val waiters = ConcurrentHashMap<String, MutableSet<Waiter>>()
+
+    private val waitingCount = AtomicInteger(0)
+
+    private val timeoutScheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactory { runnable ->
+        val thread = Thread(runnable, "task-claim-timeout")
+        thread.isDaemon = true
+        thread
+    })
+
+    private val wakeupThreadIndex = AtomicInteger(0)
+
+    /**
+     * 唤醒后重新领取要查DB，不能放在Redis订阅线程或超时线程里做；排队的任务数不会超过挂起上限
+     */
+    private val wakeupExecutor = ThreadPoolExecutor(
+        WAKEUP_THREADS,
+        WAKEUP_THREADS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        LinkedBlockingQueue<Runnable>(),
+        ThreadFactory { runnable -> Thread(runnable, "task-claim-wakeup-${wakeupThreadIndex.incrementAndGet()}") }
+    )
+
+    /**
+     * 状态变化的广播订阅注册到服务共用的订阅容器
+     */
+    @PostConstruct
+    fun init() {
+        redisMessageListenerContainer.addMessageListener(this, ChannelTopic(CHANNEL))
+    }
+
+    /**
+     * 容器下的任务状态发生了变化
+     */
+    fun notifyChanged(buildId: String, vmSeqId: String) {
+        try {
+            val key = versionKey(buildId, vmSeqId)
+            redisOperation.increment(key, 1)
+            redisOperation.expireAt(key, Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(VERSION_EXPIRE_DAYS)))
+            redisOperation.publish(CHANNEL, signalKey(buildId, vmSeqId))
+        } catch (ignored: Throwable) {
+            logger.warn("[$buildId]|containerId=$vmSeqId|Fail to increase the task version", ignored)
+        }
+    }
+
+    /**
+     * 当前版本号，领取任务前先取，等待时与之比较
+     */
+    fun version(buildId: String, vmSeqId: String): String {
+        return try {
+            redisOperation.get(versionKey(buildId, vmSeqId)) ?: "0"
+        } catch (ignored: Throwable) {
+            logger.warn("[$buildId]|containerId=$vmSeqId|Fail to get the task version", ignored)
+            ""
+        }
+    }
+
+    /**
+     * 挂起等待版本号变化，变化时回调true，超时回调false，回调在唤醒线程池里执行。
+     * 返回false表示没有挂起（不需要等待、取不到版本号或挂起数超上限），不会回调，调用方直接应答
+     */
+    fun awaitChanged(
+        buildId: String,
+        vmSeqId: String,
+        version: String,
+        waitMills: Long,
+        onChanged: (Boolean) -> Unit
+    ): Boolean {
+        if (waitMills <= 0 || version.isEmpty()) {
+            return false
+        }
+        if (waitingCount.incrementAndGet() > MAX_WAITING_CLAIMS) {
+            waitingCount.decrementAndGet()
+            return false
+        }
+        val waiter = Waiter(signalKey(buildId, vmSeqId), onChanged)
+        waiters.computeIfAbsent(waiter.key) { ConcurrentHashMap.newKeySet() }.add(waiter)
+        waiter.timeout = timeoutScheduler.schedule(
+            Runnable { waiter.complete(false) },
+            Math.min(waitMills, TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS)),
+            TimeUnit.MILLISECONDS
+        )
+        // 领取到登记之间的变化收不到消息，登记之后再比一次版本号
+        val currentVersion = version(buildId, vmSeqId)
+        if (currentVersion != version) {
+            waiter.complete(currentVersion.isNotEmpty())
+        }
+        return true
+    }
+
+    override fun onMessage(message: Message, pattern: ByteArray?) {
+        val key = String(message.body, Charsets.UTF_8)
+        waiters[key]?.forEach { it.complete(true) }
+    }
+
+    @PreDestroy
+    fun destroy() {
+        // 停机前把挂起的请求都按WAIT应答掉
+        waiters.values.forEach { keyWaiters -> keyWaiters.forEach { it.complete(false) } }
+        timeoutScheduler.shutdownNow()
+        wakeupExecutor.shutdown()
+        wakeupExecutor.awaitTermination(MAX_WAIT_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun versionKey(buildId: String, vmSeqId: String) = "process:build:claim:version:$buildId:$vmSeqId"
+
+    private fun signalKey(buildId: String, vmSeqId: String) = "$buildId|$vmSeqId"
+
+    private inner class Waiter(val key: String, private val onChanged: (Boolean) -> Unit) {
+        private val done = AtomicBoolean(false)
+
+        @Volatile
+        var timeout: ScheduledFuture<*>? = null
+
+        /**
+         * 唤醒、超时、停机可能同时发生，只有第一次生效
+         */
+        fun complete(changed: Boolean) {
+            if (!done.compareAndSet(false, true)) {
+                return
+            }
+            timeout?.cancel(false)
+            waiters.computeIfPresent(key) { _, keyWaiters ->
+                keyWaiters.remove(this)
+                if (keyWaiters.isEmpty()) null else keyWaiters
+            }
+            waitingCount.decrementAndGet()
+            try {
+                wakeupExecutor.execute { onChanged(changed) }
+            } catch (ignored: RejectedExecutionException) {
+                // 停机中线程池已关闭，直接在当前线程应答
+                onChanged(changed)
+            }
+        }
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(TaskClaimSignal::class.java)
+        const val CHANNEL = "process:build:claim:changed"
+        private const val VERSION_EXPIRE_DAYS = 7L
+        private const val MAX_WAIT_SECONDS = 30L
+        private const val WAKEUP_THREADS = 4
+
+        /**
+         * 挂起的请求只占一个AsyncResponse和连接，按每个约4KB、最多用堆的1%估算，限制在1000到10000之间；
+         * 唤醒后的重新领取在WAKEUP_THREADS个线程里执行，查DB的并发不随挂起数增加
+         */
+        private const val WAITING_CLAIM_BYTES = 4096L
+        private val MAX_WAITING_CLAIMS =
+            (Runtime.getRuntime().maxMemory() / 100 / WAITING_CLAIM_BYTES).coerceIn(1000L, 10000L).toInt()
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.control.lock
+
+import com.google.common.cache.CacheBuilder
+import com.tencent.devops.common.redis.FencedRedisLock
+import com.tencent.devops.process.engine.service.BuildAffinityService
+import java.util.concurrent.locks.ReentrantLock
+
+/**
+ * 构建亲和锁：本实例持有构建所在的亲和分区时，该构建的事件只会在本实例处理，用进程内锁即可，
+ * 否则（未开启亲和路由、分区迁移中）退回到分布式锁[redisLock]
+ */
+class BuildAffinityLock(
+    buildAffinityService: BuildAffinityService,
+    buildId: String,
+    private val redisLock: FencedRedisLock
+) {
+
+    companion object {
+        /**
+         * lockKey -> 进程内锁，不再被引用的锁随GC回收
+         */
+        private val localLocks = CacheBuilder.newBuilder().weakValues().build<String, ReentrantLock>()
+    }
+
+    private val localLock: ReentrantLock? =
+        if (buildAffinityService.isLocal(buildId)) localLocks.get(redisLock.lockKey) { ReentrantLock() } else null
+
+    private var locked = false
+
+    fun lock() {
+        if (localLock != null) {
+            localLock.lock()
+        } else {
+            redisLock.lock()
+        }
+        locked = true
+    }
+
+    fun unlock() {
+        if (!locked) {
+            return
+        }
+        locked = false
+        if (localLock != null) {
+            localLock.unlock()
+        } else {
+            redisLock.unlock()
+        }
+    }
+}
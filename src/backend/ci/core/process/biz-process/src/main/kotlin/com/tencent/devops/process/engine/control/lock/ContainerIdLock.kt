@@ -26,12 +26,12 @@
 
 package com.tencent.devops.process.engine.control.lock
 
-import com.tencent.devops.common.redis.RedisLock
+import com.tencent.devops.common.redis.FencedRedisLock
 import com.tencent.devops.common.redis.RedisOperation
 
 class ContainerIdLock(redisOperation: RedisOperation, buildId: String, containerId: String) :
-    RedisLock(
+    FencedRedisLock(
         redisOperation = redisOperation,
         lockKey = "lock:build:$buildId:container:$containerId",
-        expiredTimeInSeconds = 60
+        leaseTimeInSeconds = 60
     )
\ No newline at end of file
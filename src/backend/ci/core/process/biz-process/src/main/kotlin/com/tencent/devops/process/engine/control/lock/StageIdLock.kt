@@ -26,12 +26,12 @@
 
 package com.tencent.devops.process.engine.control.lock
 
-import com.tencent.devops.common.redis.RedisLock
+import com.tencent.devops.common.redis.FencedRedisLock
 import com.tencent.devops.common.redis.RedisOperation
 
 class StageIdLock(redisOperation: RedisOperation, buildId: String, stageId: String) :
-    RedisLock(
+    FencedRedisLock(
         redisOperation = redisOperation,
         lockKey = "lock:build:$buildId:stage:$stageId",
-        expiredTimeInSeconds = 60
+        leaseTimeInSeconds = 60
     )
\ No newline at end of file
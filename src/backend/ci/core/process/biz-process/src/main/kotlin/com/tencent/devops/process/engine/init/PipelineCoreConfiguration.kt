@@ -34,6 +34,7 @@ import com.tencent.devops.process.engine.listener.pipeline.MQPipelineCreateListe
 import com.tencent.devops.process.engine.listener.pipeline.MQPipelineDeleteListener
 import com.tencent.devops.process.engine.listener.pipeline.MQPipelineUpdateListener
 import com.tencent.devops.process.engine.listener.run.PipelineAtomTaskBuildListener
+import com.tencent.devops.process.engine.listener.run.PipelineBuildAffinityListener
 import com.tencent.devops.process.engine.listener.run.PipelineBuildStartListener
 import com.tencent.devops.process.engine.listener.run.PipelineContainerBuildListener
 import com.tencent.devops.process.engine.listener.run.PipelineStageBuildListener
@@ -74,6 +75,13 @@ class PipelineCoreConfiguration {
     @Bean
     fun messageConverter(objectMapper: ObjectMapper) = Jackson2JsonMessageConverter(objectMapper)
 
+    /**
+     * 开启构建亲和路由后，构建的启动/Stage/Job/结束/取消事件由持有亲和分区的实例消费，
+     * 以下公共队列只负责把旧的或其他服务投递进来的事件转投到分区队列
+     */
+    @Value("\${engine.buildAffinity.enabled:false}")
+    private val buildAffinityEnabled: Boolean? = null
+
     @Value("\${queueConcurrency.buildStart:5}")
     private val buildStartConcurrency: Int? = null
 
@@ -98,6 +106,7 @@ class PipelineCoreConfiguration {
         @Autowired pipelineBuildStartQueue: Queue,
         @Autowired rabbitAdmin: RabbitAdmin,
         @Autowired buildListener: PipelineBuildStartListener,
+        @Autowired buildAffinityListener: PipelineBuildAffinityListener,
         @Autowired messageConverter: Jackson2JsonMessageConverter
     ): SimpleMessageListenerContainer {
 
@@ -105,7 +114,7 @@ class PipelineCoreConfiguration {
             connectionFactory = connectionFactory,
             queue = pipelineBuildStartQueue,
             rabbitAdmin = rabbitAdmin,
-            buildListener = buildListener,
+            buildListener = if (buildAffinityEnabled == true) buildAffinityListener else buildListener,
             messageConverter = messageConverter,
             startConsumerMinInterval = 1000,
             consecutiveActiveTrigger = 5,
@@ -138,13 +147,14 @@ class PipelineCoreConfiguration {
         @Autowired pipelineBuildStageQueue: Queue,
         @Autowired rabbitAdmin: RabbitAdmin,
         @Autowired buildListener: PipelineStageBuildListener,
+        @Autowired buildAffinityListener: PipelineBuildAffinityListener,
         @Autowired messageConverter: Jackson2JsonMessageConverter
     ): SimpleMessageListenerContainer {
         return Tools.createSimpleMessageListenerContainer(
             connectionFactory = connectionFactory,
             queue = pipelineBuildStageQueue,
             rabbitAdmin = rabbitAdmin,
-            buildListener = buildListener,
+            buildListener = if (buildAffinityEnabled == true) buildAffinityListener else buildListener,
             messageConverter = messageConverter,
             startConsumerMinInterval = 5000,
             consecutiveActiveTrigger = 5,
@@ -177,6 +187,7 @@ class PipelineCoreConfiguration {
         @Autowired pipelineBuildContainerQueue: Queue,
         @Autowired rabbitAdmin: RabbitAdmin,
         @Autowired pipelineContainerBuildListener: PipelineContainerBuildListener,
+        @Autowired buildAffinityListener: PipelineBuildAffinityListener,
         @Autowired messageConverter: Jackson2JsonMessageConverter
     ): SimpleMessageListenerContainer {
 
@@ -184,7 +195,7 @@ class PipelineCoreConfiguration {
             connectionFactory = connectionFactory,
             queue = pipelineBuildContainerQueue,
             rabbitAdmin = rabbitAdmin,
-            buildListener = pipelineContainerBuildListener,
+            buildListener = if (buildAffinityEnabled == true) buildAffinityListener else pipelineContainerBuildListener,
             messageConverter = messageConverter,
             startConsumerMinInterval = 5000,
             consecutiveActiveTrigger = 5,
@@ -296,13 +307,14 @@ class PipelineCoreConfiguration {
         @Autowired pipelineBuildFinishQueue: Queue,
         @Autowired rabbitAdmin: RabbitAdmin,
         @Autowired buildListener: PipelineBuildFinishListener,
+        @Autowired buildAffinityListener: PipelineBuildAffinityListener,
         @Autowired messageConverter: Jackson2JsonMessageConverter
     ): SimpleMessageListenerContainer {
         return Tools.createSimpleMessageListenerContainer(
             connectionFactory = connectionFactory,
             queue = pipelineBuildFinishQueue,
             rabbitAdmin = rabbitAdmin,
-            buildListener = buildListener,
+            buildListener = if (buildAffinityEnabled == true) buildAffinityListener else buildListener,
             messageConverter = messageConverter,
             startConsumerMinInterval = 5000,
             consecutiveActiveTrigger = 5,
@@ -336,6 +348,7 @@ class PipelineCoreConfiguration {
         @Autowired pipelineBuildCancelQueue: Queue,
         @Autowired rabbitAdmin: RabbitAdmin,
         @Autowired buildListener: PipelineBuildCancelListener,
+        @Autowired buildAffinityListener: PipelineBuildAffinityListener,
         @Autowired messageConverter: Jackson2JsonMessageConverter
     ): SimpleMessageListenerContainer {
 
@@ -343,7 +356,7 @@ class PipelineCoreConfiguration {
             connectionFactory = connectionFactory,
             queue = pipelineBuildCancelQueue,
             rabbitAdmin = rabbitAdmin,
-            buildListener = buildListener,
+            buildListener = if (buildAffinityEnabled == true) buildAffinityListener else buildListener,
             messageConverter = messageConverter,
             startConsumerMinInterval = 5000,
             consecutiveActiveTrigger = 5,
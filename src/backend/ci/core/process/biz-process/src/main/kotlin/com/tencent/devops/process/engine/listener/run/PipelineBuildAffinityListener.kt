@@ -0,0 +1,85 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.listener.run
+
+import com.tencent.devops.common.event.dispatcher.pipeline.PipelineEventDispatcher
+import com.tencent.devops.common.event.listener.pipeline.BaseListener
+import com.tencent.devops.common.event.pojo.pipeline.IBuildAffinityEvent
+import com.tencent.devops.common.event.pojo.pipeline.IPipelineEvent
+import com.tencent.devops.process.engine.listener.run.finish.PipelineBuildCancelListener
+import com.tencent.devops.process.engine.listener.run.finish.PipelineBuildFinishListener
+import com.tencent.devops.process.engine.pojo.event.PipelineBuildCancelEvent
+import com.tencent.devops.process.engine.pojo.event.PipelineBuildFinishEvent
+import com.tencent.devops.process.engine.pojo.event.PipelineBuildStageEvent
+import com.tencent.devops.process.engine.pojo.event.PipelineBuildStartEvent
+import com.tencent.devops.process.engine.service.BuildAffinityService
+import com.tencent.devops.process.pojo.mq.PipelineBuildContainerEvent
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+
+/**
+ *  构建亲和分区队列的事件入口：同一构建的启动/Stage/Job/结束/取消事件都由这里分发给各自的监听器，
+ *  本实例不持有该构建所在分区时（分区刚迁走或事件来自旧的公共队列）转投到分区队列，由分区的持有者处理
+ *
+ *  一个分区有多个消费者，这里不保证同一构建的事件按到达顺序处理，同一构建的并发由各监听器内的
+ *  [com.tencent.devops.process.engine.control.lock.BuildAffinityLock] 串行，与走公共队列时的语义一致
+ *
+ * @version 1.0
+ */
+@Component
+class PipelineBuildAffinityListener @Autowired constructor(
+    private val buildAffinityService: BuildAffinityService,
+    private val pipelineBuildStartListener: PipelineBuildStartListener,
+    private val pipelineStageBuildListener: PipelineStageBuildListener,
+    private val pipelineContainerBuildListener: PipelineContainerBuildListener,
+    private val pipelineBuildFinishListener: PipelineBuildFinishListener,
+    private val pipelineBuildCancelListener: PipelineBuildCancelListener,
+    pipelineEventDispatcher: PipelineEventDispatcher
+) : BaseListener<IPipelineEvent>(pipelineEventDispatcher) {
+
+    override fun run(event: IPipelineEvent) {
+        if (event is IBuildAffinityEvent && !buildAffinityService.isLocal(event.buildId)) {
+            forward(event)
+            return
+        }
+        when (event) {
+            is PipelineBuildStartEvent -> pipelineBuildStartListener.execute(event)
+            is PipelineBuildStageEvent -> pipelineStageBuildListener.execute(event)
+            is PipelineBuildContainerEvent -> pipelineContainerBuildListener.execute(event)
+            is PipelineBuildFinishEvent -> pipelineBuildFinishListener.execute(event)
+            is PipelineBuildCancelEvent -> pipelineBuildCancelListener.execute(event)
+            else -> logger.warn("[${event.pipelineId}]|AFFINITY_UNKNOWN_EVENT|event=$event")
+        }
+    }
+
+    private fun forward(event: IPipelineEvent) {
+        logger.info("[${event.pipelineId}]|AFFINITY_FORWARD|source=${event.source}|event=${event.javaClass.simpleName}")
+        // 延时已经在原队列等过了，转投时不再重复延时
+        event.delayMills = 0
+        pipelineEventDispatcher.dispatch(event)
+    }
+}
@@ -29,6 +29,7 @@ package com.tencent.devops.process.engine.pojo.event
 import com.tencent.devops.common.event.annotation.Event
 import com.tencent.devops.common.event.dispatcher.pipeline.mq.MQ
 import com.tencent.devops.common.event.enums.ActionType
+import com.tencent.devops.common.event.pojo.pipeline.IBuildAffinityEvent
 import com.tencent.devops.common.event.pojo.pipeline.IPipelineEvent
 import com.tencent.devops.common.pipeline.enums.BuildStatus
 import com.tencent.devops.common.api.pojo.ErrorType
@@ -44,11 +45,11 @@ data class PipelineBuildFinishEvent(
     override val projectId: String,
     override val pipelineId: String,
     override val userId: String,
-    val buildId: String,
+    override val buildId: String,
     val status: BuildStatus,
     override var actionType: ActionType = ActionType.END,
     override var delayMills: Int = 0,
     val errorType: ErrorType? = null,
     val errorCode: Int? = null,
     val errorMsg: String? = null
-) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills)
+) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills), IBuildAffinityEvent
@@ -29,6 +29,7 @@ package com.tencent.devops.process.engine.pojo.event
 import com.tencent.devops.common.event.annotation.Event
 import com.tencent.devops.common.event.dispatcher.pipeline.mq.MQ
 import com.tencent.devops.common.event.enums.ActionType
+import com.tencent.devops.common.event.pojo.pipeline.IBuildAffinityEvent
 import com.tencent.devops.common.event.pojo.pipeline.IPipelineEvent
 
 /**
@@ -42,8 +43,8 @@ data class PipelineBuildStageEvent(
     override val projectId: String,
     override val pipelineId: String,
     override val userId: String,
-    val buildId: String,
+    override val buildId: String,
     val stageId: String,
     override var actionType: ActionType,
     override var delayMills: Int = 0
-) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills)
+) : IPipelineEvent(actionType, source, projectId, pipelineId, userId, delayMills), IBuildAffinityEvent
@@ -0,0 +1,238 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.service
+
+import com.tencent.devops.common.event.dispatcher.pipeline.mq.BuildAffinity
+import com.tencent.devops.common.event.dispatcher.pipeline.mq.MQ
+import com.tencent.devops.common.event.dispatcher.pipeline.mq.Tools
+import com.tencent.devops.common.redis.FencedRedisLock
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.common.service.utils.CommonUtils
+import com.tencent.devops.common.service.utils.SpringContextUtil
+import com.tencent.devops.process.engine.listener.run.PipelineBuildAffinityListener
+import org.slf4j.LoggerFactory
+import org.springframework.amqp.core.Binding
+import org.springframework.amqp.core.Queue
+import org.springframework.amqp.rabbit.connection.ConnectionFactory
+import org.springframework.amqp.rabbit.core.RabbitAdmin
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+
+/**
+ * 构建事件亲和分区的归属管理
+ *
+ * 1. 每个实例定时在Redis登记心跳，按[BuildAffinity.owner]算出自己应持有的分区
+ * 2. 持有分区前先抢该分区的[FencedRedisLock]，抢到后才开始消费分区队列，同一分区同一时刻只会有一个实例在消费
+ * 3. 分区迁出时先停止消费、等在途事件处理完，再释放分区锁，新的实例才能接手
+ * 4. 持有分区期间该分区内构建的事件都在本实例处理，一个分区有多个消费者，
+ *    同一构建的Stage/Job由进程内锁串行，不需要再走分布式锁，见[isLocal]
+ */
+@Service
+class BuildAffinityService @Autowired constructor(
+    private val redisOperation: RedisOperation,
+    private val connectionFactory: ConnectionFactory,
+    private val rabbitAdmin: RabbitAdmin,
+    private val messageConverter: Jackson2JsonMessageConverter
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(BuildAffinityService::class.java)
+        private const val MEMBERS_KEY = "process:engine:affinity:members"
+        private const val PARTITION_LOCK_PREFIX = "process:engine:affinity:partition:"
+        private const val MEMBER_EXPIRED_MILLIS = 30000L
+        private const val PARTITION_LEASE_SECONDS = 30L
+        private const val SHUTDOWN_TIMEOUT_MILLIS = 30000L
+    }
+
+    @Value("\${engine.buildAffinity.enabled:false}")
+    private val enabled: Boolean? = null
+
+    @Value("\${queueConcurrency.buildAffinity:4}")
+    private val partitionConcurrency: Int? = null
+
+    private val instanceId = "${CommonUtils.getInnerIP()}-${UUID.randomUUID()}"
+
+    private val ownedPartitions = ConcurrentHashMap<Int, OwnedPartition>()
+
+    fun isEnabled() = enabled == true
+
+    /**
+     * 本实例当前是否持有该构建所在的分区。分区迁移过程中或未开启亲和路由时返回false，调用方应退回分布式锁
+     *
+     * 分区锁的租期可能在两次rebalance之间过期并被别的实例拿到，所以每次都要校验防护令牌仍是最新的，
+     * 校验失败（包括Redis异常）时按不持有处理
+     */
+    fun isLocal(buildId: String): Boolean {
+        if (!isEnabled()) {
+            return false
+        }
+        val owned = ownedPartitions[BuildAffinity.partition(buildId)]
+        if (owned == null || !owned.held) {
+            return false
+        }
+        return try {
+            owned.lock.isHeld()
+        } catch (ignored: Throwable) {
+            logger.warn("[$instanceId]|AFFINITY_TOKEN_CHECK_FAIL|buildId=$buildId|${ignored.message}")
+            false
+        }
+    }
+
+    @PostConstruct
+    fun init() {
+        if (!isEnabled()) {
+            return
+        }
+        // 所有分区队列在每个实例启动时都先声明好，保证下发事件时即使分区暂时无人消费也不会丢失
+        (0 until MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS).forEach { partition ->
+            rabbitAdmin.declareQueue(Queue(BuildAffinity.queueName(partition)))
+            rabbitAdmin.declareBinding(
+                Binding(
+                    BuildAffinity.queueName(partition),
+                    Binding.DestinationType.QUEUE,
+                    MQ.ENGINE_PROCESS_LISTENER_EXCHANGE,
+                    BuildAffinity.routeKey(partition),
+                    null
+                )
+            )
+        }
+    }
+
+    @Scheduled(initialDelay = 5000, fixedDelay = 10000)
+    fun rebalance() {
+        if (!isEnabled()) {
+            return
+        }
+        try {
+            val now = System.currentTimeMillis()
+            redisOperation.hset(MEMBERS_KEY, instanceId, now.toString())
+            val members = mutableListOf<String>()
+            redisOperation.hentries(MEMBERS_KEY)?.forEach { (member, heartbeat) ->
+                if (now - (heartbeat.toLongOrNull() ?: 0) > MEMBER_EXPIRED_MILLIS) {
+                    redisOperation.hdelete(MEMBERS_KEY, member)
+                } else {
+                    members.add(member)
+                }
+            }
+
+            (0 until MQ.PIPELINE_BUILD_AFFINITY_PARTITIONS).forEach { partition ->
+                val owned = ownedPartitions[partition]
+                if (BuildAffinity.owner(partition, members) == instanceId) {
+                    if (owned == null) {
+                        acquire(partition)
+                    } else if (!owned.lock.isHeld()) {
+                        logger.warn("[$instanceId]|AFFINITY_PARTITION_LOST|partition=$partition")
+                        release(partition)
+                    }
+                } else if (owned != null) {
+                    logger.info("[$instanceId]|AFFINITY_PARTITION_MOVE_OUT|partition=$partition")
+                    release(partition)
+                }
+            }
+        } catch (ignored: Throwable) {
+            logger.warn("[$instanceId]|AFFINITY_REBALANCE_FAIL|${ignored.message}", ignored)
+        }
+    }
+
+    @PreDestroy
+    fun destroy() {
+        if (!isEnabled()) {
+            return
+        }
+        ownedPartitions.keys.forEach { release(it) }
+        redisOperation.hdelete(MEMBERS_KEY, instanceId)
+    }
+
+    private fun acquire(partition: Int) {
+        val lock = FencedRedisLock(redisOperation, PARTITION_LOCK_PREFIX + partition, PARTITION_LEASE_SECONDS)
+        // 上一个持有者还没交出分区，等下一轮再试
+        if (!lock.tryLock()) {
+            return
+        }
+        val container = try {
+            Tools.createSimpleMessageListenerContainer(
+                connectionFactory = connectionFactory,
+                queue = Queue(BuildAffinity.queueName(partition)),
+                rabbitAdmin = rabbitAdmin,
+                buildListener = SpringContextUtil.getBean(PipelineBuildAffinityListener::class.java),
+                messageConverter = messageConverter,
+                startConsumerMinInterval = 5000,
+                consecutiveActiveTrigger = 5,
+                concurrency = partitionConcurrency!!,
+                maxConcurrency = partitionConcurrency * 2
+            )
+        } catch (ignored: Throwable) {
+            logger.warn("[$instanceId]|AFFINITY_PARTITION_CREATE_FAIL|partition=$partition", ignored)
+            lock.unlock()
+            return
+        }
+        container.setShutdownTimeout(SHUTDOWN_TIMEOUT_MILLIS)
+        // 容器一启动就会有事件进来，要先标记持有，否则第一批事件会被当作非本地事件转投回分区队列
+        val owned = OwnedPartition(lock, container)
+        owned.held = true
+        ownedPartitions[partition] = owned
+        try {
+            container.start()
+            logger.info("[$instanceId]|AFFINITY_PARTITION_MOVE_IN|partition=$partition|token=${lock.fencingToken}")
+        } catch (ignored: Throwable) {
+            logger.warn("[$instanceId]|AFFINITY_PARTITION_START_FAIL|partition=$partition", ignored)
+            // release会停掉容器并释放分区锁
+            release(partition)
+        }
+    }
+
+    private fun release(partition: Int) {
+        val owned = ownedPartitions[partition] ?: return
+        try {
+            // stop会等待正在处理的事件结束，在途事件仍按本实例持有分区加进程内锁，处理完后才能把分区交给别的实例
+            owned.container.stop()
+            owned.container.destroy()
+        } catch (ignored: Throwable) {
+            logger.warn("[$instanceId]|AFFINITY_PARTITION_STOP_FAIL|partition=$partition", ignored)
+        } finally {
+            owned.held = false
+            ownedPartitions.remove(partition)
+            owned.lock.unlock()
+        }
+    }
+
+    private class OwnedPartition(
+        val lock: FencedRedisLock,
+        val container: SimpleMessageListenerContainer
+    ) {
+        @Volatile
+        var held = false
+    }
+}
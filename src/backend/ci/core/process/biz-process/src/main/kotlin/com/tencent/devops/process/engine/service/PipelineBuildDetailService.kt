@@ -26,6 +26,7 @@
 
 package com.tencent.devops.process.engine.service
 
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.util.EnvUtils
 import com.tencent.devops.common.api.util.JsonUtil
 import com.tencent.devops.common.api.util.timestampmilli
@@ -36,11 +37,10 @@ import com.tencent.devops.common.pipeline.enums.StartType
 import com.tencent.devops.common.pipeline.pojo.element.Element
 import com.tencent.devops.common.pipeline.pojo.element.agent.ManualReviewUserTaskElement
 import com.tencent.devops.common.pipeline.utils.ModelUtils
-import com.tencent.devops.common.redis.RedisLock
 import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.common.websocket.dispatch.WebSocketDispatcher
-import com.tencent.devops.model.process.tables.records.TPipelineBuildDetailRecord
 import com.tencent.devops.process.dao.BuildDetailDao
+import com.tencent.devops.process.engine.control.lock.BuildDetailLock
 import com.tencent.devops.process.engine.dao.PipelineBuildDao
 import com.tencent.devops.common.api.pojo.ErrorType
 import com.tencent.devops.common.pipeline.container.Stage
@@ -60,6 +60,9 @@ import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import org.springframework.util.StopWatch
 import java.time.LocalDateTime
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
 
 @Service
 class PipelineBuildDetailService @Autowired constructor(
@@ -77,9 +80,22 @@ class PipelineBuildDetailService @Autowired constructor(
 
     companion object {
         val logger = LoggerFactory.getLogger(PipelineBuildDetailService::class.java)!!
-        private const val ExpiredTimeInSeconds: Long = 10
+        /**
+         * 缓存的model按序列化后的字符数计算权重，反序列化后的对象大约是它的几倍
+         */
+        private const val DetailCacheMaxWeight: Long = 32L * 1024 * 1024
+        private const val DetailCacheExpireMinutes: Long = 10
+        private const val MaxFlushTimes = 3
     }
 
+    /**
+     * buildId -> 本进程持有的构建详情，状态变更直接改缓存里的model，避免每次都反序列化整个model
+     */
+    private val detailCache = CacheBuilder.newBuilder().maximumWeight(DetailCacheMaxWeight)
+        .weigher<String, BuildDetailState> { _, state -> maxOf(state.weight, 1) }
+        .expireAfterAccess(DetailCacheExpireMinutes, TimeUnit.MINUTES)
+        .build<String, BuildDetailState>()
+
     /**
      * 查询ModelDetail
      * @param buildId: 构建Id
@@ -198,12 +214,18 @@ class PipelineBuildDetailService @Autowired constructor(
     fun updateModel(buildId: String, model: Model) {
         val now = System.currentTimeMillis()
         logger.info("update the build model for the build $buildId and now $now")
-        buildDetailDao.update(
-            dslContext = dslContext,
-            buildId = buildId,
-            model = JsonUtil.getObjectMapper().writeValueAsString(model),
-            buildStatus = BuildStatus.RUNNING
-        )
+        val lock = BuildDetailLock(redisOperation, buildId)
+        try {
+            lock.lock()
+            buildDetailDao.update(
+                dslContext = dslContext,
+                buildId = buildId,
+                model = JsonUtil.getObjectMapper().writeValueAsString(model),
+                buildStatus = BuildStatus.RUNNING
+            )
+        } finally {
+            lock.unlock()
+        }
         pipelineDetailChangeEvent(buildId)
     }
 
@@ -458,6 +480,25 @@ class PipelineBuildDetailService @Autowired constructor(
     ) {
         logger.info("Build end $buildId")
 
+        val lock = BuildDetailLock(redisOperation, buildId)
+        try {
+            lock.lock()
+            doBuildEnd(buildId, buildStatus, cancelUser, errorType, errorCode, errorMsg)
+        } finally {
+            lock.unlock()
+            // 构建已结束，不会再有状态变更，释放本进程缓存的model
+            detailCache.invalidate(buildId)
+        }
+    }
+
+    private fun doBuildEnd(
+        buildId: String,
+        buildStatus: BuildStatus,
+        cancelUser: String?,
+        errorType: ErrorType?,
+        errorCode: Int?,
+        errorMsg: String?
+    ) {
         dslContext.transaction { configuration ->
             val context = DSL.using(configuration)
             val record = buildDetailDao.get(context, buildId)
@@ -544,20 +585,19 @@ class PipelineBuildDetailService @Autowired constructor(
         }
     }
 
-    private fun takeBuildStatus(record: TPipelineBuildDetailRecord, buildStatus: BuildStatus): BuildStatus {
+    private fun takeBuildStatus(buildId: String, status: String?, buildStatus: BuildStatus): BuildStatus {
 
-        val status = record.status
         val oldStatus = if (status.isNullOrBlank()) {
             null
         } else {
-            BuildStatus.valueOf(status)
+            BuildStatus.valueOf(status!!)
         }
 
         return if (oldStatus == null || !BuildStatus.isFinish(oldStatus)) {
-            logger.info("[${record.buildId}]|Update the build to status $buildStatus from $oldStatus")
+            logger.info("[$buildId]|Update the build to status $buildStatus from $oldStatus")
             buildStatus
         } else {
-            logger.info("[${record.buildId}]|The build is already finished by status $oldStatus, not replace with the sta†us $buildStatus")
+            logger.info("[$buildId]|The build is already finished by status $oldStatus, not replace with the sta†us $buildStatus")
             oldStatus
         }
     }
@@ -851,47 +891,151 @@ class PipelineBuildDetailService @Autowired constructor(
     }
 
     private fun update(buildId: String, modelInterface: ModelInterface, buildStatus: BuildStatus) {
+        val state = detailCache.get(buildId) { BuildDetailState() }
+        val pendingUpdate = PendingUpdate(modelInterface, buildStatus)
+        state.pendingUpdates.offer(pendingUpdate)
+        state.lock.lock()
+        try {
+            // 等锁期间可能已被前一个持锁线程合并写入
+            if (!pendingUpdate.done) {
+                val batch = mutableListOf<PendingUpdate>()
+                while (true) {
+                    batch.add(state.pendingUpdates.poll() ?: break)
+                }
+                try {
+                    // 被后来的持锁者取代或有修改失败时，本次的model不可信，重新加载后再改一次
+                    var times = 1
+                    while (!flush(buildId, state, batch)) {
+                        if (times++ >= MaxFlushTimes) {
+                            logger.error("[$buildId]| Drop ${batch.size} detail updates after $MaxFlushTimes attempts")
+                            break
+                        }
+                        logger.warn("[$buildId]| Reload the build detail and retry $times")
+                    }
+                } finally {
+                    batch.forEach { it.done = true }
+                }
+            }
+        } finally {
+            state.lock.unlock()
+        }
+    }
+
+    /**
+     * 把排队中的所有修改合并到同一个model上，只序列化、写库一次
+     * 调用方需持有[BuildDetailState.lock]
+     *
+     * @return 是否已处理完，false表示锁已被后来的持锁者取代或有修改执行失败，没有写库，需要重新加载model重试
+     */
+    private fun flush(buildId: String, state: BuildDetailState, batch: MutableList<PendingUpdate>): Boolean {
         val stopWatch = StopWatch()
         var message = "nothing"
-        val lock = RedisLock(redisOperation, "process.build.detail.lock.$buildId", ExpiredTimeInSeconds)
+        var cacheHit = false
+        val lock = BuildDetailLock(redisOperation, buildId)
 
         try {
             stopWatch.start("lock")
             lock.lock()
             stopWatch.stop()
-            stopWatch.start("getDetail")
-            val record = buildDetailDao.get(dslContext, buildId)
-            stopWatch.stop()
-            if (record == null) {
-                message = "WARN: The build detail is not exist, ignore"
-                return
+            // 令牌恰好是上次持锁的下一个，说明期间没有别的实例改写过model，缓存仍然有效
+            val cachedModel = state.model
+            var weight = state.weight
+            val model = if (cachedModel != null && lock.fencingToken == state.fencingToken + 1) {
+                cacheHit = true
+                cachedModel
+            } else {
+                stopWatch.start("getDetail")
+                val record = buildDetailDao.get(dslContext, buildId)
+                stopWatch.stop()
+                if (record == null) {
+                    message = "WARN: The build detail is not exist, ignore"
+                    state.invalidate()
+                    return true
+                }
+                state.status = record.status
+                stopWatch.start("model")
+                val loadedModel = JsonUtil.to(record.model, Model::class.java)
+                stopWatch.stop()
+                weight = record.model.length
+                loadedModel
             }
-            stopWatch.start("model")
-            val model = JsonUtil.to(record.model, Model::class.java)
-            stopWatch.stop()
+            // 修改过程中失败则丢弃缓存，下次重新从库里加载
+            state.invalidate()
             if (model.stages.size <= 1) {
                 message = "Trigger container only"
-                return
+                cache(buildId, state, model, state.status, lock.fencingToken, weight)
+                return true
             }
 
             stopWatch.start("updateModel")
-            update(model, modelInterface)
+            var finalStatus: BuildStatus? = null
+            val failed = mutableListOf<PendingUpdate>()
+            for (pending in batch) {
+                try {
+                    update(model, pending.modelInterface)
+                    if (pending.modelInterface.needUpdate()) {
+                        finalStatus = takeBuildStatus(buildId, finalStatus?.name ?: state.status, pending.buildStatus)
+                    }
+                } catch (ignored: Throwable) {
+                    logger.warn("[$buildId]| Fail to update the build detail model: ${ignored.message}", ignored)
+                    failed.add(pending)
+                }
+            }
             stopWatch.stop()
 
-            if (!modelInterface.needUpdate()) {
-                message = "Will not update"
-                return
+            // 失败的修改可能已经改了一半，丢弃这个model，从库里重新加载后再改一次，第二次仍失败的才放弃
+            if (failed.isNotEmpty()) {
+                val dropped = failed.filter { it.retried }
+                if (dropped.isNotEmpty()) {
+                    logger.error("[$buildId]| Drop ${dropped.size} detail updates which failed twice")
+                    batch.removeAll(dropped)
+                }
+                failed.forEach { it.retried = true }
+                message = "Retry ${failed.size - dropped.size} failed updates, drop ${dropped.size}"
+                return false
             }
 
-            val finalStatus = takeBuildStatus(record, buildStatus)
+            if (finalStatus == null) {
+                message = "Will not update"
+                cache(buildId, state, model, state.status, lock.fencingToken, weight)
+                return true
+            }
 
             stopWatch.start("toJson")
             val modelStr = JsonUtil.toJson(model)
             stopWatch.stop()
 
+            // 持锁期间如果租期丢失并被别人拿到锁，这里的model已经过时，不能覆盖别人的更新
+            if (!lock.isHeld()) {
+                message = "Lock is lost, token=${lock.fencingToken}"
+                return false
+            }
+
             stopWatch.start("updateModel")
-            buildDetailDao.update(dslContext, buildId, modelStr, finalStatus)
+            var count = buildDetailDao.update(
+                dslContext = dslContext,
+                buildId = buildId,
+                model = modelStr,
+                buildStatus = finalStatus,
+                fencingToken = lock.fencingToken
+            )
+            if (count == 0 && lock.isHeld()) {
+                // 仍是最新持锁者却被库里更大的令牌拦住，说明令牌计数器过期后重新开始计数，直接覆盖
+                count = buildDetailDao.update(
+                    dslContext = dslContext,
+                    buildId = buildId,
+                    model = modelStr,
+                    buildStatus = finalStatus,
+                    fencingToken = lock.fencingToken,
+                    checkFence = false
+                )
+            }
             stopWatch.stop()
+            if (count == 0) {
+                message = "Superseded by a newer token, token=${lock.fencingToken}"
+                return false
+            }
+            cache(buildId, state, model, finalStatus.name, lock.fencingToken, modelStr.length)
 
             stopWatch.start("dispatchEvent")
             pipelineDetailChangeEvent(buildId)
@@ -905,7 +1049,25 @@ class PipelineBuildDetailService @Autowired constructor(
             logger.warn("[$buildId]| Fail to update the build detail: ${ignored.message}", ignored)
         } finally {
             lock.unlock()
-            logger.info("[$buildId|$buildStatus]|update_detail_model| $message| watch=$stopWatch")
+            logger.info("[$buildId]|update_detail_model| $message| batch=${batch.size}| cacheHit=$cacheHit| watch=$stopWatch")
+        }
+        return true
+    }
+
+    /**
+     * 缓存写库后的model，重新放入缓存让权重按新的model大小计算
+     */
+    private fun cache(
+        buildId: String,
+        state: BuildDetailState,
+        model: Model,
+        status: String?,
+        fencingToken: Long,
+        weight: Int
+    ) {
+        state.cache(model, status, fencingToken, weight)
+        if (detailCache.getIfPresent(buildId) === state) {
+            detailCache.put(buildId, state)
         }
     }
 
@@ -945,6 +1107,41 @@ class PipelineBuildDetailService @Autowired constructor(
         fun needUpdate(): Boolean
     }
 
+    /**
+     * 单个构建在本进程内的详情状态：已反序列化的model和排队中的修改
+     */
+    private class BuildDetailState {
+        val lock = ReentrantLock()
+        val pendingUpdates = ConcurrentLinkedQueue<PendingUpdate>()
+        var model: Model? = null
+        var status: String? = null
+        var fencingToken: Long = -1
+        @Volatile
+        var weight: Int = 0
+
+        fun cache(model: Model, status: String?, fencingToken: Long, weight: Int) {
+            this.model = model
+            this.status = status
+            this.fencingToken = fencingToken
+            this.weight = weight
+        }
+
+        fun invalidate() {
+            model = null
+            fencingToken = -1
+            weight = 0
+        }
+    }
+
+    private class PendingUpdate(val modelInterface: ModelInterface, val buildStatus: BuildStatus) {
+        @Volatile
+        var done = false
+        /**
+         * 已经因执行失败重试过一次，只在持有[BuildDetailState.lock]时读写
+         */
+        var retried = false
+    }
+
     enum class Traverse {
         BREAK,
         CONTINUE
@@ -28,6 +28,7 @@ package com.tencent.devops.process.engine.service
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.util.EnvUtils
 import com.tencent.devops.common.api.util.timestamp
 import com.tencent.devops.common.client.Client
@@ -157,6 +158,13 @@ import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import java.time.LocalDateTime
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PreDestroy
 
 @Service
 class PipelineBuildWebhookService @Autowired constructor(
@@ -173,8 +181,46 @@ class PipelineBuildWebhookService @Autowired constructor(
 
     companion object {
         private const val MAX_VARITABLE_COUNT = 32
+        private const val WEBHOOK_MATCH_THREADS = 16
+        private const val WEBHOOK_MATCH_QUEUE_SIZE = 256
+        private const val WEBHOOK_MATCH_SHUTDOWN_SECONDS = 30L
     }
 
+    /**
+     * pipelineId -> 该流水线版本下解析好的代码触发器，版本变化(保存流水线)后重新解析
+     */
+    private val webhookTriggerCache = CacheBuilder.newBuilder().maximumSize(20000)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build<String, PipelineWebhookTriggers>()
+
+    private val webhookMatchThreadIndex = AtomicInteger(0)
+
+    /**
+     * 队列满时由提交的webhook请求线程自己执行匹配（同CallerRunsPolicy），
+     * 线程池关闭后也不丢弃任务，避免等待中的future永远不完成
+     */
+    private val webhookMatchExecutor = ThreadPoolExecutor(
+        WEBHOOK_MATCH_THREADS,
+        WEBHOOK_MATCH_THREADS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        LinkedBlockingQueue<Runnable>(WEBHOOK_MATCH_QUEUE_SIZE),
+        ThreadFactory { runnable -> Thread(runnable, "webhook-match-${webhookMatchThreadIndex.incrementAndGet()}") },
+        RejectedExecutionHandler { runnable, _ -> runnable.run() }
+    )
+
+    @PreDestroy
+    fun destroy() {
+        webhookMatchExecutor.shutdown()
+        webhookMatchExecutor.awaitTermination(WEBHOOK_MATCH_SHUTDOWN_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private class PipelineWebhookTriggers(
+        val version: Int,
+        val variables: Map<String, String>,
+        val triggers: List<Pair<Element, WebHookParams>>
+    )
+
     fun externalCodeSvnBuild(e: String): Boolean {
         logger.info("Trigger code svn build - $e")
 
@@ -279,58 +325,22 @@ class PipelineBuildWebhookService @Autowired constructor(
             return false
         }
 
-        pipelines.forEach outside@{ pipelineId ->
-            try {
-                logger.info("pipelineId is $pipelineId")
-                val model = pipelineRepositoryService.getModel(pipelineId) ?: run {
-                    logger.info("pipeline does not exists, ignore")
-                    return@outside
-                }
-
-                /**
-                 * 验证流水线参数构建启动参数
-                 */
-                val triggerContainer = model.stages[0].containers[0] as TriggerContainer
-                var canWebhookStartup = false
-                run lit@{
-                    triggerContainer.elements.forEach {
-                        when (codeRepositoryType) {
-                            CodeSVNWebHookTriggerElement.classType -> {
-                                if (it is CodeSVNWebHookTriggerElement && it.isElementEnable()) {
-                                    canWebhookStartup = true
-                                    return@lit
-                                }
-                            }
-                            CodeGitWebHookTriggerElement.classType -> {
-                                if (it is CodeGitWebHookTriggerElement && it.isElementEnable()) {
-                                    canWebhookStartup = true
-                                    return@lit
-                                }
-                            }
-                            CodeGithubWebHookTriggerElement.classType -> {
-                                if (it is CodeGithubWebHookTriggerElement && it.isElementEnable()) {
-                                    canWebhookStartup = true
-                                    return@lit
-                                }
-                            }
-                            CodeGitlabWebHookTriggerElement.classType -> {
-                                if (it is CodeGitlabWebHookTriggerElement && it.isElementEnable()) {
-                                    canWebhookStartup = true
-                                    return@lit
-                                }
-                            }
-                        }
-                    }
-                }
-
-                if (!canWebhookStartup) {
-                    logger.info("can not start by $codeRepositoryType, ignore")
-                    return@outside
+        // 各流水线的匹配相互独立，并行进行
+        val futures = pipelines.map { pipelineId ->
+            webhookMatchExecutor.submit(Runnable {
+                try {
+                    logger.info("pipelineId is $pipelineId")
+                    webhookTriggerPipelineBuild(pipelineId, codeRepositoryType, matcher)
+                } catch (e: Throwable) {
+                    logger.error("[$pipelineId]|webhookTriggerPipelineBuild fail: $e", e)
                 }
-
-                if (webhookTriggerPipelineBuild(pipelineId, codeRepositoryType, matcher)) return@outside
-            } catch (e: Throwable) {
-                logger.error("[$pipelineId]|webhookTriggerPipelineBuild fail: $e", e)
+            })
+        }
+        futures.forEach {
+            try {
+                it.get()
+            } catch (e: Exception) {
+                logger.warn("Fail to wait the webhook match of repo(${matcher.getRepoName()})", e)
             }
         }
 
@@ -346,24 +356,22 @@ class PipelineBuildWebhookService @Autowired constructor(
         val pipelineInfo = pipelineRepositoryService.getPipelineInfo(pipelineId)
             ?: return false
 
-        val model = pipelineRepositoryService.getModel(pipelineId)
-        if (model == null) {
-            logger.warn("[$pipelineId]| Fail to get the model")
+        val webhookTriggers = getWebhookTriggers(pipelineId, pipelineInfo.version) ?: return false
+
+        /**
+         * 验证流水线参数构建启动参数
+         */
+        if (webhookTriggers.triggers.none { isWebhookTriggerOf(it.first, codeRepositoryType) && it.first.isElementEnable() }) {
+            logger.info("can not start by $codeRepositoryType, ignore")
             return false
         }
 
         val projectId = pipelineInfo.projectId
         val userId = pipelineInfo.lastModifyUser
-        val variables = mutableMapOf<String, String>()
-        val container = model.stages[0].containers[0] as TriggerContainer
-        // 解析变量
-        container.params.forEach { param ->
-            variables[param.id] = param.defaultValue.toString()
-        }
+        val variables = webhookTriggers.variables
 
         // 寻找代码触发原子
-        container.elements.forEach elements@{ element ->
-            val webHookParams = getWebhookElementParams(element, variables) ?: return@elements
+        webhookTriggers.triggers.forEach elements@{ (element, webHookParams) ->
             val repositoryConfig = webHookParams.repositoryConfig
             if (repositoryConfig.getRepositoryId().isBlank()) {
                 logger.info("repositoryHashId is blank for code trigger pipeline $pipelineId ")
@@ -424,6 +432,46 @@ class PipelineBuildWebhookService @Autowired constructor(
         return false
     }
 
+    /**
+     * 取流水线当前版本的代码触发器，同一版本只反序列化一次model
+     * model按版本号读取，保证解析的model与缓存的版本号来自同一条资源记录
+     */
+    private fun getWebhookTriggers(pipelineId: String, version: Int): PipelineWebhookTriggers? {
+        val cached = webhookTriggerCache.getIfPresent(pipelineId)
+        if (cached != null && cached.version == version) {
+            return cached
+        }
+
+        val model = pipelineRepositoryService.getModel(pipelineId, version)
+        if (model == null) {
+            logger.warn("[$pipelineId]| Fail to get the model of version($version)")
+            return null
+        }
+
+        val variables = mutableMapOf<String, String>()
+        val container = model.stages[0].containers[0] as TriggerContainer
+        // 解析变量
+        container.params.forEach { param ->
+            variables[param.id] = param.defaultValue.toString()
+        }
+        val triggers = container.elements.mapNotNull { element ->
+            getWebhookElementParams(element, variables)?.let { Pair(element, it) }
+        }
+        val webhookTriggers = PipelineWebhookTriggers(version, variables, triggers)
+        webhookTriggerCache.put(pipelineId, webhookTriggers)
+        return webhookTriggers
+    }
+
+    private fun isWebhookTriggerOf(element: Element, codeRepositoryType: String): Boolean {
+        return when (codeRepositoryType) {
+            CodeSVNWebHookTriggerElement.classType -> element is CodeSVNWebHookTriggerElement
+            CodeGitWebHookTriggerElement.classType -> element is CodeGitWebHookTriggerElement
+            CodeGithubWebHookTriggerElement.classType -> element is CodeGithubWebHookTriggerElement
+            CodeGitlabWebHookTriggerElement.classType -> element is CodeGitlabWebHookTriggerElement
+            else -> false
+        }
+    }
+
     private fun getWebhookElementParams(element: Element, variables: Map<String, String>): WebHookParams? {
         var params: WebHookParams? = null
         when (element) {
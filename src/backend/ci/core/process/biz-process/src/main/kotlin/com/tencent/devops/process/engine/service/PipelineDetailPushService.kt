@@ -0,0 +1,260 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.devops.process.engine.service
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.node.ArrayNode
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.google.common.cache.CacheBuilder
+import com.tencent.devops.common.pipeline.enums.ChannelCode
+import com.tencent.devops.common.redis.RedisOperation
+import com.tencent.devops.common.websocket.dispatch.WebSocketDispatcher
+import com.tencent.devops.process.websocket.push.DetailWebsocketPush
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+import javax.annotation.PreDestroy
+
+/**
+ * 构建详情页的websocket推送
+ *
+ * 同一构建在[DEBOUNCE_MILLS]内的多次变更合并成一次推送；每次推送生成一个递增版本的详情快照，
+ * 已经收到上一版本的session只推送两个版本之间的JSON Patch，刚进入页面或者落后的session推送全量快照
+ */
+@Service
+class PipelineDetailPushService @Autowired constructor(
+    private val pipelineBuildService: PipelineBuildService,
+    private val webSocketDispatcher: WebSocketDispatcher,
+    private val redisOperation: RedisOperation,
+    private val objectMapper: ObjectMapper
+) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(PipelineDetailPushService::class.java)
+        private const val DEBOUNCE_MILLS = 300L
+        private const val DETAIL_VERSION_KEY = "process:build:detail:push:version:"
+        private const val SESSION_VERSION_KEY = "process:build:detail:push:session:"
+        private const val VERSION_EXPIRE_DAYS = 1L
+        // 每隔若干版本强制推一次全量，让漏收增量的页面能重新对齐
+        private const val FULL_PUSH_INTERVAL = 20L
+    }
+
+    /**
+     * 等待推送的构建，同一构建只保留最后一次推送请求
+     */
+    private val pendingPushes = ConcurrentHashMap<String, DetailWebsocketPush>()
+
+    private val pushThreadIndex = AtomicInteger()
+
+    private val scheduler = Executors.newScheduledThreadPool(4, ThreadFactory { runnable ->
+        val thread = Thread(runnable, "detail-push-${pushThreadIndex.incrementAndGet()}")
+        thread.isDaemon = true
+        thread
+    })
+
+    private val snapshotCache = CacheBuilder.newBuilder()
+        .maximumSize(2000)
+        .expireAfterAccess(30, TimeUnit.MINUTES)
+        .build<String/*buildId*/, DetailSnapshot>()
+
+    /**
+     * 推迟推送，窗口期内同一构建的后续变更直接合并
+     */
+    fun delay(push: DetailWebsocketPush) {
+        val buildId = push.buildId ?: return
+        if (pendingPushes.put(buildId, push) == null) {
+            scheduler.schedule({ flush(buildId) }, DEBOUNCE_MILLS, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun flush(buildId: String) {
+        val push = pendingPushes.remove(buildId) ?: return
+        try {
+            push.coalesced = true
+            webSocketDispatcher.dispatch(push)
+        } catch (ignored: Throwable) {
+            logger.warn("[$buildId]|DETAIL_PUSH|fail", ignored)
+        }
+    }
+
+    /**
+     * 当前已推送的详情版本，HTTP拉取详情时一并返回，页面据此判断后续增量能否直接应用
+     */
+    fun currentVersion(buildId: String): Long {
+        return redisOperation.get(DETAIL_VERSION_KEY + buildId)?.toLongOrNull() ?: 0L
+    }
+
+    /**
+     * 生成新版本的详情快照，并算出与上一版本之间的差异
+     */
+    fun takeSnapshot(projectId: String, pipelineId: String, buildId: String): DetailPushMessage {
+        val snapshot = snapshotCache.get(buildId) { DetailSnapshot() }
+        snapshot.lock.lock()
+        try {
+            val modelDetail = pipelineBuildService.getBuildDetail(
+                projectId = projectId,
+                pipelineId = pipelineId,
+                buildId = buildId,
+                channelCode = ChannelCode.BS,
+                checkPermission = ChannelCode.isNeedAuth(ChannelCode.BS)
+            )
+            val tree = objectMapper.valueToTree<ObjectNode>(modelDetail)
+            // 版本号只在报文外层携带，不参与差异计算
+            tree.remove("detailVersion")
+            val version = redisOperation.increment(DETAIL_VERSION_KEY + buildId, 1) ?: 0L
+            if (version == 1L) {
+                redisOperation.expireAt(DETAIL_VERSION_KEY + buildId, expireDate())
+            }
+            // 本节点持有的快照正好是上一版本时才能出增量，否则（其他节点推过、缓存过期）只能推全量
+            val patch = if (snapshot.tree != null && snapshot.version == version - 1 &&
+                version % FULL_PUSH_INTERVAL != 0L) {
+                val patch = objectMapper.createArrayNode()
+                diff("", snapshot.tree!!, tree, patch)
+                patch
+            } else {
+                null
+            }
+            snapshot.tree = tree
+            snapshot.version = version
+            return DetailPushMessage(version, tree, patch)
+        } finally {
+            snapshot.lock.unlock()
+        }
+    }
+
+    /**
+     * 按session上次收到的版本分组：正好在上一版本的可以收增量，其余的收全量，并记录本次推送后的版本
+     *
+     * 全量推送时所有session都重新对齐，先清掉旧的session版本记录，避免已离开页面的session残留
+     */
+    fun partitionSessions(
+        buildId: String,
+        sessionList: List<String>,
+        message: DetailPushMessage
+    ): Pair<List<String>, List<String>> {
+        val redisKey = SESSION_VERSION_KEY + buildId
+        if (message.patch == null) {
+            redisOperation.delete(redisKey)
+        }
+        val patchSessions = mutableListOf<String>()
+        val fullSessions = mutableListOf<String>()
+        if (message.patch == null) {
+            fullSessions.addAll(sessionList)
+        } else {
+            // 一次取回所有session的版本，不逐个读
+            val lastVersion = (message.version - 1).toString()
+            val sessionVersions = redisOperation.hmget(redisKey, sessionList)
+            sessionList.forEachIndexed { index, session ->
+                if (sessionVersions.getOrNull(index) == lastVersion) {
+                    patchSessions.add(session)
+                } else {
+                    fullSessions.add(session)
+                }
+            }
+        }
+        if (sessionList.isNotEmpty()) {
+            redisOperation.hmset(redisKey, sessionList.associate { it to message.version.toString() })
+        }
+        redisOperation.expireAt(redisKey, expireDate())
+        return Pair(patchSessions, fullSessions)
+    }
+
+    @PreDestroy
+    fun destroy() {
+        scheduler.shutdown()
+    }
+
+    /**
+     * 生成RFC 6902格式的JSON Patch，只对对象逐字段比较，长度不变的数组逐项比较，其余整体替换
+     */
+    private fun diff(path: String, source: JsonNode, target: JsonNode, patch: ArrayNode) {
+        if (source == target) {
+            return
+        }
+        if (source.isObject && target.isObject) {
+            source.fieldNames().forEach { name ->
+                if (!target.has(name)) {
+                    patch.addObject().put("op", "remove").put("path", "$path/${escape(name)}")
+                }
+            }
+            target.fields().forEach { (name, value) ->
+                val old = source.get(name)
+                if (old == null) {
+                    patch.addObject().put("op", "add").put("path", "$path/${escape(name)}").set("value", value)
+                } else {
+                    diff("$path/${escape(name)}", old, value, patch)
+                }
+            }
+        } else if (source.isArray && target.isArray && source.size() == target.size()) {
+            for (i in 0 until target.size()) {
+                diff("$path/$i", source.get(i), target.get(i), patch)
+            }
+        } else {
+            patch.addObject().put("op", "replace").put("path", path).set("value", target)
+        }
+    }
+
+    private fun escape(name: String) = name.replace("~", "~0").replace("/", "~1")
+
+    private fun expireDate() = Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(VERSION_EXPIRE_DAYS))
+
+    private class DetailSnapshot {
+        val lock = ReentrantLock()
+        var version = 0L
+        var tree: ObjectNode? = null
+    }
+
+    inner class DetailPushMessage(val version: Long, private val tree: ObjectNode, val patch: ArrayNode?) {
+
+        /**
+         * 全量报文，即带版本号的ModelDetail
+         */
+        val fullMessage: String by lazy {
+            objectMapper.writeValueAsString(tree.deepCopy().put("detailVersion", version))
+        }
+
+        val patchMessage: String? by lazy {
+            if (patch == null) {
+                null
+            } else {
+                val message = objectMapper.createObjectNode()
+                message.put("detailVersion", version)
+                message.put("fromVersion", version - 1)
+                message.set("patch", patch)
+                objectMapper.writeValueAsString(message)
+            }
+        }
+    }
+}
@@ -60,6 +60,7 @@ import com.tencent.devops.common.pipeline.pojo.element.trigger.TimerTriggerEleme
 import com.tencent.devops.common.pipeline.pojo.element.trigger.enums.CodeType
 import com.tencent.devops.common.pipeline.utils.ModelUtils
 import com.tencent.devops.common.pipeline.utils.SkipElementUtils
+import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.common.service.utils.SpringContextUtil
 import com.tencent.devops.common.websocket.dispatch.WebSocketDispatcher
 import com.tencent.devops.model.process.tables.records.TPipelineBuildContainerRecord
@@ -80,6 +81,8 @@ import com.tencent.devops.process.engine.common.BS_MANUAL_ACTION_SUGGEST
 import com.tencent.devops.process.engine.common.BS_MANUAL_ACTION_USERID
 import com.tencent.devops.process.engine.common.Timeout
 import com.tencent.devops.process.engine.common.VMUtils
+import com.tencent.devops.process.engine.control.TaskClaimSignal
+import com.tencent.devops.process.engine.control.lock.BuildDetailLock
 import com.tencent.devops.process.engine.dao.PipelineBuildContainerDao
 import com.tencent.devops.process.engine.dao.PipelineBuildDao
 import com.tencent.devops.process.engine.dao.PipelineBuildStageDao
@@ -159,7 +162,9 @@ class PipelineRuntimeService @Autowired constructor(
     private val pipelineBuildStageDao: PipelineBuildStageDao,
     private val buildDetailDao: BuildDetailDao,
     private val buildStartupParamService: BuildStartupParamService,
-    private val buildVariableService: BuildVariableService
+    private val buildVariableService: BuildVariableService,
+    private val redisOperation: RedisOperation,
+    private val taskClaimSignal: TaskClaimSignal
 ) {
     companion object {
         private val logger = LoggerFactory.getLogger(PipelineRuntimeService::class.java)
@@ -991,89 +996,104 @@ class PipelineRuntimeService @Autowired constructor(
                 )
             }
         }
-        dslContext.transaction { configuration ->
-
-            val transactionContext = DSL.using(configuration)
+        // 重试整体替换构建详情的model，要持有构建详情锁写入，加锁推进的fencingToken同时让各实例缓存的旧model失效
+        val detailLock = if (buildHistoryRecord != null) BuildDetailLock(redisOperation, buildId) else null
+        detailLock?.lock()
+        try {
+            dslContext.transaction { configuration ->
+
+                val transactionContext = DSL.using(configuration)
+
+                if (buildHistoryRecord != null) {
+                    buildHistoryRecord.status = startBuildStatus.ordinal
+                    transactionContext.batchStore(buildHistoryRecord).execute()
+                    // 重置状态和人
+                    buildDetailDao.update(
+                        dslContext = transactionContext,
+                        buildId = buildId,
+                        model = JsonUtil.toJson(sModel),
+                        buildStatus = startBuildStatus,
+                        cancelUser = "",
+                        fencingToken = detailLock?.fencingToken,
+                        checkFence = false
+                    )
+                } else { // 创建构建记录
+                    // 构建号递增
+                    val buildNum = pipelineBuildSummaryDao.updateBuildNum(transactionContext, pipelineInfo.pipelineId)
+                    pipelineBuildDao.create(
+                        dslContext = transactionContext,
+                        projectId = pipelineInfo.projectId,
+                        pipelineId = pipelineInfo.pipelineId,
+                        buildId = buildId,
+                        version = params[PIPELINE_VERSION] as Int,
+                        buildNum = buildNum,
+                        trigger = startType.name,
+                        status = startBuildStatus,
+                        startUser = userId,
+                        triggerUser = triggerUser,
+                        taskCount = taskCount,
+                        firstTaskId = firstTaskId,
+                        channelCode = channelCode,
+                        parentBuildId = parentBuildId,
+                        parentTaskId = parentTaskId,
+                        webhookType = params[PIPELINE_WEBHOOK_TYPE] as String?
+                    )
+                    // detail记录,未正式启动，先排队状态
+                    buildDetailDao.create(
+                        dslContext = transactionContext,
+                        buildId = buildId,
+                        startUser = userId,
+                        startType = startType,
+                        buildNum = buildNum,
+                        model = JsonUtil.toJson(sModel),
+                        buildStatus = BuildStatus.QUEUE
+                    )
+                    // 写入版本号
+                    buildVariableService.saveVariable(
+                        dslContext = transactionContext,
+                        projectId = pipelineInfo.projectId,
+                        pipelineId = pipelineInfo.pipelineId,
+                        buildId = buildId,
+                        name = PIPELINE_BUILD_NUM,
+                        value = buildNum
+                    )
+                }
 
-            if (buildHistoryRecord != null) {
-                buildHistoryRecord.status = startBuildStatus.ordinal
-                transactionContext.batchStore(buildHistoryRecord).execute()
-                // 重置状态和人
-                buildDetailDao.update(transactionContext, buildId, JsonUtil.toJson(sModel), startBuildStatus, "")
-            } else { // 创建构建记录
-                // 构建号递增
-                val buildNum = pipelineBuildSummaryDao.updateBuildNum(transactionContext, pipelineInfo.pipelineId)
-                pipelineBuildDao.create(
-                    dslContext = transactionContext,
-                    projectId = pipelineInfo.projectId,
-                    pipelineId = pipelineInfo.pipelineId,
-                    buildId = buildId,
-                    version = params[PIPELINE_VERSION] as Int,
-                    buildNum = buildNum,
-                    trigger = startType.name,
-                    status = startBuildStatus,
-                    startUser = userId,
-                    triggerUser = triggerUser,
-                    taskCount = taskCount,
-                    firstTaskId = firstTaskId,
-                    channelCode = channelCode,
-                    parentBuildId = parentBuildId,
-                    parentTaskId = parentTaskId,
-                    webhookType = params[PIPELINE_WEBHOOK_TYPE] as String?
-                )
-                // detail记录,未正式启动，先排队状态
-                buildDetailDao.create(
-                    dslContext = transactionContext,
-                    buildId = buildId,
-                    startUser = userId,
-                    startType = startType,
-                    buildNum = buildNum,
-                    model = JsonUtil.toJson(sModel),
-                    buildStatus = BuildStatus.QUEUE
-                )
-                // 写入版本号
-                buildVariableService.saveVariable(
+                // 保存参数
+                buildVariableService.batchSetVariable(
                     dslContext = transactionContext,
                     projectId = pipelineInfo.projectId,
                     pipelineId = pipelineInfo.pipelineId,
                     buildId = buildId,
-                    name = PIPELINE_BUILD_NUM,
-                    value = buildNum
+                    variables = startParamsWithType.map { it.key to it.value }.toMap()
                 )
-            }
 
-            // 保存参数
-            buildVariableService.batchSetVariable(
-                dslContext = transactionContext,
-                projectId = pipelineInfo.projectId,
-                pipelineId = pipelineInfo.pipelineId,
-                buildId = buildId,
-                variables = startParamsWithType.map { it.key to it.value }.toMap()
-            )
-
-            // 上一次存在的需要重试的任务直接Update，否则就插入
-            if (updateExistsRecord.isEmpty()) {
-                // 保持要执行的任务
-                logger.info("batch save to pipelineBuildTask, buildTaskList size: ${buildTaskList.size}")
-                pipelineBuildTaskDao.batchSave(transactionContext, buildTaskList)
-            } else {
-                logger.info("batch store to pipelineBuildTask, updateExistsRecord size: ${updateExistsRecord.size}")
-                transactionContext.batchStore(updateExistsRecord).execute()
-            }
+                // 上一次存在的需要重试的任务直接Update，否则就插入
+                if (updateExistsRecord.isEmpty()) {
+                    // 保持要执行的任务
+                    logger.info("batch save to pipelineBuildTask, buildTaskList size: ${buildTaskList.size}")
+                    pipelineBuildTaskDao.batchSave(transactionContext, buildTaskList)
+                } else {
+                    logger.info("batch store to pipelineBuildTask, updateExistsRecord size: ${updateExistsRecord.size}")
+                    transactionContext.batchStore(updateExistsRecord).execute()
+                }
 
-            if (updateContainerExistsRecord.isEmpty()) {
-                pipelineBuildContainerDao.batchSave(transactionContext, buildContainers)
-            } else {
-                transactionContext.batchStore(updateContainerExistsRecord).execute()
-            }
+                if (updateContainerExistsRecord.isEmpty()) {
+                    pipelineBuildContainerDao.batchSave(transactionContext, buildContainers)
+                } else {
+                    transactionContext.batchStore(updateContainerExistsRecord).execute()
+                }
 
-            if (updateStageExistsRecord.isEmpty()) {
-                pipelineBuildStageDao.batchSave(transactionContext, buildStages)
-            } else {
-                transactionContext.batchStore(updateStageExistsRecord).execute()
+                if (updateStageExistsRecord.isEmpty()) {
+                    pipelineBuildStageDao.batchSave(transactionContext, buildStages)
+                } else {
+                    transactionContext.batchStore(updateStageExistsRecord).execute()
+                }
+                // 排队计数+1
+                pipelineBuildSummaryDao.updateQueueCount(transactionContext, pipelineInfo.pipelineId, 1)
             }
-            // 排队计数+1
-            pipelineBuildSummaryDao.updateQueueCount(transactionContext, pipelineInfo.pipelineId, 1)
+        } finally {
+            detailLock?.unlock()
         }
 
         // 发送开始事件
@@ -1436,16 +1456,23 @@ class PipelineRuntimeService @Autowired constructor(
      * 开始最新一次构建
      */
     fun startLatestRunningBuild(latestRunningBuild: LatestRunningBuild, retry: Boolean) {
-        dslContext.transaction { configuration ->
-            val transactionContext = DSL.using(configuration)
-            buildDetailDao.updateStatus(
-                transactionContext,
-                latestRunningBuild.buildId,
-                BuildStatus.RUNNING,
-                LocalDateTime.now()
-            )
-            pipelineBuildDao.startBuild(transactionContext, latestRunningBuild.buildId, retry)
-            pipelineBuildSummaryDao.startLatestRunningBuild(transactionContext, latestRunningBuild)
+        // 构建详情的状态与model一样要持锁写入，避免被并发的详情更新用旧状态覆盖
+        val detailLock = BuildDetailLock(redisOperation, latestRunningBuild.buildId)
+        detailLock.lock()
+        try {
+            dslContext.transaction { configuration ->
+                val transactionContext = DSL.using(configuration)
+                buildDetailDao.updateStatus(
+                    transactionContext,
+                    latestRunningBuild.buildId,
+                    BuildStatus.RUNNING,
+                    LocalDateTime.now()
+                )
+                pipelineBuildDao.startBuild(transactionContext, latestRunningBuild.buildId, retry)
+                pipelineBuildSummaryDao.startLatestRunningBuild(transactionContext, latestRunningBuild)
+            }
+        } finally {
+            detailLock.unlock()
         }
         webSocketDispatcher.dispatch(
             pipelineWebsocketService.buildHistoryMessage(
@@ -1675,6 +1702,8 @@ class PipelineRuntimeService @Autowired constructor(
                 currentTaskName = task.taskName
             )
         }
+        // 唤醒该容器上挂起等待领取任务的构建机
+        taskClaimSignal.notifyChanged(buildId, task.containerId)
         webSocketDispatcher.dispatch(
             pipelineWebsocketService.buildStatusMessage(
                 buildId = buildId,
@@ -1781,24 +1810,30 @@ class PipelineRuntimeService @Autowired constructor(
     }
 
     fun saveBuildVmInfo(projectId: String, pipelineId: String, buildId: String, vmSeqId: String, vmInfo: VmInfo) {
-        val record = buildDetailDao.get(dslContext, buildId)
-        if (record == null) {
-            logger.warn("build not exists, buildId: $buildId")
-            return
-        }
-        val model = JsonUtil.getObjectMapper().readValue(record.model, Model::class.java)
-        model.stages.forEach s@{ stage ->
-            stage.containers.forEach c@{ container ->
-                if (container is VMBuildContainer && container.showBuildResource == true && container.id == vmSeqId) {
-                    container.name = vmInfo.name
-                    buildDetailDao.updateModel(
-                        dslContext = dslContext,
-                        buildId = buildId,
-                        model = JsonUtil.toJson(model)
-                    )
-                    return
+        val lock = BuildDetailLock(redisOperation, buildId)
+        try {
+            lock.lock()
+            val record = buildDetailDao.get(dslContext, buildId)
+            if (record == null) {
+                logger.warn("build not exists, buildId: $buildId")
+                return
+            }
+            val model = JsonUtil.getObjectMapper().readValue(record.model, Model::class.java)
+            model.stages.forEach s@{ stage ->
+                stage.containers.forEach c@{ container ->
+                    if (container is VMBuildContainer && container.showBuildResource == true && container.id == vmSeqId) {
+                        container.name = vmInfo.name
+                        buildDetailDao.updateModel(
+                            dslContext = dslContext,
+                            buildId = buildId,
+                            model = JsonUtil.toJson(model)
+                        )
+                        return
+                    }
                 }
             }
+        } finally {
+            lock.unlock()
         }
     }
 
@@ -1545,9 +1545,10 @@ class PipelineService @Autowired constructor(
             watch.stop()
 
             watch.start("perm_r_perm")
-            val pipelinesPermissions = pipelinePermissionService.getResourceByPermission(
-                userId = userId, projectId = projectId, permission = AuthPermission.LIST
-            )
+            // 只校验要查询的流水线，不拉取整个项目有权限的流水线列表
+            val pipelinesPermissions = pipelinePermissionService.checkPipelinesPermission(
+                userId = userId, projectId = projectId, pipelineIds = pipelines, permission = AuthPermission.LIST
+            ).filterValues { it }.keys.toList()
             watch.stop()
 
             watch.start("s_r_fav")
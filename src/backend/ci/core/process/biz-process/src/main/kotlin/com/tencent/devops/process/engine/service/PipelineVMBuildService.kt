@@ -47,6 +47,7 @@ import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.log.utils.LogUtils
 import com.tencent.devops.process.engine.common.VMUtils
 import com.tencent.devops.process.engine.control.ControlUtils
+import com.tencent.devops.process.engine.control.TaskClaimSignal
 import com.tencent.devops.process.engine.pojo.PipelineBuildTask
 import com.tencent.devops.process.engine.service.measure.MeasureService
 import com.tencent.devops.process.engine.utils.ContainerUtils
@@ -85,7 +86,8 @@ class PipelineVMBuildService @Autowired(required = false) constructor(
     private val redisOperation: RedisOperation,
     private val jmxElements: JmxElements,
     private val consulClient: ConsulDiscoveryClient?,
-    private val client: Client
+    private val client: Client,
+    private val taskClaimSignal: TaskClaimSignal
 ) {
 
     /**
@@ -255,10 +257,58 @@ class PipelineVMBuildService @Autowired(required = false) constructor(
 //    }
 
     /**
-     * 构建机请求执行任务
+     * 构建机请求执行任务，没有可执行的任务时异步挂起，不占用请求线程
+     * @param waitSeconds 没有可执行的任务时最多挂起等待的秒数，期间容器下任务状态有变化才会重新领取
+     * @param onClaimed 领取结果，挂起后在唤醒线程里回调
+     * @param onError 领取失败
      */
-    fun buildClaimTask(buildId: String, vmSeqId: String, vmName: String): BuildTask {
-        return buildClaim(buildId, vmSeqId, vmName)
+    fun buildClaimTask(
+        buildId: String,
+        vmSeqId: String,
+        vmName: String,
+        waitSeconds: Int?,
+        onClaimed: (BuildTask) -> Unit,
+        onError: (Throwable) -> Unit
+    ) {
+        val deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis((waitSeconds ?: 0).toLong())
+        claimOrWait(buildId, vmSeqId, vmName, deadline, onClaimed, onError)
+    }
+
+    private fun claimOrWait(
+        buildId: String,
+        vmSeqId: String,
+        vmName: String,
+        deadline: Long,
+        onClaimed: (BuildTask) -> Unit,
+        onError: (Throwable) -> Unit
+    ) {
+        try {
+            // 先取版本号再领取，领取之后的状态变化都会体现在版本号上
+            val version = taskClaimSignal.version(buildId, vmSeqId)
+            val buildTask = buildClaim(buildId, vmSeqId, vmName)
+            if (buildTask.status != BuildTaskStatus.WAIT) {
+                onClaimed(buildTask)
+                return
+            }
+            val waiting = taskClaimSignal.awaitChanged(
+                buildId = buildId,
+                vmSeqId = vmSeqId,
+                version = version,
+                waitMills = deadline - System.currentTimeMillis()
+            ) { changed ->
+                if (changed) {
+                    claimOrWait(buildId, vmSeqId, vmName, deadline, onClaimed, onError)
+                } else {
+                    onClaimed(buildTask)
+                }
+            }
+            if (!waiting) {
+                onClaimed(buildTask)
+            }
+        } catch (e: Throwable) {
+            logger.warn("[$buildId]|containerId=$vmSeqId|Fail to claim the task", e)
+            onError(e)
+        }
     }
 
     private fun addHeartBeat(buildId: String, vmSeqId: String, time: Long, retry: Int = 10) {
@@ -26,6 +26,8 @@
 
 package com.tencent.devops.process.engine.service.code
 
+import com.google.common.cache.CacheBuilder
+import com.google.common.cache.CacheLoader
 import com.tencent.devops.common.pipeline.pojo.element.trigger.enums.CodeEventType
 import com.tencent.devops.common.pipeline.pojo.element.trigger.enums.CodeType
 import com.tencent.devops.common.service.utils.SpringContextUtil
@@ -41,6 +43,8 @@ import com.tencent.devops.repository.pojo.Repository
 import com.tencent.devops.scm.utils.code.git.GitUtils
 import org.slf4j.LoggerFactory
 import org.springframework.util.AntPathMatcher
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 import java.util.regex.Pattern
 
 class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
@@ -52,8 +56,47 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         const val MATCH_BRANCH = "matchBranch"
         const val MATCH_PATHS = "matchPaths"
         const val EXCLUDE_MSG = "[skip ci]"
+
+        /**
+         * 触发器配置的路径字符串 -> 编译好的前缀树，同一份配置在多次事件、多条流水线间复用
+         */
+        private val pathTrieCache = CacheBuilder.newBuilder().maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build(object : CacheLoader<String, PathPrefixTrie>() {
+                override fun load(paths: String) = PathPrefixTrie(regex.split(paths).filter { it.isNotEmpty() })
+            })
+
+        /**
+         * 触发器配置的分支字符串 -> 拆分后的分支列表
+         */
+        private val branchSplitCache = CacheBuilder.newBuilder().maximumSize(10000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build(object : CacheLoader<String, List<String>>() {
+                override fun load(branchNames: String) = regex.split(branchNames).toList()
+            })
+
+        // 不含通配符的分支，AntPathMatcher的结果等同于字符串相等
+        private val literalBranch = Pattern.compile("[^*?{}]*")
+    }
+
+    /**
+     * push事件的变更路径与提交信息，同一个事件匹配多条流水线时只计算一次
+     */
+    private val pushPaths: Set<String> by lazy {
+        val eventPaths = mutableSetOf<String>()
+        (event as GitPushEvent).commits.forEach { commit ->
+            eventPaths.addAll(commit.added ?: listOf())
+            eventPaths.addAll(commit.removed ?: listOf())
+            eventPaths.addAll(commit.modified ?: listOf())
+        }
+        eventPaths
     }
 
+    /**
+     * mr的变更文件，按(项目, 代码库)缓存，同一个事件匹配多条流水线时只请求一次
+     */
+    private val mrChangeFiles = ConcurrentHashMap<String, List<String>>()
+
     override fun isMatch(
         projectId: String,
         pipelineId: String,
@@ -161,14 +204,16 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         val eventSourceBranch = (event as GitMergeRequestEvent).object_attributes.source_branch
         with(webHookParams) {
             // get mr change file list
-            val gitScmService = SpringContextUtil.getBean(GitScmService::class.java)
-            val mrChangeInfo = gitScmService.getMergeRequestChangeInfo(projectId, getMergeRequestId()!!, repository)
-            val changeFiles = mrChangeInfo?.files?.map {
-                if (it.deletedFile) {
-                    it.oldPath
-                } else {
-                    it.newPath
-                }
+            val changeFiles = mrChangeFiles.getOrPut("$projectId|${repository.repoHashId}") {
+                val gitScmService = SpringContextUtil.getBean(GitScmService::class.java)
+                val mrChangeInfo = gitScmService.getMergeRequestChangeInfo(projectId, getMergeRequestId()!!, repository)
+                mrChangeInfo?.files?.map {
+                    if (it.deletedFile) {
+                        it.oldPath
+                    } else {
+                        it.newPath
+                    }
+                } ?: listOf()
             }
 
             if (doExcludeBranchMatch(excludeBranchName, eventBranch, pipelineId)) {
@@ -213,14 +258,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         val eventBranch = getBranch()
         with(webHookParams) {
             val commits = (event as GitPushEvent).commits
-            val eventPaths = mutableSetOf<String>()
-            val commitMsg = mutableListOf<String>()
-            commits.forEach { commit ->
-                eventPaths.addAll(commit.added ?: listOf())
-                eventPaths.addAll(commit.removed ?: listOf())
-                eventPaths.addAll(commit.modified ?: listOf())
-                commitMsg.add(commit.message)
-            }
+            val eventPaths = pushPaths
 
             if (doExcludeBranchMatch(excludeBranchName, eventBranch, pipelineId)) {
                 logger.warn("Do push event match fail for exclude branch match for pipeline: $pipelineId")
@@ -232,7 +270,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
                 return ScmWebhookMatcher.MatchResult(false)
             }
 
-            if (doExcludeMsgMatch(commitMsg[0], pipelineId)) {
+            if (doExcludeMsgMatch(commits[0].message, pipelineId)) {
                 logger.warn("Do push event match fail for exclude message match for pipeline: $pipelineId")
                 return ScmWebhookMatcher.MatchResult(false)
             }
@@ -288,10 +326,8 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         // include的话，为空则为包含，开区间
         if (includePaths.isNullOrBlank()) return ""
 
-        val includePathSet = regex.split(includePaths).filter { it.isNotEmpty() }
-        logger.info("Include path set(${includePathSet.map { it }} for pipeline: $pipelineId")
-
-        val matchPaths = doPathMatch(eventPaths, includePathSet, pipelineId)
+        val includePathTrie = pathTrieCache.get(includePaths!!)
+        val matchPaths = eventPaths?.let { includePathTrie.collectMatches(it) } ?: setOf()
         return if (matchPaths.isNotEmpty()) {
             logger.warn("Do include path match success for pipeline: $pipelineId")
             matchPaths.joinToString(",")
@@ -306,8 +342,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         // include的话，为空则为包含，开区间
         if (branchName.isNullOrBlank()) return ""
 
-        val includeBranchNameSet = regex.split(branchName)
-        logger.info("Include branch set for pipeline: $pipelineId, ${includeBranchNameSet.map { it }}")
+        val includeBranchNameSet = branchSplitCache.get(branchName!!)
         includeBranchNameSet.forEach {
             if (isBranchMatch(it, eventBranch)) {
                 logger.warn("The include branch match the git event branch for pipeline: $pipelineId, $eventBranch")
@@ -323,8 +358,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         // 排除的话，为空则为不包含，闭区间
         if (excludeBranchName.isNullOrBlank()) return false
 
-        val excludeBranchNameSet = regex.split(excludeBranchName).toSet()
-        logger.info("Exclude branch set for pipeline: $pipelineId, ${excludeBranchNameSet.map { it }}")
+        val excludeBranchNameSet = branchSplitCache.get(excludeBranchName!!)
         excludeBranchNameSet.forEach {
             if (isBranchMatch(it, eventBranch)) {
                 logger.warn("The exclude branch match the git event branch for pipeline: $pipelineId, $eventBranch")
@@ -339,31 +373,20 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         // 排除的话，为空则为不包含，闭区间
         if (excludePaths.isNullOrBlank()) return false
 
-        val excludePathSet = regex.split(excludePaths).filter { it.isNotEmpty() }
-        logger.info("Exclude path set(${excludePathSet.map { it }}) for pipeline: $pipelineId")
-        if (doPathMatch(eventPaths, excludePathSet, pipelineId).isNotEmpty()) {
+        val excludePathTrie = pathTrieCache.get(excludePaths!!)
+        if (eventPaths != null && eventPaths.any { excludePathTrie.matchAny(it) }) {
             logger.warn("Do exclude path match success for pipeline: $pipelineId")
             return true
         }
         return false
     }
 
-    // eventPaths或userPaths为空则直接都是返回false
-    private fun doPathMatch(eventPaths: Collection<String>?, userPaths: List<String>, pipelineId: String): Set<String> {
-        val matchPaths = mutableSetOf<String>()
-        eventPaths?.forEach { eventPath ->
-            userPaths.forEach { userPath ->
-                if (isPathMatch(eventPath, userPath)) {
-                    logger.info("Event path match the user path for pipeline: $pipelineId, $eventPath, $userPath")
-                    matchPaths.add(userPath)
-                }
-            }
-        }
-        return matchPaths
-    }
-
     override fun isBranchMatch(branchName: String, ref: String): Boolean {
         val eventBranch = ref.removePrefix("refs/heads/")
+        if (branchName == eventBranch) return true
+        if (literalBranch.matcher(branchName).matches() && !branchName.contains("//") && !eventBranch.contains("//")) {
+            return false
+        }
         return matcher.match(branchName, eventBranch)
     }
 
@@ -424,8 +447,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         logger.info("Do exclude source branch match for pipeline: $pipelineId, $eventSourceBranch")
         if (excludeSourceBranchName.isNullOrBlank()) return false
 
-        val excludeSourceBranchNameSet = regex.split(excludeSourceBranchName).toSet()
-        logger.info("Exclude source branch set for pipeline: $pipelineId, ${excludeSourceBranchNameSet.map { it }}")
+        val excludeSourceBranchNameSet = branchSplitCache.get(excludeSourceBranchName!!)
         excludeSourceBranchNameSet.forEach {
             if (isBranchMatch(it, eventSourceBranch)) {
                 logger.warn("The exclude source branch match the git event branch for pipeline: $pipelineId, $eventSourceBranch")
@@ -439,8 +461,7 @@ class GitWebHookMatcher(val event: GitEvent) : ScmWebhookMatcher {
         logger.info("Do include source branch match for pipeline: $pipelineId, $eventSourceBranch")
         if (sourceBranchName.isNullOrBlank()) return ""
 
-        val includeSourceBranchNameSet = regex.split(sourceBranchName)
-        logger.info("Include source branch set for pipeline: $pipelineId, ${includeSourceBranchNameSet.map { it }}")
+        val includeSourceBranchNameSet = branchSplitCache.get(sourceBranchName!!)
         includeSourceBranchNameSet.forEach {
             if (isBranchMatch(it, eventSourceBranch)) {
                 logger.warn("The include source branch match the git event branch for pipeline: $pipelineId, $eventSourceBranch")
@@ -0,0 +1,95 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.process.engine.service.code
+
+/**
+ * 代码触发器的路径前缀集合
+ *
+ * 触发器的路径匹配语义是前缀匹配（忽略开头的/），把用户配置的所有路径建成一棵字符前缀树，
+ * 每个事件路径只需从根走一遍就能拿到所有命中的配置路径，与配置路径的个数无关。
+ */
+class PathPrefixTrie(userPaths: Collection<String>) {
+
+    private val root = Node()
+
+    val size: Int
+
+    init {
+        val distinctPaths = userPaths.toSet()
+        distinctPaths.forEach { userPath ->
+            var node = root
+            userPath.removePrefix("/").forEach { c ->
+                node = node.children.getOrPut(c) { Node() }
+            }
+            node.userPaths.add(userPath)
+        }
+        size = distinctPaths.size
+    }
+
+    /**
+     * 事件路径是否命中任一配置路径
+     */
+    fun matchAny(eventPath: String): Boolean {
+        var node = root
+        if (node.userPaths.isNotEmpty()) return true
+        eventPath.removePrefix("/").forEach { c ->
+            node = node.children[c] ?: return false
+            if (node.userPaths.isNotEmpty()) return true
+        }
+        return false
+    }
+
+    /**
+     * 把事件路径命中的配置路径加入matchPaths
+     */
+    fun collectMatches(eventPath: String, matchPaths: MutableSet<String>) {
+        var node = root
+        matchPaths.addAll(node.userPaths)
+        eventPath.removePrefix("/").forEach { c ->
+            node = node.children[c] ?: return
+            matchPaths.addAll(node.userPaths)
+        }
+    }
+
+    /**
+     * 所有事件路径命中的配置路径，全部命中后提前结束
+     */
+    fun collectMatches(eventPaths: Collection<String>): Set<String> {
+        val matchPaths = mutableSetOf<String>()
+        for (eventPath in eventPaths) {
+            collectMatches(eventPath, matchPaths)
+            if (matchPaths.size == size) break
+        }
+        return matchPaths
+    }
+
+    private class Node {
+        val children = HashMap<Char, Node>(4)
+        val userPaths = mutableListOf<String>()
+    }
+}
@@ -55,6 +55,21 @@ interface PipelinePermissionService {
         permission: AuthPermission
     ): Boolean
 
+    /**
+     * 一次校验多条流水线是否有指定权限
+     * @param userId userId
+     * @param projectId projectId
+     * @param pipelineIds 流水线ID列表
+     * @param permission 权限
+     * @return 流水线ID -> 有权限返回true
+     */
+    fun checkPipelinesPermission(
+        userId: String,
+        projectId: String,
+        pipelineIds: Collection<String>,
+        permission: AuthPermission
+    ): Map<String, Boolean>
+
     /**
      * 检查是否有相应权限并抛出异常
      */
@@ -26,29 +26,99 @@
 
 package com.tencent.devops.process.service
 
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.util.EmojiUtil
 import com.tencent.devops.common.pipeline.pojo.BuildParameters
+import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.process.engine.dao.PipelineBuildVarDao
 import com.tencent.devops.process.utils.PipelineVarUtil
 import org.jooq.DSLContext
+import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
+import org.springframework.transaction.support.TransactionSynchronizationAdapter
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import java.util.Collections
+import java.util.Date
+import java.util.concurrent.TimeUnit
 
 @Service
 class BuildVariableService @Autowired constructor(
     private val commonDslContext: DSLContext,
-    private val pipelineBuildVarDao: PipelineBuildVarDao
+    private val pipelineBuildVarDao: PipelineBuildVarDao,
+    private val redisOperation: RedisOperation
 ) {
 
+    /**
+     * buildId -> 带版本号的构建变量，版本号存在Redis，任一实例写变量都会递增，
+     * 读时版本号一致才用本地缓存，否则重新从DB加载
+     */
+    private val variableCache = CacheBuilder.newBuilder().maximumSize(5000)
+        .expireAfterAccess(30, TimeUnit.MINUTES)
+        .build<String, VersionedVariables>()
+
+    private class VersionedVariables(val version: String, val variables: Map<String, String>)
+
     fun getVariable(buildId: String, varName: String): String? {
         val vars = getAllVariable(buildId)
         return if (vars.isNotEmpty()) vars[varName] else null
     }
 
+    /**
+     * 返回的Map在多个调用方之间共享，只读，需要修改时调用方自行复制
+     */
     fun getAllVariable(buildId: String): Map<String, String> {
-        return PipelineVarUtil.mixOldVarAndNewVar(pipelineBuildVarDao.getVars(commonDslContext, buildId))
+        val version = getVariableVersion(buildId)
+        val cached = variableCache.getIfPresent(buildId)
+        if (cached != null && cached.version == version) {
+            return cached.variables
+        }
+        // 先取版本号再读DB，期间有写入时缓存的是新数据旧版本号，下次读取会再加载一次，不会读到旧数据
+        val variables = Collections.unmodifiableMap(
+            PipelineVarUtil.mixOldVarAndNewVar(pipelineBuildVarDao.getVars(commonDslContext, buildId))
+        )
+        variableCache.put(buildId, VersionedVariables(version, variables))
+        return variables
+    }
+
+    private fun invalidateVariableCache(buildId: String) {
+        variableCache.invalidate(buildId)
+        try {
+            val key = variableVersionKey(buildId)
+            redisOperation.increment(key, 1)
+            redisOperation.expireAt(key, Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(VERSION_EXPIRE_DAYS)))
+        } catch (ignored: Exception) {
+            logger.warn("[$buildId]|Fail to increase the variable version", ignored)
+        }
+    }
+
+    /**
+     * 事务内写入的变量在提交前对其他实例不可见，提交后再推进版本号，避免其他实例用新版本号缓存到旧变量
+     */
+    private fun invalidateVariableCacheAfterCommit(buildId: String) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateVariableCache(buildId)
+            return
+        }
+        TransactionSynchronizationManager.registerSynchronization(object : TransactionSynchronizationAdapter() {
+            override fun afterCommit() {
+                invalidateVariableCache(buildId)
+            }
+        })
     }
 
+    private fun getVariableVersion(buildId: String): String {
+        return try {
+            redisOperation.get(variableVersionKey(buildId)) ?: "0"
+        } catch (ignored: Exception) {
+            logger.warn("[$buildId]|Fail to get the variable version", ignored)
+            // 取不到版本号时不使用缓存
+            System.nanoTime().toString()
+        }
+    }
+
+    private fun variableVersionKey(buildId: String) = "process:build:var:version:$buildId"
+
     fun getAllVariableWithType(buildId: String): List<BuildParameters> {
         return pipelineBuildVarDao.getVarsWithType(commonDslContext, buildId)
     }
@@ -63,6 +133,7 @@ class BuildVariableService @Autowired constructor(
             name = realVarName,
             value = varValue
         )
+        invalidateVariableCache(buildId)
     }
 
     fun batchSetVariable(projectId: String, pipelineId: String, buildId: String, variables: Map<String, Any>) =
@@ -77,7 +148,7 @@ class BuildVariableService @Autowired constructor(
     }
 
     // 保存方法需要提供事务保护的实现，传入特定dslContext
-    fun saveVariable(dslContext: DSLContext, buildId: String, projectId: String, pipelineId: String, name: String, value: Any) =
+    fun saveVariable(dslContext: DSLContext, buildId: String, projectId: String, pipelineId: String, name: String, value: Any) {
         pipelineBuildVarDao.save(
             dslContext = dslContext,
             projectId = projectId,
@@ -86,6 +157,8 @@ class BuildVariableService @Autowired constructor(
             name = name,
             value = value
         )
+        invalidateVariableCacheAfterCommit(buildId)
+    }
 
     fun batchSetVariable(dslContext: DSLContext, projectId: String, pipelineId: String, buildId: String, variables: Map<String, Any>) {
         val vars = variables.map { it.key to it.value.toString() }.toMap().toMutableMap()
@@ -101,5 +174,11 @@ class BuildVariableService @Autowired constructor(
             buildId = buildId,
             variables = pipelineBuildParameters
         )
+        invalidateVariableCacheAfterCommit(buildId)
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(BuildVariableService::class.java)
+        private const val VERSION_EXPIRE_DAYS = 7L
     }
 }
\ No newline at end of file
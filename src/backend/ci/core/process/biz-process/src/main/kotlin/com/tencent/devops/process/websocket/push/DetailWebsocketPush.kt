@@ -29,7 +29,6 @@ package com.tencent.devops.process.websocket.push
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.tencent.devops.common.event.annotation.Event
 import com.tencent.devops.common.event.dispatcher.pipeline.mq.MQ
-import com.tencent.devops.common.pipeline.enums.ChannelCode
 import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.common.service.utils.SpringContextUtil
 import com.tencent.devops.common.websocket.dispatch.message.PipelineMessage
@@ -37,7 +36,7 @@ import com.tencent.devops.common.websocket.dispatch.message.SendMessage
 import com.tencent.devops.common.websocket.dispatch.push.WebsocketPush
 import com.tencent.devops.common.websocket.pojo.NotifyPost
 import com.tencent.devops.common.websocket.pojo.WebSocketType
-import com.tencent.devops.process.engine.service.PipelineBuildService
+import com.tencent.devops.process.engine.service.PipelineDetailPushService
 import org.slf4j.LoggerFactory
 
 @Event(exchange = MQ.EXCHANGE_WEBSOCKET_TMP_FANOUT, routeKey = MQ.ROUTE_WEBSOCKET_TMP_EVENT)
@@ -55,9 +54,16 @@ data class DetailWebsocketPush(
 
     companion object {
         private val logger = LoggerFactory.getLogger(this::class.java)
-        private val pipelineBuildService = SpringContextUtil.getBean(PipelineBuildService::class.java)
+        private val pipelineDetailPushService = SpringContextUtil.getBean(PipelineDetailPushService::class.java)
     }
 
+    /**
+     * 是否已经过合并窗口，未合并的推送先交给PipelineDetailPushService延迟
+     */
+    var coalesced = false
+
+    private var pushMessage: PipelineDetailPushService.DetailPushMessage? = null
+
     override fun findSession(page: String): List<String>? {
         if (page == "") {
             logger.warn("page empty: buildId[$buildId],projectId:[$projectId],pipelineId:[$pipelineId],page:[$page]")
@@ -66,6 +72,10 @@ data class DetailWebsocketPush(
     }
 
     override fun buildMqMessage(): SendMessage? {
+        if (!coalesced) {
+            pipelineDetailPushService.delay(this)
+            return null
+        }
         return PipelineMessage(
                 buildId = buildId,
                 projectId = projectId,
@@ -77,16 +87,46 @@ data class DetailWebsocketPush(
         )
     }
 
+    /**
+     * 只生成快照，全量报文等分组后确实有session需要全量时再序列化
+     */
     override fun buildNotifyMessage(message: SendMessage) {
-        val notifyPost = message.notifyPost
         try {
-            val modelDetail = pipelineBuildService.getBuildDetail(projectId, pipelineId, buildId!!, ChannelCode.BS, ChannelCode.isNeedAuth(ChannelCode.BS))
-            if (notifyPost != null) {
-                notifyPost.message = objectMapper.writeValueAsString(modelDetail)
-//                logger.info("DetailWebsocketPush message: $notifyPost")
-            }
+            pushMessage = pipelineDetailPushService.takeSnapshot(projectId, pipelineId, buildId!!)
         } catch (e: Exception) {
             logger.error("DetailWebSocketMessage:getBuildDetail error. message:${e.message}")
         }
     }
-}
\ No newline at end of file
+
+    override fun buildSendMessages(message: SendMessage): List<SendMessage> {
+        val detailPushMessage = pushMessage ?: return listOf(message)
+        val sessionList = message.sessionList
+        if (sessionList == null || message !is PipelineMessage) {
+            message.notifyPost.message = detailPushMessage.fullMessage
+            return listOf(message)
+        }
+        val (patchSessions, fullSessions) = pipelineDetailPushService.partitionSessions(
+            buildId = buildId!!,
+            sessionList = sessionList,
+            message = detailPushMessage
+        )
+        val messages = mutableListOf<SendMessage>()
+        if (patchSessions.isNotEmpty()) {
+            messages.add(
+                message.copy(
+                    sessionList = patchSessions,
+                    notifyPost = message.notifyPost.copy(message = detailPushMessage.patchMessage!!)
+                )
+            )
+        }
+        if (fullSessions.isNotEmpty()) {
+            messages.add(
+                message.copy(
+                    sessionList = fullSessions,
+                    notifyPost = message.notifyPost.copy(message = detailPushMessage.fullMessage)
+                )
+            )
+        }
+        return messages
+    }
+}
@@ -37,7 +37,6 @@ import com.tencent.devops.common.websocket.dispatch.push.WebsocketPush
 import com.tencent.devops.common.websocket.pojo.NotifyPost
 import com.tencent.devops.common.websocket.pojo.WebSocketType
 import com.tencent.devops.common.websocket.utils.PageUtils
-import com.tencent.devops.common.websocket.utils.RedisUtlis
 import com.tencent.devops.process.engine.service.PipelineService
 import com.tencent.devops.process.pojo.PipelineStatus
 import org.slf4j.LoggerFactory
@@ -68,7 +67,7 @@ data class StatusWebsocketPush(
 
         var sessionList = mutableListOf<String>()
         pageList.forEach {
-            val redisSession = RedisUtlis.getSessionListFormPageSessionByPage(redisOperation, it)
+            val redisSession = findPageSession(it)
             if (redisSession != null) {
                 sessionList.addAll(redisSession)
             }
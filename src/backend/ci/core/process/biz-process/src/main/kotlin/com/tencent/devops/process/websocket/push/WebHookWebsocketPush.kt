@@ -58,7 +58,7 @@ data class WebHookWebsocketPush(
         val sessionId = RedisUtlis.getSessionIdByUserId(redisOperation, userId)
         val sessionList = mutableListOf<String>()
         if (sessionId != null) {
-            sessionList.add(sessionId!!)
+            sessionList.addAll(sessionId.split(","))
         }
         return NotifyMessage(
                 buildId = buildId,
@@ -26,6 +26,7 @@ class ContainerControlTest {
     private val containerControl = ContainerControl(
         rabbitTemplate = rabbitTemplate,
         redisOperation = redisOperation,
+        buildAffinityService = mock(),
         pipelineEventDispatcher = mock(),
         pipelineBuildDetailService = mock(),
         pipelineQuotaService = mock(),
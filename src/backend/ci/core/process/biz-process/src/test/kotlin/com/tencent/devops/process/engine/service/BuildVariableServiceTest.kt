@@ -26,8 +26,13 @@
 
 package com.tencent.devops.process.engine.service
 
+import com.nhaarman.mockito_kotlin.any
 import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.never
+import com.nhaarman.mockito_kotlin.times
+import com.nhaarman.mockito_kotlin.verify
 import com.nhaarman.mockito_kotlin.whenever
+import com.tencent.devops.common.redis.RedisOperation
 import com.tencent.devops.process.engine.dao.PipelineBuildVarDao
 import com.tencent.devops.process.service.BuildVariableService
 import com.tencent.devops.process.utils.PIPELINE_BUILD_NUM
@@ -41,15 +46,18 @@ import com.tencent.devops.process.utils.PIPELINE_VERSION
 import org.jooq.DSLContext
 import org.junit.Assert
 import org.junit.Test
+import org.springframework.transaction.support.TransactionSynchronizationManager
 
 class BuildVariableServiceTest {
 
     private val dslContext: DSLContext = mock()
     private val pipelineBuildVarDao: PipelineBuildVarDao = mock()
+    private val redisOperation: RedisOperation = mock()
 
     private val buildVariableService = BuildVariableService(
         commonDslContext = dslContext,
-        pipelineBuildVarDao = pipelineBuildVarDao
+        pipelineBuildVarDao = pipelineBuildVarDao,
+        redisOperation = redisOperation
     )
 
     @Test
@@ -98,4 +106,47 @@ class BuildVariableServiceTest {
         Assert.assertEquals(mockVars["pipeline.version"], allVariable[PIPELINE_VERSION])
         Assert.assertEquals(allVariable["pipeline.version"], allVariable[PIPELINE_VERSION])
     }
-}
\ No newline at end of file
+
+    @Test
+    fun getAllVariableFromCache() {
+        val buildId = "b-cache1234567890"
+        val versionKey = "process:build:var:version:$buildId"
+        whenever(redisOperation.get(versionKey)).thenReturn("1")
+        whenever(pipelineBuildVarDao.getVars(dslContext, buildId)).thenReturn(mutableMapOf("a" to "1"))
+
+        Assert.assertEquals("1", buildVariableService.getVariable(buildId, "a"))
+        Assert.assertEquals("1", buildVariableService.getVariable(buildId, "a"))
+        verify(pipelineBuildVarDao, times(1)).getVars(dslContext, buildId)
+
+        // 其他实例写入变量后版本号变化，重新从DB加载
+        whenever(redisOperation.get(versionKey)).thenReturn("2")
+        whenever(pipelineBuildVarDao.getVars(dslContext, buildId)).thenReturn(mutableMapOf("a" to "2"))
+        Assert.assertEquals("2", buildVariableService.getVariable(buildId, "a"))
+        verify(pipelineBuildVarDao, times(2)).getVars(dslContext, buildId)
+    }
+
+    @Test
+    fun setVariableIncreaseVersion() {
+        val buildId = "b-set1234567890"
+        buildVariableService.setVariable("p-1", "p-2", buildId, "a", "1")
+        verify(redisOperation).increment("process:build:var:version:$buildId", 1)
+        verify(redisOperation).expireAt(any(), any())
+    }
+
+    @Test
+    fun batchSetVariableInTransactionIncreaseVersionAfterCommit() {
+        val buildId = "b-tx1234567890"
+        val versionKey = "process:build:var:version:$buildId"
+        TransactionSynchronizationManager.initSynchronization()
+        try {
+            buildVariableService.batchSetVariable(dslContext, "p-1", "p-2", buildId, mapOf("a" to "1"))
+            // 提交前其他实例看不到新变量，不能推进版本号
+            verify(redisOperation, never()).increment(versionKey, 1)
+
+            TransactionSynchronizationManager.getSynchronizations().forEach { it.afterCommit() }
+            verify(redisOperation).increment(versionKey, 1)
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization()
+        }
+    }
+}
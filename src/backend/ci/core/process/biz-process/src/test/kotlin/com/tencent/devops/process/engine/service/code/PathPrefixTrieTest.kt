@@ -0,0 +1,76 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.process.engine.service.code
+
+import org.junit.Assert
+import org.junit.Test
+
+class PathPrefixTrieTest {
+
+    private val userPaths = listOf("src/main", "/src/test/", "doc", "src/main/kotlin", "README.md")
+
+    private val eventPaths = listOf(
+        "src/main/kotlin/A.kt",
+        "/src/test/B.kt",
+        "src/testing/C.kt",
+        "docs/index.md",
+        "README.md",
+        "build.gradle"
+    )
+
+    private fun naiveMatches(eventPath: String): Set<String> {
+        return userPaths.filter { eventPath.removePrefix("/").startsWith(it.removePrefix("/")) }.toSet()
+    }
+
+    @Test
+    fun collectMatchesSameAsStartsWith() {
+        val trie = PathPrefixTrie(userPaths)
+        eventPaths.forEach { eventPath ->
+            val matchPaths = mutableSetOf<String>()
+            trie.collectMatches(eventPath, matchPaths)
+            Assert.assertEquals(eventPath, naiveMatches(eventPath), matchPaths)
+            Assert.assertEquals(eventPath, naiveMatches(eventPath).isNotEmpty(), trie.matchAny(eventPath))
+        }
+        Assert.assertEquals(eventPaths.flatMap { naiveMatches(it) }.toSet(), trie.collectMatches(eventPaths))
+    }
+
+    @Test
+    fun emptyUserPath() {
+        val trie = PathPrefixTrie(listOf(""))
+        Assert.assertTrue(trie.matchAny("any/path"))
+        Assert.assertEquals(setOf(""), trie.collectMatches(listOf("a", "b")))
+    }
+
+    @Test
+    fun noUserPath() {
+        val trie = PathPrefixTrie(emptyList())
+        Assert.assertEquals(0, trie.size)
+        Assert.assertFalse(trie.matchAny("src/main"))
+        Assert.assertTrue(trie.collectMatches(listOf("src/main")).isEmpty())
+    }
+}
@@ -82,6 +82,18 @@ class QualityControlPointDao {
         }
     }
 
+    /**
+     * 控制点表的变更指纹：控制点数、最大ID、最近更新时间，规则索引中引用了控制点的可选位置
+     */
+    fun fingerprint(dslContext: DSLContext): Triple<Int, Long?, LocalDateTime?> {
+        with(TQualityControlPoint.T_QUALITY_CONTROL_POINT) {
+            val record = dslContext.select(DSL.count(), DSL.max(ID), DSL.max(UPDATE_TIME))
+                .from(this)
+                .fetchOne()
+            return Triple(record.value1(), record.value2(), record.value3())
+        }
+    }
+
     // 统计暂时不支持区分测试项目
     fun count(dslContext: DSLContext): Long {
         with(TQualityControlPoint.T_QUALITY_CONTROL_POINT) {
@@ -220,6 +232,7 @@ class QualityControlPointDao {
                     transactionContext.update(this)
                         .set(TAG, "IN_READY_RUNNING")
                         .set(TEST_PROJECT, "")
+                        .set(UPDATE_TIME, LocalDateTime.now())
                         .where(ID.eq(testControlPoint.id))
                         .execute()
                 }
@@ -33,6 +33,7 @@ import com.tencent.devops.quality.api.v2.pojo.enums.IndicatorType
 import com.tencent.devops.quality.api.v2.pojo.op.IndicatorUpdate
 import org.jooq.DSLContext
 import org.jooq.Result
+import org.jooq.impl.DSL
 import org.springframework.stereotype.Repository
 import java.time.LocalDateTime
 
@@ -82,6 +83,18 @@ class QualityIndicatorDao {
         }
     }
 
+    /**
+     * 指标表的变更指纹：指标数、最大ID、最近更新时间，规则索引中引用了指标定义
+     */
+    fun fingerprint(dslContext: DSLContext): Triple<Int, Long?, LocalDateTime?> {
+        with(TQualityIndicator.T_QUALITY_INDICATOR) {
+            val record = dslContext.select(DSL.count(), DSL.max(ID), DSL.max(UPDATE_TIME))
+                .from(this)
+                .fetchOne()
+            return Triple(record.value1(), record.value2(), record.value3())
+        }
+    }
+
     fun countSystem(dslContext: DSLContext): Long {
         with(TQualityIndicator.T_QUALITY_INDICATOR) {
             return dslContext.selectCount().from(this)
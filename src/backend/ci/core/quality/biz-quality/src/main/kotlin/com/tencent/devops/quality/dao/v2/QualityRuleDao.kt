@@ -34,6 +34,7 @@ import com.tencent.devops.quality.api.v2.pojo.request.RuleCreateRequest
 import com.tencent.devops.quality.api.v2.pojo.request.RuleUpdateRequest
 import org.jooq.DSLContext
 import org.jooq.Result
+import org.jooq.impl.DSL
 import org.springframework.stereotype.Repository
 import java.time.LocalDateTime
 import javax.ws.rs.NotFoundException
@@ -121,6 +122,7 @@ class QualityRuleDao {
         with(TQualityRule.T_QUALITY_RULE) {
             dslContext.update(this)
                 .set(ENABLE, enable)
+                .set(UPDATE_TIME, LocalDateTime.now())
                 .where(ID.eq(ruleId))
                 .execute()
         }
@@ -151,6 +153,19 @@ class QualityRuleDao {
         }
     }
 
+    /**
+     * 项目规则的变更指纹：规则数、最大ID、最近更新时间，任一变化说明规则有增删改
+     */
+    fun fingerprint(dslContext: DSLContext, projectId: String): Triple<Int, Long?, LocalDateTime?> {
+        with(TQualityRule.T_QUALITY_RULE) {
+            val record = dslContext.select(DSL.count(), DSL.max(ID), DSL.max(UPDATE_TIME))
+                .from(this)
+                .where(PROJECT_ID.eq(projectId))
+                .fetchOne()
+            return Triple(record.value1(), record.value2(), record.value3())
+        }
+    }
+
     fun list(dslContext: DSLContext, projectId: String, offset: Int, limit: Int): Result<TQualityRuleRecord>? {
         with(TQualityRule.T_QUALITY_RULE) {
             return dslContext.selectFrom(this)
@@ -61,7 +61,7 @@ class QualityCountService @Autowired constructor(
         // 剔除已删除的流水线
         val pipelineSet = mutableSetOf<String>()
         val templateSet = mutableSetOf<String>()
-        val ruleList = ruleService.serviceListRules(projectId)
+        val ruleList = ruleService.serviceGetRuleIndex(projectId).rules
         ruleList.forEach { pipelineSet.addAll(it.range) }
         ruleList.forEach { templateSet.addAll(it.templateRange) }
 
@@ -147,14 +147,9 @@ class QualityRuleCheckService @Autowired constructor(
     }
 
     private fun getProjectRuleList(projectId: String, pipelineId: String?, templateId: String?): List<QualityRule> {
-        val ruleList = ruleService.serviceListRules(projectId)
+        val ruleList = ruleService.serviceGetRuleIndex(projectId).listRangeRules(pipelineId, templateId)
         logger.info("get project rule list for $projectId, $pipelineId, $templateId: ${ruleList.map { it.name }}")
-        return ruleList.filter {
-            var result = false
-            if (!pipelineId.isNullOrBlank()) result = (result || it.range.contains(pipelineId))
-            if (!templateId.isNullOrBlank()) result = (result || it.templateRange.contains(templateId))
-            return@filter result
-        }
+        return ruleList
     }
 
     fun check(buildCheckParams: BuildCheckParams): RuleCheckResult {
@@ -163,19 +158,15 @@ class QualityRuleCheckService @Autowired constructor(
             val resultList = mutableListOf<RuleCheckSingleResult>()
             val ruleInterceptList = mutableListOf<Triple<QualityRule, Boolean, List<QualityRuleInterceptRecord>>>()
 
-            // 遍历项目下所有拦截规则
-            val ruleList = ruleService.serviceListRuleByPosition(projectId, buildCheckParams.position)
-
-            val filterRuleList = ruleList.filter { rule ->
-                logger.info("validate whether to check rule(${rule.name}) with gatewayId(${rule.gatewayId})")
-                if (rule.controlPoint.name != buildCheckParams.taskId) return@filter false
-                val gatewayId = rule.gatewayId ?: ""
-                if (!buildCheckParams.interceptTaskName.toLowerCase().contains(gatewayId.toLowerCase())) return@filter false
-
-                val containsInPipeline = rule.range.contains(pipelineId)
-                val containsInTemplate = rule.templateRange.contains(buildCheckParams.templateId)
-                return@filter (containsInPipeline || containsInTemplate)
-            }
+            // 从项目规则索引中取出该控制点、拦截位置下匹配的规则
+            val filterRuleList = ruleService.serviceGetRuleIndex(projectId).listCheckRules(
+                position = buildCheckParams.position,
+                controlPoint = buildCheckParams.taskId,
+                pipelineId = pipelineId,
+                templateId = buildCheckParams.templateId,
+                interceptTaskName = buildCheckParams.interceptTaskName
+            )
+            logger.info("match rules for pipeline($pipelineId) task(${buildCheckParams.taskId}): ${filterRuleList.map { it.name }}")
 
             // start to check
             val metadataList = qualityHisMetadataService.serviceGetHisMetadata(buildId)
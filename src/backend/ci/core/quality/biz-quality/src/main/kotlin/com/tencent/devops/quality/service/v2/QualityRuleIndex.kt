@@ -0,0 +1,126 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.quality.service.v2
+
+import com.tencent.devops.quality.api.v2.pojo.QualityRule
+
+/**
+ * 项目下已启用红线规则的内存索引
+ *
+ * 按(拦截位置, 控制点)分组，流水线/模板范围预先转换为集合，
+ * 构建检查时只需一次哈希查找加上少量候选规则的集合判断，不再线性扫描全部规则。
+ * 索引构建后只读，可以被多个线程共享。
+ */
+class QualityRuleIndex(val rules: List<QualityRule>) {
+
+    private val positionRuleMap: Map<String, List<IndexedRule>>
+
+    // 流水线/模板 -> 规则在rules中的下标（升序），用于保持原有的规则顺序
+    private val pipelineRuleMap: Map<String, IntArray>
+    private val templateRuleMap: Map<String, IntArray>
+
+    init {
+        val positionMap = mutableMapOf<String, MutableList<IndexedRule>>()
+        val pipelineMap = mutableMapOf<String, MutableList<Int>>()
+        val templateMap = mutableMapOf<String, MutableList<Int>>()
+        rules.forEachIndexed { index, rule ->
+            val indexedRule = IndexedRule(
+                rule = rule,
+                gatewayId = (rule.gatewayId ?: "").toLowerCase(),
+                pipelineIds = rule.range.toHashSet(),
+                templateIds = rule.templateRange.toHashSet()
+            )
+            positionMap.getOrPut(positionKey(rule.controlPoint.position.name, rule.controlPoint.name)) { mutableListOf() }
+                .add(indexedRule)
+            indexedRule.pipelineIds.forEach { pipelineMap.getOrPut(it) { mutableListOf() }.add(index) }
+            indexedRule.templateIds.forEach { templateMap.getOrPut(it) { mutableListOf() }.add(index) }
+        }
+        positionRuleMap = positionMap
+        pipelineRuleMap = pipelineMap.mapValues { it.value.toIntArray() }
+        templateRuleMap = templateMap.mapValues { it.value.toIntArray() }
+    }
+
+    /**
+     * 构建检查时匹配的规则：控制点、拦截位置一致，插件名包含gatewayId，且流水线或模板在规则范围内
+     */
+    fun listCheckRules(
+        position: String,
+        controlPoint: String,
+        pipelineId: String,
+        templateId: String?,
+        interceptTaskName: String
+    ): List<QualityRule> {
+        val candidates = positionRuleMap[positionKey(position, controlPoint)] ?: return listOf()
+        val taskName = interceptTaskName.toLowerCase()
+        return candidates.filter {
+            taskName.contains(it.gatewayId) &&
+                (it.pipelineIds.contains(pipelineId) || (templateId != null && it.templateIds.contains(templateId)))
+        }.map { it.rule }
+    }
+
+    /**
+     * 包含该流水线或模板的所有规则，顺序与rules一致
+     */
+    fun listRangeRules(pipelineId: String?, templateId: String?): List<QualityRule> {
+        val pipelineRules = if (pipelineId.isNullOrBlank()) null else pipelineRuleMap[pipelineId!!]
+        val templateRules = if (templateId.isNullOrBlank()) null else templateRuleMap[templateId!!]
+        if (pipelineRules == null && templateRules == null) return listOf()
+        if (templateRules == null) return pipelineRules!!.map { rules[it] }
+        if (pipelineRules == null) return templateRules.map { rules[it] }
+
+        // 合并两个有序下标数组并去重
+        val result = mutableListOf<QualityRule>()
+        var i = 0
+        var j = 0
+        while (i < pipelineRules.size || j < templateRules.size) {
+            val next = when {
+                j >= templateRules.size -> pipelineRules[i++]
+                i >= pipelineRules.size -> templateRules[j++]
+                pipelineRules[i] < templateRules[j] -> pipelineRules[i++]
+                pipelineRules[i] > templateRules[j] -> templateRules[j++]
+                else -> {
+                    j++
+                    pipelineRules[i++]
+                }
+            }
+            result.add(rules[next])
+        }
+        return result
+    }
+
+    private class IndexedRule(
+        val rule: QualityRule,
+        val gatewayId: String,
+        val pipelineIds: Set<String>,
+        val templateIds: Set<String>
+    )
+
+    companion object {
+        private fun positionKey(position: String, controlPoint: String) = "${position.toUpperCase()}|$controlPoint"
+    }
+}
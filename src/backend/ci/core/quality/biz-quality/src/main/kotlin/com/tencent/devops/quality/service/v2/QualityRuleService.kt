@@ -26,6 +26,7 @@
 
 package com.tencent.devops.quality.service.v2
 
+import com.google.common.cache.CacheBuilder
 import com.tencent.devops.common.api.constant.CommonMessageCode
 import com.tencent.devops.common.api.exception.ErrorCodeException
 import com.tencent.devops.common.api.util.HashUtil
@@ -57,6 +58,8 @@ import com.tencent.devops.quality.api.v2.pojo.request.RuleUpdateRequest
 import com.tencent.devops.quality.api.v2.pojo.response.QualityRuleSummaryWithPermission
 import com.tencent.devops.quality.api.v2.pojo.response.UserQualityRule
 import com.tencent.devops.quality.constant.QualityMessageCode
+import com.tencent.devops.quality.dao.v2.QualityControlPointDao
+import com.tencent.devops.quality.dao.v2.QualityIndicatorDao
 import com.tencent.devops.quality.dao.v2.QualityRuleDao
 import com.tencent.devops.quality.dao.v2.QualityRuleMapDao
 import com.tencent.devops.quality.pojo.RulePermission
@@ -70,12 +73,15 @@ import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import java.time.LocalDateTime
+import java.util.concurrent.TimeUnit
 
 @Service
 class QualityRuleService @Autowired constructor(
     private val ruleOperationService: QualityRuleOperationService,
     private val qualityRuleDao: QualityRuleDao,
     private val ruleMapDao: QualityRuleMapDao,
+    private val indicatorDao: QualityIndicatorDao,
+    private val controlPointDao: QualityControlPointDao,
     private val indicatorService: QualityIndicatorService,
     private val qualityControlPointService: QualityControlPointService,
     private val dslContext: DSLContext,
@@ -88,8 +94,23 @@ class QualityRuleService @Autowired constructor(
     companion object {
         private val logger = LoggerFactory.getLogger(QualityRuleService::class.java)
         private val RESOURCE_TYPE = AuthResourceType.QUALITY_RULE
+        // 本实例内的规则变更会直接失效索引，其他实例的变更靠指纹比对发现，最多延迟这么久
+        private const val RULE_INDEX_CHECK_INTERVAL_MILLS = 5000L
     }
 
+    /**
+     * projectId -> 已启用规则的索引
+     */
+    private val ruleIndexCache = CacheBuilder.newBuilder().maximumSize(2000)
+        .expireAfterWrite(10, TimeUnit.MINUTES)
+        .build<String, CachedRuleIndex>()
+
+    private class CachedRuleIndex(
+        val index: QualityRuleIndex,
+        val fingerprint: List<Triple<Int, Long?, LocalDateTime?>>,
+        @Volatile var checkTime: Long
+    )
+
     fun hasCreatePermission(userId: String, projectId: String): Boolean {
         return validatePermission(userId = userId, projectId = projectId, authPermission = AuthPermission.CREATE)
     }
@@ -105,7 +126,7 @@ class QualityRuleService @Autowired constructor(
     }
 
     fun serviceCreate(userId: String, projectId: String, ruleRequest: RuleCreateRequest): String {
-        return dslContext.transactionResult { configuration ->
+        val ruleHashId = dslContext.transactionResult { configuration ->
             val context = DSL.using(configuration)
 
             val ruleId = qualityRuleDao.create(
@@ -131,6 +152,8 @@ class QualityRuleService @Autowired constructor(
             createResource(userId = userId, projectId = projectId, ruleId = ruleId, ruleName = ruleRequest.name)
             HashUtil.encodeLongId(ruleId)
         }
+        invalidateRuleIndex(projectId)
+        return ruleHashId
     }
 
     fun userUpdate(userId: String, projectId: String, ruleHashId: String, ruleRequest: RuleUpdateRequest): Boolean {
@@ -155,6 +178,7 @@ class QualityRuleService @Autowired constructor(
             }
             modifyResource(projectId = projectId, ruleId = ruleId, ruleName = ruleRequest.name)
         }
+        invalidateRuleIndex(projectId)
         return true
     }
 
@@ -169,6 +193,7 @@ class QualityRuleService @Autowired constructor(
             message = "用户没拦截规则的停用/启用权限"
         )
         qualityRuleDao.updateEnable(dslContext = dslContext, ruleId = ruleId, enable = enable)
+        invalidateRuleIndex(projectId)
     }
 
     fun userDelete(userId: String, projectId: String, ruleHashId: String) {
@@ -183,6 +208,7 @@ class QualityRuleService @Autowired constructor(
         )
         qualityRuleDao.delete(dslContext, ruleId)
         deleteResource(projectId, ruleId)
+        invalidateRuleIndex(projectId)
     }
 
     fun serviceGet(ruleHashId: String): TQualityRuleRecord {
@@ -202,6 +228,37 @@ class QualityRuleService @Autowired constructor(
         } ?: listOf()
     }
 
+    /**
+     * 获取项目已启用规则的索引，同一项目在检查间隔内直接复用，超过间隔后比对指纹，有变化才重新加载
+     * 索引中的规则带有指标定义和控制点信息，指纹同时包含规则表、指标表和控制点表
+     */
+    fun serviceGetRuleIndex(projectId: String): QualityRuleIndex {
+        val now = System.currentTimeMillis()
+        val cached = ruleIndexCache.getIfPresent(projectId)
+        if (cached != null && now - cached.checkTime < RULE_INDEX_CHECK_INTERVAL_MILLS) {
+            return cached.index
+        }
+
+        val fingerprint = listOf(
+            qualityRuleDao.fingerprint(dslContext, projectId),
+            indicatorDao.fingerprint(dslContext),
+            controlPointDao.fingerprint(dslContext)
+        )
+        if (cached != null && cached.fingerprint == fingerprint) {
+            cached.checkTime = now
+            return cached.index
+        }
+
+        val index = QualityRuleIndex(serviceListRules(projectId))
+        logger.info("rebuild rule index for project($projectId) with ${index.rules.size} rules, fingerprint: $fingerprint")
+        ruleIndexCache.put(projectId, CachedRuleIndex(index, fingerprint, now))
+        return index
+    }
+
+    private fun invalidateRuleIndex(projectId: String) {
+        ruleIndexCache.invalidate(projectId)
+    }
+
     fun serviceListRuleByIds(projectId: String, ruleIds: Collection<Long>): List<QualityRule> {
         return qualityRuleDao.list(dslContext, projectId, ruleIds)?.map {
             doGetRuleData(it)
@@ -0,0 +1,175 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.quality.service.v2
+
+import com.tencent.devops.quality.api.v2.pojo.ControlPointPosition
+import com.tencent.devops.quality.api.v2.pojo.QualityRule
+import com.tencent.devops.quality.pojo.enum.RuleOperation
+import org.junit.Assert
+import org.junit.Assume
+import org.junit.Test
+import org.slf4j.LoggerFactory
+import java.util.Random
+
+class QualityRuleIndexTest {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(QualityRuleIndexTest::class.java)
+    }
+
+    private val random = Random(20191018)
+    private val positions = listOf(ControlPointPosition.BEFORE_POSITION, ControlPointPosition.AFTER_POSITION)
+    private val controlPoints = (1..20).map { "atom_$it" }
+    private val pipelineIds = (1..5000).map { "p-$it" }
+    private val templateIds = (1..200).map { "t-$it" }
+
+    @Test
+    fun listCheckRules() {
+        val rules = mockRules(500)
+        val index = QualityRuleIndex(rules)
+        repeat(2000) {
+            val position = positions[random.nextInt(positions.size)]
+            val controlPoint = controlPoints[random.nextInt(controlPoints.size)]
+            val pipelineId = pipelineIds[random.nextInt(pipelineIds.size)]
+            val templateId = if (random.nextBoolean()) templateIds[random.nextInt(templateIds.size)] else null
+            val taskName = "任务-$controlPoint-gw${random.nextInt(5)}"
+            Assert.assertEquals(
+                linearCheckRules(rules, position, controlPoint, pipelineId, templateId, taskName),
+                index.listCheckRules(position, controlPoint, pipelineId, templateId, taskName)
+            )
+        }
+    }
+
+    @Test
+    fun listRangeRules() {
+        val rules = mockRules(500)
+        val index = QualityRuleIndex(rules)
+        repeat(2000) {
+            val pipelineId = if (random.nextInt(4) == 0) null else pipelineIds[random.nextInt(pipelineIds.size)]
+            val templateId = if (random.nextBoolean()) templateIds[random.nextInt(templateIds.size)] else null
+            Assert.assertEquals(linearRangeRules(rules, pipelineId, templateId), index.listRangeRules(pipelineId, templateId))
+        }
+        Assert.assertTrue(index.listRangeRules(null, "").isEmpty())
+    }
+
+    /**
+     * 大规则集下索引查找与原线性过滤的耗时对比，耗时只输出到日志，默认不执行，用-Dbenchmark=true开启
+     */
+    @Test
+    fun benchmark() {
+        Assume.assumeTrue(java.lang.Boolean.getBoolean("benchmark"))
+        val rules = mockRules(2000)
+        val queries = (1..20000).map {
+            val controlPoint = controlPoints[random.nextInt(controlPoints.size)]
+            arrayOf(
+                positions[random.nextInt(positions.size)],
+                controlPoint,
+                pipelineIds[random.nextInt(pipelineIds.size)],
+                templateIds[random.nextInt(templateIds.size)],
+                "任务-$controlPoint-gw${random.nextInt(5)}"
+            )
+        }
+
+        var start = System.nanoTime()
+        val index = QualityRuleIndex(rules)
+        val buildNanos = System.nanoTime() - start
+
+        var indexMatched = 0
+        var linearMatched = 0
+        // 预热
+        queries.take(2000).forEach {
+            index.listCheckRules(it[0], it[1], it[2], it[3], it[4])
+            linearCheckRules(rules, it[0], it[1], it[2], it[3], it[4])
+        }
+
+        start = System.nanoTime()
+        queries.forEach { indexMatched += index.listCheckRules(it[0], it[1], it[2], it[3], it[4]).size }
+        val indexNanos = System.nanoTime() - start
+
+        start = System.nanoTime()
+        queries.forEach { linearMatched += linearCheckRules(rules, it[0], it[1], it[2], it[3], it[4]).size }
+        val linearNanos = System.nanoTime() - start
+
+        Assert.assertEquals(linearMatched, indexMatched)
+        logger.info("rules=${rules.size}, queries=${queries.size}, build=${buildNanos / 1000}us, " +
+            "index=${indexNanos / queries.size}ns/op, linear=${linearNanos / queries.size}ns/op")
+    }
+
+    private fun mockRules(count: Int): List<QualityRule> {
+        return (1..count).map {
+            QualityRule(
+                hashId = "rule-$it",
+                name = "rule-$it",
+                desc = "",
+                indicators = listOf(),
+                controlPoint = QualityRule.RuleControlPoint(
+                    hashId = "rule-$it",
+                    name = controlPoints[random.nextInt(controlPoints.size)],
+                    cnName = "",
+                    position = ControlPointPosition(positions[random.nextInt(positions.size)]),
+                    availablePosition = listOf()
+                ),
+                range = (1..random.nextInt(200)).map { pipelineIds[random.nextInt(pipelineIds.size)] }.distinct(),
+                templateRange = (1..random.nextInt(5)).map { templateIds[random.nextInt(templateIds.size)] }.distinct(),
+                operation = RuleOperation.END,
+                notifyTypeList = listOf(),
+                notifyGroupList = listOf(),
+                notifyUserList = listOf(),
+                auditUserList = listOf(),
+                auditTimeoutMinutes = 15,
+                gatewayId = if (random.nextBoolean()) null else "GW${random.nextInt(5)}"
+            )
+        }
+    }
+
+    private fun linearCheckRules(
+        rules: List<QualityRule>,
+        position: String,
+        controlPoint: String,
+        pipelineId: String,
+        templateId: String?,
+        interceptTaskName: String
+    ): List<QualityRule> {
+        return rules.filter { rule ->
+            if (rule.controlPoint.position.name != position) return@filter false
+            if (rule.controlPoint.name != controlPoint) return@filter false
+            val gatewayId = rule.gatewayId ?: ""
+            if (!interceptTaskName.toLowerCase().contains(gatewayId.toLowerCase())) return@filter false
+            rule.range.contains(pipelineId) || rule.templateRange.contains(templateId)
+        }
+    }
+
+    private fun linearRangeRules(rules: List<QualityRule>, pipelineId: String?, templateId: String?): List<QualityRule> {
+        return rules.filter {
+            var result = false
+            if (!pipelineId.isNullOrBlank()) result = (result || it.range.contains(pipelineId))
+            if (!templateId.isNullOrBlank()) result = (result || it.templateRange.contains(templateId))
+            result
+        }
+    }
+}
@@ -118,6 +118,7 @@ abstract class AbstractRepositoryPermissionService constructor(
             resourceCode = repositoryId.toString(),
             resourceName = repositoryName
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     override fun editResource(projectId: String, repositoryId: Long, repositoryName: String) {
@@ -137,5 +138,6 @@ abstract class AbstractRepositoryPermissionService constructor(
             projectCode = projectId,
             resourceCode = repositoryId.toString()
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 }
@@ -36,7 +36,6 @@ import com.tencent.devops.common.websocket.dispatch.push.WebsocketPush
 import com.tencent.devops.common.websocket.pojo.NotifyPost
 import com.tencent.devops.common.websocket.pojo.WebSocketType
 import com.tencent.devops.common.websocket.utils.PageUtils
-import com.tencent.devops.common.websocket.utils.RedisUtlis
 import com.tencent.devops.store.service.atom.AtomReleaseService
 import org.slf4j.LoggerFactory
 
@@ -66,7 +65,7 @@ data class StoreWebsocketPush(
         val sessionList = mutableListOf<String>()
         if (pageList != null && pageList.size > 0) {
             pageList.forEach {
-                val pageSession = RedisUtlis.getSessionListFormPageSessionByPage(redisOperation, it)
+                val pageSession = findPageSession(it)
                 if (pageSession != null) {
                     sessionList.addAll(pageSession)
                     notifyPost.page = it
@@ -121,9 +121,11 @@ abstract class AbstractCertPermissionService constructor(
 
     override fun createResource(userId: String, projectId: String, certId: String) {
         authResourceApi.createResource(userId, ticketAuthServiceCode, resourceType, projectId, certId, certId)
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     override fun deleteResource(projectId: String, certId: String) {
         authResourceApi.deleteResource(ticketAuthServiceCode, resourceType, projectId, certId)
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 }
\ No newline at end of file
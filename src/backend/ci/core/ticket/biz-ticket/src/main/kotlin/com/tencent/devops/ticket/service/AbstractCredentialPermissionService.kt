@@ -133,6 +133,7 @@ abstract class AbstractCredentialPermissionService constructor(
             resourceName = credentialId,
             authGroupList = authGroupList
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId, user = userId)
     }
 
     override fun deleteResource(projectId: String, credentialId: String) {
@@ -142,5 +143,6 @@ abstract class AbstractCredentialPermissionService constructor(
             projectCode = projectId,
             resourceCode = credentialId
         )
+        authPermissionApi.invalidatePermissionCache(projectCode = projectId)
     }
 }
\ No newline at end of file
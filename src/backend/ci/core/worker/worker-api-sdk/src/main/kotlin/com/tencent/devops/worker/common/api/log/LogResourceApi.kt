@@ -27,6 +27,7 @@
 package com.tencent.devops.worker.common.api.log
 
 import com.fasterxml.jackson.module.kotlin.readValue
+import com.tencent.devops.common.api.exception.RemoteServiceException
 import com.tencent.devops.common.api.pojo.Result
 import com.tencent.devops.log.model.message.LogMessage
 import com.tencent.devops.worker.common.api.AbstractBuildResourceApi
@@ -34,24 +35,55 @@ import com.tencent.devops.worker.common.env.AgentEnv
 import com.tencent.devops.worker.common.env.LogMode
 import okhttp3.MediaType
 import okhttp3.RequestBody
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPOutputStream
 
 class LogResourceApi : AbstractBuildResourceApi(), LogSDKApi {
 
+    @Volatile
+    private var compressSupported = true
+
     override fun addLogMultiLine(logMessages: List<LogMessage>): Result<Boolean> {
         return if (LogMode.LOCAL == AgentEnv.getLogMode()) {
             logMessages.forEach {
                 logger.info(it.message)
             }
             Result(true)
+        } else if (compressSupported) {
+            try {
+                addCompressedLogMultiLine(logMessages)
+            } catch (e: RemoteServiceException) {
+                // 日志服务还不支持压缩上报时退回到原来的JSON上报
+                if (e.httpStatus != 404 && e.httpStatus != 405 && e.httpStatus != 415) {
+                    throw e
+                }
+                logger.warn("The log service does not accept compressed logs(${e.httpStatus}), fallback to json")
+                compressSupported = false
+                addJsonLogMultiLine(logMessages)
+            }
         } else {
-            val path = "/log/api/build/logs/multi"
-            val requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), objectMapper.writeValueAsString(logMessages))
-            val request = buildPost(path, requestBody)
-            val responseContent = request(request, "上报日志失败")
-            objectMapper.readValue(responseContent)
+            addJsonLogMultiLine(logMessages)
         }
     }
 
+    private fun addCompressedLogMultiLine(logMessages: List<LogMessage>): Result<Boolean> {
+        val path = "/log/api/build/logs/multi/gzip"
+        val bytes = ByteArrayOutputStream()
+        GZIPOutputStream(bytes).use { objectMapper.writeValue(it, logMessages) }
+        val requestBody = RequestBody.create(OctetMediaType, bytes.toByteArray())
+        val request = buildPost(path, requestBody)
+        val responseContent = request(request, "上报日志失败")
+        return objectMapper.readValue(responseContent)
+    }
+
+    private fun addJsonLogMultiLine(logMessages: List<LogMessage>): Result<Boolean> {
+        val path = "/log/api/build/logs/multi"
+        val requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), objectMapper.writeValueAsString(logMessages))
+        val request = buildPost(path, requestBody)
+        val responseContent = request(request, "上报日志失败")
+        return objectMapper.readValue(responseContent)
+    }
+
     override fun finishLog(tag: String?, jobId: String?, executeCount: Int?): Result<Boolean> {
         val path = "/log/api/build/logs/status?finished=true&tag=$tag&jobId=$jobId&executeCount=$executeCount"
         val requestBody = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), "")
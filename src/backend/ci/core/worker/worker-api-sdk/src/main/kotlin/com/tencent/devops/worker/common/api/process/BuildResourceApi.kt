@@ -54,8 +54,12 @@ class BuildResourceApi : AbstractBuildResourceApi(), BuildSDKApi {
         return objectMapper.readValue(responseContent)
     }
 
-    override fun claimTask(): Result<BuildTask> {
-        val path = "/ms/process/api/build/builds/claim"
+    override fun claimTask(waitSeconds: Int?): Result<BuildTask> {
+        val path = if (waitSeconds == null) {
+            "/ms/process/api/build/builds/claim"
+        } else {
+            "/ms/process/api/build/builds/claim?waitSeconds=$waitSeconds"
+        }
         val request = buildGet(path)
         val errorMessage = "领取构建机任务失败"
         val responseContent = request(
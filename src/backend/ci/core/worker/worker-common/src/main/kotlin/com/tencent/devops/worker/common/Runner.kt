@@ -54,6 +54,9 @@ import kotlin.system.exitProcess
 object Runner {
     private val logger = LoggerFactory.getLogger(Runner::class.java)
 
+    private const val CLAIM_WAIT_SECONDS = 20
+    private const val CLAIM_MIN_WAIT_MILLS = 1000L
+
     fun run(workspaceInterface: WorkspaceInterface, systemExit: Boolean = true) {
         var workspacePathFile: File? = null
         try {
@@ -87,7 +90,8 @@ object Runner {
 
                 loop@ while (true) {
                     logger.info("Start to claim the task")
-                    val buildTask = ProcessService.claimTask()
+                    val claimStartTime = System.currentTimeMillis()
+                    val buildTask = ProcessService.claimTask(CLAIM_WAIT_SECONDS)
                     logger.info("Start to execute the task($buildTask)")
                     when (buildTask.status) {
                         BuildTaskStatus.DO -> {
@@ -171,7 +175,10 @@ object Runner {
                             }
                         }
                         BuildTaskStatus.WAIT -> {
-                            Thread.sleep(5000)
+                            // 服务端已挂起等待过的直接重新领取，没有等待（旧版本服务端或长轮询已满）的按原来的间隔重试
+                            if (System.currentTimeMillis() - claimStartTime < CLAIM_MIN_WAIT_MILLS) {
+                                Thread.sleep(5000)
+                            }
                         }
                         BuildTaskStatus.END -> {
                             break@loop
@@ -37,7 +37,7 @@ import com.tencent.devops.worker.common.api.WorkerRestApiSDK
 
 interface BuildSDKApi : WorkerRestApiSDK {
     fun setStarted(): Result<BuildVariables>
-    fun claimTask(): Result<BuildTask>
+    fun claimTask(waitSeconds: Int? = null): Result<BuildTask>
     fun completeTask(result: BuildTaskResult): Result<Boolean>
     fun endTask(): Result<Boolean>
     fun heartbeat(): Result<Boolean>
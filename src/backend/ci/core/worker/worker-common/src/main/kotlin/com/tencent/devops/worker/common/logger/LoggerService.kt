@@ -55,39 +55,66 @@ object LoggerService {
     var jobId = ""
     var executeCount = 1
 
+    private const val FLUSH_LINES = 200
+    private const val FLUSH_BYTES = 512 * 1024
+    private const val FLUSH_INTERVAL_MILLS = 3000L
+    // 上一批还没发完时最多再攒这么多，超过后日志线程等待发送完成
+    private const val MAX_BUFFER_BYTES = 8 * 1024 * 1024
+    // 单次上报的最大条数
+    private const val MAX_SEND_LINES = 5000
+
     private val lock = ReentrantLock()
 
-    private val logMessages = ArrayList<LogMessage>()
+    /**
+     * 双缓冲：日志线程往logMessages里攒，攒够后整块交给flushExecutor发送，换一个新缓冲继续攒，不等网络
+     */
+    private var logMessages = ArrayList<LogMessage>()
+    private var bufferBytes = 0
+    private var sending: Future<Int>? = null
 
     private val loggerThread = Callable {
         try {
-            var lastSaveTime: Long = 0
+            var lastSaveTime = System.currentTimeMillis()
             while (running.get()) {
                 val logMessage = try {
-                    queue.poll(3, TimeUnit.SECONDS)
+                    queue.poll(1, TimeUnit.SECONDS)
                 } catch (e: InterruptedException) {
                     logger.warn("Logger service poll thread interrupted", e)
                     null
                 }
+                val now = System.currentTimeMillis()
+                var waitFor: Future<Int>? = null
                 lock.lock()
                 try {
                     if (logMessage != null) {
-                        logMessages.add(logMessage)
+                        append(logMessage)
+                        drainQueue()
+                    }
+                    val size = logMessages.size
+                    // 缓冲大于200条、512KB或上次保存时间超过3秒
+                    if (size >= FLUSH_LINES || bufferBytes >= FLUSH_BYTES ||
+                        (size > 0 && (now - lastSaveTime > FLUSH_INTERVAL_MILLS))) {
+                        val previous = sending
+                        if (previous == null || previous.isDone) {
+                            submitFlush()
+                            lastSaveTime = now
+                        } else if (bufferBytes >= MAX_BUFFER_BYTES) {
+                            waitFor = previous
+                        }
                     }
                 } finally {
                     lock.unlock()
                 }
-
-                val size = logMessages.size
-                val now = System.currentTimeMillis()
-                // 缓冲大于200条或上次保存时间超过3秒
-                if (size >= 200 || (size > 0 && (now - lastSaveTime > 3 * 1000))) {
-                    flush()
-                    lastSaveTime = now
-                }
+                // 网络跟不上时才阻塞日志线程，生产者随之在queue上等待
+                waitFor?.get()
             }
-            if (logMessages.isNotEmpty()) {
-                flush()
+            lock.lock()
+            try {
+                if (logMessages.isNotEmpty()) {
+                    submitFlush()
+                }
+            } finally {
+                lock.unlock()
             }
         } catch (t: Throwable) {
             logger.warn("Fail to send the logger", t)
@@ -96,24 +123,47 @@ object LoggerService {
         true
     }
 
-    private class FlushThread : Callable<Int> {
+    private class FlushThread(private val logMessages: List<LogMessage>) : Callable<Int> {
         override fun call(): Int {
             logger.info("Start to flush the logger")
-            lock.lock()
             val size = logMessages.size
             try {
-                if (size > 0) {
-                    sendMultiLog(logMessages)
-                    logMessages.clear()
+                var start = 0
+                while (start < size) {
+                    val end = minOf(start + MAX_SEND_LINES, size)
+                    sendMultiLog(logMessages.subList(start, end))
+                    start = end
                 }
             } finally {
                 logger.info("Finish flush the log - $size")
-                lock.unlock()
             }
             return size
         }
     }
 
+    private fun append(logMessage: LogMessage) {
+        logMessages.add(logMessage)
+        bufferBytes += logMessage.message.length
+    }
+
+    private fun drainQueue() {
+        val drained = ArrayList<LogMessage>()
+        queue.drainTo(drained)
+        drained.forEach { append(it) }
+    }
+
+    /**
+     * 在锁内换缓冲并提交，保证发送顺序和写入顺序一致
+     */
+    private fun submitFlush(): Future<Int> {
+        val batch = logMessages
+        logMessages = ArrayList()
+        bufferBytes = 0
+        val future = flushExecutor.submit(FlushThread(batch))
+        sending = future
+        return future
+    }
+
     fun start() {
         logger.info("Start the log service")
         future = executorService.submit(loggerThread)
@@ -121,7 +171,14 @@ object LoggerService {
 
     fun flush(): Int {
         logger.info("Start to flush the log service")
-        val future = flushExecutor.submit(FlushThread())
+        lock.lock()
+        val future = try {
+            drainQueue()
+            submitFlush()
+        } finally {
+            lock.unlock()
+        }
+        // 单线程按提交顺序发送，这一批发完说明之前的也都发完了
         return future.get()
     }
 
@@ -134,12 +191,9 @@ object LoggerService {
                     future!!.get()
                 }
                 // 把没完成的日志打完
-                while (queue.size != 0) {
-                    queue.drainTo(logMessages)
-                    if (logMessages.isNotEmpty()) {
-                        flush()
-                    }
-                }
+                do {
+                    flush()
+                } while (queue.size != 0)
             }
             logger.info("Finish stopping the log service")
         } catch (e: Exception) {
@@ -51,8 +51,8 @@ object ProcessService {
         return result.data ?: throw RemoteServiceException("Report builder startup status failed")
     }
 
-    fun claimTask(): BuildTask {
-        val result = buildApi.claimTask()
+    fun claimTask(waitSeconds: Int? = null): BuildTask {
+        val result = buildApi.claimTask(waitSeconds)
         if (result.isNotOk()) {
             throw RemoteServiceException("Failed to get build task")
         }
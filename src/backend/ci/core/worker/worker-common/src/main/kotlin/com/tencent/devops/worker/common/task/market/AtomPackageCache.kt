@@ -0,0 +1,162 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.worker.common.task.market
+
+import com.tencent.devops.common.api.util.ShaUtils
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * 构建机本地的插件包缓存，以插件包的sha1为key
+ *
+ * 1. 目录结构为 cacheDir/sha1前两位/sha1，文件内容不可变，最后修改时间即最近使用时间
+ * 2. 同一台机器上并行的worker进程共用一个缓存目录，写入先落临时文件再原子重命名，
+ *    写入和淘汰用cacheDir下的文件锁串行
+ * 3. 命中时重新校验sha1，损坏的缓存删掉后按未命中处理
+ * 4. 缓存出错不影响构建，调用方退回到直接下载
+ */
+class AtomPackageCache(
+    private val cacheDir: File,
+    private val maxSizeBytes: Long
+) {
+
+    /**
+     * 命中缓存时把插件包复制到target并返回true
+     */
+    fun copyTo(sha1: String, target: File): Boolean {
+        if (!isValidSha1(sha1)) {
+            return false
+        }
+        try {
+            val cacheFile = cacheFile(sha1)
+            if (!cacheFile.exists()) {
+                return false
+            }
+            val cacheSha1 = cacheFile.inputStream().use { ShaUtils.sha1InputStream(it) }
+            if (!cacheSha1.equals(sha1, ignoreCase = true)) {
+                logger.warn("The cached atom package($sha1) is broken, actual sha1 is $cacheSha1")
+                cacheFile.delete()
+                return false
+            }
+            Files.copy(cacheFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            cacheFile.setLastModified(System.currentTimeMillis())
+            return true
+        } catch (t: Throwable) {
+            logger.warn("Fail to copy the cached atom package($sha1)", t)
+            return false
+        }
+    }
+
+    /**
+     * 把已经校验过sha1的插件包放入缓存，并淘汰最久未使用的包直到不超过maxSizeBytes
+     */
+    fun save(sha1: String, file: File) {
+        if (!isValidSha1(sha1) || file.length() > maxSizeBytes) {
+            return
+        }
+        try {
+            withCacheLock {
+                val cacheFile = cacheFile(sha1)
+                if (!cacheFile.exists()) {
+                    cacheFile.parentFile.mkdirs()
+                    val tmpFile = File.createTempFile(sha1, ".tmp", cacheFile.parentFile)
+                    try {
+                        Files.copy(file.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE)
+                    } finally {
+                        tmpFile.delete()
+                    }
+                }
+                evict()
+            }
+        } catch (t: Throwable) {
+            logger.warn("Fail to save the atom package($sha1) to cache", t)
+        }
+    }
+
+    private fun evict() {
+        val cacheFiles = cacheDir.listFiles { dir -> dir.isDirectory }
+            ?.flatMap { it.listFiles()?.toList() ?: emptyList() }
+            ?.filter { it.isFile && isValidSha1(it.name) }
+            ?: return
+        var totalSize = cacheFiles.sumByLong { it.length() }
+        if (totalSize <= maxSizeBytes) {
+            return
+        }
+        // 按最近使用时间从旧到新淘汰
+        cacheFiles.sortedBy { it.lastModified() }.forEach { cacheFile ->
+            if (totalSize <= maxSizeBytes) {
+                return
+            }
+            val size = cacheFile.length()
+            if (cacheFile.delete()) {
+                logger.info("Evict the cached atom package(${cacheFile.name}) of size $size")
+                totalSize -= size
+            }
+        }
+    }
+
+    /**
+     * 跨进程的互斥，同一进程内再用synchronized避免重复加锁
+     */
+    private fun <T> withCacheLock(action: () -> T): T {
+        synchronized(this) {
+            cacheDir.mkdirs()
+            RandomAccessFile(File(cacheDir, LOCK_FILE), "rw").use { lockFile ->
+                val lock = lockFile.channel.lock()
+                try {
+                    return action()
+                } finally {
+                    lock.release()
+                }
+            }
+        }
+    }
+
+    private fun cacheFile(sha1: String): File {
+        val lowerSha1 = sha1.toLowerCase()
+        return File(File(cacheDir, lowerSha1.substring(0, 2)), lowerSha1)
+    }
+
+    private fun isValidSha1(sha1: String) = sha1.matches(SHA1_REGEX)
+
+    private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+        var sum = 0L
+        forEach { sum += selector(it) }
+        return sum
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(AtomPackageCache::class.java)
+        private const val LOCK_FILE = ".lock"
+        private val SHA1_REGEX = Regex("[0-9a-fA-F]{40}")
+    }
+}
@@ -56,6 +56,7 @@ import com.tencent.devops.worker.common.utils.ArchiveUtils
 import com.tencent.devops.worker.common.utils.BatScriptUtil
 import com.tencent.devops.worker.common.utils.FileUtils
 import com.tencent.devops.worker.common.utils.ShellUtil
+import com.tencent.devops.worker.common.utils.WorkspaceUtils
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.nio.file.Files
@@ -218,10 +219,8 @@ open class MarketAtomTask : ITask() {
 
         var error: Throwable? = null
         try {
-            // 下载atom执行文件
-            atomExecuteFile = downloadAtomExecuteFile(atomData.pkgPath, atomTmpSpace)
-
-            checkSha1(atomExecuteFile, atomData.shaContent!!)
+            // 获取atom执行文件，本机缓存里有同样sha1的包就不再下载
+            atomExecuteFile = getAtomExecuteFile(atomData.pkgPath, atomData.shaContent!!, atomTmpSpace)
             val buildHostType = if (BuildEnv.isThirdParty()) BuildHostTypeEnum.THIRD else BuildHostTypeEnum.PUBLIC
             val atomLanguage = atomData.language!!
             val atomDevLanguageEnvVarsResult = atomApi.getAtomDevLanguageEnvVars(
@@ -618,17 +617,27 @@ open class MarketAtomTask : ITask() {
         }
     }
 
-    private fun downloadAtomExecuteFile(atomFilePath: String, workspace: File): File {
+    private fun getAtomExecuteFile(atomFilePath: String, sha1: String, workspace: File): File {
+        // 取插件文件名
+        val lastFx = atomFilePath.lastIndexOf("/")
+        val file = if (lastFx > 0) {
+            File(workspace, atomFilePath.substring(lastFx + 1))
+        } else {
+            File(workspace, atomFilePath)
+        }
+        if (atomPackageCache.copyTo(sha1, file)) {
+            logger.info("Get the plugin execute file($atomFilePath) from cache")
+            return file
+        }
+        downloadAtomExecuteFile(atomFilePath, file)
+        checkSha1(file, sha1)
+        atomPackageCache.save(sha1, file)
+        return file
+    }
+
+    private fun downloadAtomExecuteFile(atomFilePath: String, file: File) {
         try {
-            // 取插件文件名
-            val lastFx = atomFilePath.lastIndexOf("/")
-            val file = if (lastFx > 0) {
-                File(workspace, atomFilePath.substring(lastFx + 1))
-            } else {
-                File(workspace, atomFilePath)
-            }
             atomApi.downloadAtom(atomFilePath, file)
-            return file
         } catch (t: Throwable) {
             logger.error("download plugin execute file fail:", t)
             LoggerService.addRedLine("download plugin execute file fail: ${t.message}")
@@ -646,6 +655,8 @@ open class MarketAtomTask : ITask() {
         private const val DIR_ENV = "bk_data_dir"
         private const val INPUT_ENV = "bk_data_input"
         private const val OUTPUT_ENV = "bk_data_output"
+        private const val ATOM_CACHE_MAX_SIZE = 2L * 1024 * 1024 * 1024
         private val logger = LoggerFactory.getLogger(MarketAtomTask::class.java)
+        private val atomPackageCache = AtomPackageCache(WorkspaceUtils.getAtomCacheDir(), ATOM_CACHE_MAX_SIZE)
     }
 }
@@ -38,6 +38,9 @@ object WorkspaceUtils {
     fun getWorkspace() =
         File(getLandun(), "workspace")
 
+    fun getAtomCacheDir() =
+        File(getLandun(), "atom_cache")
+
     fun getAgentJar() =
         File(getLandun(), "worker-agent.jar")
 
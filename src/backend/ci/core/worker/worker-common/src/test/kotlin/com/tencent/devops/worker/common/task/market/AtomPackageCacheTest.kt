@@ -0,0 +1,112 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CI 蓝鲸持续集成平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CI 蓝鲸持续集成平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.tencent.devops.worker.common.task.market
+
+import com.tencent.devops.common.api.util.ShaUtils
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class AtomPackageCacheTest {
+
+    private lateinit var tmpDir: File
+
+    @Before
+    fun setUp() {
+        tmpDir = Files.createTempDirectory("atom_cache_test").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    private fun pkg(name: String, content: String): Pair<File, String> {
+        val file = File(tmpDir, name)
+        file.writeText(content)
+        return Pair(file, ShaUtils.sha1(content.toByteArray()))
+    }
+
+    @Test
+    fun copyAfterSave() {
+        val cache = AtomPackageCache(File(tmpDir, "cache"), 1024)
+        val (file, sha1) = pkg("a.zip", "atom a")
+        val target = File(tmpDir, "target.zip")
+        Assert.assertFalse(cache.copyTo(sha1, target))
+
+        cache.save(sha1, file)
+        Assert.assertTrue(cache.copyTo(sha1, target))
+        Assert.assertEquals("atom a", target.readText())
+    }
+
+    @Test
+    fun brokenCacheIsDropped() {
+        val cacheDir = File(tmpDir, "cache")
+        val cache = AtomPackageCache(cacheDir, 1024)
+        val (file, sha1) = pkg("a.zip", "atom a")
+        cache.save(sha1, file)
+        File(File(cacheDir, sha1.substring(0, 2)), sha1).writeText("broken")
+
+        Assert.assertFalse(cache.copyTo(sha1, File(tmpDir, "target.zip")))
+        Assert.assertFalse(File(File(cacheDir, sha1.substring(0, 2)), sha1).exists())
+    }
+
+    @Test
+    fun evictLeastRecentlyUsed() {
+        val cache = AtomPackageCache(File(tmpDir, "cache"), 20)
+        val (a, shaA) = pkg("a.zip", "0123456789")
+        val (b, shaB) = pkg("b.zip", "abcdefghij")
+        val (c, shaC) = pkg("c.zip", "ABCDEFGHIJ")
+        cache.save(shaA, a)
+        cache.save(shaB, b)
+        // 让a成为最近使用的，淘汰时先淘汰b
+        val cacheA = File(File(File(tmpDir, "cache"), shaA.substring(0, 2)), shaA)
+        val cacheB = File(File(File(tmpDir, "cache"), shaB.substring(0, 2)), shaB)
+        cacheB.setLastModified(System.currentTimeMillis() - 60000)
+        cacheA.setLastModified(System.currentTimeMillis())
+        cache.save(shaC, c)
+
+        val target = File(tmpDir, "target.zip")
+        Assert.assertTrue(cache.copyTo(shaA, target))
+        Assert.assertFalse(cache.copyTo(shaB, target))
+        Assert.assertTrue(cache.copyTo(shaC, target))
+    }
+
+    @Test
+    fun invalidSha1NotCached() {
+        val cacheDir = File(tmpDir, "cache")
+        val cache = AtomPackageCache(cacheDir, 1024)
+        val (file, _) = pkg("a.zip", "atom a")
+        cache.save("../../evil", file)
+        Assert.assertFalse(cache.copyTo("../../evil", File(tmpDir, "target.zip")))
+        Assert.assertFalse(cacheDir.exists())
+    }
+}
@@ -141,11 +141,32 @@ public interface RedisKeyConstants
      */
     String PREFIX_TMP_STATISTIC = "TMP_STATISTIC:";
 
+    /**
+     * 告警状态变更戳，页面忽略、恢复忽略、批量分配处理人等非扫描途径修改告警时自增
+     */
+    String PREFIX_DEFECT_STATUS_STAMP = "DEFECT_STATUS_STAMP:";
+
     /**
      * 分析机器集群
      */
     String KEY_ANALYZE_HOST = "ANALYZE_HOST";
 
+    /**
+     * 分析机器当前空闲线程数，hash结构：ip -> 空闲线程数
+     * 分析机器线程池相关的key都带同一个hash tag，保证在redis集群中落在同一个slot，可以在同一个lua脚本中操作
+     */
+    String KEY_ANALYZE_HOST_IDLE = "{ANALYZE_HOST_POOL}:IDLE";
+
+    /**
+     * 已经同步过的分析机器配置，hash结构：ip -> KEY_ANALYZE_HOST中的机器配置，配置被改写时据此重建空闲线程数和分析任务
+     */
+    String KEY_ANALYZE_HOST_SYNCED = "{ANALYZE_HOST_POOL}:SYNCED";
+
+    /**
+     * 分析机器当前正在执行的分析任务，hash结构：分析任务 -> 个数，后接机器ip
+     */
+    String PREFIX_ANALYZE_HOST_JOB = "{ANALYZE_HOST_POOL}:JOB:";
+
     /**
      * 分析机器集群表锁
      */
@@ -192,4 +213,9 @@ public interface RedisKeyConstants
      * 分析机器集群
      */
     String KEY_FILE_INFO = "FILE_INFO";
+
+    /**
+     * 断点续传已经收到的分片号，set结构，后接文件名
+     */
+    String PREFIX_UPLOAD_CHUNK = "UPLOAD_CHUNK:";
 }
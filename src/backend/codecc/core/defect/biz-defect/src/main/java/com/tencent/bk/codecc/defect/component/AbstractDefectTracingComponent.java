@@ -12,29 +12,21 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.google.common.io.Files;
 import com.tencent.bk.codecc.defect.model.BuildEntity;
 import com.tencent.bk.codecc.defect.model.TransferAuthorEntity;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
-import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
 import com.tencent.bk.codecc.defect.pojo.FileMD5SingleModel;
 import com.tencent.bk.codecc.defect.pojo.FileMD5TotalModel;
-import com.tencent.bk.codecc.defect.service.IMessageQueueBizService;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
 import com.tencent.devops.common.api.exception.CodeCCException;
-import com.tencent.devops.common.api.util.JsonUtil;
-import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.constant.CommonMessageCode;
-import com.tencent.devops.common.service.BizServiceFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.jetbrains.annotations.NotNull;
-import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.util.Pair;
 
-import java.io.File;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,7 +47,7 @@ public abstract class AbstractDefectTracingComponent<T>
     public ScmJsonComponent scmJsonComponent;
 
     @Autowired
-    protected BizServiceFactory<IMessageQueueBizService> MessageBizServiceFactory;
+    protected PinpointHashClusterComponent pinpointHashClusterComponent;
 
     /**
      * 抽象告警跟踪方法
@@ -80,50 +72,22 @@ public abstract class AbstractDefectTracingComponent<T>
      * @param inputList
      * @return
      */
-    public Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> executeCluster(
+    public List<AggregateDefectOutputModel> executeCluster(
             TaskDetailVO taskVO,
             String toolName,
             String buildId,
             int chunkNo,
             List<AggregateDefectInputModel> inputList)
     {
-        String inputFileName = String.format("%s_%s_%s_%s_aggregate_input_data.json", taskVO.getNameEn(), toolName, buildId, chunkNo);
-        String inputFilePath = scmJsonComponent.index(inputFileName, ScmJsonComponent.AGGREGATE);
-        log.info("aggregate inputFilePath : {}", inputFilePath);
-        File inputFile = new File(inputFilePath);
-
-        String outputFileName = String.format("%s_%s_%s_%s_aggregate_output_data.json", taskVO.getNameEn(), toolName, buildId, chunkNo);
-        String outputFilePath = scmJsonComponent.index(outputFileName, ScmJsonComponent.AGGREGATE);
-        log.info("aggregate outputFilePath : {}", outputFilePath);
-        File outputFile = new File(outputFilePath);
+        log.info("begin cluster: taskId:{}, toolName:{}, buildId:{}, chunkNo:{}, size:{}",
+                taskVO.getTaskId(), toolName, buildId, chunkNo, inputList.size());
         try
         {
-            //写入输入数据
-            if (!inputFile.exists())
-            {
-                inputFile.createNewFile();
-            }
-            if (outputFile.exists())
-            {
-                outputFile.delete();
-            }
-
-            Files.write(JsonUtil.INSTANCE.toJson(inputList).getBytes(), inputFile);
-
-            AggregateDispatchFileName aggregateFileName = new AggregateDispatchFileName(inputFilePath, outputFilePath);
-
-            AsyncRabbitTemplate.RabbitConverterFuture<Boolean> asyncMsgFuture;
-
-            // 区分创建来源为工蜂项目，创建对应处理器
-            IMessageQueueBizService messageQueueBizService = MessageBizServiceFactory.createBizService(taskVO.getTaskId(),ComConstants.BusinessType.MESSAGE_QUEUE.value(),IMessageQueueBizService.class);
-            asyncMsgFuture = messageQueueBizService.MessageAsyncMsgFuture(aggregateFileName);
-
-            Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult = Pair.of(outputFilePath, asyncMsgFuture);
-            return asyncResult;
+            return pinpointHashClusterComponent.cluster(inputList);
         }
         catch (Exception e)
         {
-            log.warn("cluster fail! {}", outputFilePath, e);
+            log.warn("cluster fail! taskId:{}, toolName:{}, buildId:{}, chunkNo:{}", taskVO.getTaskId(), toolName, buildId, chunkNo, e);
         }
         return null;
     }
@@ -139,21 +103,4 @@ public abstract class AbstractDefectTracingComponent<T>
         }
         return fileMD5TotalModel.getFileList().stream().collect(Collectors.toMap(FileMD5SingleModel::getFilePath, FileMD5SingleModel::getMd5));
     }
-
-
-    /**
-     * 检查聚类output文件是否存在
-     * @param outputFile
-     * @throws InterruptedException
-     */
-    protected void checkOutputFileExists(String outputFile) throws InterruptedException
-    {
-        File file = new File(outputFile);
-        int i = 0;
-        while (!file.exists() && i < 10)
-        {
-            Thread.sleep(3000L);
-            i++;
-        }
-    }
 }
@@ -12,7 +12,6 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.tencent.bk.codecc.defect.dao.mongorepository.CCNDefectRepository;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.BuildDefectDao;
 import com.tencent.bk.codecc.defect.model.BuildDefectEntity;
@@ -21,9 +20,9 @@ import com.tencent.bk.codecc.defect.model.CCNDefectEntity;
 import com.tencent.bk.codecc.defect.model.TransferAuthorEntity;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.bk.codecc.defect.utils.DefectMatchIndex;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
-import com.tencent.devops.common.api.util.JsonUtil;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.util.PathUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -31,15 +30,12 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
 import org.bson.types.ObjectId;
-import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.util.Pair;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -102,11 +98,11 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
                         ccnDefectEntity.getRelPath())
         ).collect(Collectors.toList());
 
-        //3. 做聚类，通过MQ分发到各台服务器上去做聚类，避免聚类都集中到一台服务器上导致服务器资源不足
-        Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult = executeCluster(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
+        //3. 做聚类，在进程内按pinpointHash相似度分组
+        List<AggregateDefectOutputModel> outputDefectList = executeCluster(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
 
-        //4. 读取聚类输出文件，并转换告警状态
-        List<CCNDefectEntity> upsertDefectList = handleWithOutputModel(originalDefectList, currentDefectList, asyncResult, buildEntity, transferAuthorList);
+        //4. 根据聚类结果转换告警状态
+        List<CCNDefectEntity> upsertDefectList = handleWithOutputModel(originalDefectList, currentDefectList, outputDefectList, buildEntity, transferAuthorList);
         log.info("upsert defect list: {}", upsertDefectList.size());
 
         // 5.分批保存告警
@@ -124,10 +120,7 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
      */
     private List<CCNDefectEntity> updateOriginalDefectStatus(List<CCNDefectEntity> originalDefectList, List<CCNDefectEntity> currentDefectList, BuildEntity buildEntity)
     {
-        Set<String> currentDefectMd5Set = currentDefectList.stream()
-                .filter(ccnDefectEntity -> StringUtils.isNotEmpty(ccnDefectEntity.getMd5()))
-                .map(ccnDefectEntity -> String.format("%s_%s_%s", ccnDefectEntity.getMd5(), ccnDefectEntity.getFunctionName(), ccnDefectEntity.getStartLines()))
-                .collect(Collectors.toSet());
+        DefectMatchIndex<CCNDefectEntity> currentDefectIndex = buildMatchIndex(currentDefectList);
 
         List<CCNDefectEntity> upsertDefectList = new ArrayList<>();
 
@@ -141,13 +134,13 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
          */
         originalDefectList.forEach(oldDefect ->
         {
-            String fileMD5 = String.format("%s_%s_%s", oldDefect.getMd5(), oldDefect.getFunctionName(), oldDefect.getStartLines());
-            if (currentDefectMd5Set.contains(fileMD5) && (oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
+            boolean matched = currentDefectIndex.contains(oldDefect);
+            if (matched && (oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
             {
                 reopenDefect(oldDefect);
                 upsertDefectList.add(oldDefect);
             }
-            else if (!currentDefectMd5Set.contains(fileMD5) && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
+            else if (!matched && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
             {
                 fixDefect(oldDefect, buildEntity);
                 upsertDefectList.add(oldDefect);
@@ -252,11 +245,11 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
     }
 
     /**
-     * 读取聚类输出文件，并转换告警状态
+     * 根据聚类结果转换告警状态
      *
      * @param originalDefectList
      * @param currentDefectList
-     * @param asyncResult
+     * @param outputDefectList
      * @param buildEntity
      * @param transferAuthorList
      * @return
@@ -264,182 +257,149 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
     protected List<CCNDefectEntity> handleWithOutputModel(
             List<CCNDefectEntity> originalDefectList,
             List<CCNDefectEntity> currentDefectList,
-            Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult,
+            List<AggregateDefectOutputModel> outputDefectList,
             BuildEntity buildEntity, List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList)
     {
         long beginTime = System.currentTimeMillis();
         List<CCNDefectEntity> upsertDefectList = new ArrayList<>();
-        if (asyncResult != null)
+        log.info("clustered defect list: {}", outputDefectList == null ? 0 : outputDefectList.size());
+        if (CollectionUtils.isNotEmpty(outputDefectList))
         {
-            String outputFile = asyncResult.getFirst();
-            log.info("begin handleWithOutputModel: {}", outputFile);
-            AsyncRabbitTemplate.RabbitConverterFuture<Boolean> asyncMsgFuture = asyncResult.getSecond();
-            try
-            {
-                if (asyncMsgFuture.get())
-                {
-                    log.info("return true: {}", outputFile);
+            Map<String, CCNDefectEntity> defectMap = new HashMap<>();
+            Map<String, CCNDefectEntity> originalDefectMap = originalDefectList.stream()
+                    .collect(Collectors.toMap(CCNDefectEntity::getEntityId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(originalDefectMap);
+
+            Map<String, CCNDefectEntity> currentDefectMap = currentDefectList.stream()
+                    .collect(Collectors.toMap(CCNDefectEntity::getEntityId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(currentDefectMap);
+
+            //将聚类输出格式改为defectEntity
+            List<List<CCNDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
+                    aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
+            ).collect(Collectors.toList());
 
-                    // 检查聚类output文件是否存在
-                    checkOutputFileExists(outputFile);
+            DefectMatchIndex<CCNDefectEntity> currentDefectIndex = buildMatchIndex(currentDefectList);
 
-                    String outputDefects = ScmJsonComponent.readFileContent(outputFile);
-                    List<AggregateDefectOutputModel> outputDefectList = JsonUtil.INSTANCE.to(outputDefects, new TypeReference<List<AggregateDefectOutputModel>>()
+            clusteredDefectList.forEach(lintDefectList ->
+            {
+                //将聚类输出分为新告警和历史告警
+                Map<Boolean, List<CCNDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(CCNDefectEntity::getNewDefect));
+                List<CCNDefectEntity> newDefectList = partitionedDefects.get(true);
+                List<CCNDefectEntity> oldDefectList = partitionedDefects.get(false);
+
+                /* 聚类分组中只有老告警，从去重的新告警中查找：
+                 * 1.有找到新告警：
+                 *   1.1 老告警是已修复，则变为重新打开
+                 *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
+                 * 2.没找到新告警
+                 *   2.1 将状态是NEW的老告警变成已修复
+                 *   2.2 老告警是其他状态，则不变更直接上报
+                 */
+                if (CollectionUtils.isEmpty(newDefectList))
+                {
+                    oldDefectList.forEach(oldDefect ->
                     {
+                        boolean matched = currentDefectIndex.contains(oldDefect);
+                        if (matched && (oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
+                        {
+                            reopenDefect(oldDefect);
+                            upsertDefectList.add(oldDefect);
+                        }
+                        else if (!matched && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                        {
+                            fixDefect(oldDefect, buildEntity);
+                            upsertDefectList.add(oldDefect);
+                        }
                     });
-                    log.info("clustered defect list: {}", outputDefectList.size());
-
-                    if (CollectionUtils.isNotEmpty(outputDefectList))
+                }
+                else
+                {
+                    /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
+                     * 1.有对应老告警：
+                     *   1.1 老告警是已修复，则变为重新打开
+                     *   1.2 老告警是其他状态，则不变更状态直接上报
+                     * 2.无对应老告警
+                     *   2.1 告警是首次创建的告警
+                     * 3.老告警列表比新告警多，部分老告警没有对应的新告警
+                     *   3.1 将状态是NEW的老告警变成已修复
+                     *   3.2 老告警是其他状态，则不变更直接上报
+                     */
+                    newDefectList.sort(Comparator.comparingInt(CCNDefectEntity::getStartLines));
+                    if (CollectionUtils.isNotEmpty(oldDefectList))
                     {
-                        Map<String, CCNDefectEntity> defectMap = new HashMap<>();
-                        Map<String, CCNDefectEntity> originalDefectMap = originalDefectList.stream()
-                                .collect(Collectors.toMap(CCNDefectEntity::getEntityId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(originalDefectMap);
-
-                        Map<String, CCNDefectEntity> currentDefectMap = currentDefectList.stream()
-                                .collect(Collectors.toMap(CCNDefectEntity::getEntityId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(currentDefectMap);
-
-                        //将聚类输出格式改为defectEntity
-                        List<List<CCNDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
-                                aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
-                        ).collect(Collectors.toList());
-
-                        Set<String> currentDefectMd5Set = currentDefectList.stream()
-                                .filter(ccnDefectEntity -> StringUtils.isNotEmpty(ccnDefectEntity.getMd5()))
-                                .map(ccnDefectEntity -> String.format("%s_%s_%s", ccnDefectEntity.getMd5(), ccnDefectEntity.getFunctionName(), ccnDefectEntity.getStartLines()))
-                                .collect(Collectors.toSet());
-
-                        clusteredDefectList.forEach(lintDefectList ->
+                        oldDefectList.sort(Comparator.comparingInt(CCNDefectEntity::getStartLines));
+                    }
+                    for (int i = 0; i < newDefectList.size(); i++)
+                    {
+                        CCNDefectEntity newDefect = newDefectList.get(i);
+                        CCNDefectEntity selectedOldDefect = null;
+                        if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
+                        {
+                            selectedOldDefect = oldDefectList.get(i);
+                        }
+                        if (selectedOldDefect != null)
                         {
-                            //将聚类输出分为新告警和历史告警
-                            Map<Boolean, List<CCNDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(CCNDefectEntity::getNewDefect));
-                            List<CCNDefectEntity> newDefectList = partitionedDefects.get(true);
-                            List<CCNDefectEntity> oldDefectList = partitionedDefects.get(false);
-
-                            /* 聚类分组中只有老告警，从去重的新告警中查找：
-                             * 1.有找到新告警：
-                             *   1.1 老告警是已修复，则变为重新打开
-                             *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
-                             * 2.没找到新告警
-                             *   2.1 将状态是NEW的老告警变成已修复
-                             *   2.2 老告警是其他状态，则不变更直接上报
-                             */
-                            if (CollectionUtils.isEmpty(newDefectList))
+                            selectedOldDefect.setCcn(newDefect.getCcn());
+                            selectedOldDefect.setFunctionName(newDefect.getFunctionName());
+                            selectedOldDefect.setLongName(newDefect.getLongName());
+                            selectedOldDefect.setConditionLines(newDefect.getConditionLines());
+                            selectedOldDefect.setFilePath(newDefect.getFilePath());
+                            selectedOldDefect.setStartLines(newDefect.getStartLines());
+                            selectedOldDefect.setEndLines(newDefect.getEndLines());
+                            selectedOldDefect.setTotalLines(newDefect.getTotalLines());
+                            selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
+                            if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
                             {
-                                oldDefectList.forEach(oldDefect ->
-                                {
-                                    String fileMD5 = String.format("%s_%s_%s", oldDefect.getMd5(), oldDefect.getFunctionName(), oldDefect.getStartLines());
-                                    if (currentDefectMd5Set.contains(fileMD5) && (oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                    {
-                                        reopenDefect(oldDefect);
-                                        upsertDefectList.add(oldDefect);
-                                    }
-                                    else if (!currentDefectMd5Set.contains(fileMD5) && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                    {
-                                        fixDefect(oldDefect, buildEntity);
-                                        upsertDefectList.add(oldDefect);
-                                    }
-                                });
+                                reopenDefect(selectedOldDefect);
                             }
-                            else
+                            if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
                             {
-                                /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
-                                 * 1.有对应老告警：
-                                 *   1.1 老告警是已修复，则变为重新打开
-                                 *   1.2 老告警是其他状态，则不变更状态直接上报
-                                 * 2.无对应老告警
-                                 *   2.1 告警是首次创建的告警
-                                 * 3.老告警列表比新告警多，部分老告警没有对应的新告警
-                                 *   3.1 将状态是NEW的老告警变成已修复
-                                 *   3.2 老告警是其他状态，则不变更直接上报
-                                 */
-                                newDefectList.sort(Comparator.comparingInt(CCNDefectEntity::getStartLines));
-                                if (CollectionUtils.isNotEmpty(oldDefectList))
-                                {
-                                    oldDefectList.sort(Comparator.comparingInt(CCNDefectEntity::getStartLines));
-                                }
-                                for (int i = 0; i < newDefectList.size(); i++)
+                                selectedOldDefect.setAuthor(newDefect.getAuthor());
+                            }
+                        }
+                        else
+                        {
+                            selectedOldDefect = newDefect;
+                            if (null != buildEntity)
+                            {
+                                selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
+                            }
+                            selectedOldDefect.setCreateTime(System.currentTimeMillis());
+                            selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
+
+                            // 作者转换
+                            if (CollectionUtils.isNotEmpty(transferAuthorList))
+                            {
+                                for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
                                 {
-                                    CCNDefectEntity newDefect = newDefectList.get(i);
-                                    CCNDefectEntity selectedOldDefect = null;
-                                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
-                                    {
-                                        selectedOldDefect = oldDefectList.get(i);
-                                    }
-                                    if (selectedOldDefect != null)
+                                    String author = selectedOldDefect.getAuthor();
+                                    if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
                                     {
-                                        selectedOldDefect.setCcn(newDefect.getCcn());
-                                        selectedOldDefect.setFunctionName(newDefect.getFunctionName());
-                                        selectedOldDefect.setLongName(newDefect.getLongName());
-                                        selectedOldDefect.setConditionLines(newDefect.getConditionLines());
-                                        selectedOldDefect.setFilePath(newDefect.getFilePath());
-                                        selectedOldDefect.setStartLines(newDefect.getStartLines());
-                                        selectedOldDefect.setEndLines(newDefect.getEndLines());
-                                        selectedOldDefect.setTotalLines(newDefect.getTotalLines());
-                                        selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
-                                        if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                        {
-                                            reopenDefect(selectedOldDefect);
-                                        }
-                                        if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
-                                        {
-                                            selectedOldDefect.setAuthor(newDefect.getAuthor());
-                                        }
+                                        selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
                                     }
-                                    else
-                                    {
-                                        selectedOldDefect = newDefect;
-                                        if (null != buildEntity)
-                                        {
-                                            selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
-                                        }
-                                        selectedOldDefect.setCreateTime(System.currentTimeMillis());
-                                        selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
-
-                                        // 作者转换
-                                        if (CollectionUtils.isNotEmpty(transferAuthorList))
-                                        {
-                                            for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
-                                            {
-                                                String author = selectedOldDefect.getAuthor();
-                                                if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
-                                                {
-                                                    selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
-                                                }
-                                            }
-                                        }
-                                    }
-
-                                    upsertDefectList.add(selectedOldDefect);
                                 }
+                            }
+                        }
 
-                                // 老告警比新告警多出来的那部分告警变成已修复
-                                if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
-                                {
-                                    List<CCNDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
-                                    closeOldDefectList.forEach(defect ->
-                                    {
-                                        if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                        {
-                                            fixDefect(defect, buildEntity);
-                                            upsertDefectList.add(defect);
-                                        }
-                                    });
-                                }
+                        upsertDefectList.add(selectedOldDefect);
+                    }
+
+                    // 老告警比新告警多出来的那部分告警变成已修复
+                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
+                    {
+                        List<CCNDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
+                        closeOldDefectList.forEach(defect ->
+                        {
+                            if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                            {
+                                fixDefect(defect, buildEntity);
+                                upsertDefectList.add(defect);
                             }
                         });
                     }
                 }
-                else
-                {
-                    log.warn("return false: {}", outputFile);
-                }
-            }
-            catch (InterruptedException | ExecutionException e)
-            {
-                log.warn("wait cluster exception: {}", outputFile, e);
-            }
+            });
         }
         log.info("end handleWithOutputModel, cost: {}", System.currentTimeMillis() - beginTime);
         return upsertDefectList;
@@ -523,15 +483,12 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
                 .filter(ccnDefectEntity -> StringUtils.isNotEmpty(ccnDefectEntity.getPinpointHash()))
                 .collect(Collectors.toList());
 
-        Set<String> originalFileMd5Set = originalDefectList.stream()
-                .filter(ccnDefectEntity -> StringUtils.isNotEmpty(ccnDefectEntity.getMd5()))
-                .map(ccnDefectEntity -> String.format("%s_%s_%s", ccnDefectEntity.getMd5(), ccnDefectEntity.getFunctionName(), ccnDefectEntity.getStartLines()))
-                .collect(Collectors.toSet());
+        DefectMatchIndex<CCNDefectEntity> originalDefectIndex = buildMatchIndex(originalDefectList);
 
         //去重：md5、方法名、开行号一样的，直接去掉
         List<CCNDefectEntity> currDefectList = currentDefectList.stream()
                 .filter(ccnDefectEntity -> StringUtils.isNotEmpty(ccnDefectEntity.getPinpointHash())
-                        && !originalFileMd5Set.contains(String.format("%s_%s_%s", ccnDefectEntity.getMd5(), ccnDefectEntity.getFunctionName(), ccnDefectEntity.getStartLines())))
+                        && !originalDefectIndex.contains(ccnDefectEntity))
                 .collect(Collectors.toList());
 
         List<CCNDefectEntity> finalDefectList = new ArrayList();
@@ -580,4 +537,22 @@ public class NewCCNDefectTracingComponent extends AbstractDefectTracingComponent
         oldDefect.setFixedBuildNumber(null);
     }
 
+    /**
+     * 按md5、函数名、开始行号建立告警索引，md5为空的告警不参与匹配
+     *
+     * @param defectList
+     * @return
+     */
+    private DefectMatchIndex<CCNDefectEntity> buildMatchIndex(List<CCNDefectEntity> defectList)
+    {
+        DefectMatchIndex<CCNDefectEntity> defectIndex = new DefectMatchIndex<>(DefectMatchIndex.CCN_KEY, defectList.size());
+        for (CCNDefectEntity ccnDefectEntity : defectList)
+        {
+            if (StringUtils.isNotEmpty(ccnDefectEntity.getMd5()))
+            {
+                defectIndex.put(ccnDefectEntity);
+            }
+        }
+        return defectIndex;
+    }
 }
@@ -12,16 +12,15 @@
 
 package com.tencent.bk.codecc.defect.component;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.Lists;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.BuildDefectDao;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.LintDefectDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
 import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.bk.codecc.defect.utils.DefectMatchIndex;
 import com.tencent.bk.codecc.defect.vo.CommitDefectVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
-import com.tencent.devops.common.api.util.JsonUtil;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.util.PathUtils;
 import lombok.extern.slf4j.Slf4j;
@@ -29,16 +28,13 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.bson.BsonSerializationException;
 import org.bson.types.ObjectId;
-import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.util.Pair;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
@@ -103,11 +99,11 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
                         lintDefectEntity.getRelPath())
         ).collect(Collectors.toList());
 
-        //3. 做聚类，通过MQ分发到各台服务器上去做聚类，避免聚类都集中到一台服务器上导致服务器资源不足
-        Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult = executeCluster(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
+        //3. 做聚类，在进程内按pinpointHash相似度分组
+        List<AggregateDefectOutputModel> outputDefectList = executeCluster(taskVO, toolName, buildEntity.getBuildId(), chunkNo, defectHashList);
 
-        //4. 读取聚类输出文件，并转换告警状态
-        List<LintDefectEntity> upsertDefectList = handleWithOutputModel(originalFileList, currentFileList, asyncResult, buildEntity, transferAuthorList);
+        //4. 根据聚类结果转换告警状态
+        List<LintDefectEntity> upsertDefectList = handleWithOutputModel(originalFileList, currentFileList, outputDefectList, buildEntity, transferAuthorList);
         log.info("upsert defect list: {}", upsertDefectList.size());
 
         // 5.分批保存告警
@@ -126,12 +122,14 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
      */
     private List<LintDefectEntity> updateOriginalDefectStatus(List<LintFileEntity> originalFileList, List<LintFileEntity> currentFileList, BuildEntity buildEntity)
     {
-        Map<String, LintDefectEntity> currentFileMd5Map = currentFileList.stream()
-                .filter(lintFileEntity -> lintFileEntity != null && CollectionUtils.isNotEmpty(lintFileEntity.getDefectList()))
-                .map(LintFileEntity::getDefectList)
-                .flatMap(Collection::parallelStream)
-                .collect(Collectors.toMap(lintDefectEntity -> String.format("%s_%s_%s", lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker()),
-                        Function.identity(), (k, v) -> v));
+        DefectMatchIndex<LintDefectEntity> currentDefectIndex = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, currentFileList.size());
+        currentFileList.forEach(lintFileEntity ->
+        {
+            if (lintFileEntity != null && CollectionUtils.isNotEmpty(lintFileEntity.getDefectList()))
+            {
+                lintFileEntity.getDefectList().forEach(currentDefectIndex::put);
+            }
+        });
 
         List<LintDefectEntity> originalDefectList = Lists.newArrayList();
         originalFileList.forEach(lintFileEntity ->
@@ -152,8 +150,8 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
                          *   2.1 将状态是NEW的老告警变成已修复
                          *   2.2 老告警是其他状态，则不变更直接上报
                          */
-                        String fileMD5 = String.format("%s_%s_%s", defect.getFileMd5(), defect.getLineNum(), defect.getChecker());
-                        if (currentFileMd5Map.keySet().contains(fileMD5))
+                        LintDefectEntity newDefect = currentDefectIndex.get(defect);
+                        if (newDefect != null)
                         {
                             if((defect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
                             {
@@ -161,18 +159,13 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
                             }
                             else if(defect.getStatus() == ComConstants.DefectStatus.NEW.value())
                             {
-                                LintDefectEntity newDefect = currentFileMd5Map.get(fileMD5);
-                                if(null != newDefect)
-                                {
-                                    defect.setChecker(newDefect.getChecker());
-                                    defect.setLineNum(newDefect.getLineNum());
-                                    defect.setMessage(newDefect.getMessage());
-                                    defect.setPinpointHash(newDefect.getPinpointHash());
-                                }
-
+                                defect.setChecker(newDefect.getChecker());
+                                defect.setLineNum(newDefect.getLineNum());
+                                defect.setMessage(newDefect.getMessage());
+                                defect.setPinpointHash(newDefect.getPinpointHash());
                             }
                         }
-                        else if (!currentFileMd5Map.keySet().contains(fileMD5) && defect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                        else if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
                         {
                             fixDefect(buildEntity, defect, lintFileEntity);
                         }
@@ -328,11 +321,11 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
     }
 
     /**
-     * 读取聚类输出文件，并转换告警状态
+     * 根据聚类结果转换告警状态
      *
      * @param originalFileList
      * @param currentFileList
-     * @param asyncResult
+     * @param outputDefectList
      * @param buildEntity
      * @param transferAuthorList
      * @return
@@ -340,202 +333,166 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
     protected List<LintDefectEntity> handleWithOutputModel(
             List<LintFileEntity> originalFileList,
             List<LintFileEntity> currentFileList,
-            Pair<String, AsyncRabbitTemplate.RabbitConverterFuture<Boolean>> asyncResult,
+            List<AggregateDefectOutputModel> outputDefectList,
             BuildEntity buildEntity, List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList)
     {
         long beginTime = System.currentTimeMillis();
         List<LintDefectEntity> upsertDefectList = new ArrayList<>();
-        if (asyncResult != null)
+        log.info("clustered defect list: {}", outputDefectList == null ? 0 : outputDefectList.size());
+        if (CollectionUtils.isNotEmpty(outputDefectList))
         {
-            String outputFile = asyncResult.getFirst();
-            log.info("begin handleWithOutputModel: {}", outputFile);
-            AsyncRabbitTemplate.RabbitConverterFuture<Boolean> asyncMsgFuture = asyncResult.getSecond();
-            try
+            Map<String, LintDefectEntity> defectMap = new HashMap<>();
+            Map<String, LintDefectEntity> originalDefectMap = originalFileList.stream().map(LintFileEntity::getDefectList)
+                    .flatMap(Collection::stream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(originalDefectMap);
+
+            Map<String, LintDefectEntity> currentDefectMap = currentFileList.stream().map(LintFileEntity::getDefectList)
+                    .flatMap(Collection::stream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
+            defectMap.putAll(currentDefectMap);
+
+            Map<String, LintFileEntity> originalFileMap = originalFileList.stream()
+                    .collect(Collectors.toMap(file -> StringUtils.isEmpty(file.getRelPath()) ? file.getFilePath() : file.getRelPath(), Function.identity()));
+
+            //将聚类输出格式改为defectEntity
+            List<List<LintDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
+                    aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
+            ).collect(Collectors.toList());
+
+            DefectMatchIndex<LintDefectEntity> currentDefectIndex = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, currentDefectMap.size());
+            for (LintDefectEntity lintDefectEntity : currentDefectMap.values())
             {
-                if (asyncMsgFuture.get())
+                if (StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()) && StringUtils.isNotBlank(lintDefectEntity.getChecker()))
                 {
-                    log.info("return true: {}", outputFile);
-
-                    // 检查聚类output文件是否存在
-                    checkOutputFileExists(outputFile);
+                    currentDefectIndex.put(lintDefectEntity);
+                }
+            }
+            log.info("current file md5 map size: {}", currentDefectIndex.size());
 
-                    String outputDefects = ScmJsonComponent.readFileContent(outputFile);
-                    if (StringUtils.isEmpty(outputDefects))
-                    {
-                        log.info("empty output defects! output file : {}", outputFile);
-                        return upsertDefectList;
-                    }
-                    List<AggregateDefectOutputModel> outputDefectList = JsonUtil.INSTANCE.to(outputDefects, new TypeReference<List<AggregateDefectOutputModel>>()
+            clusteredDefectList.forEach(lintDefectList ->
+            {
+                //将聚类输出分为新告警和历史告警
+                Map<Boolean, List<LintDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(LintDefectEntity::getNewDefect));
+                List<LintDefectEntity> newDefectList = partitionedDefects.get(true);
+                List<LintDefectEntity> oldDefectList = partitionedDefects.get(false);
+
+                /* 聚类分组中只有老告警，从去重的新告警中查找：
+                 * 1.有找到新告警：
+                 *   1.1 老告警是已修复，则变为重新打开
+                 *   1.2 老告警是待修复，则要将新告警的属性赋值，并上报
+                 *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
+                 * 2.没找到新告警
+                 *   2.1 将状态是NEW的老告警变成已修复
+                 *   2.2 老告警是其他状态，则不变更直接上报
+                 */
+                if (CollectionUtils.isEmpty(newDefectList))
+                {
+                    oldDefectList.forEach(oldDefect ->
                     {
+                        LintDefectEntity newDefect = currentDefectIndex.get(oldDefect);
+                        if (newDefect != null)
+                        {
+                            if((oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
+                            {
+                                reopenDefect(oldDefect);
+                            }
+                            else if(oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                            {
+                                oldDefect.setChecker(newDefect.getChecker());
+                                oldDefect.setLineNum(newDefect.getLineNum());
+                                oldDefect.setMessage(newDefect.getMessage());
+                                oldDefect.setPinpointHash(newDefect.getPinpointHash());
+                            }
+                        }
+                        else if (oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                        {
+                            String path = StringUtils.isEmpty(oldDefect.getRelPath()) ? oldDefect.getFilePath() : oldDefect.getRelPath();
+                            fixDefect(buildEntity, oldDefect, originalFileMap.get(path));
+                        }
                     });
-                    log.info("clustered defect list: {}", outputDefectList.size());
-
-                    if (CollectionUtils.isNotEmpty(outputDefectList))
+                    upsertDefectList.addAll(oldDefectList);
+                }
+                else
+                {
+                    /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
+                     * 1.有对应老告警：
+                     *   1.1 老告警是已修复，则变为重新打开
+                     *   1.2 老告警是其他状态，则不变更状态直接上报
+                     * 2.无对应老告警
+                     *   2.1 告警是首次创建的告警
+                     * 3.老告警列表比新告警多，部分老告警没有对应的新告警
+                     *   3.1 将状态是NEW的老告警变成已修复
+                     *   3.2 老告警是其他状态，则不变更直接上报
+                     */
+                    newDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
+                    if (CollectionUtils.isNotEmpty(oldDefectList))
+                    {
+                        oldDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
+                    }
+                    for (int i = 0; i < newDefectList.size(); i++)
                     {
-                        Map<String, LintDefectEntity> defectMap = new HashMap<>();
-                        Map<String, LintDefectEntity> originalDefectMap = originalFileList.stream().map(LintFileEntity::getDefectList)
-                                .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(originalDefectMap);
-
-                        Map<String, LintDefectEntity> currentDefectMap = currentFileList.stream().map(LintFileEntity::getDefectList)
-                                .flatMap(Collection::parallelStream).collect(Collectors.toMap(LintDefectEntity::getDefectId, Function.identity(), (k, v) -> v));
-                        defectMap.putAll(currentDefectMap);
-
-                        Map<String, LintFileEntity> originalFileMap = originalFileList.stream()
-                                .collect(Collectors.toMap(file -> StringUtils.isEmpty(file.getRelPath()) ? file.getFilePath() : file.getRelPath(), Function.identity()));
-
-                        //将聚类输出格式改为defectEntity
-                        List<List<LintDefectEntity>> clusteredDefectList = outputDefectList.stream().map(AggregateDefectOutputModel::getDefects).map(aggregateDefectInputModels ->
-                                aggregateDefectInputModels.stream().map(aggregateDefectInputModel -> defectMap.get(aggregateDefectInputModel.getId())).collect(Collectors.toList())
-                        ).collect(Collectors.toList());
-
-                        Map<String, LintDefectEntity> currentFileMd5Map = currentDefectMap.values().stream()
-                                .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()) && StringUtils.isNotBlank(lintDefectEntity.getChecker()))
-                                .collect(Collectors.toMap(lintDefectEntity -> String.format("%s_%s_%s",
-                                        lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker()),
-                                        Function.identity(), (k, v) -> v));
-                        log.info("current file md5 map size: {}", currentFileMd5Map.size());
-
-                        clusteredDefectList.forEach(lintDefectList ->
+                        LintDefectEntity newDefect = newDefectList.get(i);
+                        LintDefectEntity selectedOldDefect = null;
+                        if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
                         {
-                            //将聚类输出分为新告警和历史告警
-                            Map<Boolean, List<LintDefectEntity>> partitionedDefects = lintDefectList.stream().collect(Collectors.groupingBy(LintDefectEntity::getNewDefect));
-                            List<LintDefectEntity> newDefectList = partitionedDefects.get(true);
-                            List<LintDefectEntity> oldDefectList = partitionedDefects.get(false);
-
-                            /* 聚类分组中只有老告警，从去重的新告警中查找：
-                             * 1.有找到新告警：
-                             *   1.1 老告警是已修复，则变为重新打开
-                             *   1.2 老告警是待修复，则要将新告警的属性赋值，并上报
-                             *   1.2 老告警是其他状态，则不变更直接上报（既然是被去重的，那么新告警和老告警的信息应该是一样的，所以不需要更新）
-                             * 2.没找到新告警
-                             *   2.1 将状态是NEW的老告警变成已修复
-                             *   2.2 老告警是其他状态，则不变更直接上报
-                             */
-                            if (CollectionUtils.isEmpty(newDefectList))
+                            selectedOldDefect = oldDefectList.get(i);
+                        }
+                        if (selectedOldDefect != null)
+                        {
+                            selectedOldDefect.setChecker(newDefect.getChecker());
+                            selectedOldDefect.setLineNum(newDefect.getLineNum());
+                            selectedOldDefect.setMessage(newDefect.getMessage());
+                            selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
+                            if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
                             {
-                                oldDefectList.forEach(oldDefect ->
-                                {
-                                    String fileMD5 = String.format("%s_%s_%s", oldDefect.getFileMd5(), oldDefect.getLineNum(), oldDefect.getChecker());
-                                    if (currentFileMd5Map.keySet().contains(fileMD5))
-                                    {
-                                        if((oldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                        {
-                                            reopenDefect(oldDefect);
-                                        }
-                                        else if(oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                        {
-                                            LintDefectEntity newDefect = currentFileMd5Map.get(fileMD5);
-                                            if(null != newDefect)
-                                            {
-                                                oldDefect.setChecker(newDefect.getChecker());
-                                                oldDefect.setLineNum(newDefect.getLineNum());
-                                                oldDefect.setMessage(newDefect.getMessage());
-                                                oldDefect.setPinpointHash(newDefect.getPinpointHash());
-                                            }
-                                        }
-                                    }
-                                    else if (!currentFileMd5Map.keySet().contains(fileMD5) && oldDefect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                    {
-                                        String path = StringUtils.isEmpty(oldDefect.getRelPath()) ? oldDefect.getFilePath() : oldDefect.getRelPath();
-                                        fixDefect(buildEntity, oldDefect, originalFileMap.get(path));
-                                    }
-                                });
-                                upsertDefectList.addAll(oldDefectList);
+                                reopenDefect(selectedOldDefect);
                             }
-                            else
+                            if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
                             {
-                                /* 先按行号对新旧告警列表排序，然后依序一一对应当做同一个告警，遍历新告警列表：
-                                 * 1.有对应老告警：
-                                 *   1.1 老告警是已修复，则变为重新打开
-                                 *   1.2 老告警是其他状态，则不变更状态直接上报
-                                 * 2.无对应老告警
-                                 *   2.1 告警是首次创建的告警
-                                 * 3.老告警列表比新告警多，部分老告警没有对应的新告警
-                                 *   3.1 将状态是NEW的老告警变成已修复
-                                 *   3.2 老告警是其他状态，则不变更直接上报
-                                 */
-                                newDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
-                                if (CollectionUtils.isNotEmpty(oldDefectList))
-                                {
-                                    oldDefectList.sort(Comparator.comparingInt(LintDefectEntity::getLineNum));
-                                }
-                                for (int i = 0; i < newDefectList.size(); i++)
+                                selectedOldDefect.setAuthor(newDefect.getAuthor());
+                            }
+                        }
+                        else
+                        {
+                            selectedOldDefect = newDefect;
+                            if (null != buildEntity)
+                            {
+                                selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
+                            }
+                            selectedOldDefect.setCreateTime(System.currentTimeMillis());
+                            selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
+
+                            // 作者转换
+                            if (CollectionUtils.isNotEmpty(transferAuthorList))
+                            {
+                                for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
                                 {
-                                    LintDefectEntity newDefect = newDefectList.get(i);
-                                    LintDefectEntity selectedOldDefect = null;
-                                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > i)
+                                    String author = selectedOldDefect.getAuthor();
+                                    if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
                                     {
-                                        selectedOldDefect = oldDefectList.get(i);
+                                        selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
                                     }
-                                    if (selectedOldDefect != null)
-                                    {
-                                        selectedOldDefect.setChecker(newDefect.getChecker());
-                                        selectedOldDefect.setLineNum(newDefect.getLineNum());
-                                        selectedOldDefect.setMessage(newDefect.getMessage());
-                                        selectedOldDefect.setPinpointHash(newDefect.getPinpointHash());
-                                        if ((selectedOldDefect.getStatus() & ComConstants.DefectStatus.FIXED.value()) > 0)
-                                        {
-                                            reopenDefect(selectedOldDefect);
-                                        }
-                                        if (StringUtils.isEmpty(selectedOldDefect.getAuthor()))
-                                        {
-                                            selectedOldDefect.setAuthor(newDefect.getAuthor());
-                                        }
-                                    }
-                                    else
-                                    {
-                                        selectedOldDefect = newDefect;
-                                        if (null != buildEntity)
-                                        {
-                                            selectedOldDefect.setCreateBuildNumber(buildEntity.getBuildNo());
-                                        }
-                                        selectedOldDefect.setCreateTime(System.currentTimeMillis());
-                                        selectedOldDefect.setStatus(ComConstants.DefectStatus.NEW.value());
-
-                                        // 作者转换
-                                        if (CollectionUtils.isNotEmpty(transferAuthorList))
-                                        {
-                                            for (TransferAuthorEntity.TransferAuthorPair trasferAuthorPair : transferAuthorList)
-                                            {
-                                                String author = selectedOldDefect.getAuthor();
-                                                if (StringUtils.isNotEmpty(author) && author.equalsIgnoreCase(trasferAuthorPair.getSourceAuthor()))
-                                                {
-                                                    selectedOldDefect.setAuthor(trasferAuthorPair.getTargetAuthor());
-                                                }
-                                            }
-                                        }
-                                    }
-                                    upsertDefectList.add(selectedOldDefect);
                                 }
+                            }
+                        }
+                        upsertDefectList.add(selectedOldDefect);
+                    }
 
-                                // 老告警比新告警多出来的那部分告警变成已修复
-                                if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
-                                {
-                                    List<LintDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
-                                    upsertDefectList.addAll(closeOldDefectList);
-                                    closeOldDefectList.forEach(defect ->
-                                    {
-                                        if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
-                                        {
-                                            String path = StringUtils.isEmpty(defect.getRelPath()) ? defect.getFilePath() : defect.getRelPath();
-                                            fixDefect(buildEntity, defect, originalFileMap.get(path));
-                                        }
-                                    });
-                                }
+                    // 老告警比新告警多出来的那部分告警变成已修复
+                    if (CollectionUtils.isNotEmpty(oldDefectList) && oldDefectList.size() > newDefectList.size())
+                    {
+                        List<LintDefectEntity> closeOldDefectList = oldDefectList.subList(newDefectList.size() - 1, oldDefectList.size());
+                        upsertDefectList.addAll(closeOldDefectList);
+                        closeOldDefectList.forEach(defect ->
+                        {
+                            if (defect.getStatus() == ComConstants.DefectStatus.NEW.value())
+                            {
+                                String path = StringUtils.isEmpty(defect.getRelPath()) ? defect.getFilePath() : defect.getRelPath();
+                                fixDefect(buildEntity, defect, originalFileMap.get(path));
                             }
                         });
                     }
                 }
-                else
-                {
-                    log.warn("return false: {}", outputFile);
-                }
-            }
-            catch (InterruptedException | ExecutionException e)
-            {
-                log.warn("wait cluster exception: {}", outputFile, e);
-            }
+            });
         }
         log.info("end handleWithOutputModel, cost: {}", System.currentTimeMillis() - beginTime);
         return upsertDefectList;
@@ -668,22 +625,26 @@ public class NewLintDefectTracingComponent extends AbstractDefectTracingComponen
         // 过滤掉pinpointHash为空的告警，用于兼容（原来的没有上报的告警也要进行）
         List<LintDefectEntity> originalDefectList = originalLintFile.stream()
                 .map(lintFileEntity -> lintFileEntity.getDefectList())
-                .flatMap(Collection::parallelStream)
+                .flatMap(Collection::stream)
                 .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getPinpointHash()))
                 .collect(Collectors.toList());
 
-        Set<String> originalFileMd5Set = originalDefectList.stream()
-                .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()))
-                .map(lintDefectEntity -> String.format("%s_%s_%s", lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker()))
-                .collect(Collectors.toSet());
+        DefectMatchIndex<LintDefectEntity> originalDefectIndex = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, originalDefectList.size());
+        for (LintDefectEntity lintDefectEntity : originalDefectList)
+        {
+            if (StringUtils.isNotEmpty(lintDefectEntity.getFileMd5()))
+            {
+                originalDefectIndex.put(lintDefectEntity);
+            }
+        }
 
         //去重：md5、行号、规则一样的，直接去掉
         List<LintDefectEntity> currDefectList = currentLintFile.stream()
                 .filter(lintFileEntity -> lintFileEntity != null && CollectionUtils.isNotEmpty(lintFileEntity.getDefectList()))
                 .map(lintFileEntity -> lintFileEntity.getDefectList())
-                .flatMap(Collection::parallelStream)
+                .flatMap(Collection::stream)
                 .filter(lintDefectEntity -> StringUtils.isNotEmpty(lintDefectEntity.getPinpointHash())
-                        && !originalFileMd5Set.contains(String.format("%s_%s_%s", lintDefectEntity.getFileMd5(), lintDefectEntity.getLineNum(), lintDefectEntity.getChecker())))
+                        && !originalDefectIndex.contains(lintDefectEntity))
                 .collect(Collectors.toList());
 
         List<LintDefectEntity> finalDefectFile = new ArrayList();
@@ -0,0 +1,379 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.bk.codecc.defect.utils.PinpointHashUtils;
+import com.tencent.bk.codecc.defect.utils.PinpointHashUtils.FuzzyHash;
+import com.tencent.devops.common.api.exception.CodeCCException;
+import com.tencent.devops.common.constant.CommonMessageCode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 告警聚类组件，在进程内按pinpointHash相似度对告警分组，替代原来的pp-cluster可执行文件
+ * <p>
+ * 1. 同一规则的告警才会聚到一组，pinpointHash完全相同的告警直接归为一组
+ * 2. 按ssdeep的规则，两个哈希至少要有一个长度为7的公共子串才可能相似，以此建立n-gram倒排索引筛选候选对
+ * 3. 候选对在独立的线程池中并行计算相似度，相似度不低于阈值的告警通过并查集合并为一组
+ *
+ * @version V1.0
+ */
+@Slf4j
+@Component
+public class PinpointHashClusterComponent
+{
+    private static final int GRAM_BITS = 6;
+
+    private static final int GRAM_KEY_BITS = GRAM_BITS * PinpointHashUtils.ROLLING_WINDOW;
+
+    private static final int[] BASE64_INDEX = new int[128];
+
+    static
+    {
+        Arrays.fill(BASE64_INDEX, 63);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++)
+        {
+            BASE64_INDEX[alphabet.charAt(i)] = i;
+        }
+    }
+
+    /**
+     * 相似度阈值，不低于该值的两个告警被认为是同一个告警
+     */
+    private final int threshold;
+
+    private final ForkJoinPool clusterPool;
+
+    public PinpointHashClusterComponent(@Value("${codecc.cluster.threshold:60}") int threshold,
+                                        @Value("${codecc.cluster.parallelism:0}") int parallelism)
+    {
+        this.threshold = threshold;
+        this.clusterPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        clusterPool.shutdown();
+    }
+
+    /**
+     * 告警聚类
+     *
+     * @param inputList
+     * @return
+     */
+    public List<AggregateDefectOutputModel> cluster(List<AggregateDefectInputModel> inputList)
+    {
+        if (CollectionUtils.isEmpty(inputList))
+        {
+            return Collections.emptyList();
+        }
+        long beginTime = System.currentTimeMillis();
+
+        // 按规则分组，不同规则的告警不会聚到一起
+        Map<String, List<AggregateDefectInputModel>> checkerGroupMap = new LinkedHashMap<>();
+        inputList.forEach(input -> checkerGroupMap.computeIfAbsent(input.getCheckerName() == null ? "" : input.getCheckerName(),
+                key -> new ArrayList<>()).add(input));
+
+        List<AggregateDefectOutputModel> outputList = new ArrayList<>();
+        checkerGroupMap.values().forEach(checkerDefectList -> outputList.addAll(clusterByChecker(checkerDefectList)));
+
+        log.info("cluster defect finish, input size: {}, output size: {}, cost: {}", inputList.size(), outputList.size(),
+                System.currentTimeMillis() - beginTime);
+        return outputList;
+    }
+
+    /**
+     * 对同一规则的告警进行聚类
+     */
+    private List<AggregateDefectOutputModel> clusterByChecker(List<AggregateDefectInputModel> defectList)
+    {
+        // pinpointHash相同的告警直接归为一组，只取代表参与相似度计算
+        Map<String, List<AggregateDefectInputModel>> sameHashMap = new LinkedHashMap<>();
+        defectList.forEach(defect -> sameHashMap.computeIfAbsent(defect.getPinpointHash() == null ? "" : defect.getPinpointHash(),
+                key -> new ArrayList<>()).add(defect));
+
+        List<List<AggregateDefectInputModel>> sameHashGroups = new ArrayList<>(sameHashMap.values());
+        FuzzyHash[] hashes = new FuzzyHash[sameHashGroups.size()];
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashes[i] = PinpointHashUtils.parse(sameHashGroups.get(i).get(0).getPinpointHash());
+        }
+
+        int[] parent = new int[hashes.length];
+        for (int i = 0; i < parent.length; i++)
+        {
+            parent[i] = i;
+        }
+
+        if (hashes.length > 1)
+        {
+            GramIndex gramIndex = buildGramIndex(hashes);
+            int[][] matches = scoreCandidates(hashes, gramIndex);
+            for (int i = 0; i < matches.length; i++)
+            {
+                for (int j : matches[i])
+                {
+                    union(parent, i, j);
+                }
+            }
+        }
+
+        Map<Integer, List<AggregateDefectInputModel>> clusterMap = new LinkedHashMap<>();
+        for (int i = 0; i < parent.length; i++)
+        {
+            clusterMap.computeIfAbsent(find(parent, i), key -> new ArrayList<>()).addAll(sameHashGroups.get(i));
+        }
+
+        List<AggregateDefectOutputModel> outputList = new ArrayList<>(clusterMap.size());
+        clusterMap.values().forEach(defects -> outputList.add(new AggregateDefectOutputModel(defects)));
+        return outputList;
+    }
+
+    /**
+     * 并行计算候选对的相似度，返回每个哈希与其相似的、下标更大的哈希清单
+     */
+    private int[][] scoreCandidates(FuzzyHash[] hashes, GramIndex gramIndex)
+    {
+        int[][] matches = new int[hashes.length][];
+        try
+        {
+            clusterPool.submit(() -> IntStream.range(0, hashes.length).parallel()
+                    .forEach(i -> matches[i] = matchHash(i, hashes, gramIndex))).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CodeCCException(CommonMessageCode.INTERNAL_SYSTEM_FAIL, new String[]{"cluster interrupted"}, e);
+        }
+        catch (ExecutionException e)
+        {
+            log.warn("parallel cluster fail, fallback to serial", e);
+            for (int i = 0; i < hashes.length; i++)
+            {
+                matches[i] = matchHash(i, hashes, gramIndex);
+            }
+        }
+        return matches;
+    }
+
+    private int[] matchHash(int index, FuzzyHash[] hashes, GramIndex gramIndex)
+    {
+        FuzzyHash hash = hashes[index];
+        if (hash == null)
+        {
+            return new int[0];
+        }
+
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        for (long key : gramKeys(hash))
+        {
+            // 同一个键下的告警按下标倒序排列，只需要取下标比自己大的部分
+            for (int entry = gramIndex.head(key); entry >= 0 && gramIndex.owners[entry] > index; entry = gramIndex.next[entry])
+            {
+                if (candidateCount == candidates.length)
+                {
+                    candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                }
+                candidates[candidateCount++] = gramIndex.owners[entry];
+            }
+        }
+        if (candidateCount == 0)
+        {
+            return new int[0];
+        }
+
+        Arrays.sort(candidates, 0, candidateCount);
+        int[] result = new int[candidateCount];
+        int resultCount = 0;
+        int last = -1;
+        for (int k = 0; k < candidateCount; k++)
+        {
+            int candidate = candidates[k];
+            if (candidate != last && PinpointHashUtils.compare(hash, hashes[candidate]) >= threshold)
+            {
+                result[resultCount++] = candidate;
+            }
+            last = candidate;
+        }
+        return Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * 建立n-gram倒排索引，键为（块大小，7字符子串）编码后的long值
+     * 第一段哈希按自身块大小建索引，第二段按两倍块大小建索引，这样相同块大小和相差两倍块大小的哈希都会落到同一个键
+     */
+    private GramIndex buildGramIndex(FuzzyHash[] hashes)
+    {
+        long[][] hashKeys = new long[hashes.length][];
+        int entryCount = 0;
+        for (int i = 0; i < hashes.length; i++)
+        {
+            hashKeys[i] = hashes[i] == null ? new long[0] : gramKeys(hashes[i]);
+            entryCount += hashKeys[i].length;
+        }
+
+        GramIndex gramIndex = new GramIndex(entryCount);
+        for (int i = 0; i < hashes.length; i++)
+        {
+            for (long key : hashKeys[i])
+            {
+                gramIndex.add(key, i);
+            }
+        }
+        return gramIndex;
+    }
+
+    private static long[] gramKeys(FuzzyHash hash)
+    {
+        char[] first = hash.getFirst();
+        char[] second = hash.getSecond();
+        int window = PinpointHashUtils.ROLLING_WINDOW;
+        int firstCount = first.length <= PinpointHashUtils.SPAMSUM_LENGTH ? Math.max(first.length - window + 1, 0) : 0;
+        int secondCount = second.length <= PinpointHashUtils.SPAMSUM_LENGTH ? Math.max(second.length - window + 1, 0) : 0;
+        long[] keys = new long[firstCount + secondCount];
+        for (int i = 0; i < firstCount; i++)
+        {
+            keys[i] = gramKey(hash.getBlockSize(), first, i);
+        }
+        for (int i = 0; i < secondCount; i++)
+        {
+            keys[firstCount + i] = gramKey(hash.getBlockSize() * 2, second, i);
+        }
+        return keys;
+    }
+
+    private static long gramKey(long blockSize, char[] chars, int offset)
+    {
+        long key = 0;
+        for (int i = offset; i < offset + PinpointHashUtils.ROLLING_WINDOW; i++)
+        {
+            char c = chars[i];
+            key = (key << GRAM_BITS) | (c < 128 ? BASE64_INDEX[c] : 63);
+        }
+        // ssdeep的块大小为3*2^n，用哈希混入高位，碰撞只会多出候选对，不影响结果
+        return key ^ (Long.hashCode(blockSize) * 0x9E3779B97F4A7C15L & (-1L << GRAM_KEY_BITS));
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j)
+    {
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+        if (rootI != rootJ)
+        {
+            parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+        }
+    }
+
+    /**
+     * 开放寻址的long键倒排索引，每个键下挂一条按下标倒序的链表，避免装箱
+     */
+    private static final class GramIndex
+    {
+        private final long[] keys;
+
+        private final int[] heads;
+
+        private final int mask;
+
+        private final int[] owners;
+
+        private final int[] next;
+
+        private int size;
+
+        GramIndex(int entryCount)
+        {
+            int capacity = Integer.highestOneBit(Math.max(entryCount, 8) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.heads = new int[capacity];
+            Arrays.fill(heads, -1);
+            this.mask = capacity - 1;
+            this.owners = new int[entryCount];
+            this.next = new int[entryCount];
+        }
+
+        void add(long key, int owner)
+        {
+            int slot = slot(key);
+            int head = heads[slot];
+            if (head >= 0 && owners[head] == owner)
+            {
+                // 同一个哈希内重复的子串只记一次
+                return;
+            }
+            keys[slot] = key;
+            owners[size] = owner;
+            next[size] = head;
+            heads[slot] = size++;
+        }
+
+        int head(long key)
+        {
+            return heads[slot(key)];
+        }
+
+        private int slot(long key)
+        {
+            int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (heads[slot] >= 0 && keys[slot] != key)
+            {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
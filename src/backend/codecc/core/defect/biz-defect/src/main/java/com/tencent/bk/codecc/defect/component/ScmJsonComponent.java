@@ -1,6 +1,9 @@
 package com.tencent.bk.codecc.defect.component;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.tencent.bk.codecc.defect.pojo.FileMD5TotalModel;
 import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameVO;
@@ -14,6 +17,7 @@ import com.tencent.devops.common.util.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONArray;
+import org.json.JSONTokener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -22,6 +26,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 提取svn/git变更记录的工具类，主要是用来关联告警作者
@@ -125,24 +130,12 @@ public class ScmJsonComponent
             fileIndex = getFileIndex(scmJsonFileName, SCM_JSON);
         }
         log.info(fileIndex);
-        String fileContent = readFileContent(fileIndex);
-        JSONArray scmBlameArr = null;
-        if (StringUtils.isNotEmpty(fileContent))
-        {
-            scmBlameArr = new JSONArray(fileContent);
-        }
-
-        log.info("load scm json successful");
 
+        // 填充scm blame文件读取的信息，逐个元素流式解析，避免整个文件读成字符串
         Map<String, ScmBlameVO> scmBlameMap = new HashMap<>();
+        readJsonArray(fileIndex, ScmBlameVO.class, it -> scmBlameMap.put(it.getFilePath(), it));
 
-        // 填充scm blame文件读取的信息
-        if (scmBlameArr != null && scmBlameArr.length() > 0)
-        {
-            JsonUtil.INSTANCE.to(scmBlameArr.toString(), new TypeReference<List<ScmBlameVO>>() {}).forEach((it) -> {
-                scmBlameMap.put(it.getFilePath(), it);
-            });
-        }
+        log.info("load scm json successful");
 
         return new ArrayList<>(scmBlameMap.values());
     }
@@ -164,11 +157,18 @@ public class ScmJsonComponent
             fileIndex = getFileIndex(scmJsonFileName, SCM_JSON);
         }
         log.info(fileIndex);
-        String fileContent = readFileContent(fileIndex);
         JSONArray resultJsonArr = null;
-        if (StringUtils.isNotEmpty(fileContent))
+        File file = getExistFile(fileIndex);
+        if (file != null && file.length() > 0)
         {
-            resultJsonArr = new JSONArray(fileContent);
+            try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8)))
+            {
+                resultJsonArr = new JSONArray(new JSONTokener(reader));
+            }
+            catch (IOException e)
+            {
+                log.error("read repo info fail: {}", fileIndex, e);
+            }
         }
         return resultJsonArr;
     }
@@ -257,7 +257,20 @@ public class ScmJsonComponent
             fileIndex = getFileIndex(scmJsonFileName, SCM_JSON);
         }
         log.info("file index for {}, {}, {}, {}", streamName, toolName, buildId, fileIndex);
-        return JsonUtil.INSTANCE.to(readFileContent(fileIndex), new TypeReference<FileMD5TotalModel>() {});
+        File file = getExistFile(fileIndex);
+        if (file == null)
+        {
+            return JsonUtil.INSTANCE.to(readFileContent(fileIndex), new TypeReference<FileMD5TotalModel>() {});
+        }
+        try
+        {
+            return JsonUtil.INSTANCE.getObjectMapper().readValue(file, FileMD5TotalModel.class);
+        }
+        catch (IOException e)
+        {
+            log.error("read file md5 fail: {}", fileIndex, e);
+            throw new CodeCCException(CommonMessageCode.INTERNAL_SYSTEM_FAIL, new String[]{fileIndex}, e);
+        }
     }
 
     /**
@@ -326,6 +339,63 @@ public class ScmJsonComponent
         return fileContent;
     }
 
+    /**
+     * 流式读取json数组文件，每解析出一个元素就回调一次，内存占用只跟单个元素大小有关，跟文件大小无关
+     *
+     * @param filePath
+     * @param elementType
+     * @param consumer
+     * @return 解析出的元素个数
+     * @throws CodeCCException 文件读取或解析失败
+     */
+    public static <T> int readJsonArray(String filePath, Class<T> elementType, Consumer<T> consumer)
+    {
+        File file = getExistFile(filePath);
+        if (file == null || file.length() == 0)
+        {
+            return 0;
+        }
+
+        int count = 0;
+        ObjectMapper objectMapper = JsonUtil.INSTANCE.getObjectMapper();
+        try (JsonParser parser = objectMapper.getFactory().createParser(file))
+        {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+            {
+                log.warn("json file is not an array: {}", filePath);
+                return 0;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT)
+            {
+                consumer.accept(objectMapper.readValue(parser, elementType));
+                count++;
+            }
+        }
+        catch (IOException e)
+        {
+            // 读到一半失败时不能返回部分结果，否则调用方会把缺失的元素当作不存在
+            log.error("stream read json file fail: {}, read count: {}", filePath, count, e);
+            throw new CodeCCException(CommonMessageCode.INTERNAL_SYSTEM_FAIL, new String[]{filePath}, e);
+        }
+        return count;
+    }
+
+    private static File getExistFile(String filePath)
+    {
+        if (StringUtils.isEmpty(filePath))
+        {
+            log.warn("文件路径为空");
+            return null;
+        }
+        File file = new File(filePath);
+        if (!file.exists())
+        {
+            log.warn("文件[{}]不存在", filePath);
+            return null;
+        }
+        return file;
+    }
+
     /**
      * 读取文件内容
      *
@@ -19,6 +19,8 @@ import com.tencent.bk.codecc.defect.component.NewLintDefectTracingComponent;
 import com.tencent.bk.codecc.defect.constant.DefectMessageCode;
 import com.tencent.bk.codecc.defect.dao.mongorepository.*;
 import com.tencent.bk.codecc.defect.dao.mongotemplate.FileDefectGatherDao;
+import com.tencent.bk.codecc.defect.dao.mongotemplate.LintDefectDao;
+import com.tencent.bk.codecc.defect.dao.redis.StatisticDao;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildInfoEntity;
 import com.tencent.bk.codecc.defect.model.incremental.ToolBuildStackEntity;
@@ -32,6 +34,8 @@ import com.tencent.bk.codecc.defect.vo.customtool.ScmBlameVO;
 import com.tencent.bk.codecc.task.vo.TaskDetailVO;
 import com.tencent.devops.common.api.exception.CodeCCException;
 import com.tencent.devops.common.constant.ComConstants;
+import com.tencent.devops.common.constant.CommonMessageCode;
+import com.tencent.devops.common.redis.lock.RedisLock;
 import com.tencent.devops.common.util.DateTimeUtils;
 import com.tencent.devops.common.util.GsonUtils;
 import com.tencent.devops.common.util.JsonUtil;
@@ -42,6 +46,7 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -53,6 +58,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -66,6 +72,27 @@ import java.util.stream.Collectors;
 @Slf4j
 public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 {
+    /**
+     * 同时在跟踪中的告警分片数上限，超过后等待最早的分片完成再继续读文件，
+     * 使得内存中的告警只跟分片大小有关，跟上报文件大小无关
+     */
+    private static final int MAX_PENDING_CHUNKS = 2;
+
+    /**
+     * 增量统计的基线有效期，超过后即使没有状态变更也按全量重新统计一次，纠正其他途径带来的偏差
+     */
+    private static final long STATISTIC_BASELINE_EXPIRE_MILLS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * 统计锁前缀，同一任务同一工具的统计结果串行保存
+     */
+    private static final String LINT_STATISTIC_LOCK_KEY = "LINT_STATISTIC:";
+
+    /**
+     * 统计锁超时时间，锁内最多做一次全量统计
+     */
+    private static final Long STATISTIC_LOCK_TIMEOUT = 60L;
+
     @Autowired
     private LintDefectRepository lintDefectRepository;
     @Autowired
@@ -84,6 +111,12 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
     private FileDefectGatherRepository fileDefectGatherRepository;
     @Autowired
     private FileDefectGatherDao fileDefectGatherDao;
+    @Autowired
+    private LintDefectDao lintDefectDao;
+    @Autowired
+    private StatisticDao statisticDao;
+    @Autowired
+    private RedisTemplate redisTemplate;
 
     @Override
     protected void uploadDefects(CommitDefectVO commitDefectVO, Map<String, ScmBlameVO> fileChangeRecordsMap, Map<String, RepoSubModuleVO> codeRepoIdMap)
@@ -96,12 +129,6 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         TaskDetailVO taskVO = thirdPartySystemCaller.getTaskInfo(streamName);
         BuildEntity buildEntity = buildDao.getAndSaveBuildInfo(buildId);
 
-        // 1.解析工具上报的告警文件，并做告警跟踪
-        long beginTime = System.currentTimeMillis();
-        List<LintFileEntity> gatherFileList = new ArrayList<>();
-        Set<String> currentFileSet = parseDefectJsonFile(commitDefectVO, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap, gatherFileList);
-        log.info("parseDefectJsonFile cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
-
         ToolBuildStackEntity toolBuildStackEntity = toolBuildStackRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
 
         // 判断本次是增量还是全量扫描
@@ -118,18 +145,56 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             deleteFiles = Lists.newArrayList();
         }
 
+        /*
+         * 增量扫描时，如果上次统计的新老告警判定时间没变、期间没有页面忽略或分配等扫描以外的告警修改、且统计基线未过期，
+         * 只加载本次上报和删除的文件，在上次统计结果的基础上减去这些文件跟踪前的告警，再加上跟踪后的告警；
+         * 否则按全量加载所有文件重新统计。变更戳要在加载告警前读取，统计期间发生的修改会让下次统计走全量
+         */
+        long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskVO);
+        long statusChangeStamp = statisticDao.getStatusChangeStamp(taskId, toolName);
+        LintStatisticCounter incrementalCounter = null;
+        LintStatisticEntity lastStatisticEntity = null;
+        if (!isFullScan)
+        {
+            lastStatisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
+            if (lastStatisticEntity != null
+                    && Objects.equals(lastStatisticEntity.getNewDefectJudgeTime(), newDefectJudgeTime)
+                    && Objects.equals(lastStatisticEntity.getStatusChangeStamp(), statusChangeStamp)
+                    && lastStatisticEntity.getBaselineTime() != null
+                    && System.currentTimeMillis() - lastStatisticEntity.getBaselineTime() < STATISTIC_BASELINE_EXPIRE_MILLS)
+            {
+                incrementalCounter = LintStatisticCounter.from(lastStatisticEntity, newDefectJudgeTime, statusChangeStamp);
+            }
+        }
+
+        // 1.解析工具上报的告警文件，并做告警跟踪
+        long beginTime = System.currentTimeMillis();
+        List<LintFileEntity> gatherFileList = new ArrayList<>();
+        Set<String> currentFileSet = parseDefectJsonFile(commitDefectVO, taskVO, buildEntity, fileChangeRecordsMap, codeRepoIdMap, gatherFileList, incrementalCounter);
+        log.info("parseDefectJsonFile cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+
         // 2.处理告警收敛
         processFileDefectGather(commitDefectVO, gatherFileList, fileChangeRecordsMap, currentFileSet, isFullScan, deleteFiles);
 
-        // 查询所有告警
-        beginTime = System.currentTimeMillis();
-        List<LintFileEntity> allFileEntityList = lintDefectRepository.findByTaskIdAndToolName(taskId, toolName);
-        log.info("find lint file list cost: {}, {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId, allFileEntityList.size());
-
         // 3.更新文件状态
+        LintStatisticCounter statisticCounter;
         beginTime = System.currentTimeMillis();
-        updateFileEntityStatus(allFileEntityList, currentFileSet, deleteFiles, isFullScan, buildEntity);
-        log.info("update lint file list cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
+        if (incrementalCounter != null)
+        {
+            statisticCounter = incrementalCounter;
+            updateChangedFileStatus(taskId, toolName, currentFileSet, deleteFiles, buildEntity, statisticCounter);
+        }
+        else
+        {
+            List<LintFileEntity> allFileEntityList = lintDefectRepository.findByTaskIdAndToolName(taskId, toolName);
+            log.info("find lint file list cost: {}, {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId, allFileEntityList.size());
+
+            updateFileEntityStatus(allFileEntityList, currentFileSet, deleteFiles, isFullScan, buildEntity);
+            LintStatisticCounter fullCounter = new LintStatisticCounter(newDefectJudgeTime, statusChangeStamp, System.currentTimeMillis());
+            allFileEntityList.forEach(fileEntity -> fullCounter.count(fileEntity, 1));
+            statisticCounter = fullCounter;
+        }
+        log.info("update lint file list cost: {}, {}, {}, {}, incremental: {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId, incrementalCounter != null);
 
         String baseBuildId;
         if (toolBuildStackEntity == null)
@@ -144,7 +209,25 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 
         // 4.统计本次扫描的告警
         beginTime = System.currentTimeMillis();
-        statistic(taskVO, toolName, buildId, baseBuildId, allFileEntityList);
+        RedisLock lock = new RedisLock(redisTemplate, LINT_STATISTIC_LOCK_KEY + taskId + ComConstants.SEPARATOR_SEMICOLON + toolName, STATISTIC_LOCK_TIMEOUT);
+        try
+        {
+            lock.lock();
+            // 增量统计期间同一任务工具有其他统计保存或告警状态变更时，基线已经失效，改为全量重新统计
+            if (incrementalCounter != null && !isStatisticBaselineValid(taskId, toolName, lastStatisticEntity))
+            {
+                log.info("statistic baseline changed, recount all files: {}, {}, {}", taskId, toolName, buildId);
+                long currentStatusChangeStamp = statisticDao.getStatusChangeStamp(taskId, toolName);
+                LintStatisticCounter fullCounter = new LintStatisticCounter(newDefectJudgeTime, currentStatusChangeStamp, System.currentTimeMillis());
+                lintDefectRepository.findByTaskIdAndToolName(taskId, toolName).forEach(fileEntity -> fullCounter.count(fileEntity, 1));
+                statisticCounter = fullCounter;
+            }
+            statistic(taskId, toolName, buildId, baseBuildId, statisticCounter);
+        }
+        finally
+        {
+            lock.unlock();
+        }
         log.info("statistic cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, buildId);
 
         // 5.更新构建告警快照
@@ -288,7 +371,8 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             BuildEntity buildEntity,
             Map<String, ScmBlameVO> fileChangeRecordsMap,
             Map<String, RepoSubModuleVO> codeRepoIdMap,
-            List<LintFileEntity> gatherFileList)
+            List<LintFileEntity> gatherFileList,
+            LintStatisticCounter incrementalCounter)
     {
 
         long taskId = commitDefectVO.getTaskId();
@@ -333,7 +417,7 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             int cursor = 0;
             int chunkNo = 0;
             List<LintFileEntity> lintFileList = new ArrayList<>();
-            List<Future> asyncResultList = new ArrayList<>();
+            Deque<Future> asyncResultList = new LinkedList<>();
             while (reader.hasNext())
             {
                 LintFileEntity lintFileEntity = reader.readObject(LintFileEntity.class);
@@ -348,7 +432,8 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
                         if (cursor > MAX_PER_BATCH)
                         {
                             // 分批处理告警文件
-                            processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList);
+                            processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList, incrementalCounter);
+                            waitChunkTracing(commitDefectVO, asyncResultList, MAX_PENDING_CHUNKS);
                             cursor = 0;
                             lintFileList = new ArrayList<>();
                             chunkNo++;
@@ -368,21 +453,11 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 
             if (lintFileList.size() > 0)
             {
-                processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList);
+                processFileDefect(commitDefectVO, taskVO, lintFileList, filterPaths, buildEntity, chunkNo, transferAuthorList, asyncResultList, incrementalCounter);
             }
 
             // 直到所有的异步处理否都完成了，才继续往下走
-            asyncResultList.forEach(asyncResult ->
-            {
-                try
-                {
-                    asyncResult.get();
-                }
-                catch (InterruptedException | ExecutionException e)
-                {
-                    log.warn("handle file defect fail!{}", commitDefectVO, e);
-                }
-            });
+            waitChunkTracing(commitDefectVO, asyncResultList, 0);
         }
         catch (IOException e)
         {
@@ -392,146 +467,37 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         return currentFileSet;
     }
 
+    /**
+     * 增量统计的基线是否仍是最新的统计结果，且期间没有扫描以外的告警状态变更，需要在统计锁内调用
+     *
+     * @param taskId
+     * @param toolName
+     * @param baselineEntity 增量统计开始时读取的统计结果
+     * @return
+     */
+    private boolean isStatisticBaselineValid(long taskId, String toolName, LintStatisticEntity baselineEntity)
+    {
+        LintStatisticEntity latestStatisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
+        return latestStatisticEntity != null
+                && Objects.equals(latestStatisticEntity.getEntityId(), baselineEntity.getEntityId())
+                && Objects.equals(baselineEntity.getStatusChangeStamp(), statisticDao.getStatusChangeStamp(taskId, toolName));
+    }
+
     /**
      * 统计本次扫描的告警，需要统计的信息：
      * 1.本次分析遗留告警总数，文件总数，用于跟上一次分析的结果比较，得到最近一次分析结果，用于项目详情页展示，例如： 告警88247(↑38) 文件1796(↑0)
      * 2.当前遗留新告警数，历史告警数，用于数据报表统计每日告警遗留趋势图
      *
-     * @param taskVO
+     * @param taskId
      * @param toolName
      * @param buildId
      * @param baseBuildId
-     * @param allFileEntityList
+     * @param counter
      */
-    private void statistic(TaskDetailVO taskVO, String toolName, String buildId, String baseBuildId, List<LintFileEntity> allFileEntityList)
+    private void statistic(long taskId, String toolName, String buildId, String baseBuildId, LintStatisticCounter counter)
     {
-        long taskId=taskVO.getTaskId();
-        //计算总的告警数
-        Long totalDefectCount = 0L;
-        int defectCount = 0;
-        int fileCount = 0;
-        int newDefectCount = 0;
-        int historyDefectCount = 0;
-        int totalNewSerious = 0;
-        int totalNewNormal = 0;
-        int totalNewPrompt = 0;
-        //modified by xxx 增加历史各严重等级告警的数量统计
-        int totalSerious = 0;
-        int totalNormal = 0;
-        int totalPrompt = 0;
-        Map<String, NotRepairedAuthorEntity> authorDefectMap = Maps.newHashMap();
-        if (CollectionUtils.isNotEmpty(allFileEntityList))
-        {
-            // 查询新老告警判定时间
-            long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskVO);
-            for (LintFileEntity fileEntity : allFileEntityList)
-            {
-                if(CollectionUtils.isNotEmpty(fileEntity.getDefectList()))
-                {
-                    totalDefectCount = totalDefectCount + fileEntity.getDefectList().size();
-                }
-                // 统计本次构建遗留的告警数量和文件数量，以及各作者告警数量
-                if (fileEntity.getStatus() == ComConstants.DefectStatus.NEW.value())
-                {
-                    if (CollectionUtils.isNotEmpty(fileEntity.getDefectList()))
-                    {
-                        int defectCountInFile = 0;
-                        for (LintDefectEntity lintDefectEntity : fileEntity.getDefectList())
-                        {
-                            if (lintDefectEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
-                            {
-                                continue;
-                            }
-                            Long lineUpdateTime = lintDefectEntity.getLineUpdateTime();
-                            if (lineUpdateTime == null)
-                            {
-                                lineUpdateTime = lintDefectEntity.getCreateTime();
-                            }
-                            if (lineUpdateTime >= newDefectJudgeTime)
-                            {
-                                // 获取作者告警数统计
-                                NotRepairedAuthorEntity notRepairedAuthorEntity = null;
-                                if (StringUtils.isNotEmpty(lintDefectEntity.getAuthor()))
-                                {
-                                    notRepairedAuthorEntity = authorDefectMap.get(lintDefectEntity.getAuthor());
-                                    if (notRepairedAuthorEntity == null)
-                                    {
-                                        notRepairedAuthorEntity = new NotRepairedAuthorEntity();
-                                        notRepairedAuthorEntity.setName(lintDefectEntity.getAuthor());
-                                        authorDefectMap.put(lintDefectEntity.getAuthor(), notRepairedAuthorEntity);
-                                    }
-                                }
-
-                                // 统计新增告警数
-                                newDefectCount++;
-
-                                // 统计新增严重告警数
-                                if (ComConstants.SERIOUS == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewSerious++;
-                                    totalSerious++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setSeriousCount(notRepairedAuthorEntity.getSeriousCount() + 1);
-                                    }
-                                }
-
-                                // 统计新增一般告警数
-                                else if (ComConstants.NORMAL == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewNormal++;
-                                    totalNormal++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setNormalCount(notRepairedAuthorEntity.getNormalCount() + 1);
-                                    }
-                                }
-
-                                // 统计新增提示告警数
-                                else if (ComConstants.PROMPT_IN_DB == lintDefectEntity.getSeverity() || ComConstants.PROMPT == lintDefectEntity.getSeverity())
-                                {
-                                    totalNewPrompt++;
-                                    totalPrompt++;
-                                    if (notRepairedAuthorEntity != null)
-                                    {
-                                        notRepairedAuthorEntity.setPromptCount(notRepairedAuthorEntity.getPromptCount() + 1);
-                                    }
-                                }
-                                // 统计用户新增告警数总和
-                                if (notRepairedAuthorEntity != null)
-                                    notRepairedAuthorEntity.setTotalCount(newDefectCount);
-                            }
-                            else
-                            {
-                                historyDefectCount++;
-                                if(ComConstants.SERIOUS == lintDefectEntity.getSeverity())
-                                {
-                                    totalSerious++;
-                                }
-                                else if(ComConstants.NORMAL == lintDefectEntity.getSeverity())
-                                {
-                                    totalNormal++;
-                                }
-                                else if(ComConstants.PROMPT_IN_DB == lintDefectEntity.getSeverity() || ComConstants.PROMPT == lintDefectEntity.getSeverity())
-                                {
-                                    totalPrompt++;
-                                }
-                            }
-                            defectCountInFile++;
-                        }
-                        if (defectCountInFile > 0)
-                        {
-                            fileCount++;
-                            defectCount += defectCountInFile;
-                        }
-                    }
-                }
-            }
-        }
-
-        // 作者关联告警统计信息按告警数量排序
-        List<NotRepairedAuthorEntity> authorDefects = Lists.newArrayList(authorDefectMap.values());
-        Collections.sort(authorDefects, (o1, o2) -> Integer.compare(o2.getTotalCount(), o1.getTotalCount()));
+        int defectCount = counter.defectCount;
+        int fileCount = counter.fileCount;
 
         // 保存本次分析的统计情况
         int defectChange;
@@ -553,19 +519,22 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         lintStatisticEntity.setToolName(toolName);
         lintStatisticEntity.setFileCount(fileCount);
         lintStatisticEntity.setDefectCount(defectCount);
-        lintStatisticEntity.setNewDefectCount(newDefectCount);
-        lintStatisticEntity.setHistoryDefectCount(historyDefectCount);
+        lintStatisticEntity.setNewDefectCount(counter.newDefectCount);
+        lintStatisticEntity.setHistoryDefectCount(counter.historyDefectCount);
         lintStatisticEntity.setDefectChange(defectChange);
         lintStatisticEntity.setFileChange(fileChange);
         lintStatisticEntity.setBuildId(buildId);
-        lintStatisticEntity.setTotalNewNormal(totalNewNormal);
-        lintStatisticEntity.setTotalNewPrompt(totalNewPrompt);
-        lintStatisticEntity.setTotalNewSerious(totalNewSerious);
-        lintStatisticEntity.setTotalNormal(totalNormal);
-        lintStatisticEntity.setTotalPrompt(totalPrompt);
-        lintStatisticEntity.setTotalSerious(totalSerious);
-        lintStatisticEntity.setTotalDefectCount(totalDefectCount);
-        lintStatisticEntity.setAuthorStatistic(authorDefects);
+        lintStatisticEntity.setTotalNewNormal(counter.totalNewNormal);
+        lintStatisticEntity.setTotalNewPrompt(counter.totalNewPrompt);
+        lintStatisticEntity.setTotalNewSerious(counter.totalNewSerious);
+        lintStatisticEntity.setTotalNormal(counter.totalNormal);
+        lintStatisticEntity.setTotalPrompt(counter.totalPrompt);
+        lintStatisticEntity.setTotalSerious(counter.totalSerious);
+        lintStatisticEntity.setTotalDefectCount(counter.totalDefectCount);
+        lintStatisticEntity.setAuthorStatistic(counter.getAuthorStatistic());
+        lintStatisticEntity.setNewDefectJudgeTime(counter.newDefectJudgeTime);
+        lintStatisticEntity.setStatusChangeStamp(counter.statusChangeStamp);
+        lintStatisticEntity.setBaselineTime(counter.baselineTime);
 
         long currentTime = System.currentTimeMillis();
         lintStatisticEntity.setTime(currentTime);
@@ -573,6 +542,46 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
 
     }
 
+    /**
+     * 增量扫描时更新文件状态，只加载本次删除的文件以及跟踪过的文件，并在统计计数上调整这些文件带来的变化
+     *
+     * @param taskId
+     * @param toolName
+     * @param currentFileSet
+     * @param deleteFiles
+     * @param buildEntity
+     * @param counter
+     */
+    private void updateChangedFileStatus(long taskId, String toolName, Set<String> currentFileSet, List<String> deleteFiles,
+                                         BuildEntity buildEntity, LintStatisticCounter counter)
+    {
+        // 增量扫描只有已删除的文件需要修改状态，跟踪过的文件已经在跟踪时扣减过，这里不再重复扣减
+        if (CollectionUtils.isNotEmpty(deleteFiles))
+        {
+            List<LintFileEntity> deleteFileEntityList = lintDefectRepository.findByTaskIdAndToolNameAndFilePathIn(taskId, toolName, new HashSet<>(deleteFiles))
+                    .stream()
+                    .filter(fileEntity -> !counter.isTracked(fileEntity))
+                    .collect(Collectors.toList());
+            deleteFileEntityList.forEach(fileEntity -> counter.count(fileEntity, -1));
+            updateFileEntityStatus(deleteFileEntityList, currentFileSet, deleteFiles, false, buildEntity);
+            deleteFileEntityList.forEach(fileEntity -> counter.count(fileEntity, 1));
+        }
+
+        // 跟踪完成后重新加载跟踪过的文件，加上跟踪后的告警
+        Map<String, LintFileEntity> trackedFileMap = new HashMap<>();
+        if (!counter.trackedRelPaths.isEmpty())
+        {
+            lintDefectRepository.findByTaskIdAndToolNameAndRelPathIn(taskId, toolName, counter.trackedRelPaths)
+                    .forEach(fileEntity -> trackedFileMap.put(fileEntity.getEntityId(), fileEntity));
+        }
+        if (!counter.trackedFilePaths.isEmpty())
+        {
+            lintDefectRepository.findByTaskIdAndToolNameAndFilePathIn(taskId, toolName, counter.trackedFilePaths)
+                    .forEach(fileEntity -> trackedFileMap.put(fileEntity.getEntityId(), fileEntity));
+        }
+        trackedFileMap.values().forEach(fileEntity -> counter.count(fileEntity, 1));
+    }
+
     /**
      * 更新文件状态
      *
@@ -642,7 +651,7 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             }
             if (CollectionUtils.isNotEmpty(needUpdateFileEntityList))
             {
-                lintDefectRepository.save(needUpdateFileEntityList);
+                lintDefectDao.batchUpdateFileStatus(needUpdateFileEntityList);
             }
         }
     }
@@ -655,7 +664,8 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             BuildEntity buildEntity,
             int chunkNo,
             List<TransferAuthorEntity.TransferAuthorPair> transferAuthorList,
-            List<Future> asyncResultList)
+            Deque<Future> asyncResultList,
+            LintStatisticCounter incrementalCounter)
     {
         long taskId = commitDefectVO.getTaskId();
         String toolName = commitDefectVO.getToolName();
@@ -664,7 +674,8 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
                 .collect(Collectors.toSet());
 
         List<LintFileEntity> preLintFileEntityList;
-        if (StringUtils.isNotEmpty(currentLintFileList.get(0).getRelPath()))
+        boolean byRelPath = StringUtils.isNotEmpty(currentLintFileList.get(0).getRelPath());
+        if (byRelPath)
         {
             preLintFileEntityList = lintDefectRepository.findByTaskIdAndToolNameAndRelPathIn(taskId, toolName, filePathSet);
         }
@@ -673,6 +684,13 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
             preLintFileEntityList = lintDefectRepository.findByTaskIdAndToolNameAndFilePathIn(taskId, toolName, filePathSet);
         }
 
+        // 增量统计：跟踪会修改历史告警，需在提交跟踪前扣减这些文件原来的统计
+        if (incrementalCounter != null)
+        {
+            incrementalCounter.track(filePathSet, byRelPath);
+            preLintFileEntityList.forEach(fileEntity -> incrementalCounter.count(fileEntity, -1));
+        }
+
         // 告警跟踪聚类
         log.info("previous file:{}, current file:{}", preLintFileEntityList.size(), currentLintFileList.size());
         long beginTime = System.currentTimeMillis();
@@ -690,6 +708,37 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         log.info("async defec tracing(unfinish) cost: {}, {}, {}, {}", System.currentTimeMillis() - beginTime, taskId, toolName, commitDefectVO.getBuildId());
     }
 
+    /**
+     * 等待最早提交的告警分片跟踪完成，直到未完成的分片数不超过maxPending
+     *
+     * @param commitDefectVO
+     * @param asyncResultList
+     * @param maxPending
+     */
+    private void waitChunkTracing(CommitDefectVO commitDefectVO, Deque<Future> asyncResultList, int maxPending)
+    {
+        while (asyncResultList.size() > maxPending)
+        {
+            try
+            {
+                asyncResultList.pollFirst().get();
+            }
+            catch (InterruptedException e)
+            {
+                // 线程被中断（如服务停止）时不再等待，取消剩余分片并中止本次提交
+                Thread.currentThread().interrupt();
+                asyncResultList.forEach(future -> future.cancel(true));
+                asyncResultList.clear();
+                log.warn("wait file defect tracing interrupted!{}", commitDefectVO, e);
+                throw new CodeCCException(CommonMessageCode.INTERNAL_SYSTEM_FAIL, new String[]{commitDefectVO.getBuildId()}, e);
+            }
+            catch (ExecutionException e)
+            {
+                log.warn("handle file defect fail!{}", commitDefectVO, e);
+            }
+        }
+    }
+
     /**
      * 填充文件的信息
      *
@@ -832,4 +881,158 @@ public class LintDefectCommitConsumer extends AbstractDefectCommitConsumer
         }
         return true;
     }
+
+    /**
+     * lint告警统计计数器，全量扫描时累加所有文件，增量扫描时在上次统计结果的基础上按文件加减
+     */
+    private static class LintStatisticCounter
+    {
+        private final long newDefectJudgeTime;
+        private final long statusChangeStamp;
+        private final long baselineTime;
+        private long totalDefectCount;
+        private int defectCount;
+        private int fileCount;
+        private int newDefectCount;
+        private int historyDefectCount;
+        private int totalNewSerious;
+        private int totalNewNormal;
+        private int totalNewPrompt;
+        private int totalSerious;
+        private int totalNormal;
+        private int totalPrompt;
+        private final Map<String, NotRepairedAuthorEntity> authorDefectMap = Maps.newHashMap();
+
+        /**
+         * 增量扫描时已提交跟踪的文件
+         */
+        private final Set<String> trackedRelPaths = new HashSet<>();
+        private final Set<String> trackedFilePaths = new HashSet<>();
+
+        LintStatisticCounter(long newDefectJudgeTime, long statusChangeStamp, long baselineTime)
+        {
+            this.newDefectJudgeTime = newDefectJudgeTime;
+            this.statusChangeStamp = statusChangeStamp;
+            this.baselineTime = baselineTime;
+        }
+
+        static LintStatisticCounter from(LintStatisticEntity statisticEntity, long newDefectJudgeTime, long statusChangeStamp)
+        {
+            LintStatisticCounter counter = new LintStatisticCounter(newDefectJudgeTime, statusChangeStamp, statisticEntity.getBaselineTime());
+            counter.totalDefectCount = statisticEntity.getTotalDefectCount() == null ? 0 : statisticEntity.getTotalDefectCount();
+            counter.defectCount = statisticEntity.getDefectCount() == null ? 0 : statisticEntity.getDefectCount();
+            counter.fileCount = statisticEntity.getFileCount() == null ? 0 : statisticEntity.getFileCount();
+            counter.newDefectCount = statisticEntity.getNewDefectCount() == null ? 0 : statisticEntity.getNewDefectCount();
+            counter.historyDefectCount = statisticEntity.getHistoryDefectCount() == null ? 0 : statisticEntity.getHistoryDefectCount();
+            counter.totalNewSerious = statisticEntity.getTotalNewSerious() == null ? 0 : statisticEntity.getTotalNewSerious();
+            counter.totalNewNormal = statisticEntity.getTotalNewNormal() == null ? 0 : statisticEntity.getTotalNewNormal();
+            counter.totalNewPrompt = statisticEntity.getTotalNewPrompt() == null ? 0 : statisticEntity.getTotalNewPrompt();
+            counter.totalSerious = statisticEntity.getTotalSerious() == null ? 0 : statisticEntity.getTotalSerious();
+            counter.totalNormal = statisticEntity.getTotalNormal() == null ? 0 : statisticEntity.getTotalNormal();
+            counter.totalPrompt = statisticEntity.getTotalPrompt() == null ? 0 : statisticEntity.getTotalPrompt();
+            if (CollectionUtils.isNotEmpty(statisticEntity.getAuthorStatistic()))
+            {
+                statisticEntity.getAuthorStatistic().forEach(author -> counter.authorDefectMap.put(author.getName(), author));
+            }
+            return counter;
+        }
+
+        void track(Set<String> paths, boolean byRelPath)
+        {
+            (byRelPath ? trackedRelPaths : trackedFilePaths).addAll(paths);
+        }
+
+        boolean isTracked(LintFileEntity fileEntity)
+        {
+            return (StringUtils.isNotEmpty(fileEntity.getRelPath()) && trackedRelPaths.contains(fileEntity.getRelPath()))
+                    || trackedFilePaths.contains(fileEntity.getFilePath());
+        }
+
+        /**
+         * 按文件累加(sign=1)或扣减(sign=-1)统计
+         *
+         * @param fileEntity
+         * @param sign
+         */
+        void count(LintFileEntity fileEntity, int sign)
+        {
+            if (CollectionUtils.isEmpty(fileEntity.getDefectList()))
+            {
+                return;
+            }
+            totalDefectCount += sign * fileEntity.getDefectList().size();
+
+            // 统计本次构建遗留的告警数量和文件数量，以及各作者告警数量
+            if (fileEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
+            {
+                return;
+            }
+            int defectCountInFile = 0;
+            for (LintDefectEntity lintDefectEntity : fileEntity.getDefectList())
+            {
+                if (lintDefectEntity.getStatus() != ComConstants.DefectStatus.NEW.value())
+                {
+                    continue;
+                }
+                defectCountInFile++;
+                int severity = lintDefectEntity.getSeverity();
+                boolean serious = ComConstants.SERIOUS == severity;
+                boolean normal = ComConstants.NORMAL == severity;
+                boolean prompt = ComConstants.PROMPT_IN_DB == severity || ComConstants.PROMPT == severity;
+
+                Long lineUpdateTime = lintDefectEntity.getLineUpdateTime();
+                if (lineUpdateTime == null)
+                {
+                    lineUpdateTime = lintDefectEntity.getCreateTime();
+                }
+                if (lineUpdateTime >= newDefectJudgeTime)
+                {
+                    newDefectCount += sign;
+                    totalNewSerious += serious ? sign : 0;
+                    totalNewNormal += normal ? sign : 0;
+                    totalNewPrompt += prompt ? sign : 0;
+
+                    // 作者关联的新告警数
+                    if (StringUtils.isNotEmpty(lintDefectEntity.getAuthor()))
+                    {
+                        NotRepairedAuthorEntity author = authorDefectMap.computeIfAbsent(lintDefectEntity.getAuthor(), name ->
+                        {
+                            NotRepairedAuthorEntity notRepairedAuthorEntity = new NotRepairedAuthorEntity();
+                            notRepairedAuthorEntity.setName(name);
+                            return notRepairedAuthorEntity;
+                        });
+                        author.setSeriousCount(author.getSeriousCount() + (serious ? sign : 0));
+                        author.setNormalCount(author.getNormalCount() + (normal ? sign : 0));
+                        author.setPromptCount(author.getPromptCount() + (prompt ? sign : 0));
+                        author.setTotalCount(author.getTotalCount() + sign);
+                    }
+                }
+                else
+                {
+                    historyDefectCount += sign;
+                }
+                totalSerious += serious ? sign : 0;
+                totalNormal += normal ? sign : 0;
+                totalPrompt += prompt ? sign : 0;
+            }
+            if (defectCountInFile > 0)
+            {
+                fileCount += sign;
+                defectCount += sign * defectCountInFile;
+            }
+        }
+
+        /**
+         * 作者关联告警统计信息按告警数量排序
+         *
+         * @return
+         */
+        List<NotRepairedAuthorEntity> getAuthorStatistic()
+        {
+            return authorDefectMap.values().stream()
+                    .filter(author -> author.getTotalCount() > 0)
+                    .sorted((o1, o2) -> Integer.compare(o2.getTotalCount(), o1.getTotalCount()))
+                    .collect(Collectors.toList());
+        }
+    }
 }
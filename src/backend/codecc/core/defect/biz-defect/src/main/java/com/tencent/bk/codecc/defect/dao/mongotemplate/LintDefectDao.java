@@ -28,7 +28,9 @@ package com.tencent.bk.codecc.defect.dao.mongotemplate;
 
 import com.google.common.collect.Lists;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import com.tencent.bk.codecc.defect.constant.DefectConstants;
+import com.tencent.bk.codecc.defect.dao.AddFieldOperation;
 import com.tencent.bk.codecc.defect.model.*;
 import com.tencent.bk.codecc.defect.vo.LintDefectQueryRspVO;
 import com.tencent.bk.codecc.defect.service.newdefectjudge.NewDefectJudgeService;
@@ -36,6 +38,7 @@ import com.tencent.bk.codecc.defect.vo.CCNDefectVO;
 import com.tencent.bk.codecc.defect.vo.LintDefectQueryRspVO;
 import com.tencent.bk.codecc.defect.vo.LintDefectVO;
 import com.tencent.bk.codecc.defect.vo.LintFileVO;
+import com.tencent.bk.codecc.defect.vo.common.DefectQueryReqVO;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.util.DateTimeUtils;
 import com.tencent.devops.common.util.JsonUtil;
@@ -54,6 +57,7 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.*;
+import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -98,6 +102,433 @@ public class LintDefectDao
     }
 
 
+    /**
+     * 根据条件查询文件列表，告警列表在数据库端按规则（或规则包）、处理人过滤，只返回匹配的告警和仍有告警的文件
+     *
+     * @param taskId
+     * @param toolName
+     * @param fileList
+     * @param checker
+     * @param author
+     * @param pkgChecker 规则包中的规则，指定了规则包时告警按规则包过滤，同时指定的规则只用来筛选文件
+     * @return
+     */
+    public List<LintFileEntity> findFileListByParams(long taskId, String toolName, Set<String> fileList, String checker,
+                                                     String author, Set<String> pkgChecker)
+    {
+        Query query = getFileQuery(taskId, toolName, fileList, checker, author, pkgChecker);
+
+        List<BasicDBObject> defectConditions = new ArrayList<>();
+        if (CollectionUtils.isNotEmpty(pkgChecker))
+        {
+            defectConditions.add(new BasicDBObject("$in", new Object[]{"$$defect.checker", pkgChecker}));
+        }
+        else if (StringUtils.isNotEmpty(checker))
+        {
+            defectConditions.add(new BasicDBObject("$eq", new Object[]{"$$defect.checker", checker}));
+        }
+        if (StringUtils.isNotEmpty(author))
+        {
+            defectConditions.add(new BasicDBObject("$eq", new Object[]{"$$defect.author", author}));
+        }
+
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(context -> new BasicDBObject("$match", query.getQueryObject()));
+        operations.add(context -> new BasicDBObject("$project", query.getFieldsObject()));
+        if (CollectionUtils.isNotEmpty(defectConditions))
+        {
+            BasicDBObject filter = new BasicDBObject("input", "$defect_list")
+                    .append("as", "defect")
+                    .append("cond", new BasicDBObject("$and", defectConditions));
+            operations.add(new AddFieldOperation(
+                    new BasicDBObject("defect_list", new BasicDBObject("$filter", filter))));
+            operations.add(Aggregation.match(Criteria.where("defect_list.0").exists(true)));
+        }
+
+        Aggregation agg = Aggregation.newAggregation(operations).withOptions(getAllowDiskUseOptions());
+        // 后续过滤会直接修改列表
+        return new ArrayList<>(mongoTemplate.aggregate(agg, "t_lint_defect", LintFileEntity.class).getMappedResults());
+    }
+
+    /**
+     * 按条件统计告警数量，按告警状态、严重程度、新老告警分组
+     * 状态、严重程度、新老告警条件不在这里过滤，由调用方根据分组算出各级条件下的告警数
+     *
+     * @param taskId
+     * @param queryWarningReq    查询条件
+     * @param buildFileDefectMap 构建中的文件及其告警，为null时不按构建筛选
+     * @param newDefectJudgeTime 新老告警判定时间
+     * @return
+     */
+    public List<LintDefectGroupStatEntity> statDefectByParams(long taskId, DefectQueryReqVO queryWarningReq,
+                                                              Map<String, Set<String>> buildFileDefectMap,
+                                                              long newDefectJudgeTime)
+    {
+        List<AggregationOperation> operations =
+                getUnwindDefectOperations(taskId, queryWarningReq, buildFileDefectMap, newDefectJudgeTime, false);
+        BasicDBObject groupId = new BasicDBObject("status", "$defect_list.status")
+                .append("severity", "$defect_list.severity")
+                .append("is_new", new BasicDBObject("$gt",
+                        new Object[]{"$defect_list.linenum_datetime", newDefectJudgeTime}));
+        operations.add(context -> new BasicDBObject("$group", new BasicDBObject("_id", groupId)
+                .append("count", new BasicDBObject("$sum", 1))));
+        operations.add(context -> new BasicDBObject("$project", new BasicDBObject("_id", 0)
+                .append("status", "$_id.status")
+                .append("severity", "$_id.severity")
+                .append("is_new", "$_id.is_new")
+                .append("count", 1)));
+
+        Aggregation agg = Aggregation.newAggregation(operations).withOptions(getAllowDiskUseOptions());
+        return mongoTemplate.aggregate(agg, "t_lint_defect", LintDefectGroupStatEntity.class).getMappedResults();
+    }
+
+    /**
+     * 按条件分页查询告警，过滤、排序、分页都在数据库端完成
+     * 每个告警连同所在文件返回一个文件实体，defect_list中只有这一个告警
+     *
+     * @param taskId
+     * @param queryWarningReq    查询条件
+     * @param buildFileDefectMap 构建中的文件及其告警，为null时不按构建筛选
+     * @param newDefectJudgeTime 新老告警判定时间
+     * @param sort               排序，fileName按文件名和行号排序，其他按告警字段排序
+     * @param skip
+     * @param limit
+     * @return
+     */
+    public List<LintFileEntity> findDefectPageByParams(long taskId, DefectQueryReqVO queryWarningReq,
+                                                       Map<String, Set<String>> buildFileDefectMap,
+                                                       long newDefectJudgeTime, Sort sort, int skip, int limit)
+    {
+        List<AggregationOperation> operations =
+                getUnwindDefectOperations(taskId, queryWarningReq, buildFileDefectMap, newDefectJudgeTime, true);
+
+        BasicDBObject sortObject = new BasicDBObject();
+        for (Sort.Order order : sort)
+        {
+            int direction = order.isAscending() ? 1 : -1;
+            if ("fileName".equals(order.getProperty()))
+            {
+                sortObject.append("file_name", direction).append("defect_list.line_num", direction);
+                continue;
+            }
+            String field = getMongoFieldName(LintDefectEntity.class, order.getProperty());
+            if (field == null)
+            {
+                log.error("invalid sort field: {}", order.getProperty());
+                continue;
+            }
+            sortObject.append("defect_list." + field, direction);
+        }
+        addPageOperations(operations, sortObject.append("defect_list.defect_id", 1), skip, limit);
+        // 展开的告警放回defect_list，按文件实体返回
+        operations.add(new AddFieldOperation(new BasicDBObject("defect_list", new Object[]{"$defect_list"})));
+
+        Aggregation agg = Aggregation.newAggregation(operations).withOptions(getAllowDiskUseOptions());
+        return mongoTemplate.aggregate(agg, "t_lint_defect", LintFileEntity.class).getMappedResults();
+    }
+
+    /**
+     * 按条件分页查询文件，过滤、排序、分页都在数据库端完成，文件只带有匹配的告警
+     * 文件按严重程度排序时严重、一般、提示告警的权重为4、2、1
+     *
+     * @param taskId
+     * @param queryWarningReq    查询条件
+     * @param buildFileDefectMap 构建中的文件及其告警，为null时不按构建筛选
+     * @param newDefectJudgeTime 新老告警判定时间
+     * @param pageable
+     * @return
+     */
+    public Page<LintFileEntity> findFilePageByParams(long taskId, DefectQueryReqVO queryWarningReq,
+                                                     Map<String, Set<String>> buildFileDefectMap,
+                                                     long newDefectJudgeTime, Pageable pageable)
+    {
+        List<AggregationOperation> operations =
+                getUnwindDefectOperations(taskId, queryWarningReq, buildFileDefectMap, newDefectJudgeTime, true);
+
+        BasicDBObject severityWeight = new BasicDBObject("$switch", new BasicDBObject("branches", new Object[]{
+                new BasicDBObject("case", new BasicDBObject("$eq", new Object[]{"$defect_list.severity",
+                        ComConstants.SERIOUS})).append("then", 4),
+                new BasicDBObject("case", new BasicDBObject("$eq", new Object[]{"$defect_list.severity",
+                        ComConstants.NORMAL})).append("then", 2),
+                new BasicDBObject("case", new BasicDBObject("$in", new Object[]{"$defect_list.severity",
+                        new Object[]{ComConstants.PROMPT_IN_DB, ComConstants.PROMPT}})).append("then", 1)
+        }).append("default", 0));
+        BasicDBObject group = new BasicDBObject("_id", "$_id");
+        for (String field : new String[]{"task_id", "file_path", "rel_path", "status", "create_time",
+                "file_update_time"})
+        {
+            group.append(field, new BasicDBObject("$first", "$" + field));
+        }
+        group.append("defect_list", new BasicDBObject("$push", "$defect_list"))
+                .append("defect_count", new BasicDBObject("$sum", 1))
+                .append("severity_weight", new BasicDBObject("$sum", severityWeight));
+        operations.add(context -> new BasicDBObject("$group", group));
+
+        BasicDBObject sortObject = new BasicDBObject();
+        for (Sort.Order order : pageable.getSort())
+        {
+            int direction = order.isAscending() ? 1 : -1;
+            if ("fileName".equals(order.getProperty()))
+            {
+                sortObject.append("file_name", direction);
+            }
+            else if ("severity".equals(order.getProperty()))
+            {
+                sortObject.append("severity_weight", direction);
+            }
+            else
+            {
+                String field = getMongoFieldName(LintFileEntity.class, order.getProperty());
+                if (field == null)
+                {
+                    log.error("invalid sort field: {}", order.getProperty());
+                    continue;
+                }
+                sortObject.append(field, direction);
+            }
+        }
+        sortObject.append("_id", 1);
+
+        int skip = pageable.getOffset();
+        DBObject result = aggregateFilePage(operations, sortObject, skip, pageable.getPageSize());
+        List<DBObject> pageFiles = (List<DBObject>) result.get("page");
+        List<DBObject> totalList = (List<DBObject>) result.get("total");
+        long total = CollectionUtils.isEmpty(totalList) ? 0 : ((Number) totalList.get(0).get("count")).longValue();
+        // 页码超出范围时返回第一页
+        if (CollectionUtils.isEmpty(pageFiles) && skip > total && total > 0)
+        {
+            result = aggregateFilePage(operations, sortObject, 0, pageable.getPageSize());
+            pageFiles = (List<DBObject>) result.get("page");
+        }
+
+        List<LintFileEntity> fileList = pageFiles.stream()
+                .map(file -> mongoTemplate.getConverter().read(LintFileEntity.class, file))
+                .collect(Collectors.toList());
+        return new PageImpl<>(fileList, pageable, total);
+    }
+
+    private DBObject aggregateFilePage(List<AggregationOperation> operations, BasicDBObject sortObject, int skip,
+                                       int limit)
+    {
+        List<AggregationOperation> pageOperations = new ArrayList<>();
+        addPageOperations(pageOperations, sortObject, skip, limit);
+        List<DBObject> pagePipeline = pageOperations.stream()
+                .map(operation -> operation.toDBObject(Aggregation.DEFAULT_CONTEXT))
+                .collect(Collectors.toList());
+        BasicDBObject facet = new BasicDBObject("total",
+                Collections.singletonList(new BasicDBObject("$count", "count")))
+                .append("page", pagePipeline);
+
+        List<AggregationOperation> facetOperations = new ArrayList<>(operations);
+        facetOperations.add(context -> new BasicDBObject("$facet", facet));
+        Aggregation agg = Aggregation.newAggregation(facetOperations).withOptions(getAllowDiskUseOptions());
+        return mongoTemplate.aggregate(agg, "t_lint_defect", BasicDBObject.class).getUniqueMappedResult();
+    }
+
+    /**
+     * 按文件条件筛选后展开告警列表，再按告警条件过滤
+     *
+     * @param filterByStatus 是否按状态、严重程度、新老告警过滤
+     */
+    private List<AggregationOperation> getUnwindDefectOperations(long taskId, DefectQueryReqVO queryWarningReq,
+                                                                 Map<String, Set<String>> buildFileDefectMap,
+                                                                 long newDefectJudgeTime, boolean filterByStatus)
+    {
+        Query query = getFileQuery(taskId, queryWarningReq.getToolName(), queryWarningReq.getFileList(),
+                queryWarningReq.getChecker(), queryWarningReq.getAuthor(), queryWarningReq.getPkgChecker());
+        List<Criteria> defectCriteria = getDefectCriteria(queryWarningReq, buildFileDefectMap);
+        if (filterByStatus)
+        {
+            defectCriteria.addAll(getDefectStatusCriteria(queryWarningReq, newDefectJudgeTime));
+        }
+
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(context -> new BasicDBObject("$match", query.getQueryObject()));
+        operations.add(context -> new BasicDBObject("$project", query.getFieldsObject()));
+        operations.add(context -> new BasicDBObject("$unwind", "$defect_list"));
+        if (CollectionUtils.isNotEmpty(defectCriteria))
+        {
+            Criteria criteria = new Criteria().andOperator(defectCriteria.toArray(new Criteria[0]));
+            operations.add(context -> new BasicDBObject("$match", criteria.getCriteriaObject()));
+        }
+        return operations;
+    }
+
+    /**
+     * 告警的规则（或规则包）、处理人、时间、构建条件
+     */
+    private List<Criteria> getDefectCriteria(DefectQueryReqVO queryWarningReq,
+                                             Map<String, Set<String>> buildFileDefectMap)
+    {
+        List<Criteria> criteriaList = new ArrayList<>();
+        Set<String> pkgChecker = queryWarningReq.getPkgChecker();
+        if (CollectionUtils.isNotEmpty(pkgChecker))
+        {
+            criteriaList.add(Criteria.where("defect_list.checker").in(pkgChecker));
+        }
+        else if (StringUtils.isNotEmpty(queryWarningReq.getChecker()))
+        {
+            criteriaList.add(Criteria.where("defect_list.checker").is(queryWarningReq.getChecker()));
+        }
+        if (StringUtils.isNotEmpty(queryWarningReq.getAuthor()))
+        {
+            criteriaList.add(Criteria.where("defect_list.author").is(queryWarningReq.getAuthor()));
+        }
+
+        // 按行更新时间筛选，与DateTimeUtils.filterDate一致
+        String startTime = queryWarningReq.getStartCreateTime();
+        if (StringUtils.isNotEmpty(startTime))
+        {
+            String endTime = queryWarningReq.getEndCreateTime();
+            long startTimestamp = DateTimeUtils.getTimeStamp(startTime + " 00:00:00");
+            long endTimestamp = StringUtils.isEmpty(endTime) ? System.currentTimeMillis()
+                    : DateTimeUtils.getTimeStamp(endTime + " 23:59:59");
+            criteriaList.add(Criteria.where("defect_list.linenum_datetime").gte(startTimestamp).lte(endTimestamp));
+        }
+
+        // 告警ID是全局唯一的，按文件和告警ID分别过滤即可
+        if (buildFileDefectMap != null)
+        {
+            Set<String> buildDefectIds = new HashSet<>();
+            buildFileDefectMap.values().forEach(buildDefectIds::addAll);
+            criteriaList.add(Criteria.where("rel_path").in(buildFileDefectMap.keySet()));
+            criteriaList.add(Criteria.where("defect_list.defect_id").in(buildDefectIds));
+        }
+        return criteriaList;
+    }
+
+    /**
+     * 告警的状态、严重程度、新老告警条件，与LintQueryWarningBizServiceImpl.filterDefectByCondition一致
+     */
+    private List<Criteria> getDefectStatusCriteria(DefectQueryReqVO queryWarningReq, long newDefectJudgeTime)
+    {
+        List<Criteria> criteriaList = new ArrayList<>();
+
+        // 待修复要求状态完全一致，已修复、已忽略、已屏蔽按位匹配
+        Set<String> condStatusList = queryWarningReq.getStatus();
+        if (CollectionUtils.isEmpty(condStatusList))
+        {
+            condStatusList = Collections.singleton(String.valueOf(ComConstants.DefectStatus.NEW.value()));
+        }
+        List<Criteria> statusCriteria = new ArrayList<>();
+        for (String condStatus : condStatusList)
+        {
+            int status = Integer.valueOf(condStatus);
+            if (ComConstants.DefectStatus.NEW.value() == status)
+            {
+                statusCriteria.add(Criteria.where("defect_list.status").is(status));
+            }
+            else if (ComConstants.DefectStatus.NEW.value() < status)
+            {
+                statusCriteria.add(Criteria.where("defect_list.status").is(new BasicDBObject("$bitsAnySet", status)));
+            }
+        }
+        criteriaList.add(statusCriteria.isEmpty() ? Criteria.where("defect_list.status").in(Collections.emptySet())
+                : new Criteria().orOperator(statusCriteria.toArray(new Criteria[0])));
+
+        // 前端的提示级别是4，数据库中是3
+        Set<Integer> severityList = new HashSet<>();
+        if (CollectionUtils.isNotEmpty(queryWarningReq.getSeverity()))
+        {
+            for (String condSeverity : queryWarningReq.getSeverity())
+            {
+                int severity = Integer.valueOf(condSeverity);
+                severityList.add(severity);
+                if (ComConstants.PROMPT == severity)
+                {
+                    severityList.add(ComConstants.PROMPT_IN_DB);
+                }
+            }
+        }
+        criteriaList.add(Criteria.where("defect_list.severity").in(severityList));
+
+        Set<String> conditionDefectType = queryWarningReq.getDefectType();
+        if (CollectionUtils.isNotEmpty(conditionDefectType))
+        {
+            boolean needNew = conditionDefectType.contains(ComConstants.DefectType.NEW.stringValue());
+            boolean needHistory = conditionDefectType.contains(ComConstants.DefectType.HISTORY.stringValue());
+            if (needNew && !needHistory)
+            {
+                criteriaList.add(Criteria.where("defect_list.linenum_datetime").gt(newDefectJudgeTime));
+            }
+            else if (!needNew && needHistory)
+            {
+                criteriaList.add(new Criteria().orOperator(
+                        Criteria.where("defect_list.linenum_datetime").lte(newDefectJudgeTime),
+                        Criteria.where("defect_list.linenum_datetime").exists(false)));
+            }
+            else if (!needNew)
+            {
+                criteriaList.add(Criteria.where("defect_list.linenum_datetime").in(Collections.emptySet()));
+            }
+        }
+        return criteriaList;
+    }
+
+    /**
+     * 按文件条件筛选：任务、工具、路径、规则、处理人，只指定规则包时筛选包含规则包中规则的文件
+     */
+    private Query getFileQuery(long taskId, String toolName, Set<String> fileList, String checker, String author,
+                               Set<String> pkgChecker)
+    {
+        Criteria andCriteria = new Criteria();
+        Query query = getFilePremiumQuery(taskId, toolName, fileList, checker, author, andCriteria);
+        // checker_list只能有一个条件，同时指定了规则时已经按规则筛选过文件
+        if (CollectionUtils.isNotEmpty(pkgChecker) && StringUtils.isEmpty(checker))
+        {
+            query.addCriteria(Criteria.where("checker_list").in(pkgChecker));
+        }
+        query.addCriteria(Criteria.where("defect_list").elemMatch(andCriteria));
+        return query;
+    }
+
+    private void addPageOperations(List<AggregationOperation> operations, BasicDBObject sortObject, int skip,
+                                   int limit)
+    {
+        if (sortObject.containsField("file_name"))
+        {
+            operations.add(getFileNameOperation());
+        }
+        operations.add(context -> new BasicDBObject("$sort", sortObject));
+        operations.add(context -> new BasicDBObject("$skip", skip));
+        operations.add(context -> new BasicDBObject("$limit", limit));
+    }
+
+    /**
+     * 文件名取路径最后一段
+     */
+    private AggregationOperation getFileNameOperation()
+    {
+        return new AddFieldOperation(new BasicDBObject("file_name", new BasicDBObject("$arrayElemAt",
+                new Object[]{new BasicDBObject("$split", new Object[]{"$file_path", "/"}), -1})));
+    }
+
+    private AggregationOptions getAllowDiskUseOptions()
+    {
+        return new AggregationOptions.Builder().allowDiskUse(true).build();
+    }
+
+    /**
+     * 实体属性对应的数据库字段名，没有该属性时返回null
+     */
+    private static String getMongoFieldName(Class<?> entityClass, String property)
+    {
+        for (Class<?> clazz = entityClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            try
+            {
+                Field field = clazz.getDeclaredField(property).getAnnotation(Field.class);
+                return field == null ? property : field.value();
+            }
+            catch (NoSuchFieldException ignored)
+            {
+                // 继续查找父类
+            }
+        }
+        return null;
+    }
+
+
     /**
      * 获取原始查询条件
      *
@@ -270,6 +701,29 @@ public class LintDefectDao
         }
     }
 
+    /**
+     * 按文件实体ID批量更新文件状态及告警列表，只写状态相关的字段
+     *
+     * @param defectFiles
+     */
+    public void batchUpdateFileStatus(List<LintFileEntity> defectFiles)
+    {
+        if (CollectionUtils.isNotEmpty(defectFiles))
+        {
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LintFileEntity.class);
+            for (LintFileEntity defectFile : defectFiles)
+            {
+                Query query = new Query(Criteria.where("_id").is(new ObjectId(defectFile.getEntityId())));
+                Update update = new Update();
+                update.set("status", defectFile.getStatus())
+                        .set("fixed_time", defectFile.getFixedTime())
+                        .set("defect_list", defectFile.getDefectList());
+                ops.updateOne(query, update);
+            }
+            ops.execute();
+        }
+    }
+
     /**
      * 根据工具ID和工具列表查询最近一次分析记录
      *
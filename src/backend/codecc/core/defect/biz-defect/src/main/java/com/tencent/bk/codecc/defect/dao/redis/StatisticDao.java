@@ -131,4 +131,30 @@ public class StatisticDao
             redisTemplate.opsForSet().add(key + EXIST_AUTHORS, existAuthors.toArray(new String[existAuthors.size()]));
         }
     }
+
+    /**
+     * 扫描以外的途径修改了告警状态或处理人时，增加任务工具的告警状态变更戳
+     *
+     * @param taskId
+     * @param toolName
+     */
+    public void increaseStatusChangeStamp(long taskId, String toolName)
+    {
+        String key = String.format("%s%d:%s", RedisKeyConstants.PREFIX_DEFECT_STATUS_STAMP, taskId, toolName);
+        redisTemplate.opsForValue().increment(key, 1L);
+    }
+
+    /**
+     * 获取任务工具当前的告警状态变更戳，没有变更过时为0
+     *
+     * @param taskId
+     * @param toolName
+     * @return
+     */
+    public long getStatusChangeStamp(long taskId, String toolName)
+    {
+        String key = String.format("%s%d:%s", RedisKeyConstants.PREFIX_DEFECT_STATUS_STAMP, taskId, toolName);
+        String stamp = redisTemplate.opsForValue().get(key);
+        return stamp == null ? 0L : Long.parseLong(stamp);
+    }
 }
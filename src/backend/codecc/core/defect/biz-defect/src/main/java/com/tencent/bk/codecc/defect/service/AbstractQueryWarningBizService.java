@@ -722,4 +722,14 @@ public abstract class AbstractQueryWarningBizService implements IQueryWarningBiz
         IFilterPathComponent filterPathComponent = filterPathBizComponentFactory.createComponent(createFrom,ComConstants.BusinessType.FILTER_PATH.value(),IFilterPathComponent.class);
         return filterPathComponent.judgeFilter(filePathName);
     }
+
+    /**
+     * 是否需要过滤文件路径
+     * @param createFrom 创建来源
+     * @return Boolean
+     */
+    public Boolean hasFilterPath(String createFrom){
+        IFilterPathComponent filterPathComponent = filterPathBizComponentFactory.createComponent(createFrom,ComConstants.BusinessType.FILTER_PATH.value(),IFilterPathComponent.class);
+        return filterPathComponent.hasFilterPath();
+    }
 }
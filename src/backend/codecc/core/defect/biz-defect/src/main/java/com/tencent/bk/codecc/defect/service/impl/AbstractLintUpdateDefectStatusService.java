@@ -3,6 +3,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintDefectRepository;
+import com.tencent.bk.codecc.defect.dao.redis.StatisticDao;
 import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.vo.BatchDefectProcessReqVO;
@@ -23,6 +24,8 @@ public abstract class AbstractLintUpdateDefectStatusService extends AbstractLint
 {
     @Autowired
     private LintDefectRepository lintDefectRepository;
+    @Autowired
+    private StatisticDao statisticDao;
 
     protected abstract void updateDefectStatus(LintDefectEntity defectEntity, BatchDefectProcessReqVO batchDefectProcessReqVO);
 
@@ -57,6 +60,7 @@ public abstract class AbstractLintUpdateDefectStatusService extends AbstractLint
         if (CollectionUtils.isNotEmpty(updateFileEntities))
         {
             lintDefectRepository.save(updateFileEntities);
+            statisticDao.increaseStatusChangeStamp(batchDefectProcessReqVO.getTaskId(), batchDefectProcessReqVO.getToolName());
         }
     }
 }
@@ -2,6 +2,7 @@ package com.tencent.bk.codecc.defect.service.impl;
 
 import com.google.common.collect.Lists;
 import com.tencent.bk.codecc.defect.dao.mongorepository.LintDefectRepository;
+import com.tencent.bk.codecc.defect.dao.redis.StatisticDao;
 import com.tencent.bk.codecc.defect.model.LintDefectEntity;
 import com.tencent.bk.codecc.defect.model.LintFileEntity;
 import com.tencent.bk.codecc.defect.vo.BatchDefectProcessReqVO;
@@ -31,6 +32,8 @@ public class LintBatchAssignDefectBizServiceImpl extends AbstractLintBatchDefect
 {
     @Autowired
     private LintDefectRepository lintDefectRepository;
+    @Autowired
+    private StatisticDao statisticDao;
 
     @Override
     protected void doBiz(List defectList, BatchDefectProcessReqVO batchDefectProcessReqVO)
@@ -77,6 +80,7 @@ public class LintBatchAssignDefectBizServiceImpl extends AbstractLintBatchDefect
         if (CollectionUtils.isNotEmpty(updateFileEntities))
         {
             lintDefectRepository.save(updateFileEntities);
+            statisticDao.increaseStatusChangeStamp(batchDefectProcessReqVO.getTaskId(), batchDefectProcessReqVO.getToolName());
         }
     }
 
@@ -44,6 +44,7 @@ import com.tencent.bk.codecc.defect.service.PipelineService;
 import com.tencent.bk.codecc.defect.service.TreeService;
 import com.tencent.bk.codecc.defect.service.newdefectjudge.NewDefectJudgeService;
 import com.tencent.bk.codecc.defect.utils.ConvertUtil;
+import com.tencent.bk.codecc.defect.utils.TopKSelector;
 import com.tencent.bk.codecc.defect.vo.*;
 import com.tencent.bk.codecc.defect.vo.admin.DeptTaskDefectExtReqVO;
 import com.tencent.bk.codecc.defect.vo.admin.DeptTaskDefectReqVO;
@@ -94,6 +95,7 @@ import java.beans.PropertyDescriptor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -302,9 +304,13 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
                 return lintDefectQueryRspVO;
             }
 
-            //根据字段进行排序
+            //根据字段进行排序，比较器只构建一次
+            Comparator<LintDefectEntity> defectComparator = defectFieldComparator(StringUtils.isEmpty(sortField) ? "lineNum" : sortField);
+            if (null != sortType && sortType.isDescending()) {
+                defectComparator = defectComparator.reversed();
+            }
             lintDefectVOList = fileInfoEntityList.get(0).getDefectList().stream()
-                    .sorted((o1, o2) -> sortDefectByField(o1, o2, sortField, null == sortType ? "ASC" : sortType.name()))
+                    .sorted(defectComparator)
                     .map(lintDefectEntity ->
                     {
                         LintDefectVO lintDefectVO = new LintDefectVO();
@@ -357,22 +363,71 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         return lintDefectQueryRspVO;
     }
 
-    private int sortDefectByField(LintDefectEntity lintDefectEntity1, LintDefectEntity lintDefectEntity2, String sortField, String sortType) {
-        try {
-            PropertyDescriptor propertyDescriptor = BeanUtils.getPropertyDescriptor(LintDefectEntity.class, StringUtils.isEmpty(sortField) ? "lineNum" : sortField);
-            Method readMethod = propertyDescriptor.getReadMethod();
-            switch (sortType) {
-                case "ASC":
-                    return (int) readMethod.invoke(lintDefectEntity1) - (int) readMethod.invoke(lintDefectEntity2);
-                case "DESC":
-                    return (int) readMethod.invoke(lintDefectEntity2) - (int) readMethod.invoke(lintDefectEntity1);
-                default:
-                    return (int) readMethod.invoke(lintDefectEntity1) - (int) readMethod.invoke(lintDefectEntity2);
-            }
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            log.error("invoke read method error! sort field: {}", sortField);
+    /**
+     * 按告警字段排序的比较器，字段的读取方法只解析一次，不在每次比较时反射查找
+     *
+     * @param sortField
+     * @return
+     */
+    private Comparator<LintDefectEntity> defectFieldComparator(String sortField) {
+        Function<LintDefectEntity, Object> getter;
+        switch (sortField) {
+            case "lineNum":
+                getter = LintDefectEntity::getLineNum;
+                break;
+            case "severity":
+                getter = LintDefectEntity::getSeverity;
+                break;
+            case "checker":
+                getter = LintDefectEntity::getChecker;
+                break;
+            case "author":
+                getter = LintDefectEntity::getAuthor;
+                break;
+            case "createTime":
+                getter = LintDefectEntity::getCreateTime;
+                break;
+            case "lineUpdateTime":
+                getter = LintDefectEntity::getLineUpdateTime;
+                break;
+            default:
+                PropertyDescriptor propertyDescriptor = BeanUtils.getPropertyDescriptor(LintDefectEntity.class, sortField);
+                if (null == propertyDescriptor || null == propertyDescriptor.getReadMethod()) {
+                    log.error("invalid sort field: {}", sortField);
+                    return (o1, o2) -> 0;
+                }
+                Method readMethod = propertyDescriptor.getReadMethod();
+                getter = lintDefectEntity -> {
+                    try {
+                        return readMethod.invoke(lintDefectEntity);
+                    } catch (IllegalAccessException | InvocationTargetException e) {
+                        log.error("invoke read method error! sort field: {}", sortField);
+                        return null;
+                    }
+                };
+        }
+        return (o1, o2) -> compareFieldValue(getter.apply(o1), getter.apply(o2));
+    }
+
+    /**
+     * 与 ListSortUtil 一致：数值按大小比较，字符串忽略大小写比较，空值排在前面
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareFieldValue(Object value1, Object value2) {
+        if (value1 == value2) {
+            return 0;
+        } else if (null == value1) {
+            return -1;
+        } else if (null == value2) {
             return 1;
+        } else if (value1 instanceof Number && value2 instanceof Number) {
+            return Double.compare(((Number) value1).doubleValue(), ((Number) value2).doubleValue());
+        } else if (value1 instanceof String && value2 instanceof String) {
+            return ((String) value1).compareToIgnoreCase((String) value2);
+        } else if (value1 instanceof Comparable && value1.getClass() == value2.getClass()) {
+            return ((Comparable<Object>) value1).compareTo(value2);
         }
+        return String.valueOf(value1).compareToIgnoreCase(String.valueOf(value2));
     }
 
     @Override
@@ -836,6 +891,236 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
      */
     public LintDefectQueryRspVO findLintFileByParam(long taskId, DefectQueryReqVO queryWarningReq, Set<String> pkgChecker, Boolean needDefectList,
                                                     Integer pageNum, Integer pageSize, String sortField, Sort.Direction sortType) {
+        queryWarningReq.setPkgChecker(pkgChecker);
+
+        //获取任务信息
+        CodeCCResult<TaskDetailVO> taskInfoCodeCCResult = client.get(ServiceTaskRestResource.class).getTaskInfoById(taskId);
+        TaskDetailVO taskDetailVO = taskInfoCodeCCResult.getData();
+
+        // 需要按创建来源过滤文件路径时，只能把告警查出来在内存中过滤
+        if (taskDetailVO != null && hasFilterPath(taskDetailVO.getCreateFrom())) {
+            return findLintFileInMemory(taskId, queryWarningReq, pkgChecker, needDefectList, pageNum, pageSize,
+                    sortField, sortType);
+        }
+
+        LintDefectQueryRspVO lintFileQueryRsp = new LintDefectQueryRspVO();
+        String toolName = queryWarningReq.getToolName();
+
+        // 查询新老告警判定时间
+        long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskDetailVO);
+        lintFileQueryRsp.setNewDefectJudgeTime(newDefectJudgeTime);
+
+        // 按构建号筛选
+        Map<String, Set<String>> buildFileDefectMap =
+                getBuildFileDefectMap(taskId, toolName, queryWarningReq.getBuildId());
+
+        // 分类统计在数据库端分组计数，再按状态、严重程度、新老告警逐级累加
+        List<LintDefectGroupStatEntity> statList =
+                lintDefectDao.statDefectByParams(taskId, queryWarningReq, buildFileDefectMap, newDefectJudgeTime);
+        int matchCount = statDefectCount(statList, queryWarningReq, lintFileQueryRsp);
+
+        if (StringUtils.isEmpty(sortField)) {
+            sortField = "severity";
+        }
+        if (null == sortType) {
+            sortType = Sort.Direction.ASC;
+        }
+        // 严重程度要跟前端传入的排序类型相反
+        if ("severity".equals(sortField)) {
+            sortType = sortType.isAscending() ? Sort.Direction.DESC : Sort.Direction.ASC;
+        }
+        int pageIndex = pageNum == null || pageNum - 1 < 0 ? 0 : pageNum - 1;
+        int size = pageSize == null || pageSize <= 0 ? 10 : pageSize;
+        Pageable pageable = new PageRequest(pageIndex, size, new Sort(sortType, sortField));
+
+        // 按问题聚类
+        String clusterType = queryWarningReq.getClusterType();
+        if (StringUtils.isNotEmpty(clusterType) && ComConstants.ClusterType.defect.name().equalsIgnoreCase(clusterType)) {
+            lintFileQueryRsp.setTotalCount(matchCount);
+
+            int skip = pageIndex * size > matchCount ? 0 : pageIndex * size;
+            List<LintFileEntity> pageFiles = matchCount == 0 ? Collections.<LintFileEntity>emptyList()
+                    : lintDefectDao.findDefectPageByParams(taskId, queryWarningReq, buildFileDefectMap,
+                    newDefectJudgeTime, pageable.getSort(), skip, size);
+
+            StatisticEntity statisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
+            List<LintDefectVO> lintDefectVoList = pageFiles.stream().map(lintFileEntity ->
+            {
+                LintDefectEntity lintDefectEntity = lintFileEntity.getDefectList().get(0);
+                if (lintDefectEntity.getSeverity() == ComConstants.PROMPT_IN_DB) {
+                    lintDefectEntity.setSeverity(ComConstants.PROMPT);
+                }
+                String filePath = lintFileEntity.getFilePath();
+                LintDefectVO lintDefectVO = new LintDefectVO();
+                BeanUtils.copyProperties(lintDefectEntity, lintDefectVO);
+                lintDefectVO.setEntityId(lintFileEntity.getEntityId());
+                lintDefectVO.setFileName(filePath.substring(filePath.lastIndexOf("/") + 1));
+                lintDefectVO.setFilePath(filePath);
+                lintDefectVO.setMark(convertMarkStatus(lintDefectVO.getMark(), lintDefectVO.getMarkTime(), statisticEntity));
+                return lintDefectVO;
+            }).collect(Collectors.toList());
+
+            lintFileQueryRsp.setDefectList(new PageImpl<>(lintDefectVoList, pageable, matchCount));
+        }
+        // 按文件聚类
+        else {
+            Page<LintFileEntity> filePage = matchCount == 0
+                    ? new PageImpl<LintFileEntity>(Collections.emptyList(), pageable, 0)
+                    : lintDefectDao.findFilePageByParams(taskId, queryWarningReq, buildFileDefectMap,
+                    newDefectJudgeTime, pageable);
+            List<LintFileVO> lintFilesVOList = filePage.getContent().stream().map(lintFileEntity ->
+            {
+                statFileDefects(lintFileEntity);
+                return convertLintFileVO(lintFileEntity, needDefectList);
+            }).collect(Collectors.toList());
+
+            lintFileQueryRsp.setTotalCount((int) filePage.getTotalElements());
+            lintFileQueryRsp.setFileList(new PageImpl<>(lintFilesVOList, pageable, filePage.getTotalElements()));
+        }
+
+        return lintFileQueryRsp;
+    }
+
+    /**
+     * 根据数据库分组计数统计各类告警数量，统计口径与filterDefectByCondition一致
+     *
+     * @param statList
+     * @param queryWarningReq
+     * @param lintFileQueryRsp
+     * @return 匹配全部条件的告警数
+     */
+    private int statDefectCount(List<LintDefectGroupStatEntity> statList, DefectQueryReqVO queryWarningReq,
+                                LintDefectQueryRspVO lintFileQueryRsp) {
+        Set<String> conditionDefectType = queryWarningReq.getDefectType();
+        Set<String> conditionSeverity = queryWarningReq.getSeverity() == null ? Collections.emptySet()
+                : queryWarningReq.getSeverity();
+        Set<String> condStatusList = queryWarningReq.getStatus();
+        if (CollectionUtils.isEmpty(condStatusList)) {
+            condStatusList = new HashSet<>(1);
+            condStatusList.add(String.valueOf(ComConstants.DefectStatus.NEW.value()));
+        }
+
+        int existCount = 0;
+        int fixCount = 0;
+        int ignoreCount = 0;
+        int newDefectCount = 0;
+        int historyDefectCount = 0;
+        int seriousCount = 0;
+        int normalCount = 0;
+        int promptCount = 0;
+        int matchCount = 0;
+        for (LintDefectGroupStatEntity stat : statList) {
+            int count = stat.getCount();
+            int status = stat.getStatus();
+            if (ComConstants.DefectStatus.NEW.value() == status) {
+                existCount += count;
+            } else if ((ComConstants.DefectStatus.FIXED.value() & status) > 0) {
+                fixCount += count;
+            } else if ((ComConstants.DefectStatus.IGNORE.value() & status) > 0) {
+                ignoreCount += count;
+            }
+            if (isNotMatchStatus(condStatusList, status)) {
+                continue;
+            }
+
+            int severity = stat.getSeverity() == ComConstants.PROMPT_IN_DB ? ComConstants.PROMPT : stat.getSeverity();
+            if (ComConstants.SERIOUS == severity) {
+                seriousCount += count;
+            } else if (ComConstants.NORMAL == severity) {
+                normalCount += count;
+            } else if (ComConstants.PROMPT == severity) {
+                promptCount += count;
+            }
+            if (!conditionSeverity.contains(String.valueOf(severity))) {
+                continue;
+            }
+
+            if (stat.isNewDefect()) {
+                newDefectCount += count;
+            } else {
+                historyDefectCount += count;
+            }
+            String defectType = stat.isNewDefect() ? ComConstants.DefectType.NEW.stringValue() : ComConstants.DefectType.HISTORY.stringValue();
+            if (CollectionUtils.isNotEmpty(conditionDefectType) && !conditionDefectType.contains(defectType)) {
+                continue;
+            }
+            matchCount += count;
+        }
+
+        lintFileQueryRsp.setNewCount(newDefectCount);
+        lintFileQueryRsp.setHistoryCount(historyDefectCount);
+        lintFileQueryRsp.setSeriousCount(seriousCount);
+        lintFileQueryRsp.setNormalCount(normalCount);
+        lintFileQueryRsp.setPromptCount(promptCount);
+        lintFileQueryRsp.setExistCount(existCount);
+        lintFileQueryRsp.setFixCount(fixCount);
+        lintFileQueryRsp.setIgnoreCount(ignoreCount);
+        return matchCount;
+    }
+
+    /**
+     * 统计单个文件中经过过滤后的告警，提示级别转换为前端的数值4
+     *
+     * @param lintFileEntity
+     */
+    private void statFileDefects(LintFileEntity lintFileEntity) {
+        Set<Integer> severityList = new TreeSet<>();
+        Set<String> authorList = new TreeSet<>();
+        Set<String> checkerList = new TreeSet<>();
+        int severityWeight = 0;
+        for (LintDefectEntity lintDefectEntity : lintFileEntity.getDefectList()) {
+            int severity = lintDefectEntity.getSeverity();
+            if (severity == ComConstants.PROMPT_IN_DB) {
+                severity = ComConstants.PROMPT;
+                lintDefectEntity.setSeverity(severity);
+            }
+            if (ComConstants.SERIOUS == severity) {
+                severityList.add(ComConstants.SERIOUS);
+                severityWeight += 4;
+            } else if (ComConstants.NORMAL == severity) {
+                severityList.add(ComConstants.NORMAL);
+                severityWeight += 2;
+            } else if (ComConstants.PROMPT == severity) {
+                severityList.add(ComConstants.PROMPT);
+                severityWeight += 1;
+            }
+            if (StringUtils.isNotEmpty(lintDefectEntity.getAuthor())) {
+                authorList.add(lintDefectEntity.getAuthor());
+            }
+            if (StringUtils.isNotEmpty(lintDefectEntity.getChecker())) {
+                checkerList.add(lintDefectEntity.getChecker());
+            }
+        }
+        lintFileEntity.setSeverityList(severityList);
+        lintFileEntity.setAuthorList(authorList);
+        lintFileEntity.setCheckerList(checkerList);
+        lintFileEntity.setDefectCount(lintFileEntity.getDefectList().size());
+        lintFileEntity.setSeverity(severityWeight);
+    }
+
+    private LintFileVO convertLintFileVO(LintFileEntity lintFileEntity, Boolean needDefectList) {
+        LintFileVO lintFileVO = new LintFileVO();
+        BeanUtils.copyProperties(lintFileEntity, lintFileVO);
+        String filePath = lintFileEntity.getFilePath();
+        String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
+        lintFileVO.setFileName(fileName);
+        if (!needDefectList) {
+            List<LintDefectVO> singleFileDefectVOList = lintFileEntity.getDefectList().stream().map(lintDefectEntity ->
+            {
+                LintDefectVO lintDefectVO = new LintDefectVO();
+                BeanUtils.copyProperties(lintDefectEntity, lintDefectVO);
+                return lintDefectVO;
+            }).collect(Collectors.toList());
+            lintFileVO.setDefectList(singleFileDefectVOList);
+        }
+        return lintFileVO;
+    }
+
+    /**
+     * 查出告警后在内存中过滤、统计、排序、分页，用于需要按创建来源过滤文件路径的任务
+     */
+    private LintDefectQueryRspVO findLintFileInMemory(long taskId, DefectQueryReqVO queryWarningReq, Set<String> pkgChecker, Boolean needDefectList,
+                                                      Integer pageNum, Integer pageSize, String sortField, Sort.Direction sortType) {
         LintDefectQueryRspVO lintFileQueryRsp = new LintDefectQueryRspVO();
 
         String toolName = queryWarningReq.getToolName();
@@ -843,11 +1128,9 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         String checker = queryWarningReq.getChecker();
         String author = queryWarningReq.getAuthor();
 
-        //查询总的数量，并且过滤计数
+        //查询总的数量，并且过滤计数；规则、规则包、处理人条件在数据库端过滤告警
         List<LintFileEntity> originalFileInfoEntityList =
-                lintDefectDao.findFileListByParams(taskId, toolName, fileList, checker, author);
-
-        queryWarningReq.setPkgChecker(pkgChecker);
+                lintDefectDao.findFileListByParams(taskId, toolName, fileList, checker, author, pkgChecker);
 
         // 按过滤条件过滤告警
         filterDefectByCondition(taskId, originalFileInfoEntityList, queryWarningReq, lintFileQueryRsp);
@@ -855,55 +1138,66 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         // 按问题聚类
         String clusterType = queryWarningReq.getClusterType();
         if (StringUtils.isNotEmpty(clusterType) && ComConstants.ClusterType.defect.name().equalsIgnoreCase(clusterType)) {
-            StatisticEntity statisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
-            List<LintDefectVO> lintDefectVoList = Lists.newArrayList();
+            List<FileDefect> fileDefectList = Lists.newArrayList();
             originalFileInfoEntityList.forEach(lintFileEntity ->
             {
                 String filePath = lintFileEntity.getFilePath();
                 String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
-                List<LintDefectVO> singleFileDefectVOList = lintFileEntity.getDefectList().stream().map(lintDefectEntity ->
-                {
-                    LintDefectVO lintDefectVO = new LintDefectVO();
-                    BeanUtils.copyProperties(lintDefectEntity, lintDefectVO);
-                    lintDefectVO.setEntityId(lintFileEntity.getEntityId());
-                    lintDefectVO.setFileName(fileName);
-                    lintDefectVO.setFilePath(filePath);
-                    lintDefectVO.setMark(convertMarkStatus(lintDefectVO.getMark(), lintDefectVO.getMarkTime(), statisticEntity));
-                    return lintDefectVO;
-                }).collect(Collectors.toList());
-                lintDefectVoList.addAll(singleFileDefectVOList);
+                lintFileEntity.getDefectList().forEach(lintDefectEntity ->
+                        fileDefectList.add(new FileDefect(lintFileEntity, fileName, lintDefectEntity)));
             });
+            lintFileQueryRsp.setTotalCount(fileDefectList.size());
 
-            lintFileQueryRsp.setTotalCount(lintDefectVoList.size());
-            Page<LintDefectVO> defectVOPage;
+            // 只选出当前页的告警，选出后再转换为视图类
+            if (StringUtils.isEmpty(sortField)) {
+                sortField = "severity";
+            }
+            Comparator<FileDefect> comparator;
             if ("fileName".equals(sortField)) {
-                defectVOPage = sortByDefectLocationAndPage(pageNum, pageSize, sortField, sortType, lintDefectVoList);
+                comparator = Comparator.comparing((FileDefect fileDefect) -> fileDefect.fileName)
+                        .thenComparingInt(fileDefect -> fileDefect.defect.getLineNum());
             } else {
-                defectVOPage = sortAndPage(pageNum, pageSize, sortField, sortType, lintDefectVoList);
+                Comparator<LintDefectEntity> defectComparator = defectFieldComparator(sortField);
+                comparator = (o1, o2) -> defectComparator.compare(o1.defect, o2.defect);
+                // 严重程度要跟前端传入的排序类型相反
+                if (null == sortType) {
+                    sortType = Sort.Direction.ASC;
+                }
+                if ("severity".equals(sortField)) {
+                    sortType = sortType.isAscending() ? Sort.Direction.DESC : Sort.Direction.ASC;
+                }
             }
+            if (null != sortType && sortType.isDescending()) {
+                comparator = comparator.reversed();
+            }
+
+            int total = fileDefectList.size();
+            int pageIndex = pageNum == null || pageNum - 1 < 0 ? 0 : pageNum - 1;
+            int size = pageSize == null || pageSize <= 0 ? 10 : pageSize;
+            int skip = pageIndex * size > total ? 0 : pageIndex * size;
+            List<FileDefect> pageFileDefects = TopKSelector.select(fileDefectList, comparator, skip, size);
+
+            StatisticEntity statisticEntity = lintStatisticRepository.findFirstByTaskIdAndToolNameOrderByTimeDesc(taskId, toolName);
+            List<LintDefectVO> lintDefectVoList = pageFileDefects.stream().map(fileDefect ->
+            {
+                LintDefectVO lintDefectVO = new LintDefectVO();
+                BeanUtils.copyProperties(fileDefect.defect, lintDefectVO);
+                lintDefectVO.setEntityId(fileDefect.file.getEntityId());
+                lintDefectVO.setFileName(fileDefect.fileName);
+                lintDefectVO.setFilePath(fileDefect.file.getFilePath());
+                lintDefectVO.setMark(convertMarkStatus(lintDefectVO.getMark(), lintDefectVO.getMarkTime(), statisticEntity));
+                return lintDefectVO;
+            }).collect(Collectors.toList());
+            Pageable pageable = new PageRequest(pageIndex, size, new Sort(sortType, sortField));
+            Page<LintDefectVO> defectVOPage = new PageImpl<>(lintDefectVoList, pageable, total);
 
             lintFileQueryRsp.setDefectList(defectVOPage);
         }
         // 按文件聚类
         else {
-            List<LintFileVO> lintFilesVOList = originalFileInfoEntityList.stream().map(lintFileEntity ->
-            {
-                LintFileVO lintFileVO = new LintFileVO();
-                BeanUtils.copyProperties(lintFileEntity, lintFileVO);
-                String filePath = lintFileEntity.getFilePath();
-                String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
-                lintFileVO.setFileName(fileName);
-                if (!needDefectList) {
-                    List<LintDefectVO> singleFileDefectVOList = lintFileEntity.getDefectList().stream().map(lintDefectEntity ->
-                    {
-                        LintDefectVO lintDefectVO = new LintDefectVO();
-                        BeanUtils.copyProperties(lintDefectEntity, lintDefectVO);
-                        return lintDefectVO;
-                    }).collect(Collectors.toList());
-                    lintFileVO.setDefectList(singleFileDefectVOList);
-                }
-                return lintFileVO;
-            }).collect(Collectors.toList());
+            List<LintFileVO> lintFilesVOList = originalFileInfoEntityList.stream()
+                    .map(lintFileEntity -> convertLintFileVO(lintFileEntity, needDefectList))
+                    .collect(Collectors.toList());
 
             lintFileQueryRsp.setTotalCount(lintFilesVOList.size());
             Page<LintFileVO> fileVOPage = sortAndPage(pageNum, pageSize, sortField, sortType, lintFilesVOList);
@@ -948,26 +1242,8 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         long newDefectJudgeTime = newDefectJudgeService.getNewDefectJudgeTime(taskId, toolName, taskDetailVO);
 
         // 按构建号筛选
-        boolean needBuildIdFilter = false;
-        Map<String, Set<String>> buildFileDefectMap = Maps.newHashMap();
-        if (StringUtils.isNotEmpty(buildId)) {
-            if (defectCommitSuccess(taskId, toolName, buildId)) {
-                List<BuildDefectEntity> buildFiles = buildDefectRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
-                if (CollectionUtils.isNotEmpty(buildFiles)) {
-                    for (BuildDefectEntity buildDefectEntity : buildFiles) {
-                        if (buildFileDefectMap.get(buildDefectEntity.getFileRelPath()) == null) {
-                            buildFileDefectMap.put(buildDefectEntity.getFileRelPath(), Sets.newHashSet());
-                        }
-                        if (CollectionUtils.isNotEmpty(buildDefectEntity.getFileDefectIds())) {
-                            for (String defectId : buildDefectEntity.getFileDefectIds()) {
-                                buildFileDefectMap.get(buildDefectEntity.getFileRelPath()).add(defectId);
-                            }
-                        }
-                    }
-                }
-            }
-            needBuildIdFilter = true;
-        }
+        Map<String, Set<String>> buildFileDefectMap = getBuildFileDefectMap(taskId, toolName, buildId);
+        boolean needBuildIdFilter = buildFileDefectMap != null;
 
         //对查询到的原始数据进行过滤，并统计数量
         int existCount = 0;
@@ -996,7 +1272,8 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
                 int promptCount4SingleFile = 0;
                 List<LintDefectEntity> lintDefectEntityList = lintFileEntity.getDefectList();
                 if (CollectionUtils.isNotEmpty(lintDefectEntityList)) {
-                    Set<String> buildFileDefects = buildFileDefectMap.get(lintFileEntity.getRelPath());
+                    Set<String> buildFileDefects =
+                            needBuildIdFilter ? buildFileDefectMap.get(lintFileEntity.getRelPath()) : null;
                     Iterator<LintDefectEntity> lintDefectIt = lintDefectEntityList.iterator();
                     while (lintDefectIt.hasNext()) {
                         LintDefectEntity lintDefectEntity = lintDefectIt.next();
@@ -1146,51 +1423,6 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         return null;
     }
 
-    /**
-     * 排序并分页
-     *
-     * @param pageNum
-     * @param pageSize
-     * @param sortField
-     * @param sortType
-     * @param defectVOs
-     * @param <T>
-     * @return
-     */
-    protected <T> org.springframework.data.domain.Page<LintDefectVO> sortByDefectLocationAndPage(int pageNum, int pageSize, String sortField,
-                                                                                                 Sort.Direction sortType, List<LintDefectVO> defectVOs) {
-        defectVOs.sort((o1, o2) ->
-        {
-            String fileName1 = o1.getFileName();
-            String fileName2 = o2.getFileName();
-            int compareRes = fileName1.compareTo(fileName2);
-            if (compareRes == 0) {
-                int line1 = o1.getLineNum();
-                int line2 = o2.getLineNum();
-                compareRes = line1 - line2;
-            }
-
-            if (null != sortType && Sort.Direction.DESC.name().equalsIgnoreCase(sortType.name())) {
-                return -compareRes;
-            } else {
-                return compareRes;
-            }
-        });
-        int total = defectVOs.size();
-        pageNum = pageNum - 1 < 0 ? 0 : pageNum - 1;
-        pageSize = pageSize <= 0 ? 10 : pageSize;
-        int subListBeginIdx = pageNum * pageSize;
-        int subListEndIdx = subListBeginIdx + pageSize;
-        if (subListBeginIdx > total) {
-            subListBeginIdx = 0;
-        }
-        defectVOs = defectVOs.subList(subListBeginIdx, subListEndIdx > total ? total : subListEndIdx);
-
-        //封装分页类
-        Pageable pageable = new PageRequest(pageNum, pageSize, new Sort(sortType, sortField));
-        return new PageImpl<>(defectVOs, pageable, total);
-    }
-
     @Override
     public int getSubmitStepNum() {
         return ComConstants.Step4MutliTool.COMMIT.value();
@@ -1388,4 +1620,52 @@ public class LintQueryWarningBizServiceImpl extends AbstractQueryWarningBizServi
         return null;
     }
 
+
+    /**
+     * 获取构建中的文件及其告警，不按构建号筛选时返回null
+     *
+     * @param taskId
+     * @param toolName
+     * @param buildId
+     * @return
+     */
+    private Map<String, Set<String>> getBuildFileDefectMap(long taskId, String toolName, String buildId) {
+        if (StringUtils.isEmpty(buildId)) {
+            return null;
+        }
+        Map<String, Set<String>> buildFileDefectMap = Maps.newHashMap();
+        if (defectCommitSuccess(taskId, toolName, buildId)) {
+            List<BuildDefectEntity> buildFiles = buildDefectRepository.findByTaskIdAndToolNameAndBuildId(taskId, toolName, buildId);
+            if (CollectionUtils.isNotEmpty(buildFiles)) {
+                for (BuildDefectEntity buildDefectEntity : buildFiles) {
+                    if (buildFileDefectMap.get(buildDefectEntity.getFileRelPath()) == null) {
+                        buildFileDefectMap.put(buildDefectEntity.getFileRelPath(), Sets.newHashSet());
+                    }
+                    if (CollectionUtils.isNotEmpty(buildDefectEntity.getFileDefectIds())) {
+                        for (String defectId : buildDefectEntity.getFileDefectIds()) {
+                            buildFileDefectMap.get(buildDefectEntity.getFileRelPath()).add(defectId);
+                        }
+                    }
+                }
+            }
+        }
+        return buildFileDefectMap;
+    }
+
+    /**
+     * 按问题聚类时的告警及其所在文件
+     */
+    private static class FileDefect {
+        private final LintFileEntity file;
+
+        private final String fileName;
+
+        private final LintDefectEntity defect;
+
+        private FileDefect(LintFileEntity file, String fileName, LintDefectEntity defect) {
+            this.file = file;
+            this.fileName = fileName;
+            this.defect = defect;
+        }
+    }
 }
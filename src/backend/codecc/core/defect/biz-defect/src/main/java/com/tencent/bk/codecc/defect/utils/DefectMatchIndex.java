@@ -0,0 +1,235 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.model.CCNDefectEntity;
+import com.tencent.bk.codecc.defect.model.LintDefectEntity;
+
+import java.util.Objects;
+
+/**
+ * 告警去重匹配用的组合键索引，替代 String.format("%s_%s_%s", ...) 拼出来的字符串键
+ * 组合键由两个字符串和一个整数组成，哈希值直接由各部分的hashCode混合得到，不创建中间对象；
+ * 采用开放寻址存放告警本身，哈希冲突时再逐个比较各部分，保证匹配结果与原来的字符串键一致
+ *
+ * @version V1.0
+ */
+public class DefectMatchIndex<T>
+{
+    /**
+     * 组合键各部分的提取方式
+     */
+    public interface KeyExtractor<T>
+    {
+        String first(T defect);
+
+        String second(T defect);
+
+        int number(T defect);
+    }
+
+    /**
+     * lint告警：文件md5、规则名、行号
+     */
+    public static final KeyExtractor<LintDefectEntity> LINT_KEY = new KeyExtractor<LintDefectEntity>()
+    {
+        @Override
+        public String first(LintDefectEntity defect)
+        {
+            return defect.getFileMd5();
+        }
+
+        @Override
+        public String second(LintDefectEntity defect)
+        {
+            return defect.getChecker();
+        }
+
+        @Override
+        public int number(LintDefectEntity defect)
+        {
+            return defect.getLineNum();
+        }
+    };
+
+    /**
+     * 圈复杂度告警：文件md5、函数名、开始行号
+     */
+    public static final KeyExtractor<CCNDefectEntity> CCN_KEY = new KeyExtractor<CCNDefectEntity>()
+    {
+        @Override
+        public String first(CCNDefectEntity defect)
+        {
+            return defect.getMd5();
+        }
+
+        @Override
+        public String second(CCNDefectEntity defect)
+        {
+            return defect.getFunctionName();
+        }
+
+        @Override
+        public int number(CCNDefectEntity defect)
+        {
+            return defect.getStartLines() == null ? Integer.MIN_VALUE : defect.getStartLines();
+        }
+    };
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final KeyExtractor<T> extractor;
+
+    private long[] hashes;
+
+    private Object[] values;
+
+    private int size;
+
+    public DefectMatchIndex(KeyExtractor<T> extractor, int expectedSize)
+    {
+        this.extractor = extractor;
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2)
+        {
+            capacity <<= 1;
+        }
+        this.hashes = new long[capacity];
+        this.values = new Object[capacity];
+    }
+
+    /**
+     * 放入告警，组合键相同时后放入的覆盖先放入的
+     *
+     * @param defect
+     */
+    public void put(T defect)
+    {
+        if ((size + 1) * 2 > values.length)
+        {
+            resize();
+        }
+        long hash = hash(defect);
+        int mask = values.length - 1;
+        int slot = (int) hash & mask;
+        while (values[slot] != null)
+        {
+            if (hashes[slot] == hash && keyEquals(value(slot), defect))
+            {
+                values[slot] = defect;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        values[slot] = defect;
+        size++;
+    }
+
+    /**
+     * 查找与给定告警组合键相同的告警
+     *
+     * @param probe
+     * @return 找不到时返回null
+     */
+    public T get(T probe)
+    {
+        long hash = hash(probe);
+        int mask = values.length - 1;
+        int slot = (int) hash & mask;
+        while (values[slot] != null)
+        {
+            if (hashes[slot] == hash && keyEquals(value(slot), probe))
+            {
+                return value(slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean contains(T probe)
+    {
+        return get(probe) != null;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private void resize()
+    {
+        long[] oldHashes = hashes;
+        Object[] oldValues = values;
+        hashes = new long[oldValues.length << 1];
+        values = new Object[oldValues.length << 1];
+        int mask = values.length - 1;
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int slot = (int) oldHashes[i] & mask;
+                while (values[slot] != null)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private long hash(T defect)
+    {
+        String first = extractor.first(defect);
+        String second = extractor.second(defect);
+        long hash = ((long) (first == null ? 0 : first.hashCode()) << 32) ^ ((second == null ? 0 : second.hashCode()) & 0xFFFFFFFFL);
+        hash ^= extractor.number(defect) * 0x9E3779B97F4A7C15L;
+
+        // murmur3的64位混合函数，打散低位以便直接取模定位
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private boolean keyEquals(T a, T b)
+    {
+        return extractor.number(a) == extractor.number(b)
+                && Objects.equals(extractor.first(a), extractor.first(b))
+                && Objects.equals(extractor.second(a), extractor.second(b));
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(int slot)
+    {
+        return (T) values[slot];
+    }
+}
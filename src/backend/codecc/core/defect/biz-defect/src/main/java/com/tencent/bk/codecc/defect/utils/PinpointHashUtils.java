@@ -0,0 +1,281 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * pinpointHash（ssdeep格式的模糊哈希）解析与相似度计算，与ssdeep的fuzzy_compare保持一致
+ *
+ * @version V1.0
+ */
+public class PinpointHashUtils
+{
+    /**
+     * ssdeep单段哈希的最大长度
+     */
+    public static final int SPAMSUM_LENGTH = 64;
+
+    /**
+     * 滚动窗口大小，两段哈希至少要有一个这个长度的公共子串才会计算相似度
+     */
+    public static final int ROLLING_WINDOW = 7;
+
+    private static final int MIN_BLOCKSIZE = 3;
+
+    private static final int REPLACE_COST = 2;
+
+    /**
+     * 解析后的pinpointHash
+     */
+    public static class FuzzyHash
+    {
+        private final long blockSize;
+
+        private final String source;
+
+        private final char[] first;
+
+        private final char[] second;
+
+        FuzzyHash(long blockSize, String source, char[] first, char[] second)
+        {
+            this.blockSize = blockSize;
+            this.source = source;
+            this.first = first;
+            this.second = second;
+        }
+
+        public long getBlockSize()
+        {
+            return blockSize;
+        }
+
+        public String getSource()
+        {
+            return source;
+        }
+
+        public char[] getFirst()
+        {
+            return first;
+        }
+
+        public char[] getSecond()
+        {
+            return second;
+        }
+    }
+
+    /**
+     * 解析pinpointHash，格式为 blocksize:hash1:hash2[,filename]，格式不合法时返回null
+     *
+     * @param pinpointHash
+     * @return
+     */
+    public static FuzzyHash parse(String pinpointHash)
+    {
+        if (StringUtils.isBlank(pinpointHash))
+        {
+            return null;
+        }
+        int firstColon = pinpointHash.indexOf(':');
+        if (firstColon <= 0)
+        {
+            return null;
+        }
+        int secondColon = pinpointHash.indexOf(':', firstColon + 1);
+        if (secondColon < 0)
+        {
+            return null;
+        }
+        long blockSize;
+        try
+        {
+            blockSize = Long.parseLong(pinpointHash.substring(0, firstColon));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        if (blockSize <= 0)
+        {
+            return null;
+        }
+        int end = pinpointHash.indexOf(',', secondColon + 1);
+        if (end < 0)
+        {
+            end = pinpointHash.length();
+        }
+        char[] first = eliminateSequences(pinpointHash, firstColon + 1, secondColon);
+        char[] second = eliminateSequences(pinpointHash, secondColon + 1, end);
+        return new FuzzyHash(blockSize, pinpointHash, first, second);
+    }
+
+    /**
+     * 计算两个pinpointHash的相似度，取值0~100
+     *
+     * @param hash1
+     * @param hash2
+     * @return
+     */
+    public static int compare(FuzzyHash hash1, FuzzyHash hash2)
+    {
+        if (hash1 == null || hash2 == null)
+        {
+            return 0;
+        }
+        long blockSize1 = hash1.blockSize;
+        long blockSize2 = hash2.blockSize;
+        if (blockSize1 == blockSize2)
+        {
+            if (Arrays.equals(hash1.first, hash2.first) && Arrays.equals(hash1.second, hash2.second))
+            {
+                return 100;
+            }
+            return Math.max(scoreStrings(hash1.first, hash2.first, blockSize1),
+                    scoreStrings(hash1.second, hash2.second, blockSize1 * 2));
+        }
+        else if (blockSize1 * 2 == blockSize2)
+        {
+            return scoreStrings(hash2.first, hash1.second, blockSize2);
+        }
+        else if (blockSize2 * 2 == blockSize1)
+        {
+            return scoreStrings(hash1.first, hash2.second, blockSize1);
+        }
+        return 0;
+    }
+
+    /**
+     * 两段哈希是否存在长度为ROLLING_WINDOW的公共子串
+     *
+     * @param s1
+     * @param s2
+     * @return
+     */
+    public static boolean hasCommonSubstring(char[] s1, char[] s2)
+    {
+        if (s1.length < ROLLING_WINDOW || s2.length < ROLLING_WINDOW)
+        {
+            return false;
+        }
+        for (int i = 0; i <= s1.length - ROLLING_WINDOW; i++)
+        {
+            for (int j = 0; j <= s2.length - ROLLING_WINDOW; j++)
+            {
+                int k = 0;
+                while (k < ROLLING_WINDOW && s1[i + k] == s2[j + k])
+                {
+                    k++;
+                }
+                if (k == ROLLING_WINDOW)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int scoreStrings(char[] s1, char[] s2, long blockSize)
+    {
+        int len1 = s1.length;
+        int len2 = s2.length;
+        if (len1 > SPAMSUM_LENGTH || len2 > SPAMSUM_LENGTH)
+        {
+            return 0;
+        }
+        if (!hasCommonSubstring(s1, s2))
+        {
+            return 0;
+        }
+
+        long score = editDistance(s1, s2);
+        score = (score * SPAMSUM_LENGTH) / (len1 + len2);
+        score = (100 * score) / SPAMSUM_LENGTH;
+        if (score >= 100)
+        {
+            return 0;
+        }
+        score = 100 - score;
+
+        // 块大小较小时，短哈希的相似度不可信，需要封顶
+        if (blockSize >= (99 + ROLLING_WINDOW) / ROLLING_WINDOW * MIN_BLOCKSIZE)
+        {
+            return (int) score;
+        }
+        long cap = blockSize / MIN_BLOCKSIZE * Math.min(len1, len2);
+        return (int) Math.min(score, cap);
+    }
+
+    /**
+     * 加权编辑距离：插入、删除代价为1，替换代价为2
+     */
+    private static int editDistance(char[] s1, char[] s2)
+    {
+        int[] previous = new int[s2.length + 1];
+        int[] current = new int[s2.length + 1];
+        for (int j = 0; j <= s2.length; j++)
+        {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= s1.length; i++)
+        {
+            current[0] = i;
+            for (int j = 1; j <= s2.length; j++)
+            {
+                int cost = s1[i - 1] == s2[j - 1] ? 0 : REPLACE_COST;
+                current[j] = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[s2.length];
+    }
+
+    /**
+     * 连续超过3个相同的字符只保留3个，与ssdeep保持一致
+     */
+    private static char[] eliminateSequences(String str, int begin, int end)
+    {
+        char[] result = new char[Math.max(end - begin, 0)];
+        int length = 0;
+        for (int i = begin; i < end; i++)
+        {
+            char c = str.charAt(i);
+            if (i - begin < 3 || c != str.charAt(i - 1) || c != str.charAt(i - 2) || c != str.charAt(i - 3))
+            {
+                result[length++] = c;
+            }
+        }
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+}
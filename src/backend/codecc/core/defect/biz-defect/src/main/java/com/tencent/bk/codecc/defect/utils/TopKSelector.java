@@ -0,0 +1,117 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.tencent.bk.codecc.defect.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 排序分页时只保留当前页及之前的元素，不对全部数据排序
+ * 用大小为 skip + limit 的堆做有界的 top-K 选择，比较相等的元素保持原来的先后顺序，结果与稳定排序后取 subList 一致
+ *
+ * @version V1.0
+ */
+public class TopKSelector
+{
+    private TopKSelector()
+    {
+    }
+
+    /**
+     * 取排序后第 [skip, skip + limit) 个元素
+     *
+     * @param items      待排序的数据
+     * @param comparator 排序比较器
+     * @param skip       跳过的元素个数
+     * @param limit      返回的元素个数
+     * @param <T>
+     * @return
+     */
+    public static <T> List<T> select(Collection<T> items, Comparator<? super T> comparator, int skip, int limit)
+    {
+        int k = skip + limit;
+        if (limit <= 0 || skip >= items.size())
+        {
+            return new ArrayList<>();
+        }
+
+        // 需要的元素接近全部数据时直接排序
+        if (k >= items.size() / 2)
+        {
+            List<T> sorted = new ArrayList<>(items);
+            sorted.sort(comparator);
+            return new ArrayList<>(sorted.subList(skip, Math.min(k, sorted.size())));
+        }
+
+        // 堆顶是当前保留的元素中最靠后的一个
+        Comparator<Ranked<T>> rankComparator = (o1, o2) ->
+        {
+            int compareRes = comparator.compare(o1.item, o2.item);
+            return compareRes != 0 ? compareRes : Integer.compare(o1.index, o2.index);
+        };
+        PriorityQueue<Ranked<T>> heap = new PriorityQueue<>(k + 1, Collections.reverseOrder(rankComparator));
+        int index = 0;
+        for (T item : items)
+        {
+            Ranked<T> ranked = new Ranked<>(item, index++);
+            if (heap.size() < k)
+            {
+                heap.offer(ranked);
+            }
+            else if (rankComparator.compare(ranked, heap.peek()) < 0)
+            {
+                heap.poll();
+                heap.offer(ranked);
+            }
+        }
+
+        List<Ranked<T>> selected = new ArrayList<>(heap);
+        selected.sort(rankComparator);
+        List<T> page = new ArrayList<>(limit);
+        for (int i = skip; i < selected.size(); i++)
+        {
+            page.add(selected.get(i).item);
+        }
+        return page;
+    }
+
+    private static class Ranked<T>
+    {
+        private final T item;
+
+        private final int index;
+
+        private Ranked(T item, int index)
+        {
+            this.item = item;
+            this.index = index;
+        }
+    }
+}
@@ -15,8 +15,9 @@ import org.springframework.stereotype.Component
 
 @Component
 class CCNDefectTracingComponent @Autowired constructor(
-    scmJsonComponent: ScmJsonComponent
-) : AbstractDefectTracingClass<CCNDefectEntity>(scmJsonComponent) {
+    scmJsonComponent: ScmJsonComponent,
+    pinpointHashClusterComponent: PinpointHashClusterComponent
+) : AbstractDefectTracingClass<CCNDefectEntity>(scmJsonComponent, pinpointHashClusterComponent) {
 
     companion object {
         private val logger = LoggerFactory.getLogger(CCNDefectTracingComponent::class.java)
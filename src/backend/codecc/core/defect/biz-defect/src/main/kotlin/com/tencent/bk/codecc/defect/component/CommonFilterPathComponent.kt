@@ -9,4 +9,9 @@ class CommonFilterPathComponent : IFilterPathComponent {
     override fun judgeFilter(filePath: String?): Boolean {
            return false;
     }
+
+    //一般创建来源不过滤文件
+    override fun hasFilterPath(): Boolean {
+           return false;
+    }
 }
\ No newline at end of file
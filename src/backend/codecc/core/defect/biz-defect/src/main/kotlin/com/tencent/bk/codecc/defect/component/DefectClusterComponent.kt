@@ -1,14 +1,21 @@
 package com.tencent.bk.codecc.defect.component
 
+import com.fasterxml.jackson.core.type.TypeReference
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel
 import com.tencent.bk.codecc.defect.pojo.AggregateDispatchFileName
-import com.tencent.devops.common.script.CommandLineUtils
-import org.apache.commons.exec.DefaultExecuteResultHandler
+import com.tencent.devops.common.api.util.JsonUtil
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Component
 import java.io.File
 
+/**
+ * 聚类消息处理，兼容仍通过MQ投递文件的聚类请求，聚类本身在进程内完成，不再调用pp-cluster
+ */
 @Component
-class DefectClusterComponent {
+class DefectClusterComponent @Autowired constructor(
+    private val pinpointHashClusterComponent: PinpointHashClusterComponent
+) {
 
     companion object {
         private val logger = LoggerFactory.getLogger(DefectClusterComponent::class.java)
@@ -18,39 +25,24 @@ class DefectClusterComponent {
 
         return try {
             logger.info("start to execute cluster! input file: ${aggregateDispatchFileName.inputFileName}, output file ${aggregateDispatchFileName.outputFileName}")
-            val result = asyncExecuteUnixCommand(
-                "./pp-cluster --input ${aggregateDispatchFileName.inputFileName} --output ${aggregateDispatchFileName.outputFileName} --pretty",
-                File("/opt"), null
-            )
-            logger.info("execute cluster finish! result : $result")
+            val inputFile = File(aggregateDispatchFileName.inputFileName)
+            if (!inputFile.exists()) {
+                logger.info("input file not exists: ${aggregateDispatchFileName.inputFileName}")
+                return false
+            }
+            val inputList = inputFile.inputStream().use {
+                JsonUtil.getObjectMapper().readValue<List<AggregateDefectInputModel>>(it, object : TypeReference<List<AggregateDefectInputModel>>() {})
+            }
+            val outputList = pinpointHashClusterComponent.cluster(inputList)
             val outputFile = File(aggregateDispatchFileName.outputFileName)
-            //排除读延时因素
-            var i = 0
-            while (!outputFile.exists() && i < 3){
-                logger.info("waiting for generating output file")
-                Thread.sleep(2000L)
-                i++
+            outputFile.outputStream().use {
+                JsonUtil.getObjectMapper().writeValue(it, outputList)
             }
-            return outputFile.exists()
+            logger.info("execute cluster finish! output size : ${outputList.size}")
+            true
         } catch (t: Throwable) {
             logger.error("execute cluster fail! error : ${t.message}", t)
             false
         }
     }
-
-    /**
-     * 异步执行可执行文件
-     */
-    private fun asyncExecuteUnixCommand(
-        command: String,
-        sourceDir: File?,
-        execResultHandler: DefaultExecuteResultHandler?
-    ): String {
-        try {
-            return CommandLineUtils.execute(command, sourceDir, true, "", execResultHandler)
-        } catch (t: Throwable) {
-            logger.info("Fail to run the command because of error(${t.message})")
-            throw t
-        }
-    }
-}
\ No newline at end of file
+}
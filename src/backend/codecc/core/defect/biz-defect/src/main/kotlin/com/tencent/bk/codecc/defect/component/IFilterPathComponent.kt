@@ -5,4 +5,7 @@ interface IFilterPathComponent {
     //过滤文件处理，区分创建来源工蜂特殊处理,是否过滤文件
     fun judgeFilter(filePath: String?): Boolean;
 
+    //是否会过滤文件，不过滤时告警查询可以全部在数据库端完成
+    fun hasFilterPath(): Boolean;
+
 }
\ No newline at end of file
@@ -19,9 +19,10 @@ import org.springframework.util.CollectionUtils
  */
 @Component
 class LintDefectTracingComponent @Autowired constructor(
-    scmJsonComponent: ScmJsonComponent
+    scmJsonComponent: ScmJsonComponent,
+    pinpointHashClusterComponent: PinpointHashClusterComponent
 ) :
-    AbstractDefectTracingClass<LintFileEntity>(scmJsonComponent) {
+    AbstractDefectTracingClass<LintFileEntity>(scmJsonComponent, pinpointHashClusterComponent) {
 
     companion object {
         private val logger = LoggerFactory.getLogger(LintDefectTracingComponent::class.java)
@@ -0,0 +1,200 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectInputModel;
+import com.tencent.bk.codecc.defect.pojo.AggregateDefectOutputModel;
+import com.tencent.bk.codecc.defect.utils.PinpointHashUtils;
+import com.tencent.devops.common.api.util.JsonUtil;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class PinpointHashClusterComponentTest
+{
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final String HASH = "96:ddz3Y7eLkZs7tHpQWXnIZ8mbr3FoG5Ab3tyHDS:ddz3Y7eLkZsYWXnIZ8mbrVoG5Ab3tyHDS";
+
+    private static final String SIMILAR_HASH = "96:ddz3Y7eLkZs7tHpQWXnIZ8mXr3FoG5Ab3tyHDS:ddz3Y7eLkZsYWXnIZ8mXrVoG5Ab3tyHDS";
+
+    private static final String DIFFERENT_HASH = "96:kkkkkAAAAAAABBBBBcccccddddd1234567:999";
+
+    private final PinpointHashClusterComponent clusterComponent = new PinpointHashClusterComponent(60, 0);
+
+    @After
+    public void tearDown()
+    {
+        clusterComponent.destroy();
+    }
+
+    @Test
+    public void compare()
+    {
+        Assert.assertEquals(100, PinpointHashUtils.compare(PinpointHashUtils.parse(HASH), PinpointHashUtils.parse(HASH)));
+        Assert.assertTrue(PinpointHashUtils.compare(PinpointHashUtils.parse(HASH), PinpointHashUtils.parse(SIMILAR_HASH)) > 90);
+        Assert.assertEquals(0, PinpointHashUtils.compare(PinpointHashUtils.parse(HASH), PinpointHashUtils.parse(DIFFERENT_HASH)));
+        // 块大小相差两倍时，用大块的第一段和小块的第二段比较
+        Assert.assertEquals(100, PinpointHashUtils.compare(
+                PinpointHashUtils.parse("48:abcdefghijk:ddz3Y7eLkZs7tHpQWXnIZ8mbr3FoG5Ab3tyHDS"), PinpointHashUtils.parse(HASH)));
+        Assert.assertNull(PinpointHashUtils.parse("invalid"));
+    }
+
+    @Test
+    public void cluster()
+    {
+        List<AggregateDefectInputModel> inputList = new ArrayList<>();
+        inputList.add(new AggregateDefectInputModel("1", "checker", HASH, "a.cpp", null));
+        inputList.add(new AggregateDefectInputModel("2", "checker", SIMILAR_HASH, "b.cpp", null));
+        inputList.add(new AggregateDefectInputModel("3", "checker", DIFFERENT_HASH, "a.cpp", null));
+        inputList.add(new AggregateDefectInputModel("4", "otherChecker", HASH, "a.cpp", null));
+        inputList.add(new AggregateDefectInputModel("5", "checker", HASH, "c.cpp", null));
+
+        Set<Set<String>> groups = toGroups(clusterComponent.cluster(inputList));
+
+        Set<Set<String>> expected = new HashSet<>();
+        expected.add(set("1", "2", "5"));
+        expected.add(set("3"));
+        expected.add(set("4"));
+        Assert.assertEquals(expected, groups);
+    }
+
+    /**
+     * 与pp-cluster输出结果做一致性对比，需要通过 -Dcodecc.ppCluster=/opt/pp-cluster 指定可执行文件
+     */
+    @Test
+    public void parityWithPpCluster() throws Exception
+    {
+        String ppCluster = System.getProperty("codecc.ppCluster");
+        Assume.assumeTrue(StringUtils.isNotBlank(ppCluster) && new File(ppCluster).canExecute());
+
+        List<AggregateDefectInputModel> inputList = mockDefects(50000, 20);
+        File inputFile = File.createTempFile("aggregate_input", ".json");
+        File outputFile = File.createTempFile("aggregate_output", ".json");
+        inputFile.deleteOnExit();
+        outputFile.deleteOnExit();
+        JsonUtil.INSTANCE.getObjectMapper().writeValue(inputFile, inputList);
+
+        Process process = new ProcessBuilder(ppCluster, "--input", inputFile.getAbsolutePath(), "--output", outputFile.getAbsolutePath())
+                .inheritIO().start();
+        Assert.assertTrue(process.waitFor(10, TimeUnit.MINUTES));
+        List<AggregateDefectOutputModel> binaryOutput = JsonUtil.INSTANCE.getObjectMapper().readValue(outputFile,
+                new TypeReference<List<AggregateDefectOutputModel>>()
+                {
+                });
+
+        List<AggregateDefectOutputModel> engineOutput = clusterComponent.cluster(inputList);
+        Assert.assertEquals(toGroups(binaryOutput), toGroups(engineOutput));
+    }
+
+    @Test
+    public void clusterKeepAllDefects()
+    {
+        List<AggregateDefectInputModel> inputList = mockDefects(2000, 20);
+        List<AggregateDefectOutputModel> outputList = clusterComponent.cluster(inputList);
+        Assert.assertEquals(inputList.size(), outputList.stream().mapToInt(output -> output.getDefects().size()).sum());
+        // 每组告警都属于同一个规则
+        outputList.forEach(output -> Assert.assertEquals(1,
+                output.getDefects().stream().map(AggregateDefectInputModel::getCheckerName).distinct().count()));
+    }
+
+    /**
+     * 生成测试告警，每个原始哈希附带若干个小幅修改过的变体，模拟代码移动后的告警
+     */
+    private List<AggregateDefectInputModel> mockDefects(int count, int checkerCount)
+    {
+        Random random = new Random(20200908L);
+        List<AggregateDefectInputModel> inputList = new ArrayList<>(count);
+        String base = null;
+        for (int i = 0; i < count; i++)
+        {
+            String hash;
+            if (base == null || random.nextInt(4) == 0)
+            {
+                base = randomHash(random);
+                hash = base;
+            }
+            else
+            {
+                char[] chars = base.toCharArray();
+                int pos = 4 + random.nextInt(chars.length - 4);
+                if (chars[pos] != ':')
+                {
+                    chars[pos] = BASE64.charAt(random.nextInt(BASE64.length()));
+                }
+                hash = new String(chars);
+            }
+            inputList.add(new AggregateDefectInputModel(String.valueOf(i), "checker_" + (i % checkerCount), hash,
+                    "/data/file_" + (i % 1000) + ".cpp", null));
+        }
+        return inputList;
+    }
+
+    private String randomHash(Random random)
+    {
+        StringBuilder builder = new StringBuilder("192:");
+        for (int i = 0; i < 48; i++)
+        {
+            builder.append(BASE64.charAt(random.nextInt(BASE64.length())));
+        }
+        builder.append(':');
+        for (int i = 0; i < 24; i++)
+        {
+            builder.append(BASE64.charAt(random.nextInt(BASE64.length())));
+        }
+        return builder.toString();
+    }
+
+    private Set<Set<String>> toGroups(List<AggregateDefectOutputModel> outputList)
+    {
+        return outputList.stream()
+                .map(output -> output.getDefects().stream().map(AggregateDefectInputModel::getId).collect(Collectors.toSet()))
+                .collect(Collectors.toSet());
+    }
+
+    private Set<String> set(String... ids)
+    {
+        Set<String> result = new HashSet<>();
+        for (String id : ids)
+        {
+            result.add(id);
+        }
+        return result;
+    }
+}
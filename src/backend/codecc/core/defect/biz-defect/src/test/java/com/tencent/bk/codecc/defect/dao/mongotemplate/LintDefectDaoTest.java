@@ -0,0 +1,162 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.dao.mongotemplate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.tencent.bk.codecc.defect.model.LintDefectGroupStatEntity;
+import com.tencent.bk.codecc.defect.model.LintFileEntity;
+import com.tencent.bk.codecc.defect.vo.common.DefectQueryReqVO;
+import com.tencent.devops.common.constant.ComConstants;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LintDefectDaoTest
+{
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private LintDefectDao lintDefectDao;
+
+    @Before
+    public void setUp()
+    {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(mongoTemplate.aggregate(Mockito.any(Aggregation.class), Mockito.eq("t_lint_defect"),
+                Mockito.eq(LintFileEntity.class)))
+                .thenReturn(new AggregationResults<>(Collections.emptyList(), new BasicDBObject()));
+    }
+
+    @Test
+    public void checkerInPkgChecker()
+    {
+        Set<String> pkgChecker = new HashSet<>(Arrays.asList("checker_a", "checker_b"));
+        lintDefectDao.findFileListByParams(1L, "ESLINT", null, "checker_a", null, pkgChecker);
+
+        List pipeline = capturePipeline(LintFileEntity.class);
+        DBObject match = (DBObject) ((DBObject) pipeline.get(0)).get("$match");
+        // 文件按规则筛选，告警按规则包过滤
+        Assert.assertEquals("checker_a", match.get("checker_list"));
+        Assert.assertTrue(pipeline.get(2).toString().contains("$in"));
+    }
+
+    @Test
+    public void checkerNotInPkgChecker()
+    {
+        Set<String> pkgChecker = new HashSet<>(Arrays.asList("checker_a", "checker_b"));
+        lintDefectDao.findFileListByParams(1L, "ESLINT", null, "checker_c", null, pkgChecker);
+
+        // 规则不在规则包中时仍然查询，包含该规则的文件中按规则包过滤告警
+        List pipeline = capturePipeline(LintFileEntity.class);
+        DBObject match = (DBObject) ((DBObject) pipeline.get(0)).get("$match");
+        Assert.assertEquals("checker_c", match.get("checker_list"));
+        Assert.assertTrue(pipeline.get(2).toString().contains("checker_a"));
+        Assert.assertFalse(pipeline.get(2).toString().contains("checker_c"));
+    }
+
+    @Test
+    public void statDefectGroupByStatus()
+    {
+        Mockito.when(mongoTemplate.aggregate(Mockito.any(Aggregation.class), Mockito.eq("t_lint_defect"),
+                Mockito.eq(LintDefectGroupStatEntity.class)))
+                .thenReturn(new AggregationResults<>(Collections.emptyList(), new BasicDBObject()));
+        DefectQueryReqVO queryWarningReq = new DefectQueryReqVO();
+        queryWarningReq.setToolName("ESLINT");
+        queryWarningReq.setStatus(Collections.singleton("2"));
+        lintDefectDao.statDefectByParams(1L, queryWarningReq, null, 100L);
+
+        // 统计时不按状态过滤，只按规则、处理人等条件过滤
+        List pipeline = capturePipeline(LintDefectGroupStatEntity.class);
+        Assert.assertEquals(5, pipeline.size());
+        Assert.assertEquals("$defect_list", ((DBObject) pipeline.get(2)).get("$unwind"));
+        DBObject group = (DBObject) ((DBObject) pipeline.get(3)).get("$group");
+        Assert.assertTrue(((DBObject) group.get("_id")).containsField("is_new"));
+    }
+
+    @Test
+    public void defectPageInDb()
+    {
+        DefectQueryReqVO queryWarningReq = new DefectQueryReqVO();
+        queryWarningReq.setToolName("ESLINT");
+        queryWarningReq.setSeverity(Collections.singleton(String.valueOf(ComConstants.PROMPT)));
+        queryWarningReq.setBuildId("build_1");
+        Map<String, Set<String>> buildFileDefectMap =
+                Collections.singletonMap("a.js", Collections.singleton("defect_1"));
+        lintDefectDao.findDefectPageByParams(1L, queryWarningReq, buildFileDefectMap, 100L,
+                new Sort(Sort.Direction.DESC, "lineUpdateTime"), 20, 10);
+
+        List pipeline = capturePipeline(LintFileEntity.class);
+        DBObject defectMatch = (DBObject) ((DBObject) pipeline.get(3)).get("$match");
+        Assert.assertTrue(defectMatch.toString().contains("defect_list.defect_id"));
+        // 提示级别同时匹配数据库中的3
+        Collection severityIn = null;
+        for (Object criteria : (List) defectMatch.get("$and"))
+        {
+            DBObject severity = (DBObject) ((DBObject) criteria).get("defect_list.severity");
+            if (severity != null)
+            {
+                severityIn = (Collection) severity.get("$in");
+            }
+        }
+        Assert.assertNotNull(severityIn);
+        Assert.assertTrue(severityIn.contains(ComConstants.PROMPT_IN_DB));
+        Assert.assertTrue(severityIn.contains(ComConstants.PROMPT));
+
+        DBObject sort = (DBObject) ((DBObject) pipeline.get(4)).get("$sort");
+        Assert.assertEquals(-1, sort.get("defect_list.linenum_datetime"));
+        Assert.assertEquals(20, ((DBObject) pipeline.get(5)).get("$skip"));
+        Assert.assertEquals(10, ((DBObject) pipeline.get(6)).get("$limit"));
+    }
+
+    private List capturePipeline(Class<?> outputType)
+    {
+        ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+        Mockito.verify(mongoTemplate).aggregate(captor.capture(), Mockito.eq("t_lint_defect"),
+                Mockito.eq(outputType));
+        DBObject aggregation = captor.getValue().toDbObject("t_lint_defect", Aggregation.DEFAULT_CONTEXT);
+        return (List) aggregation.get("pipeline");
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.tencent.bk.codecc.defect.utils;
+
+import com.tencent.bk.codecc.defect.model.CCNDefectEntity;
+import com.tencent.bk.codecc.defect.model.LintDefectEntity;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class DefectMatchIndexTest
+{
+    private static final Logger log = LoggerFactory.getLogger(DefectMatchIndexTest.class);
+
+    @Test
+    public void lintMatch()
+    {
+        DefectMatchIndex<LintDefectEntity> index = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, 0);
+        LintDefectEntity first = lintDefect("md5", 10, "checker");
+        LintDefectEntity second = lintDefect("md5", 10, "checker");
+        index.put(first);
+        index.put(second);
+        index.put(lintDefect(null, 10, "checker"));
+
+        Assert.assertEquals(2, index.size());
+        // 组合键相同时后放入的覆盖先放入的，与 Collectors.toMap(..., (k, v) -> v) 一致
+        Assert.assertSame(second, index.get(lintDefect("md5", 10, "checker")));
+        Assert.assertTrue(index.contains(lintDefect(null, 10, "checker")));
+        Assert.assertFalse(index.contains(lintDefect("md5", 11, "checker")));
+        Assert.assertFalse(index.contains(lintDefect("md5", 10, "other")));
+    }
+
+    @Test
+    public void hashCollision()
+    {
+        // "Aa"和"BB"的hashCode相同，组合哈希相同时要靠逐项比较区分
+        DefectMatchIndex<LintDefectEntity> index = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, 0);
+        index.put(lintDefect("Aa", 1, "BB"));
+        Assert.assertTrue(index.contains(lintDefect("Aa", 1, "BB")));
+        Assert.assertFalse(index.contains(lintDefect("BB", 1, "Aa")));
+        Assert.assertFalse(index.contains(lintDefect("BB", 1, "BB")));
+    }
+
+    @Test
+    public void ccnMatch()
+    {
+        DefectMatchIndex<CCNDefectEntity> index = new DefectMatchIndex<>(DefectMatchIndex.CCN_KEY, 0);
+        for (int i = 0; i < 1000; i++)
+        {
+            index.put(ccnDefect("md5_" + i, "func_" + i, i));
+        }
+        index.put(ccnDefect("md5", "func", null));
+
+        Assert.assertEquals(1001, index.size());
+        Assert.assertTrue(index.contains(ccnDefect("md5_999", "func_999", 999)));
+        Assert.assertTrue(index.contains(ccnDefect("md5", "func", null)));
+        Assert.assertFalse(index.contains(ccnDefect("md5", "func", 0)));
+    }
+
+    /**
+     * 与原来的 String.format 字符串键逐个比对匹配结果
+     */
+    @Test
+    public void matchSameAsStringKey()
+    {
+        List<LintDefectEntity> originalList = mockLintDefects(20000, 1L);
+        List<LintDefectEntity> currentList = mockLintDefects(20000, 2L);
+
+        Set<String> keySet = new HashSet<>();
+        for (LintDefectEntity defect : originalList)
+        {
+            keySet.add(String.format("%s_%s_%s", defect.getFileMd5(), defect.getLineNum(), defect.getChecker()));
+        }
+        DefectMatchIndex<LintDefectEntity> index = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, originalList.size());
+        originalList.forEach(index::put);
+
+        Assert.assertEquals(keySet.size(), index.size());
+        for (LintDefectEntity defect : currentList)
+        {
+            boolean expected = keySet.contains(String.format("%s_%s_%s", defect.getFileMd5(), defect.getLineNum(), defect.getChecker()));
+            Assert.assertEquals(expected, index.contains(defect));
+        }
+    }
+
+    /**
+     * 与原来的 String.format 字符串键对比耗时和内存分配，50万告警分别建索引并做一轮查找。
+     * 耗时只输出到日志，默认不执行，用 -Dbenchmark=true 开启
+     */
+    @Test
+    public void benchmark()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        List<LintDefectEntity> originalList = mockLintDefects(500000, 1L);
+        List<LintDefectEntity> currentList = mockLintDefects(500000, 2L);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        int stringMatched = 0;
+        int indexMatched = 0;
+        long stringCost = 0;
+        long indexCost = 0;
+        long stringAllocated = 0;
+        long indexAllocated = 0;
+        for (int round = 0; round < 5; round++)
+        {
+            long beginBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            long beginTime = System.nanoTime();
+            Set<String> keySet = new HashSet<>();
+            for (LintDefectEntity defect : originalList)
+            {
+                keySet.add(String.format("%s_%s_%s", defect.getFileMd5(), defect.getLineNum(), defect.getChecker()));
+            }
+            stringMatched = 0;
+            for (LintDefectEntity defect : currentList)
+            {
+                if (keySet.contains(String.format("%s_%s_%s", defect.getFileMd5(), defect.getLineNum(), defect.getChecker())))
+                {
+                    stringMatched++;
+                }
+            }
+            stringCost = System.nanoTime() - beginTime;
+            stringAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - beginBytes;
+
+            beginBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+            beginTime = System.nanoTime();
+            DefectMatchIndex<LintDefectEntity> index = new DefectMatchIndex<>(DefectMatchIndex.LINT_KEY, originalList.size());
+            originalList.forEach(index::put);
+            indexMatched = 0;
+            for (LintDefectEntity defect : currentList)
+            {
+                if (index.contains(defect))
+                {
+                    indexMatched++;
+                }
+            }
+            indexCost = System.nanoTime() - beginTime;
+            indexAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - beginBytes;
+        }
+
+        log.info("defects: {}, matched: {}, String.format keys: {} ms / {} MB, DefectMatchIndex: {} ms / {} MB",
+                originalList.size(), indexMatched, stringCost / 1000000, stringAllocated >> 20,
+                indexCost / 1000000, indexAllocated >> 20);
+        Assert.assertEquals(stringMatched, indexMatched);
+        Assert.assertTrue(indexAllocated < stringAllocated);
+    }
+
+    /**
+     * 同一种子生成的告警集合大致有一半与另一种子相同，模拟文件部分变化后的上报
+     */
+    private List<LintDefectEntity> mockLintDefects(int count, long seed)
+    {
+        Random random = new Random(seed);
+        List<LintDefectEntity> defectList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            boolean same = random.nextBoolean();
+            int line = same ? i : random.nextInt(count);
+            defectList.add(lintDefect("d41d8cd98f00b204e9800998ecf8" + (i % 5000), line, "checker_" + (i % 50)));
+        }
+        return defectList;
+    }
+
+    private LintDefectEntity lintDefect(String fileMd5, int lineNum, String checker)
+    {
+        LintDefectEntity defect = new LintDefectEntity();
+        defect.setFileMd5(fileMd5);
+        defect.setLineNum(lineNum);
+        defect.setChecker(checker);
+        return defect;
+    }
+
+    private CCNDefectEntity ccnDefect(String md5, String functionName, Integer startLines)
+    {
+        CCNDefectEntity defect = new CCNDefectEntity();
+        defect.setMd5(md5);
+        defect.setFunctionName(functionName);
+        defect.setStartLines(startLines);
+        return defect;
+    }
+}
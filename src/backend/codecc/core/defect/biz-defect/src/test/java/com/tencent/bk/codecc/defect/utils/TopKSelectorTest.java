@@ -0,0 +1,76 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.tencent.bk.codecc.defect.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class TopKSelectorTest
+{
+    @Test
+    public void sameAsStableSortAndSubList()
+    {
+        Random random = new Random(7);
+        List<int[]> items = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+        {
+            // 第二个值记录原始顺序，用来检查相等元素的先后顺序
+            items.add(new int[]{random.nextInt(50), i});
+        }
+        Comparator<int[]> comparator = Comparator.comparingInt(item -> item[0]);
+        List<int[]> sorted = new ArrayList<>(items);
+        sorted.sort(comparator);
+
+        int[][] pages = {{0, 10}, {90, 10}, {4990, 10}, {4995, 10}, {0, 5000}, {1000, 2000}};
+        for (int[] page : pages)
+        {
+            List<int[]> expected = sorted.subList(page[0], Math.min(page[0] + page[1], sorted.size()));
+            List<int[]> actual = TopKSelector.select(items, comparator, page[0], page[1]);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+            {
+                Assert.assertSame(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void outOfRange()
+    {
+        List<Integer> items = new ArrayList<>();
+        items.add(3);
+        items.add(1);
+        items.add(2);
+        Assert.assertTrue(TopKSelector.select(items, Comparator.naturalOrder(), 3, 10).isEmpty());
+        Assert.assertTrue(TopKSelector.select(items, Comparator.naturalOrder(), 0, 0).isEmpty());
+        Assert.assertEquals(2, (int) TopKSelector.select(items, Comparator.<Integer>naturalOrder().reversed(), 1, 1).get(0));
+    }
+}
@@ -84,4 +84,22 @@ public class LintStatisticEntity extends StatisticEntity
 
     @Field("author_statistic")
     private List<NotRepairedAuthorEntity> authorStatistic;
+
+    /**
+     * 统计时使用的新老告警判定时间，增量统计时判定时间一致才能在上次统计基础上累加
+     */
+    @Field("new_defect_judge_time")
+    private Long newDefectJudgeTime;
+
+    /**
+     * 统计时读取的告警状态变更戳，与当前变更戳一致才说明期间没有扫描以外的告警状态修改
+     */
+    @Field("status_change_stamp")
+    private Long statusChangeStamp;
+
+    /**
+     * 最近一次全量重新统计的时间，增量统计沿用上次的值
+     */
+    @Field("baseline_time")
+    private Long baselineTime;
 }
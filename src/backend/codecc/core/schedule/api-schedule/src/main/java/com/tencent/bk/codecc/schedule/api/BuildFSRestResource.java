@@ -35,9 +35,11 @@ import org.glassfish.jersey.media.multipart.FormDataParam;
 
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * 文件上传下载接口
@@ -65,6 +67,18 @@ public interface BuildFSRestResource
             @ApiParam(value = "当前分片")
             @FormDataParam("chunk")
                     Integer chunk,
+            @ApiParam(value = "文件总大小，和offset一起传时分片直接写入文件的对应位置")
+            @FormDataParam("fileSize")
+                    Long fileSize,
+            @ApiParam(value = "当前分片在文件中的起始位置")
+            @FormDataParam("offset")
+                    Long offset,
+            @ApiParam(value = "当前分片的字节数，和offset一起传时必传")
+            @FormDataParam("chunkLength")
+                    Long chunkLength,
+            @ApiParam(value = "整个文件内容的md5，和offset一起传时必传，同一文件内容的上传共用已收到的分片")
+            @FormDataParam("contentMd5")
+                    String contentMd5,
             @NotNull(message = "上传类型不能为空")
             @ApiParam(value = "上传类型")
             @FormDataParam("uploadType")
@@ -90,6 +104,21 @@ public interface BuildFSRestResource
             @ApiParam(value = "分片合并的请求信息", required = true)
                     FileChunksMergeVO fileChunksMergeVO);
 
+    @ApiOperation(value = "获取已经上传的分片", notes = "断点续传时只需要上传缺少的分片")
+    @Path("/upload/chunks/type/{uploadType}/filename/{fileName}")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    CodeCCResult<List<Integer>> getUploadedChunks(
+            @ApiParam(value = "上传类型", required = true)
+            @PathParam("uploadType")
+                    String uploadType,
+            @ApiParam(value = "文件名", required = true)
+            @PathParam("fileName")
+                    String fileName,
+            @ApiParam(value = "整个文件内容的md5", required = true)
+            @QueryParam("contentMd5")
+                    String contentMd5);
+
 
     @ApiOperation("获取待下载文件的大小")
     @Path("/download/fileSize")
@@ -110,6 +139,24 @@ public interface BuildFSRestResource
             @ApiParam(value = "下载文件的请求体", required = true)
                     DownloadVO downloadVO);
 
+    @ApiOperation(value = "按区间下载文件", notes = "支持Range断点续传和If-None-Match校验")
+    @Path("/download/type/{downloadType}/filename/{fileName}")
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    Response download(
+            @ApiParam(value = "文件类型", required = true)
+            @PathParam(value = "downloadType")
+                    String downloadType,
+            @ApiParam(value = "文件名", required = true)
+            @PathParam(value = "fileName")
+                    String fileName,
+            @ApiParam(value = "下载区间，如 bytes=0-1023")
+            @HeaderParam(HttpHeaders.RANGE)
+                    String range,
+            @ApiParam(value = "已下载文件的ETag，文件没有变化时返回304")
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH)
+                    String ifNoneMatch);
+
     @ApiOperation("获取待下载文件的信息")
     @Path("/download/fileInfo")
     @POST
@@ -31,6 +31,7 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -55,5 +56,11 @@ public interface UserFSRestResource
                     String downloadType,
             @ApiParam(value = "文件名", required = true)
             @PathParam(value = "fileName")
-                    String fileName);
+                    String fileName,
+            @ApiParam(value = "下载区间，如 bytes=0-1023")
+            @HeaderParam(HttpHeaders.RANGE)
+                    String range,
+            @ApiParam(value = "已下载文件的ETag，文件没有变化时返回304")
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH)
+                    String ifNoneMatch);
 }
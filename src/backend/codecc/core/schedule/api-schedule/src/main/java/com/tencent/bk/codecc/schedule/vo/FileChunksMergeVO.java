@@ -28,4 +28,10 @@ public class FileChunksMergeVO
     @NotNull(message = "上传类型不能为空")
     @ApiModelProperty(value = "上传类型")
     private String uploadType;
+
+    @ApiModelProperty(value = "文件内容的md5，分片按位置写入时必传，用于找到上传会话并校验上传完成的文件")
+    private String contentMd5;
+
+    @ApiModelProperty(value = "文件总大小，分片按位置写入时必传；不传时按旧的分片文件合并")
+    private Long fileSize;
 }
@@ -54,6 +54,18 @@ public class UploadVO
     @ApiModelProperty(value = "当前分片")
     private Integer chunk;
 
+    @ApiModelProperty(value = "文件总大小，和offset一起传时分片直接写入文件的对应位置，不再需要合并")
+    private Long fileSize;
+
+    @ApiModelProperty(value = "当前分片在文件中的起始位置")
+    private Long offset;
+
+    @ApiModelProperty(value = "当前分片的字节数，和offset一起传时必传，写入的字节数不一致时分片不算收到")
+    private Long chunkLength;
+
+    @ApiModelProperty(value = "整个文件内容的md5，和offset一起传时必传，作为断点续传的上传会话")
+    private String contentMd5;
+
     @NotNull(message = "上传类型不能为空")
     @ApiModelProperty(value = "上传类型", required = true)
     private String uploadType;
@@ -39,6 +39,11 @@ public interface ScheduleConstants
      */
     String CHUNK_FILE_SUFFIX = ".chunk";
 
+    /**
+     * 按位置写入分片时，上传完成前的文件后缀
+     */
+    String UPLOADING_FILE_SUFFIX = ".uploading";
+
     /**
      * 上传类型
      */
@@ -23,27 +23,30 @@
  * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
-
 package com.tencent.bk.codecc.schedule.dao.redis;
 
 import com.tencent.bk.codecc.schedule.model.AnalyzeHostPoolModel;
 import com.tencent.bk.codecc.schedule.vo.PushVO;
 import com.tencent.devops.common.constant.ComConstants;
 import com.tencent.devops.common.constant.RedisKeyConstants;
-import com.tencent.devops.common.redis.lock.JRedisLock;
 import com.tencent.devops.common.util.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
-import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
 
 /**
  * 分析主机线程池池
+ * <p>
+ * 机器配置（ip、线程总数、支持的工具等）仍保存在 {@link RedisKeyConstants#KEY_ANALYZE_HOST} 中，
+ * 空闲线程数和正在执行的分析任务单独保存，占用和释放线程都由lua脚本原子完成，不再需要全局锁。
+ * 脚本访问的key都通过KEYS传入并且带同一个hash tag，可以在redis集群上执行
  *
  * @version V1.0
  * @date 2019/10/23
@@ -52,10 +55,100 @@ import java.util.*;
 @Slf4j
 public class AnalyzeHostPoolDao
 {
+    /**
+     * 机器配置的本地缓存时间，配置很少变化，不需要每次调度都读取并反序列化所有机器
+     */
+    private static final long HOST_CONFIG_CACHE_MILLIS = 10000L;
+
+    /**
+     * 在候选机器中挑选空闲线程数最多的机器，空闲线程数相同时取空闲率最高的，占用它的一个线程并记录分析任务
+     * KEYS[1]: 空闲线程数hash，KEYS[2...]: 候选机器的分析任务hash，与候选机器一一对应
+     * ARGV[1]: 分析任务，ARGV[2...]: 候选机器的ip和线程总数
+     */
+    private static final RedisScript<List> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local best = nil\n" +
+            "local bestJobKey = nil\n" +
+            "local bestIdle = 0\n" +
+            "local bestPool = 1\n" +
+            "for i = 2, #ARGV, 2 do\n" +
+            "    local idle = tonumber(redis.call('hget', KEYS[1], ARGV[i]) or '0')\n" +
+            "    local pool = math.max(tonumber(ARGV[i + 1]), 1)\n" +
+            "    if idle > 0 and (idle > bestIdle or (idle == bestIdle and idle * bestPool > bestIdle * pool)) then\n" +
+            "        best = ARGV[i]\n" +
+            "        bestJobKey = KEYS[i / 2 + 1]\n" +
+            "        bestIdle = idle\n" +
+            "        bestPool = pool\n" +
+            "    end\n" +
+            "end\n" +
+            "if not best then\n" +
+            "    return nil\n" +
+            "end\n" +
+            "local idle = redis.call('hincrby', KEYS[1], best, -1)\n" +
+            "redis.call('hincrby', bestJobKey, ARGV[1], 1)\n" +
+            "return {best, tostring(idle)}", List.class);
+
+    /**
+     * 释放机器上的分析任务占用的线程，任务不存在（已经释放过）时不增加空闲线程数
+     * KEYS[1]: 空闲线程数hash，KEYS[2...]: 机器的分析任务hash，与参数中的机器一一对应
+     * ARGV: 机器ip和分析任务
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "local freed = 0\n" +
+            "for i = 1, #ARGV, 2 do\n" +
+            "    local jobKey = KEYS[(i + 1) / 2 + 1]\n" +
+            "    local count = tonumber(redis.call('hget', jobKey, ARGV[i + 1]) or '0')\n" +
+            "    if count > 0 then\n" +
+            "        if count == 1 then\n" +
+            "            redis.call('hdel', jobKey, ARGV[i + 1])\n" +
+            "        else\n" +
+            "            redis.call('hincrby', jobKey, ARGV[i + 1], -1)\n" +
+            "        end\n" +
+            "        redis.call('hincrby', KEYS[1], ARGV[i], 1)\n" +
+            "        freed = freed + 1\n" +
+            "    end\n" +
+            "end\n" +
+            "return freed", Long.class);
+
+    /**
+     * 同步机器的空闲线程数：机器首次出现或者配置被改写（运维重新初始化、下线后重新加入）时以配置中的分析任务为准重建，
+     * 之后每次都按 线程总数 - 正在执行的分析任务数 重新计算空闲线程数，修正可能出现的偏差
+     * KEYS[1]: 空闲线程数hash，KEYS[2]: 已同步配置hash，KEYS[3]: 该机器的分析任务hash
+     * ARGV[1]: 机器ip，ARGV[2]: 线程总数，ARGV[3]: 机器配置，ARGV[4...]: 配置中的分析任务
+     */
+    private static final RedisScript<Long> SYNC_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('hget', KEYS[2], ARGV[1]) ~= ARGV[3] then\n" +
+            "    redis.call('del', KEYS[3])\n" +
+            "    for i = 4, #ARGV do\n" +
+            "        redis.call('hincrby', KEYS[3], ARGV[i], 1)\n" +
+            "    end\n" +
+            "    redis.call('hset', KEYS[2], ARGV[1], ARGV[3])\n" +
+            "end\n" +
+            "local running = 0\n" +
+            "local counts = redis.call('hvals', KEYS[3])\n" +
+            "for i = 1, #counts do\n" +
+            "    running = running + tonumber(counts[i])\n" +
+            "end\n" +
+            "local idle = tonumber(ARGV[2]) - running\n" +
+            "redis.call('hset', KEYS[1], ARGV[1], idle)\n" +
+            "return idle", Long.class);
+
+    /**
+     * 清理已经从 KEY_ANALYZE_HOST 中移除的机器，重新加入时按新机器处理
+     * KEYS[1]: 空闲线程数hash，KEYS[2]: 已同步配置hash，KEYS[3]: 该机器的分析任务hash
+     * ARGV[1]: 机器ip
+     */
+    private static final RedisScript<Long> REMOVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('hdel', KEYS[1], ARGV[1])\n" +
+            "redis.call('hdel', KEYS[2], ARGV[1])\n" +
+            "redis.call('del', KEYS[3])\n" +
+            "return 1", Long.class);
+
     @Autowired
     private StringRedisTemplate redisTemplate;
 
-    private static final int EXPIRY_TIME_MILLIS = Integer.getInteger("lock.expiry.millis", 100);
+    private volatile List<AnalyzeHostPoolModel> hostConfigs = Collections.emptyList();
+
+    private volatile long hostConfigLoadTime = 0L;
 
     /**
      * 停止分析标志
@@ -80,109 +173,68 @@ public class AnalyzeHostPoolDao
         String buildId = pushVO.getBuildId();
         String createFrom = pushVO.getCreateFrom();
 
-        String lockKey = RedisKeyConstants.LOCK_HOST_POOL;
-        if (StringUtils.isNotEmpty(createFrom))
+        Map<String, AnalyzeHostPoolModel> candidates = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        AnalyzeHostPoolModel.AnalyzeJob analyzeJob = new AnalyzeHostPoolModel.AnalyzeJob(streamName, toolName, buildId);
+        keys.add(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE);
+        args.add(JsonUtil.INSTANCE.toJson(analyzeJob));
+        for (AnalyzeHostPoolModel hostConfig : getHostConfigs())
         {
-            lockKey = RedisKeyConstants.LOCK_HOST_POOL_OPENSOURCE;
+            if (isSupport(hostConfig, toolName, createFrom))
+            {
+                candidates.put(hostConfig.getIp(), hostConfig);
+                keys.add(RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + hostConfig.getIp());
+                args.add(hostConfig.getIp());
+                args.add(String.valueOf(hostConfig.getPool()));
+            }
         }
-        JRedisLock lock = new JRedisLock(redisTemplate, lockKey, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-
-        if (!lock.acquire())
+        if (candidates.isEmpty())
         {
             return null;
         }
 
-        AnalyzeHostPoolModel mostIdleHost = null;
+        List result;
         try
         {
-            mostIdleHost = getAndUpdateAnalyzeHost(toolName, streamName, buildId, createFrom);
+            result = redisTemplate.execute(ACQUIRE_SCRIPT, keys, args.toArray());
         }
         catch (Exception e)
         {
             log.error("get most idle host failed, try again later!", e);
+            return null;
         }
-        finally
+        if (CollectionUtils.isEmpty(result))
         {
-            lock.release();
+            return null;
         }
+
+        // 返回的jobList只包含本次占用线程的分析任务
+        AnalyzeHostPoolModel mostIdleHost = copyOf(candidates.get(String.valueOf(result.get(0))));
+        mostIdleHost.setIdle(Integer.parseInt(String.valueOf(result.get(1))));
+        mostIdleHost.setJobList(new ArrayList<>(Collections.singletonList(analyzeJob)));
         return mostIdleHost;
     }
 
-    @Nullable
-    private AnalyzeHostPoolModel getAndUpdateAnalyzeHost(String toolName, String streamName, String buildId, String createFrom)
+    /**
+     * 判断机器是否支持该来源的任务分析，以下情况支持:
+     * createFrom为空（默认就是来源于bs_codecc或者bs_pipeline），且机器的supportTaskTypes包含bs_codecc或者bs_pipeline
+     * createFrom不为空，且机器的supportTaskTypes包含该来源
+     */
+    private boolean isSupport(AnalyzeHostPoolModel hostConfig, String toolName, String createFrom)
     {
-        AnalyzeHostPoolModel mostIdleHost = null;
-        int maxIdle = 0;
-        Map<Object, Object> analyzeHostMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST);
-        for (Map.Entry<Object, Object> entry : analyzeHostMap.entrySet())
+        Set<String> supportTools = hostConfig.getSupportTools();
+        Set<String> supportTaskTypes = hostConfig.getSupportTaskTypes();
+        if (supportTools == null || supportTaskTypes == null || !supportTools.contains(toolName))
         {
-            String analyzeHostStr = (String) entry.getValue();
-            AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to(analyzeHostStr, AnalyzeHostPoolModel.class);
-            Set<String> supportTools = analyzeHostPoolModel.getSupportTools();
-            Set<String> supportTaskTypes = analyzeHostPoolModel.getSupportTaskTypes();
-
-            /*
-             *判断机器是否支持该来源的任务分析，以下情况支持:
-             * createFrom为空（默认就是来源于bs_codecc或者bs_pipeline），且机器的supportTaskTypes包含bs_codecc或者bs_pipeline
-             * createFrom不为空，且机器的supportTaskTypes包含该来源
-             */
-            boolean supportTaskType = false;
-            if (StringUtils.isEmpty(createFrom))
-            {
-                if (supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_PIPELINE.value())
-                        || supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_CODECC.value()))
-                {
-                    supportTaskType = true;
-                }
-            }
-            else if (supportTaskTypes.contains(createFrom))
-            {
-                supportTaskType = true;
-            }
-
-            int idle = analyzeHostPoolModel.getIdle();
-            if (supportTaskType && supportTools.contains(toolName) && idle > 0)
-            {
-                if (idle > maxIdle)
-                {
-                    maxIdle = idle;
-                    mostIdleHost = analyzeHostPoolModel;
-                }
-                // 如果相等，则取当前空闲率（idle/pool）最高的机器
-                else if (idle == maxIdle)
-                {
-                    if (mostIdleHost == null)
-                    {
-                        mostIdleHost = analyzeHostPoolModel;
-                    }
-                    else
-                    {
-                        int currHostPool = analyzeHostPoolModel.getPool();
-                        int mostIdleHostPool = mostIdleHost.getPool();
-                        double currHostIdleRate = (double) idle / (double) currHostPool;
-                        double mostIdleHostIdleRate = (double) maxIdle / (double) mostIdleHostPool;
-                        if (currHostIdleRate > mostIdleHostIdleRate)
-                        {
-                            mostIdleHost = analyzeHostPoolModel;
-                        }
-                    }
-                }
-            }
+            return false;
         }
-
-        if (mostIdleHost != null)
+        if (StringUtils.isEmpty(createFrom))
         {
-            mostIdleHost.setIdle(maxIdle - 1);
-            List<AnalyzeHostPoolModel.AnalyzeJob> jobList = mostIdleHost.getJobList();
-            if (jobList == null)
-            {
-                jobList = new ArrayList<>();
-                mostIdleHost.setJobList(jobList);
-            }
-            jobList.add(new AnalyzeHostPoolModel.AnalyzeJob(streamName, toolName, buildId));
-            redisTemplate.opsForHash().put(RedisKeyConstants.KEY_ANALYZE_HOST, mostIdleHost.getIp(), JsonUtil.INSTANCE.toJson(mostIdleHost));
+            return supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_PIPELINE.value())
+                    || supportTaskTypes.contains(ComConstants.BsTaskCreateFrom.BS_CODECC.value());
         }
-        return mostIdleHost;
+        return supportTaskTypes.contains(createFrom);
     }
 
     /**
@@ -195,52 +247,19 @@ public class AnalyzeHostPoolDao
     public boolean freeHostThread(String toolName, String streamName, String hostIp, String buildId)
     {
         log.info("begin freeHostThread: {}, {}, {}, {}", toolName, streamName, hostIp, buildId);
-        JRedisLock lock = new JRedisLock(redisTemplate, RedisKeyConstants.LOCK_HOST_POOL, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-
-        if (!lock.acquire())
-        {
-            return false;
-        }
-
         try
         {
-            Object analyzeHostObj = redisTemplate.opsForHash().get(RedisKeyConstants.KEY_ANALYZE_HOST, hostIp);
-            if (analyzeHostObj != null)
-            {
-                AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to((String) analyzeHostObj, AnalyzeHostPoolModel.class);
-
-                List<AnalyzeHostPoolModel.AnalyzeJob> jobList = analyzeHostPoolModel.getJobList();
-                if (CollectionUtils.isNotEmpty(jobList))
-                {
-                    Iterator<AnalyzeHostPoolModel.AnalyzeJob> it = jobList.iterator();
-                    boolean removeSuccess = false;
-                    while (it.hasNext())
-                    {
-                        AnalyzeHostPoolModel.AnalyzeJob analyzeJob = it.next();
-                        if (analyzeJob.getStreamName().equals(streamName) && analyzeJob.getToolName().equals(toolName) &&
-                                analyzeJob.getBuildId().equals(buildId))
-                        {
-                            it.remove();
-                            removeSuccess = true;
-                            break;
-                        }
-                    }
-                    if (removeSuccess)
-                    {
-                        analyzeHostPoolModel.setIdle(analyzeHostPoolModel.getIdle() + 1);
-                        redisTemplate.opsForHash().put(RedisKeyConstants.KEY_ANALYZE_HOST, hostIp, JsonUtil.INSTANCE.toJson(analyzeHostPoolModel));
-                    }
-                }
-            }
+            // 确保机器已经初始化，否则迁移前占用的线程无法释放
+            getHostConfigs();
+            String analyzeJob = JsonUtil.INSTANCE.toJson(new AnalyzeHostPoolModel.AnalyzeJob(streamName, toolName, buildId));
+            redisTemplate.execute(RELEASE_SCRIPT,
+                    Arrays.asList(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE, RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + hostIp),
+                    hostIp, analyzeJob);
         }
         catch (Exception e)
         {
             log.error("free host thread failed!", e);
         }
-        finally
-        {
-            lock.release();
-        }
         log.info("end freeHostThread: {}, {}, {}", toolName, streamName, hostIp);
         return true;
     }
@@ -252,13 +271,30 @@ public class AnalyzeHostPoolDao
      */
     public List<AnalyzeHostPoolModel> getAllAnalyzeHosts()
     {
-        List<AnalyzeHostPoolModel> hostList = new ArrayList<>();
-        Map<Object, Object> analyzeHostMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST);
-        for (Map.Entry<Object, Object> entry : analyzeHostMap.entrySet())
+        List<AnalyzeHostPoolModel> hostList = loadHostConfigs();
+        Map<Object, Object> idleMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE);
+        for (AnalyzeHostPoolModel analyzeHostPoolModel : hostList)
         {
-            String analyzeHostStr = (String) entry.getValue();
-            AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to(analyzeHostStr, AnalyzeHostPoolModel.class);
-            hostList.add(analyzeHostPoolModel);
+            // 还没有初始化空闲线程数的机器保持 KEY_ANALYZE_HOST 中的数据
+            Object idle = idleMap.get(analyzeHostPoolModel.getIp());
+            if (idle == null)
+            {
+                continue;
+            }
+            analyzeHostPoolModel.setIdle(Integer.parseInt((String) idle));
+
+            List<AnalyzeHostPoolModel.AnalyzeJob> jobList = new ArrayList<>();
+            Map<Object, Object> jobMap = redisTemplate.opsForHash().entries(RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + analyzeHostPoolModel.getIp());
+            for (Map.Entry<Object, Object> entry : jobMap.entrySet())
+            {
+                AnalyzeHostPoolModel.AnalyzeJob analyzeJob = JsonUtil.INSTANCE.to((String) entry.getKey(), AnalyzeHostPoolModel.AnalyzeJob.class);
+                int count = Integer.parseInt((String) entry.getValue());
+                for (int i = 0; i < count; i++)
+                {
+                    jobList.add(analyzeJob);
+                }
+            }
+            analyzeHostPoolModel.setJobList(jobList);
         }
         return hostList;
     }
@@ -272,65 +308,115 @@ public class AnalyzeHostPoolDao
     public boolean batchFreeHostThread(Map<String, List<AnalyzeHostPoolModel.AnalyzeJob>> needFreeHostMap)
     {
         log.info("begin batchFreeHostThread");
-        JRedisLock lock = new JRedisLock(redisTemplate, RedisKeyConstants.LOCK_HOST_POOL, JRedisLock.DEFAULT_ACQUIRE_TIMEOUT_MILLIS, EXPIRY_TIME_MILLIS);
-        if (!lock.acquire())
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        keys.add(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE);
+        needFreeHostMap.forEach((hostIp, jobList) ->
         {
-            return false;
-        }
+            if (CollectionUtils.isNotEmpty(jobList))
+            {
+                jobList.forEach(analyzeJob ->
+                {
+                    keys.add(RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + hostIp);
+                    args.add(hostIp);
+                    args.add(JsonUtil.INSTANCE.toJson(analyzeJob));
+                });
+            }
+        });
 
         try
         {
-            Set<Object> keys = new HashSet<>(needFreeHostMap.keySet());
-            List<Object> res = redisTemplate.opsForHash().multiGet(RedisKeyConstants.KEY_ANALYZE_HOST, keys);
-
-            Map<String, String> updateHostMap = new HashMap<>();
-            res.forEach(analyzeHostObj ->
+            getHostConfigs();
+            if (!args.isEmpty())
             {
-                if (analyzeHostObj != null)
-                {
-                    AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to((String) analyzeHostObj, AnalyzeHostPoolModel.class);
-                    List<AnalyzeHostPoolModel.AnalyzeJob> jobList = analyzeHostPoolModel.getJobList();
-                    if (CollectionUtils.isNotEmpty(jobList))
-                    {
-                        // 释放的线程数
-                        int freeThreadCount = 0;
-                        Iterator<AnalyzeHostPoolModel.AnalyzeJob> it = jobList.iterator();
-                        String hostIp = analyzeHostPoolModel.getIp();
-                        while (it.hasNext())
-                        {
-                            AnalyzeHostPoolModel.AnalyzeJob analyzeJob = it.next();
-                            List<AnalyzeHostPoolModel.AnalyzeJob> needFreeThreadList = needFreeHostMap.get(hostIp);
-                            for (AnalyzeHostPoolModel.AnalyzeJob needFreeJob : needFreeThreadList)
-                            {
-                                if (analyzeJob.getStreamName().equals(needFreeJob.getStreamName())
-                                        && analyzeJob.getToolName().equals(needFreeJob.getToolName())
-                                        && analyzeJob.getBuildId().equals(needFreeJob.getBuildId()))
-                                {
-                                    it.remove();
-                                    freeThreadCount++;
-                                    break;
-                                }
-                            }
-                        }
-                        if (freeThreadCount > 0)
-                        {
-                            analyzeHostPoolModel.setIdle(analyzeHostPoolModel.getIdle() + freeThreadCount);
-                            updateHostMap.put(hostIp, JsonUtil.INSTANCE.toJson(analyzeHostPoolModel));
-                        }
-                    }
-                }
-            });
-            redisTemplate.opsForHash().putAll(RedisKeyConstants.KEY_ANALYZE_HOST, updateHostMap);
+                redisTemplate.execute(RELEASE_SCRIPT, keys, args.toArray());
+            }
         }
         catch (Exception e)
         {
             log.error("free host thread failed!", e);
         }
-        finally
-        {
-            lock.release();
-        }
         log.info("end batchFreeHostThread");
         return true;
     }
+
+    /**
+     * 获取缓存的机器配置，过期后重新加载，并按配置同步每台机器的空闲线程数、清理已经移除的机器
+     */
+    private List<AnalyzeHostPoolModel> getHostConfigs()
+    {
+        long now = System.currentTimeMillis();
+        if (now - hostConfigLoadTime > HOST_CONFIG_CACHE_MILLIS)
+        {
+            List<AnalyzeHostPoolModel> configs = new ArrayList<>();
+            Map<Object, Object> analyzeHostMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST);
+            for (Map.Entry<Object, Object> entry : analyzeHostMap.entrySet())
+            {
+                String analyzeHostStr = (String) entry.getValue();
+                AnalyzeHostPoolModel hostConfig = JsonUtil.INSTANCE.to(analyzeHostStr, AnalyzeHostPoolModel.class);
+                syncHostPool(hostConfig, analyzeHostStr);
+                configs.add(hostConfig);
+            }
+            removeStaleHosts(configs);
+            hostConfigs = configs;
+            hostConfigLoadTime = now;
+        }
+        return hostConfigs;
+    }
+
+    private List<AnalyzeHostPoolModel> loadHostConfigs()
+    {
+        List<AnalyzeHostPoolModel> hostList = new ArrayList<>();
+        Map<Object, Object> analyzeHostMap = redisTemplate.opsForHash().entries(RedisKeyConstants.KEY_ANALYZE_HOST);
+        for (Map.Entry<Object, Object> entry : analyzeHostMap.entrySet())
+        {
+            String analyzeHostStr = (String) entry.getValue();
+            AnalyzeHostPoolModel analyzeHostPoolModel = JsonUtil.INSTANCE.to(analyzeHostStr, AnalyzeHostPoolModel.class);
+            hostList.add(analyzeHostPoolModel);
+        }
+        return hostList;
+    }
+
+    private void syncHostPool(AnalyzeHostPoolModel hostConfig, String analyzeHostStr)
+    {
+        List<String> keys = Arrays.asList(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE, RedisKeyConstants.KEY_ANALYZE_HOST_SYNCED,
+                RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + hostConfig.getIp());
+        List<String> args = new ArrayList<>();
+        args.add(hostConfig.getIp());
+        args.add(String.valueOf(hostConfig.getPool()));
+        args.add(analyzeHostStr);
+        if (hostConfig.getJobList() != null)
+        {
+            hostConfig.getJobList().forEach(analyzeJob -> args.add(JsonUtil.INSTANCE.toJson(analyzeJob)));
+        }
+        redisTemplate.execute(SYNC_SCRIPT, keys, args.toArray());
+    }
+
+    private void removeStaleHosts(List<AnalyzeHostPoolModel> configs)
+    {
+        Set<String> configIps = new HashSet<>();
+        configs.forEach(hostConfig -> configIps.add(hostConfig.getIp()));
+        for (Object ip : redisTemplate.opsForHash().keys(RedisKeyConstants.KEY_ANALYZE_HOST_SYNCED))
+        {
+            String hostIp = (String) ip;
+            if (!configIps.contains(hostIp))
+            {
+                log.info("analyze host {} is removed, clean its thread pool", hostIp);
+                redisTemplate.execute(REMOVE_SCRIPT, Arrays.asList(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE,
+                        RedisKeyConstants.KEY_ANALYZE_HOST_SYNCED, RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + hostIp), hostIp);
+            }
+        }
+    }
+
+    private AnalyzeHostPoolModel copyOf(AnalyzeHostPoolModel hostConfig)
+    {
+        AnalyzeHostPoolModel analyzeHostPoolModel = new AnalyzeHostPoolModel();
+        analyzeHostPoolModel.setIp(hostConfig.getIp());
+        analyzeHostPoolModel.setPort(hostConfig.getPort());
+        analyzeHostPoolModel.setPool(hostConfig.getPool());
+        analyzeHostPoolModel.setMaxActive(hostConfig.getMaxActive());
+        analyzeHostPoolModel.setSupportTools(hostConfig.getSupportTools());
+        analyzeHostPoolModel.setSupportTaskTypes(hostConfig.getSupportTaskTypes());
+        return analyzeHostPoolModel;
+    }
 }
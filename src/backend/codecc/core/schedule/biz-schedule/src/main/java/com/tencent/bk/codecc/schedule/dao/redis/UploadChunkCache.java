@@ -0,0 +1,103 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.tencent.bk.codecc.schedule.dao.redis;
+
+import com.tencent.devops.common.constant.RedisKeyConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 断点续传已经收到的分片
+ *
+ * @version V1.0
+ */
+@Repository
+public class UploadChunkCache
+{
+    /**
+     * 未完成的上传保留一天，过期后需要重新上传
+     */
+    private static final long EXPIRE_HOURS = 24L;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * 一次上传会话由 上传类型 + 文件名 + 文件大小 + 文件内容md5 确定，内容不同的上传使用各自的分片记录，
+     * 内容相同的重新上传直接续传已经收到的分片
+     */
+    public String uploadKey(String uploadType, String fileName, long fileSize, String contentMd5)
+    {
+        return RedisKeyConstants.PREFIX_UPLOAD_CHUNK + uploadType + ":" + fileName + ":" + fileSize + ":"
+                + contentMd5.toLowerCase();
+    }
+
+    /**
+     * 记录收到的分片，SADD本身是原子的，并发上传的分片不会互相覆盖
+     */
+    public void addChunk(String uploadKey, int chunk)
+    {
+        redisTemplate.opsForSet().add(uploadKey, String.valueOf(chunk));
+        redisTemplate.expire(uploadKey, EXPIRE_HOURS, TimeUnit.HOURS);
+    }
+
+    public List<Integer> getChunks(String uploadKey)
+    {
+        Set<String> chunks = redisTemplate.opsForSet().members(uploadKey);
+        return chunks.stream().map(Integer::valueOf).sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * 是否正好收齐了 0 到 chunks - 1 的所有分片
+     */
+    public boolean isComplete(String uploadKey, int chunks)
+    {
+        List<Integer> received = getChunks(uploadKey);
+        if (received.size() != chunks)
+        {
+            return false;
+        }
+        for (int i = 0; i < chunks; i++)
+        {
+            if (received.get(i) != i)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear(String uploadKey)
+    {
+        redisTemplate.delete(uploadKey);
+    }
+}
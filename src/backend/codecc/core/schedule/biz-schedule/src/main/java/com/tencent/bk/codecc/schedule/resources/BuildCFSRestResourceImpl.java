@@ -21,6 +21,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * 文件上传下载接口
@@ -35,12 +36,17 @@ public class BuildCFSRestResourceImpl implements BuildCFSRestResource
     private UploadDownloadService uploadDownloadService;
 
     @Override
-    public CodeCCResult<Boolean> upload(String fileName, Integer chunks, Integer chunk, String uploadType, InputStream file)
+    public CodeCCResult<Boolean> upload(String fileName, Integer chunks, Integer chunk, Long fileSize, Long offset,
+                                        Long chunkLength, String contentMd5, String uploadType, InputStream file)
     {
         UploadVO uploadVO = new UploadVO();
         uploadVO.setFileName(fileName);
         uploadVO.setChunks(chunks);
         uploadVO.setChunk(chunk);
+        uploadVO.setFileSize(fileSize);
+        uploadVO.setOffset(offset);
+        uploadVO.setChunkLength(chunkLength);
+        uploadVO.setContentMd5(contentMd5);
         uploadVO.setUploadType(uploadType);
         return new CodeCCResult<>(uploadDownloadService.upload(uploadVO, file));
     }
@@ -51,6 +57,12 @@ public class BuildCFSRestResourceImpl implements BuildCFSRestResource
         return new CodeCCResult<>(uploadDownloadService.chunksMerge(fileChunksMergeVO));
     }
 
+    @Override
+    public CodeCCResult<List<Integer>> getUploadedChunks(String uploadType, String fileName, String contentMd5)
+    {
+        return new CodeCCResult<>(uploadDownloadService.getUploadedChunks(uploadType, fileName, contentMd5));
+    }
+
     @Override
     public CodeCCResult<Long> getFileSize(GetFileSizeVO getFileSizeVO)
     {
@@ -63,6 +75,12 @@ public class BuildCFSRestResourceImpl implements BuildCFSRestResource
         return uploadDownloadService.download(downloadVO);
     }
 
+    @Override
+    public Response download(String downloadType, String fileName, String range, String ifNoneMatch)
+    {
+        return uploadDownloadService.download(downloadType, fileName, range, ifNoneMatch);
+    }
+
     @Override
     public CodeCCResult<FileInfoModel> getFileInfo(GetFileSizeVO getFileSizeVO)
     {
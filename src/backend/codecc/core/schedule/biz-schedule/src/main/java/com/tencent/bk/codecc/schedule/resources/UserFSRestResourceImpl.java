@@ -32,8 +32,8 @@ public class UserFSRestResourceImpl implements UserFSRestResource
     private UploadDownloadService uploadDownloadService;
 
     @Override
-    public Response download(String downloadType, String fileName)
+    public Response download(String downloadType, String fileName, String range, String ifNoneMatch)
     {
-        return uploadDownloadService.download(downloadType, fileName);
+        return uploadDownloadService.download(downloadType, fileName, range, ifNoneMatch);
     }
 }
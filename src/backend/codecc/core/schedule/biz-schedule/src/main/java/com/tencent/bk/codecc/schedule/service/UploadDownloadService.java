@@ -16,6 +16,7 @@ import com.tencent.bk.codecc.schedule.vo.*;
 
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * 文件上传业务逻辑服务接口
@@ -29,6 +30,8 @@ public interface UploadDownloadService
 
     Boolean chunksMerge(FileChunksMergeVO fileChunksMergeVO);
 
+    List<Integer> getUploadedChunks(String uploadType, String fileName, String contentMd5);
+
     Long getFileSize(GetFileSizeVO getFileSizeVO);
 
     Response download(DownloadVO downloadVO);
@@ -39,5 +42,5 @@ public interface UploadDownloadService
 
     FileIndexVO getFileIndex(String fileName, String type);
 
-    Response download(String downloadType, String fileName);
+    Response download(String downloadType, String fileName, String range, String ifNoneMatch);
 }
@@ -16,9 +16,11 @@ import com.tencent.bk.codecc.schedule.constant.DispatchMessageCode;
 import com.tencent.bk.codecc.schedule.constant.ScheduleConstants;
 import com.tencent.bk.codecc.schedule.dao.mongorepository.FileIndexRepository;
 import com.tencent.bk.codecc.schedule.dao.redis.FileInfoCache;
+import com.tencent.bk.codecc.schedule.dao.redis.UploadChunkCache;
 import com.tencent.bk.codecc.schedule.model.FileIndexEntity;
 import com.tencent.bk.codecc.schedule.service.UploadDownloadService;
 import com.tencent.bk.codecc.schedule.utils.ChunkUploadUtil;
+import com.tencent.bk.codecc.schedule.utils.FileDownloadUtil;
 import com.tencent.bk.codecc.schedule.utils.FileLock;
 import com.tencent.bk.codecc.schedule.vo.*;
 import com.tencent.devops.common.api.exception.CodeCCException;
@@ -33,12 +35,16 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
 import java.io.*;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.locks.Lock;
 
@@ -58,8 +64,15 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
     @Autowired
     private FileIndexRepository fileIndexRepository;
 
+    @Autowired
+    private UploadChunkCache uploadChunkCache;
+
     private static final Map<String, String> FOLDER_MAP = createMap();
 
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
     private static Map<String, String> createMap()
     {
         Map<String, String> folderMap = new HashMap<>();
@@ -90,6 +103,14 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         //创建服务器存放上传文件所需的文件夹
         ChunkUploadUtil.createFileFolder(uploadFolder);
 
+        // 带文件大小和位置的分片直接写入预分配的文件，分片可以乱序、并发上传
+        if (uploadVO.getFileSize() != null && uploadVO.getOffset() != null)
+        {
+            writeChunkAt(uploadVO, uploadFolder, fileInputStream);
+            log.info("end upload cost: {}, {}", System.currentTimeMillis() - beginTime, uploadVO);
+            return true;
+        }
+
         File outFile;
         // 非分片上传
         if (uploadVO.getChunks() == null || uploadVO.getChunks() <= 0)
@@ -147,6 +168,16 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         FileIndexVO fileIndexVO = getFileIndex(fileBaseName, fileChunksMergeVO.getUploadType());
         String uploadFolder = fileIndexVO.getFileFolder();
 
+        // 带文件大小的是按位置写入的分片，校验后直接完成，不需要合并；不带的仍按旧的分片文件合并
+        if (fileChunksMergeVO.getFileSize() != null)
+        {
+            checkContentMd5(fileChunksMergeVO.getContentMd5());
+            File uploadingFile = getUploadingFile(uploadFolder, fileBaseName, fileChunksMergeVO.getContentMd5());
+            completeUpload(fileChunksMergeVO, uploadingFile, new File(uploadFolder, fileBaseName));
+            log.info("end chunksMerge cost: {}, {}", System.currentTimeMillis() - beginTime, fileChunksMergeVO);
+            return true;
+        }
+
         //文件上传路径更新为指定文件信息签名后的临时文件夹，用于后期合并
         String fileFolder = ChunkUploadUtil.md5(fileBaseName);
         String chunkFileFolder = uploadFolder + File.separator + fileFolder;
@@ -201,6 +232,158 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         return true;
     }
 
+    @Override
+    public List<Integer> getUploadedChunks(String uploadType, String fileName, String contentMd5)
+    {
+        if (!isValidMd5(contentMd5))
+        {
+            return Collections.emptyList();
+        }
+        FileIndexVO fileIndexVO = getFileIndex(fileName, uploadType);
+        if (StringUtils.isEmpty(fileIndexVO.getFileFolder()))
+        {
+            return Collections.emptyList();
+        }
+        // 上传中的文件已经预分配为文件总大小
+        File uploadingFile = getUploadingFile(fileIndexVO.getFileFolder(), fileName, contentMd5);
+        if (!uploadingFile.isFile())
+        {
+            return Collections.emptyList();
+        }
+        return uploadChunkCache.getChunks(
+                uploadChunkCache.uploadKey(uploadType, fileName, uploadingFile.length(), contentMd5));
+    }
+
+    /**
+     * 把分片写到预分配文件的对应位置，重复上传同一个分片会覆盖写入
+     * 写入的字节数和分片大小一致才记录为已收到，不完整的分片需要客户端重传
+     */
+    private void writeChunkAt(UploadVO uploadVO, String uploadFolder, InputStream fileInputStream)
+    {
+        String fileBaseName = uploadVO.getFileName();
+        checkContentMd5(uploadVO.getContentMd5());
+        long fileSize = uploadVO.getFileSize();
+        long offset = uploadVO.getOffset();
+        Long chunkLength = uploadVO.getChunkLength();
+        if (chunkLength == null || chunkLength < 0 || fileSize < 0 || offset < 0 || offset + chunkLength > fileSize)
+        {
+            log.error("upload file {} fail, invalid chunk {} at {} of size {}", fileBaseName, chunkLength, offset,
+                    fileSize);
+            throw new CodeCCException(CommonMessageCode.PARAMETER_IS_INVALID, new String[]{"chunkLength"}, null);
+        }
+
+        File uploadingFile = getUploadingFile(uploadFolder, fileBaseName, uploadVO.getContentMd5());
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(uploadingFile, "rw");
+             ReadableByteChannel inChannel = Channels.newChannel(fileInputStream))
+        {
+            if (randomAccessFile.length() != fileSize)
+            {
+                randomAccessFile.setLength(fileSize);
+            }
+            FileChannel outChannel = randomAccessFile.getChannel();
+            long written = 0;
+            long len;
+            while (written < chunkLength
+                    && (len = outChannel.transferFrom(inChannel, offset + written, chunkLength - written)) > 0)
+            {
+                written += len;
+            }
+            if (written != chunkLength || fileInputStream.read() != -1)
+            {
+                log.error("upload file {} fail, chunk at {} expect {} bytes, received {} or more", fileBaseName,
+                        offset, chunkLength, written);
+                throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("upload file {} exception", fileBaseName, e);
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+
+        uploadChunkCache.addChunk(
+                uploadChunkCache.uploadKey(uploadVO.getUploadType(), fileBaseName, fileSize, uploadVO.getContentMd5()),
+                uploadVO.getChunk() == null ? 0 : uploadVO.getChunk());
+    }
+
+    /**
+     * 上传中的文件按内容md5区分，不同内容的上传不会写到同一个文件
+     */
+    private File getUploadingFile(String uploadFolder, String fileName, String contentMd5)
+    {
+        return new File(uploadFolder,
+                fileName + "." + contentMd5.toLowerCase() + ScheduleConstants.UPLOADING_FILE_SUFFIX);
+    }
+
+    /**
+     * 按位置写入的分片必须带上文件内容md5，md5同时用作文件名的一部分，只接受32位十六进制
+     */
+    private void checkContentMd5(String contentMd5)
+    {
+        if (!isValidMd5(contentMd5))
+        {
+            log.error("invalid content md5: {}", contentMd5);
+            throw new CodeCCException(CommonMessageCode.PARAMETER_IS_INVALID, new String[]{"contentMd5"}, null);
+        }
+    }
+
+    private boolean isValidMd5(String contentMd5)
+    {
+        return contentMd5 != null && contentMd5.matches("[0-9a-fA-F]{32}");
+    }
+
+    /**
+     * 所有分片都收到后校验md5，再把文件改为正式的文件名
+     */
+    private void completeUpload(FileChunksMergeVO fileChunksMergeVO, File uploadingFile, File targetFile)
+    {
+        String fileBaseName = fileChunksMergeVO.getFileName();
+        Integer chunks = fileChunksMergeVO.getChunks();
+        if (!uploadingFile.isFile() || uploadingFile.length() != fileChunksMergeVO.getFileSize())
+        {
+            log.error("文件[{}]不存在或大小不是{}", uploadingFile.getAbsolutePath(), fileChunksMergeVO.getFileSize());
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+        String uploadKey = uploadChunkCache.uploadKey(fileChunksMergeVO.getUploadType(), fileBaseName,
+                fileChunksMergeVO.getFileSize(), fileChunksMergeVO.getContentMd5());
+        if (chunks == null || !uploadChunkCache.isComplete(uploadKey, chunks))
+        {
+            // 保留已经收到的分片，客户端查询后补传缺少的分片即可
+            log.error("数据分片不完整, 入参分片数chunks={}, 已收到的分片={}", chunks, uploadChunkCache.getChunks(uploadKey));
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+
+        String md5;
+        try (InputStream inputStream = new FileInputStream(uploadingFile))
+        {
+            md5 = DigestUtils.md5Hex(inputStream);
+        }
+        catch (IOException e)
+        {
+            log.error("get md5 of file [{}] fail", uploadingFile.getAbsolutePath(), e);
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+        if (!fileChunksMergeVO.getContentMd5().equalsIgnoreCase(md5))
+        {
+            // 无法知道哪个分片损坏，清理后需要重新上传
+            log.error("文件[{}]校验失败, 期望md5={}, 实际md5={}", fileBaseName, fileChunksMergeVO.getContentMd5(), md5);
+            FileUtils.deleteQuietly(uploadingFile);
+            uploadChunkCache.clear(uploadKey);
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+
+        try
+        {
+            Files.move(uploadingFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            log.error("文件[{}]重命名失败", uploadingFile.getAbsolutePath(), e);
+            throw new CodeCCException(DispatchMessageCode.UPLOAD_FILE_ERR);
+        }
+        uploadChunkCache.clear(uploadKey);
+    }
+
     @NotNull
     private int getCompareChunkNo(File file, String fileBaseName)
     {
@@ -251,68 +434,16 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
         long beginTime = System.currentTimeMillis();
         log.info("begin download: {}", downloadVO);
 
-        String fileName = downloadVO.getFileName();
-        String downloadFolder;
-        if (ScheduleConstants.DownloadType.LAST_RESULT.name().equals(downloadVO.getDownloadType())
-                || ScheduleConstants.DownloadType.GATHER.name().equals(downloadVO.getDownloadType()))
-        {
-            // 获取文件索引
-            FileIndexVO fileIndexVO = getFileIndex(fileName, downloadVO.getDownloadType());
-            downloadFolder = fileIndexVO.getFileFolder();
-        }
-        else
-        {
-            downloadFolder = FOLDER_MAP.get(downloadVO.getDownloadType());
-        }
-
-        File target = new File(downloadFolder, fileName);
-        if (!target.exists())
-        {
-            log.error("{}不存在", target.getAbsolutePath());
-            throw new CodeCCException(DispatchMessageCode.FILE_NOT_EXISTS, new String[]{fileName}, null);
-        }
-
-        if (!target.isFile())
-        {
-            log.error("{}不是一个文件", target.getAbsolutePath());
-            throw new CodeCCException(DispatchMessageCode.NOT_A_FILE, new String[]{fileName}, null);
-        }
-
-        // 一次读40960个字节，如果文件内容不足40960个字节，则读剩下的字节。
-        int bufSize = 40960;
-        Response response;
-
-        // 打开一个随机访问文件流，按只读方式
-        try
-        {
-            RandomAccessFile randomFile = new RandomAccessFile(target, "r");
-            // 将读文件的开始位置移到beginIndex位置。
-            randomFile.seek(downloadVO.getBeginIndex());
-            byte[] bytes = new byte[bufSize];
+        File target = getDownloadFile(downloadVO.getDownloadType(), downloadVO.getFileName());
 
-            StreamingOutput fileStream = output ->
-            {
-                // 请求端传入的需要读取的字节数
-                long btyeSize = downloadVO.getBtyeSize();
-                int len;
-                while ((len = randomFile.read(bytes)) != -1 && btyeSize > 0)
-                {
-                    output.write(bytes, 0, len);
-                    output.flush();
-                    btyeSize -= bufSize;
-                }
-                output.close();
-            };
-            response = Response
-                    .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM_TYPE)
-                    .header("content-disposition", "attachment; filename = " + target.getName())
-                    .build();
-        }
-        catch (IOException e)
-        {
-            log.error("下载文件[{}]异常：", target.getAbsolutePath(), e);
-            throw new CodeCCException(DispatchMessageCode.DOWNLOAD_FILE_ERR, new String[]{fileName}, null);
-        }
+        // 只读取请求端指定的区间，不超出文件末尾
+        long beginIndex = Math.min(Math.max(downloadVO.getBeginIndex(), 0L), target.length());
+        long byteSize = Math.max(Math.min(downloadVO.getBtyeSize(), target.length() - beginIndex), 0L);
+        Response response = Response
+                .ok(FileDownloadUtil.transfer(target, beginIndex, byteSize), MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                .header(HttpHeaders.CONTENT_LENGTH, byteSize)
+                .header("content-disposition", "attachment; filename = " + target.getName())
+                .build();
 
         log.info("end download cost: {}, {}", System.currentTimeMillis() - beginTime, downloadVO);
         return response;
@@ -445,11 +576,68 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
     }
 
     @Override
-    public Response download(String downloadType, String fileName)
+    public Response download(String downloadType, String fileName, String range, String ifNoneMatch)
     {
         long beginTime = System.currentTimeMillis();
-        log.info("begin download, downloadType: {}, fileName: {}", downloadType, fileName);
+        log.info("begin download, downloadType: {}, fileName: {}, range: {}", downloadType, fileName, range);
+
+        File target = getDownloadFile(downloadType, fileName);
+
+        // 文件没有变化时不重复下发
+        String etag = FileDownloadUtil.etag(target);
+        if (FileDownloadUtil.etagMatch(ifNoneMatch, etag))
+        {
+            log.info("end download not modified, downloadType: {}, fileName: {}", downloadType, fileName);
+            return Response.notModified().header(HttpHeaders.ETAG, etag).build();
+        }
+
+        long length = target.length();
+        long[] byteRange = FileDownloadUtil.parseRange(range, length);
+        if (byteRange == FileDownloadUtil.UNSATISFIABLE_RANGE)
+        {
+            log.info("end download range not satisfiable, downloadType: {}, fileName: {}, length: {}", downloadType, fileName, length);
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.ETAG, etag)
+                    .header(CONTENT_RANGE, "bytes */" + length)
+                    .build();
+        }
+
+        Response.ResponseBuilder responseBuilder;
+        if (byteRange == null)
+        {
+            responseBuilder = Response
+                    .ok(FileDownloadUtil.transfer(target, 0L, length), MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header(HttpHeaders.CONTENT_LENGTH, length);
+        }
+        else
+        {
+            long byteSize = byteRange[1] - byteRange[0] + 1;
+            responseBuilder = Response
+                    .status(Response.Status.PARTIAL_CONTENT)
+                    .entity(FileDownloadUtil.transfer(target, byteRange[0], byteSize))
+                    .type(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header(HttpHeaders.CONTENT_LENGTH, byteSize)
+                    .header(CONTENT_RANGE, String.format("bytes %d-%d/%d", byteRange[0], byteRange[1], length));
+        }
+        Response response = responseBuilder
+                .header(ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.ETAG, etag)
+                .header("content-disposition", "attachment; filename = " + target.getName())
+                .build();
 
+        log.info("end download cost: {}, downloadType: {}, fileName: {}", System.currentTimeMillis() - beginTime, downloadType, fileName);
+        return response;
+    }
+
+    /**
+     * 获取待下载的文件，上次分析结果和gather文件通过文件索引定位目录
+     *
+     * @param downloadType 下载类型
+     * @param fileName     文件名
+     * @return
+     */
+    private File getDownloadFile(String downloadType, String fileName)
+    {
         String downloadFolder;
         if (ScheduleConstants.DownloadType.LAST_RESULT.name().equals(downloadType)
                 || ScheduleConstants.DownloadType.GATHER.name().equals(downloadType))
@@ -475,30 +663,7 @@ public class UploadDownloadServiceImpl implements UploadDownloadService
             log.error("{}不是一个文件", target.getAbsolutePath());
             throw new CodeCCException(DispatchMessageCode.NOT_A_FILE, new String[]{fileName}, null);
         }
-
-        // 一次读40960个字节，如果文件内容不足40960个字节，则读剩下的字节。
-        int bufSize = 40960;
-        Response response;
-
-        byte[] bytes = new byte[bufSize];
-        StreamingOutput fileStream = output ->
-        {
-            FileInputStream fileInputStream = new FileInputStream(target);
-            int len;
-            while ((len = fileInputStream.read(bytes)) != -1)
-            {
-                output.write(bytes, 0, len);
-                output.flush();
-            }
-            output.close();
-        };
-        response = Response
-                .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM_TYPE)
-                .header("content-disposition", "attachment; filename = " + target.getName())
-                .build();
-
-        log.info("end download cost: {}, downloadType: {}, fileName: {}", System.currentTimeMillis() - beginTime, downloadType, fileName);
-        return response;
+        return target;
     }
 
     private String getFileMd5(String fileName, File file)
@@ -0,0 +1,183 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.tencent.bk.codecc.schedule.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 文件下载工具类，支持Range断点续传和ETag校验
+ *
+ * @version V1.0
+ */
+public class FileDownloadUtil
+{
+    /**
+     * 无法满足的Range
+     */
+    public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    private static final String RANGE_UNIT_PREFIX = "bytes=";
+
+    /**
+     * 文件的ETag，由文件大小和最后修改时间组成，不需要读取文件内容
+     *
+     * @param file 文件
+     * @return
+     */
+    public static String etag(File file)
+    {
+        return String.format("\"%x-%x\"", file.length(), file.lastModified());
+    }
+
+    /**
+     * 判断If-None-Match是否命中ETag
+     *
+     * @param ifNoneMatch 请求头If-None-Match
+     * @param etag        文件的ETag
+     * @return
+     */
+    public static boolean etagMatch(String ifNoneMatch, String etag)
+    {
+        if (StringUtils.isBlank(ifNoneMatch))
+        {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(","))
+        {
+            String trimTag = tag.trim();
+            if ("*".equals(trimTag) || etag.equals(StringUtils.removeStart(trimTag, "W/")))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析Range请求头，只支持单个区间
+     *
+     * @param range  请求头Range
+     * @param length 文件长度
+     * @return [起始位置, 结束位置]（都包含）；没有Range、多个区间或格式不合法时返回null，表示下载整个文件；
+     * 起始位置超出文件长度时返回 {@link #UNSATISFIABLE_RANGE}
+     */
+    public static long[] parseRange(String range, long length)
+    {
+        if (StringUtils.isBlank(range) || !range.startsWith(RANGE_UNIT_PREFIX))
+        {
+            return null;
+        }
+        String rangeSpec = range.substring(RANGE_UNIT_PREFIX.length()).trim();
+        int dashIndex = rangeSpec.indexOf('-');
+        if (rangeSpec.contains(",") || dashIndex < 0)
+        {
+            return null;
+        }
+
+        String startStr = rangeSpec.substring(0, dashIndex).trim();
+        String endStr = rangeSpec.substring(dashIndex + 1).trim();
+        long start;
+        long end;
+        try
+        {
+            // bytes=-500 表示最后500个字节
+            if (startStr.isEmpty())
+            {
+                if (endStr.isEmpty())
+                {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(endStr);
+                if (suffixLength <= 0)
+                {
+                    return UNSATISFIABLE_RANGE;
+                }
+                start = Math.max(length - suffixLength, 0);
+                end = length - 1;
+            }
+            else
+            {
+                start = Long.parseLong(startStr);
+                end = endStr.isEmpty() ? length - 1 : Long.parseLong(endStr);
+                if (end < start)
+                {
+                    return null;
+                }
+                end = Math.min(end, length - 1);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+
+        if (start >= length)
+        {
+            return UNSATISFIABLE_RANGE;
+        }
+        return new long[]{start, end};
+    }
+
+    /**
+     * 通过FileChannel.transferTo把文件的指定区间写到响应流，只读取请求的区间，不把整个文件读入内存。
+     * 响应流不是FileChannel/SelectableChannel，transferTo不能零拷贝，会经Channels.newChannel包装后的
+     * 堆缓冲区（每次最多8KB）逐段拷贝
+     *
+     * @param file     文件
+     * @param position 起始位置
+     * @param count    字节数
+     * @return
+     */
+    public static StreamingOutput transfer(File file, long position, long count)
+    {
+        return output ->
+        {
+            try (FileChannel fileChannel = new FileInputStream(file).getChannel())
+            {
+                WritableByteChannel outChannel = Channels.newChannel(output);
+                long transferred = 0;
+                while (transferred < count)
+                {
+                    long len = fileChannel.transferTo(position + transferred, count - transferred, outChannel);
+                    // 文件被截断时提前结束
+                    if (len <= 0)
+                    {
+                        break;
+                    }
+                    transferred += len;
+                }
+            }
+            output.flush();
+        };
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Tencent is pleased to support the open source community by making BK-CODECC 蓝鲸代码检查平台 available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company.  All rights reserved.
+ *
+ * BK-CODECC 蓝鲸代码检查平台 is licensed under the MIT license.
+ *
+ * A copy of the MIT License is included in this file.
+ *
+ *
+ * Terms of the MIT License:
+ * ---------------------------------------------------
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT
+ * LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN
+ * NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.tencent.bk.codecc.schedule.dao.redis;
+
+import com.tencent.bk.codecc.schedule.model.AnalyzeHostPoolModel;
+import com.tencent.bk.codecc.schedule.vo.PushVO;
+import com.tencent.devops.common.constant.ComConstants;
+import com.tencent.devops.common.constant.RedisKeyConstants;
+import com.tencent.devops.common.util.JsonUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分析机器调度的压测，需要本地redis（-Dredis.host、-Dredis.port、-Dredis.database，默认 localhost:6379 的 15 号库），连不上时跳过。
+ * 会清空测试库中分析机器相关的key，默认不执行，需要时去掉 @Ignore 手动运行
+ */
+@Ignore("stress test, run manually against a local redis")
+public class AnalyzeHostPoolDaoStressTest
+{
+    private static final int HOST_COUNT = 20;
+
+    private static final int HOST_POOL = 30;
+
+    private static final int THREAD_COUNT = 32;
+
+    private static final int DISPATCH_PER_THREAD = 2000;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+
+    private AnalyzeHostPoolDao analyzeHostPoolDao;
+
+    @Before
+    public void setUp()
+    {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.setHostName(System.getProperty("redis.host", "localhost"));
+        connectionFactory.setPort(Integer.getInteger("redis.port", 6379));
+        connectionFactory.setDatabase(Integer.getInteger("redis.database", 15));
+        connectionFactory.setUsePool(true);
+        connectionFactory.getPoolConfig().setMaxTotal(THREAD_COUNT * 2);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        try
+        {
+            redisTemplate.getConnectionFactory().getConnection().ping();
+        }
+        catch (Exception e)
+        {
+            Assume.assumeNoException("redis is not available", e);
+        }
+
+        clean();
+        Map<String, String> hostMap = new HashMap<>();
+        for (int i = 0; i < HOST_COUNT; i++)
+        {
+            AnalyzeHostPoolModel hostPoolModel = new AnalyzeHostPoolModel();
+            hostPoolModel.setIp("10.0.0." + i);
+            hostPoolModel.setPort("8800");
+            hostPoolModel.setPool(HOST_POOL);
+            hostPoolModel.setIdle(HOST_POOL);
+            hostPoolModel.setSupportTools(new HashSet<>(Collections.singletonList(ComConstants.Tool.COVERITY.name())));
+            hostPoolModel.setSupportTaskTypes(new HashSet<>(Collections.singletonList(ComConstants.BsTaskCreateFrom.BS_CODECC.value())));
+            hostMap.put(hostPoolModel.getIp(), JsonUtil.INSTANCE.toJson(hostPoolModel));
+        }
+        redisTemplate.opsForHash().putAll(RedisKeyConstants.KEY_ANALYZE_HOST, hostMap);
+
+        analyzeHostPoolDao = new AnalyzeHostPoolDao();
+        ReflectionTestUtils.setField(analyzeHostPoolDao, "redisTemplate", redisTemplate);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (analyzeHostPoolDao != null)
+        {
+            clean();
+        }
+        if (connectionFactory != null)
+        {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    public void dispatchThroughput() throws InterruptedException
+    {
+        AtomicLong dispatched = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CountDownLatch latch = new CountDownLatch(THREAD_COUNT);
+
+        long startTime = System.currentTimeMillis();
+        for (int t = 0; t < THREAD_COUNT; t++)
+        {
+            int threadNo = t;
+            executor.execute(() ->
+            {
+                try
+                {
+                    for (int i = 0; i < DISPATCH_PER_THREAD; i++)
+                    {
+                        PushVO pushVO = new PushVO();
+                        pushVO.setToolName(ComConstants.Tool.COVERITY.name());
+                        pushVO.setStreamName("stream_" + threadNo);
+                        pushVO.setBuildId("build_" + threadNo + "_" + i);
+                        AnalyzeHostPoolModel host = analyzeHostPoolDao.getMostIdleHost(pushVO);
+                        if (host == null)
+                        {
+                            continue;
+                        }
+                        dispatched.incrementAndGet();
+                        analyzeHostPoolDao.freeHostThread(pushVO.getToolName(), pushVO.getStreamName(), host.getIp(), pushVO.getBuildId());
+                    }
+                }
+                finally
+                {
+                    latch.countDown();
+                }
+            });
+        }
+        Assert.assertTrue(latch.await(5, TimeUnit.MINUTES));
+        executor.shutdown();
+        long costMillis = Math.max(System.currentTimeMillis() - startTime, 1);
+
+        System.out.println(String.format("dispatch %d jobs with %d threads in %d ms, %.1f dispatch/s",
+                dispatched.get(), THREAD_COUNT, costMillis, dispatched.get() * 1000.0 / costMillis));
+
+        // 所有线程都已经释放，空闲线程数恢复且没有残留的分析任务
+        Assert.assertEquals((long) THREAD_COUNT * DISPATCH_PER_THREAD, dispatched.get());
+        for (AnalyzeHostPoolModel host : analyzeHostPoolDao.getAllAnalyzeHosts())
+        {
+            Assert.assertEquals(HOST_POOL, host.getIdle());
+            Assert.assertTrue(host.getJobList().isEmpty());
+        }
+    }
+
+    @Test
+    public void neverOverAllocate()
+    {
+        // 占满所有机器后不能再分配，释放一个后又能分配
+        List<AnalyzeHostPoolModel> acquired = new ArrayList<>();
+        PushVO pushVO = new PushVO();
+        pushVO.setToolName(ComConstants.Tool.COVERITY.name());
+        pushVO.setStreamName("stream");
+        for (int i = 0; i < HOST_COUNT * HOST_POOL; i++)
+        {
+            pushVO.setBuildId("build_" + i);
+            AnalyzeHostPoolModel host = analyzeHostPoolDao.getMostIdleHost(pushVO);
+            Assert.assertNotNull(host);
+            acquired.add(host);
+        }
+        pushVO.setBuildId("build_full");
+        Assert.assertNull(analyzeHostPoolDao.getMostIdleHost(pushVO));
+
+        AnalyzeHostPoolModel first = acquired.get(0);
+        analyzeHostPoolDao.freeHostThread(pushVO.getToolName(), pushVO.getStreamName(), first.getIp(),
+                first.getJobList().get(0).getBuildId());
+        // 重复释放不会多出空闲线程
+        analyzeHostPoolDao.freeHostThread(pushVO.getToolName(), pushVO.getStreamName(), first.getIp(),
+                first.getJobList().get(0).getBuildId());
+        AnalyzeHostPoolModel host = analyzeHostPoolDao.getMostIdleHost(pushVO);
+        Assert.assertNotNull(host);
+        Assert.assertEquals(first.getIp(), host.getIp());
+        Assert.assertNull(analyzeHostPoolDao.getMostIdleHost(pushVO));
+    }
+
+    private void clean()
+    {
+        Set<String> keys = new HashSet<>(redisTemplate.keys(RedisKeyConstants.PREFIX_ANALYZE_HOST_JOB + "*"));
+        keys.add(RedisKeyConstants.KEY_ANALYZE_HOST);
+        keys.add(RedisKeyConstants.KEY_ANALYZE_HOST_IDLE);
+        keys.add(RedisKeyConstants.KEY_ANALYZE_HOST_SYNCED);
+        redisTemplate.delete(keys);
+    }
+}
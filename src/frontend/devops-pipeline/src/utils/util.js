@@ -199,6 +199,33 @@ export function deepClone (obj) {
     return _obj
 }
 
+/**
+ *  在对象上应用RFC 6902格式的JSON Patch（仅支持add、remove、replace），返回打完补丁的对象
+ *  @param {Object} obj - 需要打补丁的对象，会被直接修改
+ *  @param {Array} patch - 补丁操作列表
+ */
+export function applyJsonPatch (obj, patch) {
+    let root = obj
+    patch.forEach(({ op, path, value }) => {
+        if (path === '') {
+            root = value
+            return
+        }
+        const keys = path.split('/').slice(1).map(key => key.replace(/~1/g, '/').replace(/~0/g, '~'))
+        const last = keys.pop()
+        const parent = keys.reduce((node, key) => (node ? node[key] : undefined), root)
+        if (!parent) return
+        if (op === 'remove' && Array.isArray(parent)) {
+            parent.splice(last, 1)
+        } else if (op === 'remove') {
+            delete parent[last]
+        } else {
+            parent[last] = value
+        }
+    })
+    return root
+}
+
 /**
  *  将字符串去掉指定内容之后转成数字
  *  @param {String} str - 需要转换的字符串
@@ -69,6 +69,7 @@ CREATE TABLE IF NOT EXISTS `T_PIPELINE_BUILD_DETAIL` (
   `END_TIME` datetime DEFAULT NULL,
   `STATUS` varchar(32) DEFAULT NULL,
   `CANCEL_USER` varchar(32) DEFAULT NULL,
+  `FENCE_TOKEN` bigint(20) DEFAULT NULL,
   PRIMARY KEY (`BUILD_ID`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
@@ -61,6 +61,15 @@ BEGIN
             ADD COLUMN `MAX_PIPELINE_RES_NUM` int(11) DEFAULT '50' COLLATE utf8mb4_bin;
     END IF;
 
+    IF NOT EXISTS(SELECT 1
+                  FROM information_schema.COLUMNS
+                  WHERE TABLE_SCHEMA = db
+                    AND TABLE_NAME = 'T_PIPELINE_BUILD_DETAIL'
+                    AND COLUMN_NAME = 'FENCE_TOKEN') THEN
+        ALTER TABLE T_PIPELINE_BUILD_DETAIL
+            ADD COLUMN `FENCE_TOKEN` bigint(20) DEFAULT NULL;
+    END IF;
+
 
     COMMIT;
 END <CI_UBF>